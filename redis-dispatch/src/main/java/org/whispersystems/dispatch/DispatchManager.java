@@ -4,77 +4,103 @@
  */
 package org.whispersystems.dispatch;
 
+import io.micrometer.core.instrument.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.whispersystems.dispatch.OrderedDispatchExecutor.OverflowPolicy;
 import org.whispersystems.dispatch.io.RedisPubSubConnectionFactory;
 import org.whispersystems.dispatch.redis.PubSubConnection;
 import org.whispersystems.dispatch.redis.PubSubReply;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
 public class DispatchManager extends Thread {
 
+  private static final int            DEFAULT_WORKER_COUNT     = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+  private static final int            DEFAULT_MAX_QUEUE_DEPTH  = 10_000;
+  private static final OverflowPolicy DEFAULT_OVERFLOW_POLICY  = OverflowPolicy.BLOCK;
+
+  private static final int            MAX_SUBSCRIPTION_BATCH   = 1_000;
+
   private final Logger                       logger        = LoggerFactory.getLogger(DispatchManager.class);
-  private final Executor                     executor      = Executors.newCachedThreadPool();
   private final Map<String, DispatchChannel> subscriptions = new ConcurrentHashMap<>();
 
   private final Optional<DispatchChannel>    deadLetterChannel;
   private final RedisPubSubConnectionFactory redisPubSubConnectionFactory;
+  private final OrderedDispatchExecutor      executor;
+
+  /**
+   * Names of channels whose subscription state has changed since it was last written to Redis. The subscription writer
+   * thread compares each against {@link #subscriptions} and sends whichever command brings Redis up to date, so callers
+   * never wait on the socket and rapid subscribe/unsubscribe churn collapses into a single command.
+   */
+  private final BlockingQueue<String>        pendingSubscriptionChanges = new LinkedBlockingQueue<>();
+  private final Thread                       subscriptionWriter;
 
-  private          PubSubConnection pubSubConnection;
+  private volatile PubSubConnection pubSubConnection;
   private volatile boolean          running;
 
   public DispatchManager(RedisPubSubConnectionFactory redisPubSubConnectionFactory,
                          Optional<DispatchChannel> deadLetterChannel)
+  {
+    this(redisPubSubConnectionFactory, deadLetterChannel, DEFAULT_WORKER_COUNT, DEFAULT_MAX_QUEUE_DEPTH, DEFAULT_OVERFLOW_POLICY);
+  }
+
+  public DispatchManager(RedisPubSubConnectionFactory redisPubSubConnectionFactory,
+                         Optional<DispatchChannel> deadLetterChannel,
+                         int workerCount,
+                         int maxQueueDepth,
+                         OverflowPolicy overflowPolicy)
   {
     this.redisPubSubConnectionFactory = redisPubSubConnectionFactory;
     this.deadLetterChannel            = deadLetterChannel;
+    this.executor                     = new OrderedDispatchExecutor("dispatch", workerCount, maxQueueDepth, overflowPolicy, Metrics.globalRegistry);
+    this.subscriptionWriter           = new Thread(this::writeSubscriptionChanges, "DispatchManagerSubscriptionWriter");
+    this.subscriptionWriter.setDaemon(true);
   }
 
   @Override
   public void start() {
     this.pubSubConnection = redisPubSubConnectionFactory.connect();
     this.running          = true;
+    this.subscriptionWriter.start();
     super.start();
   }
 
   public void shutdown() {
     this.running = false;
+    this.subscriptionWriter.interrupt();
     this.pubSubConnection.close();
-  }
-
-  public synchronized void subscribe(String name, DispatchChannel dispatchChannel) {
-    Optional<DispatchChannel> previous = Optional.ofNullable(subscriptions.get(name));
-    subscriptions.put(name, dispatchChannel);
 
     try {
-      pubSubConnection.subscribe(name);
-    } catch (IOException e) {
-      logger.warn("Subscription error", e);
+      this.executor.shutdown(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
-
-    previous.ifPresent(channel -> dispatchUnsubscription(name, channel));
   }
 
-  public synchronized void unsubscribe(String name, DispatchChannel channel) {
-    Optional<DispatchChannel> subscription = Optional.ofNullable(subscriptions.get(name));
+  public void subscribe(String name, DispatchChannel dispatchChannel) {
+    Optional<DispatchChannel> previous = Optional.ofNullable(subscriptions.put(name, dispatchChannel));
+    pendingSubscriptionChanges.add(name);
 
-    if (subscription.isPresent() && subscription.get() == channel) {
-      subscriptions.remove(name);
-
-      try {
-        pubSubConnection.unsubscribe(name);
-      } catch (IOException e) {
-        logger.warn("Unsubscribe error", e);
-      }
+    previous.ifPresent(channel -> dispatchUnsubscription(name, channel));
+  }
 
-      dispatchUnsubscription(name, subscription.get());
+  public void unsubscribe(String name, DispatchChannel channel) {
+    if (subscriptions.remove(name, channel)) {
+      pendingSubscriptionChanges.add(name);
+      dispatchUnsubscription(name, channel);
     }
   }
 
@@ -130,28 +156,55 @@ public class DispatchManager extends Thread {
   }
 
   private void resubscribeAll() {
-    new Thread(() -> {
-      synchronized (DispatchManager.this) {
-        try {
-          for (String name : subscriptions.keySet()) {
-            pubSubConnection.subscribe(name);
-          }
-        } catch (IOException e) {
-          logger.warn("***** RESUBSCRIPTION ERROR *****", e);
+    pendingSubscriptionChanges.addAll(subscriptions.keySet());
+  }
+
+  private void writeSubscriptionChanges() {
+    final List<String> changed = new ArrayList<>();
+
+    while (running) {
+      try {
+        changed.add(pendingSubscriptionChanges.take());
+        pendingSubscriptionChanges.drainTo(changed);
+      } catch (InterruptedException e) {
+        continue;
+      }
+
+      final Set<String> distinct = new LinkedHashSet<>(changed);
+      changed.clear();
+
+      final List<String> subscribe   = new ArrayList<>();
+      final List<String> unsubscribe = new ArrayList<>();
+
+      for (String name : distinct) {
+        if (subscriptions.containsKey(name)) subscribe.add(name);
+        else                                 unsubscribe.add(name);
+      }
+
+      try {
+        for (int i = 0; i < subscribe.size(); i += MAX_SUBSCRIPTION_BATCH) {
+          pubSubConnection.subscribe(subscribe.subList(i, Math.min(i + MAX_SUBSCRIPTION_BATCH, subscribe.size())));
         }
+
+        for (int i = 0; i < unsubscribe.size(); i += MAX_SUBSCRIPTION_BATCH) {
+          pubSubConnection.unsubscribe(unsubscribe.subList(i, Math.min(i + MAX_SUBSCRIPTION_BATCH, unsubscribe.size())));
+        }
+      } catch (IOException e) {
+        // The reader thread will reconnect and resubscribe to everything
+        logger.warn("Subscription error", e);
       }
-    }).start();
+    }
   }
 
   private void dispatchMessage(final String name, final DispatchChannel channel, final byte[] message) {
-    executor.execute(() -> channel.onDispatchMessage(name, message));
+    executor.execute(name, () -> channel.onDispatchMessage(name, message));
   }
 
   private void dispatchSubscription(final String name, final DispatchChannel channel) {
-    executor.execute(() -> channel.onDispatchSubscribed(name));
+    executor.execute(name, () -> channel.onDispatchSubscribed(name));
   }
 
   private void dispatchUnsubscription(final String name, final DispatchChannel channel) {
-    executor.execute(() -> channel.onDispatchUnsubscribed(name));
+    executor.execute(name, () -> channel.onDispatchUnsubscribed(name));
   }
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2013-2020 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.whispersystems.dispatch;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs dispatch callbacks on a fixed set of worker threads. Each worker drains its own bounded queue, and every task
+ * for a given key is routed to the same worker, so callbacks for a single channel run one at a time and in the order
+ * they were submitted. What happens when a worker's queue is full is governed by an {@link OverflowPolicy}.
+ */
+public class OrderedDispatchExecutor {
+
+  private final Logger logger = LoggerFactory.getLogger(OrderedDispatchExecutor.class);
+
+  private static final String QUEUE_DEPTH_GAUGE_NAME    = OrderedDispatchExecutor.class.getName() + ".queueDepth";
+  private static final String QUEUE_LATENCY_TIMER_NAME  = OrderedDispatchExecutor.class.getName() + ".queueLatency";
+  private static final String DROPPED_TASK_COUNTER_NAME = OrderedDispatchExecutor.class.getName() + ".droppedTask";
+
+  private static final long WORKER_POLL_MILLIS = 100;
+
+  public enum OverflowPolicy {
+    /** Block the submitting thread until the worker's queue has room. */
+    BLOCK,
+    /** Discard the task being submitted. */
+    DROP_NEWEST,
+    /** Discard the oldest queued task for the worker to make room. */
+    DROP_OLDEST
+  }
+
+  private final BlockingQueue<QueuedTask>[] queues;
+  private final Thread[]                    workers;
+  private final OverflowPolicy              overflowPolicy;
+  private final Timer                       queueLatencyTimer;
+  private final Counter                     droppedTaskCounter;
+
+  private volatile boolean running = true;
+
+  @SuppressWarnings("unchecked")
+  public OrderedDispatchExecutor(String name, int workerCount, int maxQueueDepth, OverflowPolicy overflowPolicy,
+      MeterRegistry meterRegistry) {
+
+    if (workerCount < 1 || maxQueueDepth < 1) {
+      throw new IllegalArgumentException("Worker count and queue depth must be positive");
+    }
+
+    this.queues         = new BlockingQueue[workerCount];
+    this.workers        = new Thread[workerCount];
+    this.overflowPolicy = overflowPolicy;
+
+    this.queueLatencyTimer  = Timer.builder(QUEUE_LATENCY_TIMER_NAME).tag("executor", name).register(meterRegistry);
+    this.droppedTaskCounter = Counter.builder(DROPPED_TASK_COUNTER_NAME).tag("executor", name).register(meterRegistry);
+
+    Gauge.builder(QUEUE_DEPTH_GAUGE_NAME, this, OrderedDispatchExecutor::getQueueDepth)
+        .tag("executor", name)
+        .register(meterRegistry);
+
+    for (int i = 0; i < workerCount; i++) {
+      final BlockingQueue<QueuedTask> queue = new ArrayBlockingQueue<>(maxQueueDepth);
+
+      queues[i]  = queue;
+      workers[i] = new Thread(() -> processQueue(queue), name + "-" + i);
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  }
+
+  public void execute(String key, Runnable task) {
+    final int                       index  = Math.floorMod(spread(key.hashCode()), queues.length);
+    final BlockingQueue<QueuedTask> queue  = queues[index];
+    final QueuedTask                queued = new QueuedTask(task, System.nanoTime());
+
+    if (queue.offer(queued)) {
+      return;
+    }
+
+    if (Thread.currentThread() == workers[index]) {
+      // A callback submitting work to its own full queue would wait on itself forever; run the task in place instead.
+      runTask(queued);
+      return;
+    }
+
+    switch (overflowPolicy) {
+      case BLOCK:
+        try {
+          queue.put(queued);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          droppedTaskCounter.increment();
+        }
+        break;
+
+      case DROP_NEWEST:
+        droppedTaskCounter.increment();
+        break;
+
+      case DROP_OLDEST:
+        while (!queue.offer(queued)) {
+          if (queue.poll() != null) {
+            droppedTaskCounter.increment();
+          }
+        }
+        break;
+
+      default:
+        throw new AssertionError("Unknown overflow policy: " + overflowPolicy);
+    }
+  }
+
+  public int getQueueDepth() {
+    int depth = 0;
+
+    for (BlockingQueue<QueuedTask> queue : queues) {
+      depth += queue.size();
+    }
+
+    return depth;
+  }
+
+  /**
+   * Stops accepting new work once queued tasks have drained and waits up to the given time for workers to finish.
+   */
+  public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+    running = false;
+
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+    for (Thread worker : workers) {
+      worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+    }
+  }
+
+  private void processQueue(BlockingQueue<QueuedTask> queue) {
+    while (running || !queue.isEmpty()) {
+      try {
+        QueuedTask task = queue.poll(WORKER_POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+        if (task != null) {
+          runTask(task);
+        }
+      } catch (InterruptedException e) {
+        logger.warn("Dispatch worker interrupted", e);
+      }
+    }
+  }
+
+  private void runTask(QueuedTask task) {
+    queueLatencyTimer.record(System.nanoTime() - task.enqueuedNanos, TimeUnit.NANOSECONDS);
+
+    try {
+      task.runnable.run();
+    } catch (Throwable t) {
+      logger.warn("Dispatch task failed", t);
+    }
+  }
+
+  private static int spread(int hashCode) {
+    return hashCode ^ (hashCode >>> 16);
+  }
+
+  private static class QueuedTask {
+
+    private final Runnable runnable;
+    private final long     enqueuedNanos;
+
+    private QueuedTask(Runnable runnable, long enqueuedNanos) {
+      this.runnable      = runnable;
+      this.enqueuedNanos = enqueuedNanos;
+    }
+  }
+}
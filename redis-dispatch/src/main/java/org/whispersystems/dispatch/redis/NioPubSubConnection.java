@@ -0,0 +1,239 @@
+/*
+ * Copyright 2013-2020 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.whispersystems.dispatch.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.dispatch.redis.protocol.PubSubReplyParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A pub/sub connection backed by a non-blocking {@link SocketChannel}. Replies are parsed in place out of a single
+ * reusable read buffer, and subscription commands are queued and written whenever the socket can accept them, so
+ * callers never block on a slow server. Both the read buffer and the backlog of unwritten commands are capped; a
+ * connection that exceeds either cap fails with an {@link IOException} and should be replaced.
+ */
+public class NioPubSubConnection implements PubSubConnection {
+
+  private final Logger logger = LoggerFactory.getLogger(NioPubSubConnection.class);
+
+  private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+  private static final byte[] SUBSCRIBE_COMMAND   = "SUBSCRIBE".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] UNSUBSCRIBE_COMMAND = "UNSUBSCRIBE".getBytes(StandardCharsets.US_ASCII);
+
+  private final SocketChannel     channel;
+  private final Selector          selector;
+  private final SelectionKey      selectionKey;
+  private final PubSubReplyParser parser = new PubSubReplyParser();
+  private final int               initialBufferSize;
+  private final int               maxBufferSize;
+  private final AtomicBoolean     closed = new AtomicBoolean(false);
+
+  private final Queue<ByteBuffer> pendingWrites = new ArrayDeque<>();
+  private       int               pendingWriteBytes;
+
+  private ByteBuffer readBuffer;
+
+  public static NioPubSubConnection open(String host, int port, int maxBufferSize) throws IOException {
+    SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+
+    try {
+      return new NioPubSubConnection(channel, maxBufferSize);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  public NioPubSubConnection(SocketChannel channel, int maxBufferSize) throws IOException {
+    this.channel           = channel;
+    this.maxBufferSize     = maxBufferSize;
+    this.initialBufferSize = Math.min(DEFAULT_BUFFER_SIZE, maxBufferSize);
+    this.readBuffer        = ByteBuffer.allocate(initialBufferSize).flip();
+
+    this.channel.configureBlocking(false);
+    this.selector     = Selector.open();
+    this.selectionKey = channel.register(selector, SelectionKey.OP_READ);
+  }
+
+  @Override
+  public void subscribe(String channelName) throws IOException {
+    subscribe(List.of(channelName));
+  }
+
+  @Override
+  public void unsubscribe(String channelName) throws IOException {
+    unsubscribe(List.of(channelName));
+  }
+
+  @Override
+  public void subscribe(Collection<String> channelNames) throws IOException {
+    if (!channelNames.isEmpty()) {
+      write(encodeCommand(SUBSCRIBE_COMMAND, channelNames));
+    }
+  }
+
+  @Override
+  public void unsubscribe(Collection<String> channelNames) throws IOException {
+    if (!channelNames.isEmpty()) {
+      write(encodeCommand(UNSUBSCRIBE_COMMAND, channelNames));
+    }
+  }
+
+  @Override
+  public PubSubReply read() throws IOException {
+    try {
+      while (true) {
+        if (closed.get()) throw new IOException("Connection closed!");
+
+        PubSubReply reply = parser.parse(readBuffer);
+
+        if (reply != null) {
+          return reply;
+        }
+
+        prepareForRead();
+
+        selector.select();
+        selector.selectedKeys().clear();
+
+        if (closed.get()) throw new IOException("Connection closed!");
+
+        if (selectionKey.isWritable()) {
+          flushPendingWrites();
+        }
+
+        if (selectionKey.isReadable() && channel.read(readBuffer) < 0) {
+          throw new IOException("Stream closed!");
+        }
+
+        readBuffer.flip();
+      }
+    } catch (ClosedSelectorException e) {
+      throw new IOException("Connection closed!", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (closed.compareAndSet(false, true)) {
+      try {
+        selector.close();
+        channel.close();
+      } catch (IOException e) {
+        logger.warn("Exception while closing", e);
+      }
+    }
+  }
+
+  /**
+   * Switches the read buffer to write mode, making room for more data by discarding consumed bytes and, if a single
+   * reply fills the whole buffer, growing it up to the configured cap. A buffer that grew to hold a large reply is
+   * swapped back for a small one once it drains.
+   */
+  private void prepareForRead() throws IOException {
+    if (!readBuffer.hasRemaining() && readBuffer.capacity() > initialBufferSize) {
+      readBuffer = ByteBuffer.allocate(initialBufferSize);
+      return;
+    }
+
+    readBuffer.compact();
+
+    if (!readBuffer.hasRemaining()) {
+      if (readBuffer.capacity() >= maxBufferSize) {
+        throw new IOException("Reply exceeds maximum buffer size of " + maxBufferSize + " bytes");
+      }
+
+      ByteBuffer expanded = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, maxBufferSize));
+      readBuffer.flip();
+      expanded.put(readBuffer);
+      readBuffer = expanded;
+    }
+  }
+
+  private void write(ByteBuffer command) throws IOException {
+    synchronized (pendingWrites) {
+      if (closed.get()) throw new IOException("Connection closed!");
+
+      if (pendingWrites.isEmpty()) {
+        channel.write(command);
+      }
+
+      if (command.hasRemaining()) {
+        if (pendingWriteBytes + command.remaining() > maxBufferSize) {
+          throw new IOException("Write backlog exceeds maximum buffer size of " + maxBufferSize + " bytes");
+        }
+
+        pendingWrites.add(command);
+        pendingWriteBytes += command.remaining();
+
+        selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        selector.wakeup();
+      }
+    }
+  }
+
+  private void flushPendingWrites() throws IOException {
+    synchronized (pendingWrites) {
+      ByteBuffer pending;
+
+      while ((pending = pendingWrites.peek()) != null) {
+        pendingWriteBytes -= channel.write(pending);
+
+        if (pending.hasRemaining()) {
+          return;
+        }
+
+        pendingWrites.remove();
+      }
+
+      selectionKey.interestOps(SelectionKey.OP_READ);
+    }
+  }
+
+  private static ByteBuffer encodeCommand(byte[] command, Collection<String> arguments) {
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+
+    writeLine(encoded, '*', arguments.size() + 1);
+    writeBulkString(encoded, command);
+
+    for (String argument : arguments) {
+      writeBulkString(encoded, argument.getBytes(StandardCharsets.UTF_8));
+    }
+
+    return ByteBuffer.wrap(encoded.toByteArray());
+  }
+
+  private static void writeBulkString(ByteArrayOutputStream out, byte[] value) {
+    writeLine(out, '$', value.length);
+    out.write(value, 0, value.length);
+    out.write('\r');
+    out.write('\n');
+  }
+
+  private static void writeLine(ByteArrayOutputStream out, char type, int value) {
+    out.write(type);
+
+    byte[] digits = Integer.toString(value).getBytes(StandardCharsets.US_ASCII);
+    out.write(digits, 0, digits.length);
+    out.write('\r');
+    out.write('\n');
+  }
+}
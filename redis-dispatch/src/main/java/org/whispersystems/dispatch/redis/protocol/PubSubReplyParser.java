@@ -0,0 +1,213 @@
+/*
+ * Copyright 2013-2020 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.whispersystems.dispatch.redis.protocol;
+
+import org.whispersystems.dispatch.redis.PubSubReply;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * Incrementally parses pub/sub replies (RESP2 arrays or RESP3 pushes) directly out of a {@link ByteBuffer}. Nothing is
+ * copied out of the buffer until a complete reply is available, at which point only the channel name and message body
+ * are materialized. If the buffer does not yet hold a complete reply, {@link #parse(ByteBuffer)} returns {@code null}
+ * and leaves the buffer's position untouched so the caller can read more data and try again.
+ * <p>
+ * Instances keep a cursor between method calls and are not thread-safe.
+ */
+public class PubSubReplyParser {
+
+  private static final byte[] UNSUBSCRIBE_TYPE = {'u', 'n', 's', 'u', 'b', 's', 'c', 'r', 'i', 'b', 'e'};
+  private static final byte[] SUBSCRIBE_TYPE   = {'s', 'u', 'b', 's', 'c', 'r', 'i', 'b', 'e'          };
+  private static final byte[] MESSAGE_TYPE     = {'m', 'e', 's', 's', 'a', 'g', 'e'                    };
+
+  private static final long INCOMPLETE = Long.MIN_VALUE;
+
+  private int cursor;
+  private int bulkOffset;
+  private int bulkLength;
+
+  public PubSubReply parse(ByteBuffer buffer) throws IOException {
+    cursor = buffer.position();
+
+    PubSubReply reply = parseReply(buffer);
+
+    if (reply != null) {
+      buffer.position(cursor);
+    }
+
+    return reply;
+  }
+
+  private PubSubReply parseReply(ByteBuffer buffer) throws IOException {
+    if (cursor >= buffer.limit()) {
+      return null;
+    }
+
+    byte type = buffer.get(cursor++);
+
+    if (type == '-') {
+      int  errorOffset = cursor;
+      long errorLength = readLine(buffer);
+
+      if (errorLength == INCOMPLETE) return null;
+
+      throw new IOException("Error reply: " + decode(buffer, errorOffset, (int) errorLength));
+    }
+
+    if (type != '*' && type != '>') {
+      throw new IOException("Invalid array reply header type: " + (char) type);
+    }
+
+    long elementCount = readNumber(buffer);
+
+    if (elementCount == INCOMPLETE) return null;
+
+    if (elementCount != 3) {
+      throw new IOException("Received array reply header with strange count: " + elementCount);
+    }
+
+    if (!readBulkString(buffer)) return null;
+
+    int replyTypeOffset = bulkOffset;
+    int replyTypeLength = bulkLength;
+
+    if (!readBulkString(buffer)) return null;
+
+    int channelOffset = bulkOffset;
+    int channelLength = bulkLength;
+
+    if (regionEquals(buffer, replyTypeOffset, replyTypeLength, MESSAGE_TYPE)) {
+      if (!readBulkString(buffer)) return null;
+
+      byte[] message = new byte[bulkLength];
+      buffer.get(bulkOffset, message);
+
+      return new PubSubReply(PubSubReply.Type.MESSAGE, decode(buffer, channelOffset, channelLength), Optional.of(message));
+    }
+
+    PubSubReply.Type replyType;
+
+    if      (regionEquals(buffer, replyTypeOffset, replyTypeLength, SUBSCRIBE_TYPE))   replyType = PubSubReply.Type.SUBSCRIBE;
+    else if (regionEquals(buffer, replyTypeOffset, replyTypeLength, UNSUBSCRIBE_TYPE)) replyType = PubSubReply.Type.UNSUBSCRIBE;
+    else throw new IOException("Unknown reply type: " + decode(buffer, replyTypeOffset, replyTypeLength));
+
+    if (cursor >= buffer.limit()) return null;
+
+    byte countType = buffer.get(cursor++);
+
+    if (countType != ':') {
+      throw new IOException("Invalid int reply type: " + (char) countType);
+    }
+
+    if (readNumber(buffer) == INCOMPLETE) return null;
+
+    return new PubSubReply(replyType, decode(buffer, channelOffset, channelLength), Optional.empty());
+  }
+
+  private boolean readBulkString(ByteBuffer buffer) throws IOException {
+    if (cursor >= buffer.limit()) return false;
+
+    byte type = buffer.get(cursor++);
+
+    if (type != '$') {
+      throw new IOException("Invalid string reply header type: " + (char) type);
+    }
+
+    long length = readNumber(buffer);
+
+    if (length == INCOMPLETE) return false;
+
+    if (length < 0) {
+      throw new IOException("Invalid string reply length: " + length);
+    }
+
+    if (buffer.limit() - cursor < length + 2) return false;
+
+    bulkOffset = cursor;
+    bulkLength = (int) length;
+    cursor    += bulkLength;
+
+    if (buffer.get(cursor) != '\r' || buffer.get(cursor + 1) != '\n') {
+      throw new IOException("String reply not terminated by CRLF");
+    }
+
+    cursor += 2;
+    return true;
+  }
+
+  private long readNumber(ByteBuffer buffer) throws IOException {
+    int     limit    = buffer.limit();
+    boolean negative = false;
+    long    value    = 0;
+    int     digits   = 0;
+
+    if (cursor < limit && buffer.get(cursor) == '-') {
+      negative = true;
+      cursor++;
+    }
+
+    while (cursor < limit) {
+      byte b = buffer.get(cursor);
+
+      if (b == '\r') {
+        if (cursor + 1 >= limit) return INCOMPLETE;
+
+        if (buffer.get(cursor + 1) != '\n' || digits == 0) {
+          throw new IOException("Invalid number in reply");
+        }
+
+        cursor += 2;
+        return negative ? -value : value;
+      }
+
+      if (b < '0' || b > '9' || ++digits > 18) {
+        throw new IOException("Invalid number in reply");
+      }
+
+      value = value * 10 + (b - '0');
+      cursor++;
+    }
+
+    return INCOMPLETE;
+  }
+
+  private long readLine(ByteBuffer buffer) {
+    int start = cursor;
+    int limit = buffer.limit();
+
+    for (int i = start; i + 1 < limit; i++) {
+      if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n') {
+        cursor = i + 2;
+        return i - start;
+      }
+    }
+
+    return INCOMPLETE;
+  }
+
+  private static boolean regionEquals(ByteBuffer buffer, int offset, int length, byte[] expected) {
+    if (length != expected.length) return false;
+
+    for (int i = 0; i < length; i++) {
+      if (buffer.get(offset + i) != expected[i]) return false;
+    }
+
+    return true;
+  }
+
+  private static String decode(ByteBuffer buffer, int offset, int length) {
+    if (buffer.hasArray()) {
+      return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+    }
+
+    byte[] bytes = new byte[length];
+    buffer.get(offset, bytes);
+
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -15,11 +15,24 @@ import org.whispersystems.dispatch.redis.PubSubConnection;
 import org.whispersystems.dispatch.redis.PubSubReply;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.timeout;
@@ -112,6 +125,135 @@ public class DispatchManagerTest {
     assertArrayEquals("there".getBytes(), captor.getValue());
   }
 
+  @Test
+  public void testSubscribeDoesNotBlockOnConnection() throws Exception {
+    final CountDownLatch writeBlocked = new CountDownLatch(1);
+    final CountDownLatch releaseWrite = new CountDownLatch(1);
+
+    doAnswer(invocation -> {
+      writeBlocked.countDown();
+      releaseWrite.await();
+      return null;
+    }).when(pubSubConnection).subscribe(anyCollection());
+
+    dispatchManager.subscribe("foo", mock(DispatchChannel.class));
+    assertTrue(writeBlocked.await(1, TimeUnit.SECONDS));
+
+    // The first write is stuck, but further subscriptions still return immediately
+    for (int i = 0; i < 100; i++) {
+      dispatchManager.subscribe("bar" + i, mock(DispatchChannel.class));
+    }
+
+    releaseWrite.countDown();
+
+    ArgumentCaptor<Collection<String>> captor = ArgumentCaptor.forClass(Collection.class);
+    verify(pubSubConnection, timeout(1000).times(2)).subscribe(captor.capture());
+
+    assertEquals(List.of("foo"), new ArrayList<>(captor.getAllValues().get(0)));
+    assertEquals(100, captor.getAllValues().get(1).size());
+  }
+
+  @Test(timeout = 60_000)
+  public void testManyChannelsStress() throws Exception {
+    final int channelCount       = 100_000;
+    final int messagesPerChannel = 5;
+
+    final ScriptedPubSubConnection connection      = new ScriptedPubSubConnection();
+    final DispatchManager          manager         = new DispatchManager(() -> connection, Optional.empty());
+    final AtomicIntegerArray       lastSequence    = new AtomicIntegerArray(channelCount);
+    final AtomicInteger            outOfOrder      = new AtomicInteger();
+    final CountDownLatch           delivered       = new CountDownLatch(channelCount * (messagesPerChannel + 1));
+
+    final DispatchChannel channel = new DispatchChannel() {
+      @Override
+      public void onDispatchMessage(String name, byte[] message) {
+        final int index    = Integer.parseInt(name);
+        final int sequence = ByteBuffer.wrap(message).getInt();
+
+        if (!lastSequence.compareAndSet(index, sequence - 1, sequence)) {
+          outOfOrder.incrementAndGet();
+        }
+
+        delivered.countDown();
+      }
+
+      @Override
+      public void onDispatchSubscribed(String name) {
+        delivered.countDown();
+      }
+
+      @Override
+      public void onDispatchUnsubscribed(String name) {
+      }
+    };
+
+    for (int i = 0; i < channelCount; i++) {
+      lastSequence.set(i, 0);
+    }
+
+    manager.start();
+
+    try {
+      for (int i = 0; i < channelCount; i++) {
+        manager.subscribe(String.valueOf(i), channel);
+      }
+
+      for (int i = 0; i < channelCount; i++) {
+        connection.replies.add(new PubSubReply(PubSubReply.Type.SUBSCRIBE, String.valueOf(i), Optional.empty()));
+      }
+
+      for (int sequence = 1; sequence <= messagesPerChannel; sequence++) {
+        for (int i = 0; i < channelCount; i++) {
+          connection.replies.add(new PubSubReply(PubSubReply.Type.MESSAGE, String.valueOf(i),
+              Optional.of(ByteBuffer.allocate(4).putInt(sequence).array())));
+        }
+      }
+
+      assertTrue(delivered.await(50, TimeUnit.SECONDS));
+      assertEquals(0, outOfOrder.get());
+      assertEquals(channelCount, connection.subscribedChannels.get());
+    } finally {
+      manager.shutdown();
+    }
+  }
+
+  private static class ScriptedPubSubConnection implements PubSubConnection {
+
+    private final BlockingQueue<PubSubReply> replies            = new LinkedBlockingQueue<>();
+    private final AtomicInteger              subscribedChannels = new AtomicInteger();
+
+    @Override
+    public void subscribe(String channelName) {
+      subscribedChannels.incrementAndGet();
+    }
+
+    @Override
+    public void subscribe(Collection<String> channelNames) {
+      subscribedChannels.addAndGet(channelNames.size());
+    }
+
+    @Override
+    public void unsubscribe(String channelName) {
+    }
+
+    @Override
+    public void unsubscribe(Collection<String> channelNames) {
+    }
+
+    @Override
+    public PubSubReply read() throws IOException {
+      try {
+        return replies.take();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
   private static class PubSubReplyInputStream {
 
     private final List<PubSubReply> pubSubReplyList = new LinkedList<>();
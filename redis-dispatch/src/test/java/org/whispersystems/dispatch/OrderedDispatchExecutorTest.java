@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013-2020 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.whispersystems.dispatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.dispatch.OrderedDispatchExecutor.OverflowPolicy;
+
+public class OrderedDispatchExecutorTest {
+
+  private SimpleMeterRegistry     meterRegistry;
+  private OrderedDispatchExecutor executor;
+
+  @Before
+  public void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (executor != null) {
+      executor.shutdown(5, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void testPerKeyOrdering() throws InterruptedException {
+    executor = new OrderedDispatchExecutor("test", 8, 100_000, OverflowPolicy.BLOCK, meterRegistry);
+
+    final int                         keyCount    = 1_000;
+    final int                         tasksPerKey = 100;
+    final Map<String, List<Integer>>  results     = new ConcurrentHashMap<>();
+    final CountDownLatch              done        = new CountDownLatch(keyCount * tasksPerKey);
+
+    for (int i = 0; i < tasksPerKey; i++) {
+      for (int key = 0; key < keyCount; key++) {
+        final String name     = "key" + key;
+        final int    sequence = i;
+
+        executor.execute(name, () -> {
+          results.computeIfAbsent(name, ignored -> Collections.synchronizedList(new ArrayList<>())).add(sequence);
+          done.countDown();
+        });
+      }
+    }
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+
+    for (List<Integer> sequences : results.values()) {
+      for (int i = 0; i < tasksPerKey; i++) {
+        assertEquals(i, (int) sequences.get(i));
+      }
+    }
+
+    assertEquals(keyCount * tasksPerKey, meterRegistry.get(OrderedDispatchExecutor.class.getName() + ".queueLatency").timer().count());
+  }
+
+  @Test
+  public void testDropNewest() throws InterruptedException {
+    executor = new OrderedDispatchExecutor("test", 1, 2, OverflowPolicy.DROP_NEWEST, meterRegistry);
+
+    final CountDownLatch blocker = new CountDownLatch(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final List<Integer>  ran     = Collections.synchronizedList(new ArrayList<>());
+
+    executor.execute("key", () -> {
+      started.countDown();
+      awaitUninterruptibly(blocker);
+    });
+
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    for (int i = 0; i < 5; i++) {
+      final int sequence = i;
+      executor.execute("key", () -> ran.add(sequence));
+    }
+
+    assertEquals(2, executor.getQueueDepth());
+    assertEquals(2.0, getGaugeValue(), 0.0);
+
+    blocker.countDown();
+    executor.shutdown(5, TimeUnit.SECONDS);
+
+    assertEquals(List.of(0, 1), ran);
+    assertEquals(3.0, getDroppedCount(), 0.0);
+  }
+
+  @Test
+  public void testDropOldest() throws InterruptedException {
+    executor = new OrderedDispatchExecutor("test", 1, 2, OverflowPolicy.DROP_OLDEST, meterRegistry);
+
+    final CountDownLatch blocker = new CountDownLatch(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final List<Integer>  ran     = Collections.synchronizedList(new ArrayList<>());
+
+    executor.execute("key", () -> {
+      started.countDown();
+      awaitUninterruptibly(blocker);
+    });
+
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    for (int i = 0; i < 5; i++) {
+      final int sequence = i;
+      executor.execute("key", () -> ran.add(sequence));
+    }
+
+    blocker.countDown();
+    executor.shutdown(5, TimeUnit.SECONDS);
+
+    assertEquals(List.of(3, 4), ran);
+    assertEquals(3.0, getDroppedCount(), 0.0);
+  }
+
+  @Test
+  public void testBlock() throws InterruptedException {
+    executor = new OrderedDispatchExecutor("test", 1, 1, OverflowPolicy.BLOCK, meterRegistry);
+
+    final List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+
+    for (int i = 0; i < 100; i++) {
+      final int sequence = i;
+      executor.execute("key", () -> ran.add(sequence));
+    }
+
+    executor.shutdown(5, TimeUnit.SECONDS);
+
+    assertEquals(100, ran.size());
+    assertEquals(0.0, getDroppedCount(), 0.0);
+  }
+
+  @Test
+  public void testReentrantSubmissionToFullQueue() throws InterruptedException {
+    executor = new OrderedDispatchExecutor("test", 1, 1, OverflowPolicy.BLOCK, meterRegistry);
+
+    final CountDownLatch done = new CountDownLatch(3);
+
+    executor.execute("key", () -> {
+      executor.execute("key", done::countDown);
+      executor.execute("key", done::countDown);
+      done.countDown();
+    });
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+  }
+
+  private double getDroppedCount() {
+    return meterRegistry.get(OrderedDispatchExecutor.class.getName() + ".droppedTask").counter().count();
+  }
+
+  private double getGaugeValue() {
+    return meterRegistry.get(OrderedDispatchExecutor.class.getName() + ".queueDepth").gauge().value();
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
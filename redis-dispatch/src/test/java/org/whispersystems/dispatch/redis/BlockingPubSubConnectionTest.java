@@ -18,12 +18,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.security.SecureRandom;
+import java.util.List;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
-public class PubSubConnectionTest {
+public class BlockingPubSubConnectionTest {
 
   private static final String REPLY = "*3\r\n" +
       "$9\r\n" +
@@ -65,7 +66,7 @@ public class PubSubConnectionTest {
     OutputStream outputStream = mock(OutputStream.class);
     Socket       socket       = mock(Socket.class      );
     when(socket.getOutputStream()).thenReturn(outputStream);
-    PubSubConnection connection  = new PubSubConnection(socket);
+    PubSubConnection connection  = new BlockingPubSubConnection(socket);
 
     connection.subscribe("foobar");
 
@@ -80,7 +81,7 @@ public class PubSubConnectionTest {
     OutputStream outputStream = mock(OutputStream.class);
     Socket       socket       = mock(Socket.class      );
     when(socket.getOutputStream()).thenReturn(outputStream);
-    PubSubConnection connection  = new PubSubConnection(socket);
+    PubSubConnection connection  = new BlockingPubSubConnection(socket);
 
     connection.unsubscribe("bazbar");
 
@@ -90,6 +91,21 @@ public class PubSubConnectionTest {
     assertArrayEquals(captor.getValue(), "UNSUBSCRIBE bazbar\r\n".getBytes());
   }
 
+  @Test
+  public void testSubscribeBatch() throws IOException {
+    OutputStream outputStream = mock(OutputStream.class);
+    Socket       socket       = mock(Socket.class      );
+    when(socket.getOutputStream()).thenReturn(outputStream);
+    PubSubConnection connection  = new BlockingPubSubConnection(socket);
+
+    connection.subscribe(List.of("foo", "bar"));
+
+    ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+    verify(outputStream).write(captor.capture());
+
+    assertArrayEquals(captor.getValue(), "SUBSCRIBE foo\r\nSUBSCRIBE bar\r\n".getBytes());
+  }
+
   @Test
   public void testTricklyResponse() throws Exception {
     InputStream  inputStream  = mockInputStreamFor(new TrickleInputStream(REPLY.getBytes()));
@@ -98,7 +114,7 @@ public class PubSubConnectionTest {
     when(socket.getOutputStream()).thenReturn(outputStream);
     when(socket.getInputStream()).thenReturn(inputStream);
 
-    PubSubConnection pubSubConnection = new PubSubConnection(socket);
+    PubSubConnection pubSubConnection = new BlockingPubSubConnection(socket);
     readResponses(pubSubConnection);
   }
 
@@ -110,7 +126,7 @@ public class PubSubConnectionTest {
     when(socket.getOutputStream()).thenReturn(outputStream);
     when(socket.getInputStream()).thenReturn(inputStream);
 
-    PubSubConnection pubSubConnection = new PubSubConnection(socket);
+    PubSubConnection pubSubConnection = new BlockingPubSubConnection(socket);
     readResponses(pubSubConnection);
   }
 
@@ -122,7 +138,7 @@ public class PubSubConnectionTest {
     when(socket.getOutputStream()).thenReturn(outputStream);
     when(socket.getInputStream()).thenReturn(inputStream);
 
-    PubSubConnection pubSubConnection = new PubSubConnection(socket);
+    PubSubConnection pubSubConnection = new BlockingPubSubConnection(socket);
     readResponses(pubSubConnection);
   }
 
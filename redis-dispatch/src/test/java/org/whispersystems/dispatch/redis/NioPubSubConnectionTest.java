@@ -0,0 +1,292 @@
+/*
+ * Copyright 2013-2020 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.whispersystems.dispatch.redis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.dispatch.io.RedisInputStream;
+import org.whispersystems.dispatch.redis.protocol.ArrayReplyHeader;
+import org.whispersystems.dispatch.redis.protocol.StringReplyHeader;
+
+public class NioPubSubConnectionTest {
+
+  private RespServerStub server;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new RespServerStub();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.close();
+  }
+
+  @Test(timeout = 10_000)
+  public void testPipelinedSubscribe() throws Exception {
+    NioPubSubConnection connection = NioPubSubConnection.open("127.0.0.1", server.getPort(), 1024 * 1024);
+
+    try {
+      connection.subscribe(List.of("abcde", "fghij", "klmno"));
+
+      assertEquals(List.of("SUBSCRIBE", "abcde", "fghij", "klmno"), server.takeCommand());
+
+      for (String channel : List.of("abcde", "fghij", "klmno")) {
+        PubSubReply reply = connection.read();
+
+        assertEquals(PubSubReply.Type.SUBSCRIBE, reply.getType());
+        assertEquals(channel, reply.getChannel());
+        assertFalse(reply.getContent().isPresent());
+      }
+
+      connection.unsubscribe("fghij");
+
+      assertEquals(List.of("UNSUBSCRIBE", "fghij"), server.takeCommand());
+      assertEquals(PubSubReply.Type.UNSUBSCRIBE, connection.read().getType());
+
+      server.publish("klmno", "hello".getBytes());
+      server.flush();
+
+      PubSubReply message = connection.read();
+
+      assertEquals(PubSubReply.Type.MESSAGE, message.getType());
+      assertEquals("klmno", message.getChannel());
+      assertArrayEquals("hello".getBytes(), message.getContent().get());
+    } finally {
+      connection.close();
+    }
+  }
+
+  @Test(timeout = 30_000)
+  public void testReplayTraffic() throws Exception {
+    final int    channelCount = 1_000;
+    final int    messageCount = 20_000;
+    final Random random       = new Random(1234);
+
+    NioPubSubConnection connection = NioPubSubConnection.open("127.0.0.1", server.getPort(), 1024 * 1024);
+
+    try {
+      List<String> channels = new ArrayList<>(channelCount);
+
+      for (int i = 0; i < channelCount; i++) {
+        channels.add("channel::" + i);
+      }
+
+      connection.subscribe(channels);
+      server.takeCommand();
+
+      for (int i = 0; i < channelCount; i++) {
+        assertEquals(PubSubReply.Type.SUBSCRIBE, connection.read().getType());
+      }
+
+      List<String> expectedChannels = new ArrayList<>(messageCount);
+      List<byte[]> expectedMessages = new ArrayList<>(messageCount);
+
+      for (int i = 0; i < messageCount; i++) {
+        // Mostly small messages, with the occasional one larger than the initial read buffer
+        byte[] message = new byte[i % 1000 == 0 ? 64 * 1024 : random.nextInt(512)];
+        random.nextBytes(message);
+
+        expectedChannels.add(channels.get(random.nextInt(channelCount)));
+        expectedMessages.add(message);
+      }
+
+      CompletableFuture<Void> publisher = CompletableFuture.runAsync(() -> {
+        try {
+          for (int i = 0; i < messageCount; i++) {
+            server.publish(expectedChannels.get(i), expectedMessages.get(i));
+          }
+
+          server.flush();
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+      });
+
+      for (int i = 0; i < messageCount; i++) {
+        PubSubReply reply = connection.read();
+
+        assertEquals(PubSubReply.Type.MESSAGE, reply.getType());
+        assertEquals(expectedChannels.get(i), reply.getChannel());
+        assertArrayEquals(expectedMessages.get(i), reply.getContent().get());
+      }
+
+      publisher.join();
+    } finally {
+      connection.close();
+    }
+  }
+
+  @Test(timeout = 10_000)
+  public void testReplyExceedsBufferCap() throws Exception {
+    NioPubSubConnection connection = NioPubSubConnection.open("127.0.0.1", server.getPort(), 1024);
+
+    try {
+      server.awaitClient();
+      server.publish("abcde", new byte[4096]);
+      server.flush();
+
+      connection.read();
+      fail("Oversized reply should fail the connection");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("maximum buffer size"));
+    } finally {
+      connection.close();
+    }
+  }
+
+  @Test(timeout = 10_000)
+  public void testCloseInterruptsRead() throws Exception {
+    NioPubSubConnection connection = NioPubSubConnection.open("127.0.0.1", server.getPort(), 1024);
+
+    CompletableFuture<Void> reader = CompletableFuture.runAsync(() -> {
+      try {
+        connection.read();
+        fail("Read should not succeed");
+      } catch (IOException expected) {
+      }
+    });
+
+    server.awaitClient();
+    Thread.sleep(100);
+    connection.close();
+
+    reader.get(5, TimeUnit.SECONDS);
+  }
+
+  @Test(expected = IOException.class, timeout = 10_000)
+  public void testSubscribeAfterClose() throws Exception {
+    NioPubSubConnection connection = NioPubSubConnection.open("127.0.0.1", server.getPort(), 1024);
+    connection.close();
+    connection.subscribe("abcde");
+  }
+
+  /**
+   * A minimal in-process Redis stand-in that accepts a single client, answers SUBSCRIBE/UNSUBSCRIBE commands with one
+   * confirmation per channel, and publishes whatever messages the test hands it.
+   */
+  private static class RespServerStub {
+
+    private final ServerSocket                serverSocket;
+    private final CompletableFuture<Socket>   client   = new CompletableFuture<>();
+    private final BlockingQueue<List<String>> commands = new LinkedBlockingQueue<>();
+
+    private OutputStream outputStream;
+
+    RespServerStub() throws IOException {
+      serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+
+      Thread thread = new Thread(this::serve);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    void awaitClient() throws Exception {
+      client.get(5, TimeUnit.SECONDS);
+    }
+
+    List<String> takeCommand() throws InterruptedException {
+      return commands.poll(5, TimeUnit.SECONDS);
+    }
+
+    synchronized void publish(String channel, byte[] message) throws IOException {
+      writeReply("message", channel, message, null);
+    }
+
+    synchronized void flush() throws IOException {
+      outputStream.flush();
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+
+      if (client.isDone()) {
+        client.join().close();
+      }
+    }
+
+    private void serve() {
+      try {
+        Socket socket = serverSocket.accept();
+
+        synchronized (this) {
+          outputStream = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        client.complete(socket);
+
+        RedisInputStream inputStream = new RedisInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        while (true) {
+          int          argumentCount = new ArrayReplyHeader(inputStream.readLine()).getElementCount();
+          List<String> command       = new ArrayList<>(argumentCount);
+
+          for (int i = 0; i < argumentCount; i++) {
+            command.add(new String(inputStream.readFully(new StringReplyHeader(inputStream.readLine()).getStringLength()), StandardCharsets.UTF_8));
+            inputStream.readLine();
+          }
+
+          synchronized (this) {
+            for (int i = 1; i < command.size(); i++) {
+              writeReply(command.get(0).toLowerCase(), command.get(i), null, i);
+            }
+
+            outputStream.flush();
+          }
+
+          commands.add(command);
+        }
+      } catch (IOException e) {
+        // Connection closed
+      }
+    }
+
+    private void writeReply(String type, String channel, byte[] message, Integer count) throws IOException {
+      ByteArrayOutputStream reply = new ByteArrayOutputStream();
+
+      reply.writeBytes("*3\r\n".getBytes());
+      writeBulkString(reply, type.getBytes());
+      writeBulkString(reply, channel.getBytes(StandardCharsets.UTF_8));
+
+      if (message != null) writeBulkString(reply, message);
+      else                 reply.writeBytes((":" + count + "\r\n").getBytes());
+
+      reply.writeTo(outputStream);
+    }
+
+    private static void writeBulkString(ByteArrayOutputStream out, byte[] value) {
+      out.writeBytes(("$" + value.length + "\r\n").getBytes());
+      out.writeBytes(value);
+      out.writeBytes("\r\n".getBytes());
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013-2020 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.whispersystems.dispatch.redis.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.whispersystems.dispatch.redis.PubSubReply;
+
+public class PubSubReplyParserTest {
+
+  private static final String REPLY = "*3\r\n" +
+      "$9\r\n" +
+      "subscribe\r\n" +
+      "$5\r\n" +
+      "abcde\r\n" +
+      ":1\r\n" +
+      ">3\r\n" +
+      "$9\r\n" +
+      "subscribe\r\n" +
+      "$5\r\n" +
+      "fghij\r\n" +
+      ":2\r\n" +
+      "*3\r\n" +
+      "$7\r\n" +
+      "message\r\n" +
+      "$5\r\n" +
+      "abcde\r\n" +
+      "$10\r\n" +
+      "1234567890\r\n" +
+      ">3\r\n" +
+      "$7\r\n" +
+      "message\r\n" +
+      "$5\r\n" +
+      "fghij\r\n" +
+      "$0\r\n" +
+      "\r\n" +
+      "*3\r\n" +
+      "$11\r\n" +
+      "unsubscribe\r\n" +
+      "$5\r\n" +
+      "abcde\r\n" +
+      ":1\r\n";
+
+  @Test
+  public void testCompleteBuffer() throws IOException {
+    PubSubReplyParser parser = new PubSubReplyParser();
+    ByteBuffer        buffer = ByteBuffer.wrap(REPLY.getBytes());
+    List<PubSubReply> replies = new ArrayList<>();
+
+    PubSubReply reply;
+
+    while ((reply = parser.parse(buffer)) != null) {
+      replies.add(reply);
+    }
+
+    assertFalse(buffer.hasRemaining());
+    verifyReplies(replies);
+  }
+
+  @Test
+  public void testIncrementalBuffer() throws IOException {
+    byte[] data = REPLY.getBytes();
+
+    for (int chunkSize = 1; chunkSize <= data.length; chunkSize++) {
+      PubSubReplyParser parser  = new PubSubReplyParser();
+      ByteBuffer        buffer  = ByteBuffer.allocate(data.length).flip();
+      List<PubSubReply> replies = new ArrayList<>();
+
+      for (int offset = 0; offset < data.length; offset += chunkSize) {
+        buffer.compact();
+        buffer.put(data, offset, Math.min(chunkSize, data.length - offset));
+        buffer.flip();
+
+        PubSubReply reply;
+
+        while ((reply = parser.parse(buffer)) != null) {
+          replies.add(reply);
+        }
+      }
+
+      assertFalse(buffer.hasRemaining());
+      verifyReplies(replies);
+    }
+  }
+
+  @Test
+  public void testPartialReplyLeavesPosition() throws IOException {
+    PubSubReplyParser parser = new PubSubReplyParser();
+    ByteBuffer        buffer = ByteBuffer.wrap("*3\r\n$7\r\nmessage\r\n$3\r\nfoo\r\n$5\r\nhel".getBytes());
+
+    assertNull(parser.parse(buffer));
+    assertEquals(0, buffer.position());
+  }
+
+  @Test(expected = IOException.class)
+  public void testErrorReply() throws IOException {
+    new PubSubReplyParser().parse(ByteBuffer.wrap("-ERR unknown command\r\n".getBytes()));
+  }
+
+  @Test(expected = IOException.class)
+  public void testStrangeCount() throws IOException {
+    new PubSubReplyParser().parse(ByteBuffer.wrap("*4\r\n".getBytes()));
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnknownType() throws IOException {
+    new PubSubReplyParser().parse(ByteBuffer.wrap("*3\r\n$4\r\npong\r\n$0\r\n\r\n:1\r\n".getBytes()));
+  }
+
+  @Test(expected = IOException.class)
+  public void testInvalidLength() throws IOException {
+    new PubSubReplyParser().parse(ByteBuffer.wrap("*3\r\n$x\r\n".getBytes()));
+  }
+
+  @Test(expected = IOException.class)
+  public void testMissingTerminator() throws IOException {
+    new PubSubReplyParser().parse(ByteBuffer.wrap("*3\r\n$9\r\nsubscribeXX$5\r\n".getBytes()));
+  }
+
+  private void verifyReplies(List<PubSubReply> replies) {
+    assertEquals(5, replies.size());
+
+    assertEquals(PubSubReply.Type.SUBSCRIBE, replies.get(0).getType());
+    assertEquals("abcde", replies.get(0).getChannel());
+    assertFalse(replies.get(0).getContent().isPresent());
+
+    assertEquals(PubSubReply.Type.SUBSCRIBE, replies.get(1).getType());
+    assertEquals("fghij", replies.get(1).getChannel());
+
+    assertEquals(PubSubReply.Type.MESSAGE, replies.get(2).getType());
+    assertEquals("abcde", replies.get(2).getChannel());
+    assertArrayEquals("1234567890".getBytes(), replies.get(2).getContent().get());
+
+    assertEquals(PubSubReply.Type.MESSAGE, replies.get(3).getType());
+    assertEquals("fghij", replies.get(3).getChannel());
+    assertArrayEquals(new byte[0], replies.get(3).getContent().get());
+
+    assertEquals(PubSubReply.Type.UNSUBSCRIBE, replies.get(4).getType());
+    assertEquals("abcde", replies.get(4).getChannel());
+  }
+}
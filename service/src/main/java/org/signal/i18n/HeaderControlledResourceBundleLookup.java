@@ -30,8 +30,13 @@ public class HeaderControlledResourceBundleLookup {
     this.resourceBundleFactory = Objects.requireNonNull(resourceBundleFactory);
   }
 
+  /**
+   * Returns the locales that will actually be considered when resolving a resource bundle for the given list of
+   * acceptable languages. Two lists of acceptable languages with the same acceptable locales always resolve to the same
+   * resource bundle.
+   */
   @Nonnull
-  private List<Locale> getAcceptableLocales(final List<Locale> acceptableLanguages) {
+  public List<Locale> getAcceptableLocales(final List<Locale> acceptableLanguages) {
     return acceptableLanguages.stream().limit(MAX_LOCALES).distinct().collect(Collectors.toList());
   }
 
@@ -5,8 +5,27 @@
 
 package org.whispersystems.textsecuregcm.auth;
 
+import static org.whispersystems.textsecuregcm.metrics.MetricsUtil.name;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.security.InvalidKeyException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 import org.whispersystems.textsecuregcm.crypto.Curve;
 import org.whispersystems.textsecuregcm.crypto.ECPrivateKey;
 import org.whispersystems.textsecuregcm.entities.MessageProtos.SenderCertificate;
@@ -14,45 +33,114 @@ import org.whispersystems.textsecuregcm.entities.MessageProtos.ServerCertificate
 import org.whispersystems.textsecuregcm.storage.Account;
 import org.whispersystems.textsecuregcm.storage.Device;
 
-import java.io.IOException;
-import java.security.InvalidKeyException;
-import java.util.Base64;
-import java.util.concurrent.TimeUnit;
-
+/**
+ * Generates signed sender certificates.
+ * <p/>
+ * Certificates are issued in fixed windows of {@link #ISSUANCE_WINDOW}; every certificate issued for the same sender
+ * within a window has the same expiration time, and so the same content, and is served from a cache rather than signed
+ * again. Signing itself happens on a dedicated executor so its CPU cost is bounded and can be measured apart from the
+ * request threads.
+ */
 public class CertificateGenerator {
 
   private final ECPrivateKey      privateKey;
   private final int               expiresDays;
   private final ServerCertificate serverCertificate;
 
+  private final ExecutorService signingExecutor;
+  private final Clock clock;
+
+  private final Cache<CertificateKey, byte[]> certificateCache;
+
+  @VisibleForTesting
+  static final Duration ISSUANCE_WINDOW = Duration.ofHours(1);
+
+  private static final int MAX_CACHED_CERTIFICATES = 100_000;
+
+  private static final Timer SIGN_CERTIFICATE_TIMER = Metrics.timer(name(CertificateGenerator.class, "signCertificate"));
+
+  private record CertificateKey(UUID uuid, long deviceId, String identityKey, @Nullable String number,
+                                long expires) {
+  }
+
   public CertificateGenerator(byte[] serverCertificate, ECPrivateKey privateKey, int expiresDays)
       throws InvalidProtocolBufferException
+  {
+    this(serverCertificate, privateKey, expiresDays, MoreExecutors.newDirectExecutorService(), Clock.systemUTC());
+  }
+
+  public CertificateGenerator(byte[] serverCertificate, ECPrivateKey privateKey, int expiresDays,
+      ExecutorService signingExecutor, Clock clock)
+      throws InvalidProtocolBufferException
   {
     this.privateKey        = privateKey;
     this.expiresDays       = expiresDays;
     this.serverCertificate = ServerCertificate.parseFrom(serverCertificate);
+    this.signingExecutor   = signingExecutor;
+    this.clock             = clock;
+
+    // Entries can't be useful for longer than the issuance window in which they were created
+    this.certificateCache = CacheBuilder.newBuilder()
+        .maximumSize(MAX_CACHED_CERTIFICATES)
+        .expireAfterWrite(ISSUANCE_WINDOW)
+        .recordStats()
+        .build();
+
+    GuavaCacheMetrics.monitor(Metrics.globalRegistry, certificateCache, name(CertificateGenerator.class, "certificateCache"));
   }
 
   public byte[] createFor(Account account, Device device, boolean includeE164) throws InvalidKeyException {
-    SenderCertificate.Certificate.Builder builder = SenderCertificate.Certificate.newBuilder()
-                                                                                 .setSenderDevice(Math.toIntExact(device.getId()))
-                                                                                 .setExpires(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(expiresDays))
-                                                                                 .setIdentityKey(ByteString.copyFrom(Base64.getDecoder().decode(account.getIdentityKey())))
-                                                                                 .setSigner(serverCertificate)
-                                                                                 .setSenderUuid(account.getUuid().toString());
-
-    if (includeE164) {
-      builder.setSender(account.getNumber());
-    }
+    final long now = clock.millis();
+    final long expires = now - (now % ISSUANCE_WINDOW.toMillis()) + TimeUnit.DAYS.toMillis(expiresDays);
+
+    final CertificateKey certificateKey = new CertificateKey(account.getUuid(), device.getId(),
+        account.getIdentityKey(), includeE164 ? account.getNumber() : null, expires);
+
+    try {
+      return certificateCache.get(certificateKey, () -> signingExecutor.submit(() -> sign(certificateKey)).get());
+    } catch (final ExecutionException | UncheckedExecutionException e) {
+      Throwable cause = e.getCause();
 
-    byte[] certificate = builder.build().toByteArray();
-    byte[] signature   = Curve.calculateSignature(privateKey, certificate);
+      // Unwrap the executor's exception to find the original failure
+      if (cause instanceof ExecutionException && cause.getCause() != null) {
+        cause = cause.getCause();
+      }
 
-    return SenderCertificate.newBuilder()
-                            .setCertificate(ByteString.copyFrom(certificate))
-                            .setSignature(ByteString.copyFrom(signature))
-                            .build()
-                            .toByteArray();
+      if (cause instanceof InvalidKeyException) {
+        throw (InvalidKeyException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+
+      throw new RuntimeException(cause);
+    }
   }
 
+  private byte[] sign(final CertificateKey certificateKey) throws InvalidKeyException {
+    final Timer.Sample sample = Timer.start();
+
+    try {
+      SenderCertificate.Certificate.Builder builder = SenderCertificate.Certificate.newBuilder()
+                                                                                   .setSenderDevice(Math.toIntExact(certificateKey.deviceId()))
+                                                                                   .setExpires(certificateKey.expires())
+                                                                                   .setIdentityKey(ByteString.copyFrom(Base64.getDecoder().decode(certificateKey.identityKey())))
+                                                                                   .setSigner(serverCertificate)
+                                                                                   .setSenderUuid(certificateKey.uuid().toString());
+
+      if (certificateKey.number() != null) {
+        builder.setSender(certificateKey.number());
+      }
+
+      byte[] certificate = builder.build().toByteArray();
+      byte[] signature   = Curve.calculateSignature(privateKey, certificate);
+
+      return SenderCertificate.newBuilder()
+                              .setCertificate(ByteString.copyFrom(certificate))
+                              .setSignature(ByteString.copyFrom(signature))
+                              .build()
+                              .toByteArray();
+    } finally {
+      sample.stop(SIGN_CERTIFICATE_TIMER);
+    }
+  }
 }
@@ -5,7 +5,16 @@
 
 package org.whispersystems.textsecuregcm.badges;
 
+import static org.whispersystems.textsecuregcm.metrics.MetricsUtil.name;
+
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
@@ -14,26 +23,66 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.signal.i18n.HeaderControlledResourceBundleLookup;
 import org.whispersystems.textsecuregcm.configuration.BadgeConfiguration;
 import org.whispersystems.textsecuregcm.configuration.BadgesConfiguration;
 import org.whispersystems.textsecuregcm.entities.Badge;
-import org.whispersystems.textsecuregcm.entities.BadgeSvg;
 import org.whispersystems.textsecuregcm.entities.SelfBadge;
 import org.whispersystems.textsecuregcm.storage.AccountBadge;
 
+/**
+ * Converts account badges to localized badge entities.
+ * <p/>
+ * Badges are rendered at most once for each distinct list of acceptable locales; rendered badges are immutable and
+ * shared by all requests with the same list of acceptable locales, so converting an account's badges is mostly a
+ * matter of map lookups.
+ */
 public class ConfiguredProfileBadgeConverter implements ProfileBadgeConverter, BadgeTranslator {
 
   @VisibleForTesting
   static final String BASE_NAME = "org.signal.badges.Badges";
 
+  private static final int MAX_CACHED_LOCALE_LISTS = 1_000;
+
   private final Clock clock;
   private final Map<String, BadgeConfiguration> knownBadges;
   private final List<String> badgeIdsEnabledForAll;
   private final HeaderControlledResourceBundleLookup headerControlledResourceBundleLookup;
 
+  private final LoadingCache<List<Locale>, LocalizedBadges> localizedBadgesByLocales;
+
+  /**
+   * Badges rendered from a single resolved resource bundle. Badges are rendered lazily so that a missing translation
+   * for one badge doesn't affect any others.
+   */
+  private class LocalizedBadges {
+
+    private final ResourceBundle resourceBundle;
+    private final Map<String, Badge> badgesById = new ConcurrentHashMap<>();
+
+    private LocalizedBadges(final ResourceBundle resourceBundle) {
+      this.resourceBundle = resourceBundle;
+    }
+
+    Badge getBadge(final String badgeId) {
+      return badgesById.computeIfAbsent(badgeId, id -> {
+        final BadgeConfiguration configuration = knownBadges.get(id);
+
+        return new Badge(
+            configuration.getId(),
+            configuration.getCategory(),
+            resourceBundle.getString(id + "_name"),
+            resourceBundle.getString(id + "_description"),
+            configuration.getSprites(),
+            configuration.getSvg(),
+            configuration.getSvgs());
+      });
+    }
+  }
+
   public ConfiguredProfileBadgeConverter(
       final Clock clock,
       final BadgesConfiguration badgesConfiguration,
@@ -43,24 +92,35 @@ public class ConfiguredProfileBadgeConverter implements ProfileBadgeConverter, B
         .collect(Collectors.toMap(BadgeConfiguration::getId, Function.identity()));
     this.badgeIdsEnabledForAll = badgesConfiguration.getBadgeIdsEnabledForAll();
     this.headerControlledResourceBundleLookup = headerControlledResourceBundleLookup;
+
+    this.localizedBadgesByLocales = CacheBuilder.newBuilder()
+        .maximumSize(MAX_CACHED_LOCALE_LISTS)
+        .recordStats()
+        .build(new CacheLoader<>() {
+          @Override
+          public LocalizedBadges load(final List<Locale> acceptableLocales) {
+            return new LocalizedBadges(headerControlledResourceBundleLookup.getResourceBundle(BASE_NAME, acceptableLocales));
+          }
+        });
+
+    GuavaCacheMetrics.monitor(Metrics.globalRegistry, localizedBadgesByLocales,
+        name(ConfiguredProfileBadgeConverter.class, "localizedBadges"));
+  }
+
+  private LocalizedBadges getLocalizedBadges(final List<Locale> acceptableLanguages) {
+    try {
+      return localizedBadgesByLocales.getUnchecked(
+          headerControlledResourceBundleLookup.getAcceptableLocales(acceptableLanguages));
+    } catch (final UncheckedExecutionException e) {
+      // Surface bundle resolution failures (e.g. a missing bundle) as if there were no cache
+      Throwables.throwIfUnchecked(e.getCause());
+      throw e;
+    }
   }
 
   @Override
   public Badge translate(final List<Locale> acceptableLanguages, final String badgeId) {
-    final ResourceBundle resourceBundle = headerControlledResourceBundleLookup.getResourceBundle(BASE_NAME,
-        acceptableLanguages);
-    final BadgeConfiguration configuration = knownBadges.get(badgeId);
-    return newBadge(
-        false,
-        configuration.getId(),
-        configuration.getCategory(),
-        resourceBundle.getString(configuration.getId() + "_name"),
-        resourceBundle.getString(configuration.getId() + "_description"),
-        configuration.getSprites(),
-        configuration.getSvg(),
-        configuration.getSvgs(),
-        null,
-        false);
+    return getLocalizedBadges(acceptableLanguages).getBadge(badgeId);
   }
 
   @Override
@@ -73,59 +133,39 @@ public class ConfiguredProfileBadgeConverter implements ProfileBadgeConverter, B
     }
 
     final Instant now = clock.instant();
-    final ResourceBundle resourceBundle = headerControlledResourceBundleLookup.getResourceBundle(BASE_NAME,
-        acceptableLanguages);
-    List<Badge> badges = accountBadges.stream()
-        .filter(accountBadge -> (isSelf || accountBadge.isVisible())
-            && now.isBefore(accountBadge.getExpiration())
-            && knownBadges.containsKey(accountBadge.getId()))
-        .map(accountBadge -> {
-          BadgeConfiguration configuration = knownBadges.get(accountBadge.getId());
-          return newBadge(
-              isSelf,
-              accountBadge.getId(),
-              configuration.getCategory(),
-              resourceBundle.getString(accountBadge.getId() + "_name"),
-              resourceBundle.getString(accountBadge.getId() + "_description"),
-              configuration.getSprites(),
-              configuration.getSvg(),
-              configuration.getSvgs(),
-              accountBadge.getExpiration(),
-              accountBadge.isVisible());
-        })
-        .collect(Collectors.toCollection(ArrayList::new));
-    badges.addAll(badgeIdsEnabledForAll.stream().filter(knownBadges::containsKey).map(id -> {
-      BadgeConfiguration configuration = knownBadges.get(id);
-      return newBadge(
-          isSelf,
-          id,
-          configuration.getCategory(),
-          resourceBundle.getString(id + "_name"),
-          resourceBundle.getString(id + "_description"),
-          configuration.getSprites(),
-          configuration.getSvg(),
-          configuration.getSvgs(),
-          now.plus(Duration.ofDays(1)),
-          true);
-    }).collect(Collectors.toList()));
+    final LocalizedBadges localizedBadges = getLocalizedBadges(acceptableLanguages);
+    final List<Badge> badges = new ArrayList<>(accountBadges.size() + badgeIdsEnabledForAll.size());
+
+    for (final AccountBadge accountBadge : accountBadges) {
+      if ((isSelf || accountBadge.isVisible())
+          && now.isBefore(accountBadge.getExpiration())
+          && knownBadges.containsKey(accountBadge.getId())) {
+
+        badges.add(newBadge(isSelf, localizedBadges.getBadge(accountBadge.getId()), accountBadge.getExpiration(),
+            accountBadge.isVisible()));
+      }
+    }
+
+    for (final String badgeId : badgeIdsEnabledForAll) {
+      if (knownBadges.containsKey(badgeId)) {
+        badges.add(newBadge(isSelf, localizedBadges.getBadge(badgeId), now.plus(Duration.ofDays(1)), true));
+      }
+    }
+
     return badges;
   }
 
   private Badge newBadge(
       final boolean isSelf,
-      final String id,
-      final String category,
-      final String name,
-      final String description,
-      final List<String> sprites,
-      final String svg,
-      final List<BadgeSvg> svgs,
+      final Badge localizedBadge,
       final Instant expiration,
       final boolean visible) {
     if (isSelf) {
-      return new SelfBadge(id, category, name, description, sprites, svg, svgs, expiration, visible);
+      return new SelfBadge(localizedBadge.getId(), localizedBadge.getCategory(), localizedBadge.getName(),
+          localizedBadge.getDescription(), localizedBadge.getSprites6(), localizedBadge.getSvg(),
+          localizedBadge.getSvgs(), expiration, visible);
     } else {
-      return new Badge(id, category, name, description, sprites, svg, svgs);
+      return localizedBadge;
     }
   }
 }
@@ -8,6 +8,7 @@ package org.whispersystems.textsecuregcm.configuration;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 import java.time.Duration;
@@ -32,6 +33,27 @@ public class RedisClusterConfiguration {
   @Valid
   private RetryConfiguration retry = new RetryConfiguration();
 
+  /**
+   * The number of connections (per codec) shared by commands that aren't assigned to a dedicated lane.
+   */
+  @JsonProperty
+  @Min(1)
+  private int connectionPoolSize = 1;
+
+  /**
+   * The number of dedicated connections for bulk commands; if zero, bulk commands share the default connections.
+   */
+  @JsonProperty
+  @Min(0)
+  private int bulkConnectionPoolSize = 0;
+
+  /**
+   * The number of dedicated connections for latency-sensitive commands; if zero, they share the default connections.
+   */
+  @JsonProperty
+  @Min(0)
+  private int latencySensitiveConnectionPoolSize = 0;
+
   public String getConfigurationUri() {
     return configurationUri;
   }
@@ -47,4 +69,16 @@ public class RedisClusterConfiguration {
   public RetryConfiguration getRetryConfiguration() {
     return retry;
   }
+
+  public int getConnectionPoolSize() {
+    return connectionPoolSize;
+  }
+
+  public int getBulkConnectionPoolSize() {
+    return bulkConnectionPoolSize;
+  }
+
+  public int getLatencySensitiveConnectionPoolSize() {
+    return latencySensitiveConnectionPoolSize;
+  }
 }
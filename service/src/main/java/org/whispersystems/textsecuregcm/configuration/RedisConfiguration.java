@@ -31,6 +31,9 @@ public class RedisConfiguration {
   @Valid
   private CircuitBreakerConfiguration circuitBreaker = new CircuitBreakerConfiguration();
 
+  @JsonProperty
+  private boolean nonBlockingPubSub = false;
+
   public String getUrl() {
     return url;
   }
@@ -46,4 +49,8 @@ public class RedisConfiguration {
   public CircuitBreakerConfiguration getCircuitBreakerConfiguration() {
     return circuitBreaker;
   }
+
+  public boolean isNonBlockingPubSub() {
+    return nonBlockingPubSub;
+  }
 }
@@ -55,6 +55,13 @@ public class DynamicConfiguration {
   @Valid
   private DynamicPushLatencyConfiguration pushLatency = new DynamicPushLatencyConfiguration(Collections.emptyMap());
 
+  @JsonProperty
+  @Valid
+  private DynamicPushNotificationConfiguration pushNotifications = new DynamicPushNotificationConfiguration();
+
+  @JsonProperty
+  private DynamicProfilesConfiguration profiles = new DynamicProfilesConfiguration();
+
   public Optional<DynamicExperimentEnrollmentConfiguration> getExperimentEnrollmentConfiguration(
       final String experimentName) {
     return Optional.ofNullable(experiments.get(experimentName));
@@ -110,4 +117,12 @@ public class DynamicConfiguration {
     return pushLatency;
   }
 
+  public DynamicPushNotificationConfiguration getPushNotificationConfiguration() {
+    return pushNotifications;
+  }
+
+  public DynamicProfilesConfiguration getProfilesConfiguration() {
+    return profiles;
+  }
+
 }
@@ -0,0 +1,23 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.configuration.dynamic;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class DynamicProfilesConfiguration {
+
+  /**
+   * Whether profiles should be written to the Redis cache in the compact binary encoding. Servers that predate the
+   * binary encoding can only read JSON-encoded profiles, so this should only be enabled once every server can read
+   * both.
+   */
+  @JsonProperty
+  private boolean binaryCacheEncodingEnabled = false;
+
+  public boolean isBinaryCacheEncodingEnabled() {
+    return binaryCacheEncodingEnabled;
+  }
+}
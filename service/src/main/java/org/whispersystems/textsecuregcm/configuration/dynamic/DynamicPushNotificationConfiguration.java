@@ -0,0 +1,25 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.configuration.dynamic;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.time.Duration;
+import javax.validation.constraints.NotNull;
+
+public class DynamicPushNotificationConfiguration {
+
+  /**
+   * The window within which repeated "new message" notifications to the same device are suppressed; a zero window
+   * disables coalescing entirely.
+   */
+  @JsonProperty
+  @NotNull
+  private Duration coalescingWindow = Duration.ZERO;
+
+  public Duration getCoalescingWindow() {
+    return coalescingWindow;
+  }
+}
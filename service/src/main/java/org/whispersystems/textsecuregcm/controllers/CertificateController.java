@@ -8,13 +8,20 @@ package org.whispersystems.textsecuregcm.controllers;
 import static com.codahale.metrics.MetricRegistry.name;
 
 import com.codahale.metrics.annotation.Timed;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import io.dropwizard.auth.Auth;
 import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import java.security.InvalidKeyException;
-import java.util.LinkedList;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -36,13 +43,31 @@ public class CertificateController {
 
   private final CertificateGenerator   certificateGenerator;
   private final ServerZkAuthOperations serverZkAuthOperations;
+  private final ExecutorService        authCredentialExecutor;
+
+  // Issued credentials remain valid for their redemption day, so there's no need to issue a new one every time a
+  // client asks; entries are kept for a day so a credential is never served long past its redemption time
+  private final Cache<AuthCredentialKey, byte[]> authCredentialCache = CacheBuilder.newBuilder()
+      .maximumSize(MAX_CACHED_AUTH_CREDENTIALS)
+      .expireAfterWrite(Duration.ofDays(1))
+      .recordStats()
+      .build();
+
+  private static final int MAX_CACHED_AUTH_CREDENTIALS = 100_000;
 
   private static final String GENERATE_DELIVERY_CERTIFICATE_COUNTER_NAME = name(CertificateGenerator.class, "generateCertificate");
   private static final String INCLUDE_E164_TAG_NAME = "includeE164";
 
-  public CertificateController(CertificateGenerator certificateGenerator, ServerZkAuthOperations serverZkAuthOperations) {
+  private record AuthCredentialKey(UUID identifier, int redemptionTime) {
+  }
+
+  public CertificateController(CertificateGenerator certificateGenerator, ServerZkAuthOperations serverZkAuthOperations,
+      ExecutorService authCredentialExecutor) {
     this.certificateGenerator   = certificateGenerator;
     this.serverZkAuthOperations = serverZkAuthOperations;
+    this.authCredentialExecutor = authCredentialExecutor;
+
+    GuavaCacheMetrics.monitor(Metrics.globalRegistry, authCredentialCache, name(getClass(), "authCredentialCache"));
   }
 
   @Timed
@@ -83,19 +108,46 @@ public class CertificateController {
       throw new WebApplicationException(Response.Status.BAD_REQUEST);
     }
 
-    List<GroupCredentials.GroupCredential> credentials = new LinkedList<>();
-
     final UUID identifier = identityType.map(String::toLowerCase).orElse("aci").equals("pni") ?
         auth.getAccount().getPhoneNumberIdentifier() :
         auth.getAccount().getUuid();
 
+    // Issuing a credential is CPU-intensive, so issue credentials for any uncached days in parallel
+    final List<CompletableFuture<byte[]>> credentialFutures = new ArrayList<>(endRedemptionTime - startRedemptionTime + 1);
+
     for (int i = startRedemptionTime; i <= endRedemptionTime; i++) {
-      credentials.add(new GroupCredentials.GroupCredential(
-          serverZkAuthOperations.issueAuthCredential(identifier, i).serialize(),
-          i));
+      final AuthCredentialKey authCredentialKey = new AuthCredentialKey(identifier, i);
+      final byte[] cachedCredential = authCredentialCache.getIfPresent(authCredentialKey);
+
+      credentialFutures.add(cachedCredential != null ?
+          CompletableFuture.completedFuture(cachedCredential) :
+          CompletableFuture.supplyAsync(() -> issueAuthCredential(authCredentialKey), authCredentialExecutor));
+    }
+
+    List<GroupCredentials.GroupCredential> credentials = new ArrayList<>(credentialFutures.size());
+
+    try {
+      for (int i = 0; i < credentialFutures.size(); i++) {
+        credentials.add(new GroupCredentials.GroupCredential(credentialFutures.get(i).join(), startRedemptionTime + i));
+      }
+    } catch (final CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+
+      throw e;
     }
 
     return new GroupCredentials(credentials);
   }
 
+  private byte[] issueAuthCredential(final AuthCredentialKey authCredentialKey) {
+    final byte[] credential = serverZkAuthOperations.issueAuthCredential(authCredentialKey.identifier(),
+        authCredentialKey.redemptionTime()).serialize();
+
+    authCredentialCache.put(authCredentialKey, credential);
+
+    return credential;
+  }
+
 }
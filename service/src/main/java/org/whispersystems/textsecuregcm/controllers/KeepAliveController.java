@@ -7,9 +7,13 @@ package org.whispersystems.textsecuregcm.controllers;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.codahale.metrics.annotation.Timed;
 import io.dropwizard.auth.Auth;
 import io.micrometer.core.instrument.Metrics;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.core.Response;
@@ -19,6 +23,9 @@ import org.whispersystems.textsecuregcm.auth.AuthenticatedAccount;
 import org.whispersystems.textsecuregcm.push.ClientPresenceManager;
 import org.whispersystems.textsecuregcm.util.ua.UnrecognizedUserAgentException;
 import org.whispersystems.textsecuregcm.util.ua.UserAgentUtil;
+import org.whispersystems.websocket.fastpath.FastPathResponse;
+import org.whispersystems.websocket.fastpath.FastPathRouter;
+import org.whispersystems.websocket.messages.WebSocketRequestMessage;
 import org.whispersystems.websocket.session.WebSocketSession;
 import org.whispersystems.websocket.session.WebSocketSessionContext;
 
@@ -37,10 +44,60 @@ public class KeepAliveController {
     this.clientPresenceManager = clientPresenceManager;
   }
 
+  /**
+   * Registers keepalive handlers that bypass Jersey; keepalives are the most frequent websocket request by far. The
+   * handlers record the same timers Jersey would have recorded for the {@code @Timed} resource methods.
+   */
+  public void registerFastPathHandlers(final FastPathRouter<AuthenticatedAccount> fastPathRouter,
+      final MetricRegistry metricRegistry) {
+
+    final Timer keepAliveTimer = metricRegistry.timer(name(KeepAliveController.class, "getKeepAlive"));
+    final Timer provisioningKeepAliveTimer =
+        metricRegistry.timer(name(KeepAliveController.class, "getProvisioningKeepAlive"));
+
+    // Like the Jersey resource method, the regular keepalive requires an authenticated socket
+    fastPathRouter.register("GET", "/v1/keepalive", true, (context, auth, request) -> {
+      try (final Timer.Context ignored = keepAliveTimer.time()) {
+        return handleKeepAlive(context, auth, request);
+      }
+    });
+
+    fastPathRouter.register("GET", "/v1/keepalive/provisioning", false, (context, auth, request) -> {
+      try (final Timer.Context ignored = provisioningKeepAliveTimer.time()) {
+        return handleProvisioningKeepAlive(context, auth, request);
+      }
+    });
+  }
+
   @Timed
   @GET
   public Response getKeepAlive(@Auth AuthenticatedAccount auth,
       @WebSocketSession WebSocketSessionContext context) {
+    checkLocalPresence(auth, context);
+    return Response.ok().build();
+  }
+
+  @Timed
+  @GET
+  @Path("/provisioning")
+  public Response getProvisioningKeepAlive() {
+    return Response.ok().build();
+  }
+
+  private CompletableFuture<FastPathResponse> handleKeepAlive(final WebSocketSessionContext context,
+      final Optional<AuthenticatedAccount> auth, final WebSocketRequestMessage request) {
+
+    checkLocalPresence(auth.orElseThrow(), context);
+    return CompletableFuture.completedFuture(FastPathResponse.ok());
+  }
+
+  private CompletableFuture<FastPathResponse> handleProvisioningKeepAlive(final WebSocketSessionContext context,
+      final Optional<AuthenticatedAccount> auth, final WebSocketRequestMessage request) {
+
+    return CompletableFuture.completedFuture(FastPathResponse.ok());
+  }
+
+  private void checkLocalPresence(final AuthenticatedAccount auth, final WebSocketSessionContext context) {
     if (auth != null) {
       if (!clientPresenceManager.isLocallyPresent(auth.getAccount().getUuid(), auth.getAuthenticatedDevice().getId())) {
         logger.warn("***** No local subscription found for {}::{}; age = {}ms, User-Agent = {}",
@@ -61,15 +118,5 @@ public class KeepAliveController {
         Metrics.counter(NO_LOCAL_SUBSCRIPTION_COUNTER_NAME, NO_LOCAL_SUBSCRIPTION_PLATFORM_TAG_NAME, platform).increment();
       }
     }
-
-    return Response.ok().build();
   }
-
-  @Timed
-  @GET
-  @Path("/provisioning")
-  public Response getProvisioningKeepAlive() {
-    return Response.ok().build();
-  }
-
 }
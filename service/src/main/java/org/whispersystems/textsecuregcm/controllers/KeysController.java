@@ -10,17 +10,22 @@ import com.codahale.metrics.annotation.Timed;
 import io.dropwizard.auth.Auth;
 import io.micrometer.core.instrument.Metrics;
 import io.micrometer.core.instrument.Tags;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import javax.validation.Valid;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -35,6 +40,8 @@ import org.whispersystems.textsecuregcm.auth.ChangesDeviceEnabledState;
 import org.whispersystems.textsecuregcm.auth.DisabledPermittedAuthenticatedAccount;
 import org.whispersystems.textsecuregcm.auth.OptionalAccess;
 import org.whispersystems.textsecuregcm.entities.PreKey;
+import org.whispersystems.textsecuregcm.entities.PreKeyBatchRequest;
+import org.whispersystems.textsecuregcm.entities.PreKeyBatchResponse;
 import org.whispersystems.textsecuregcm.entities.PreKeyCount;
 import org.whispersystems.textsecuregcm.entities.PreKeyResponse;
 import org.whispersystems.textsecuregcm.entities.PreKeyResponseItem;
@@ -86,7 +93,8 @@ public class KeysController {
   @ChangesDeviceEnabledState
   public void setKeys(@Auth final DisabledPermittedAuthenticatedAccount disabledPermittedAuth,
       @Valid final PreKeyState preKeys,
-      @QueryParam("identity") final Optional<String> identityType) {
+      @QueryParam("identity") final Optional<String> identityType,
+      @QueryParam("append") final boolean append) {
     Account account = disabledPermittedAuth.getAccount();
     Device device = disabledPermittedAuth.getAuthenticatedDevice();
     boolean updateAccount = false;
@@ -119,7 +127,11 @@ public class KeysController {
       });
     }
 
-    keys.store(getIdentifier(account, identityType), device.getId(), preKeys.getPreKeys());
+    if (append) {
+      keys.append(getIdentifier(account, identityType), device.getId(), preKeys.getPreKeys());
+    } else {
+      keys.store(getIdentifier(account, identityType), device.getId(), preKeys.getPreKeys());
+    }
   }
 
   @Timed
@@ -149,15 +161,7 @@ public class KeysController {
       target = maybeTarget.orElseThrow();
     }
 
-    {
-      final String sourceCountryCode = account.map(a -> Util.getCountryCode(a.getNumber())).orElse("0");
-      final String targetCountryCode = Util.getCountryCode(target.getNumber());
-
-      Metrics.counter(PREKEY_REQUEST_COUNTER_NAME, Tags.of(
-          SOURCE_COUNTRY_TAG_NAME, sourceCountryCode,
-          INTERNATIONAL_TAG_NAME, String.valueOf(!sourceCountryCode.equals(targetCountryCode))
-      )).increment();
-    }
+    countPreKeyRequest(account.map(a -> Util.getCountryCode(a.getNumber())).orElse("0"), target);
 
     if (account.isPresent()) {
       rateLimiters.getPreKeysLimiter().validate(
@@ -167,24 +171,91 @@ public class KeysController {
 
     final boolean usePhoneNumberIdentity = target.getPhoneNumberIdentifier().equals(targetUuid);
 
-    Map<Long, PreKey>        preKeysByDeviceId = getLocalKeys(target, deviceId, usePhoneNumberIdentity);
-    List<PreKeyResponseItem> responseItems     = new LinkedList<>();
+    Map<Long, PreKey> preKeysByDeviceId = getLocalKeys(target, deviceId, usePhoneNumberIdentity);
+
+    return buildPreKeyResponse(target, deviceId, usePhoneNumberIdentity, preKeysByDeviceId)
+        .map(preKeyResponse -> Response.ok().entity(preKeyResponse).build())
+        .orElseGet(() -> Response.status(404).build());
+  }
+
+  /**
+   * Fetches pre-keys for many target accounts and devices in a single request. Unlike single-target requests, targets
+   * that don't exist or have no keys for any of the requested devices are omitted from the response rather than
+   * failing the whole request. Pre-keys for all targets are claimed concurrently.
+   */
+  @Timed
+  @POST
+  @Path("/batch")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  public PreKeyBatchResponse getDeviceKeysBatch(@Auth final AuthenticatedAccount auth,
+      @Valid final PreKeyBatchRequest request)
+      throws RateLimitExceededException {
+
+    final Account account = auth.getAccount();
+    final String sourceCountryCode = Util.getCountryCode(account.getNumber());
+
+    final Map<UUID, Account> targetsByIdentifier = new HashMap<>();
+    final Map<UUID, Set<Long>> requestedDeviceIdsByIdentifier = new HashMap<>();
 
-    for (Device device : target.getDevices()) {
-      if (device.isEnabled() && (deviceId.equals("*") || device.getId() == Long.parseLong(deviceId))) {
-        SignedPreKey signedPreKey = usePhoneNumberIdentity ? device.getPhoneNumberIdentitySignedPreKey() : device.getSignedPreKey();
-        PreKey       preKey       = preKeysByDeviceId.get(device.getId());
+    for (final PreKeyBatchRequest.Target target : request.getTargets()) {
+      final UUID targetUuid = target.getIdentifier();
 
-        if (signedPreKey != null || preKey != null) {
-          responseItems.add(new PreKeyResponseItem(device.getId(), device.getRegistrationId(), signedPreKey, preKey));
+      if (!targetsByIdentifier.containsKey(targetUuid)) {
+        final Optional<Account> maybeTargetAccount = accounts.getByAccountIdentifier(targetUuid)
+            .or(() -> accounts.getByPhoneNumberIdentifier(targetUuid));
+
+        if (maybeTargetAccount.isEmpty() || !maybeTargetAccount.get().isEnabled()) {
+          continue;
         }
+
+        targetsByIdentifier.put(targetUuid, maybeTargetAccount.get());
+      }
+
+      final Account targetAccount = targetsByIdentifier.get(targetUuid);
+
+      // Each target is equivalent to a single-target request, so count it the same way
+      countPreKeyRequest(sourceCountryCode, targetAccount);
+
+      rateLimiters.getPreKeysLimiter().validate(
+          account.getUuid() + "." + auth.getAuthenticatedDevice().getId() + "__" + targetUuid
+              + "." + target.getDeviceId());
+
+      final Set<Long> requestedDeviceIds =
+          requestedDeviceIdsByIdentifier.computeIfAbsent(targetUuid, ignored -> new HashSet<>());
+
+      for (final Device device : getSelectedDevices(targetAccount, target.getDeviceId())) {
+        requestedDeviceIds.add(device.getId());
       }
     }
 
-    final String identityKey = usePhoneNumberIdentity ? target.getPhoneNumberIdentityKey() : target.getIdentityKey();
+    final Map<UUID, CompletableFuture<Map<Long, PreKey>>> preKeyFuturesByIdentifier = new HashMap<>();
+
+    requestedDeviceIdsByIdentifier.forEach((identifier, deviceIds) ->
+        preKeyFuturesByIdentifier.put(identifier, keys.takeForDevicesAsync(identifier, deviceIds)));
+
+    CompletableFuture.allOf(preKeyFuturesByIdentifier.values().toArray(CompletableFuture[]::new)).join();
+
+    final Map<UUID, PreKeyResponse> responsesByIdentifier = new HashMap<>();
+
+    preKeyFuturesByIdentifier.forEach((identifier, preKeyFuture) -> {
+      final Account targetAccount = targetsByIdentifier.get(identifier);
+      final boolean usePhoneNumberIdentity = targetAccount.getPhoneNumberIdentifier().equals(identifier);
+      final Set<Long> requestedDeviceIds = requestedDeviceIdsByIdentifier.get(identifier);
+
+      final List<Device> devices = new ArrayList<>();
 
-    if (responseItems.isEmpty()) return Response.status(404).build();
-    else                         return Response.ok().entity(new PreKeyResponse(identityKey, responseItems)).build();
+      for (final Device device : targetAccount.getDevices()) {
+        if (requestedDeviceIds.contains(device.getId())) {
+          devices.add(device);
+        }
+      }
+
+      buildPreKeyResponse(targetAccount, devices, usePhoneNumberIdentity, preKeyFuture.join())
+          .ifPresent(preKeyResponse -> responsesByIdentifier.put(identifier, preKeyResponse));
+    });
+
+    return new PreKeyBatchResponse(responsesByIdentifier);
   }
 
   @Timed
@@ -221,6 +292,15 @@ public class KeysController {
     return Optional.ofNullable(signedPreKey);
   }
 
+  private static void countPreKeyRequest(final String sourceCountryCode, final Account target) {
+    final String targetCountryCode = Util.getCountryCode(target.getNumber());
+
+    Metrics.counter(PREKEY_REQUEST_COUNTER_NAME, Tags.of(
+        SOURCE_COUNTRY_TAG_NAME, sourceCountryCode,
+        INTERNATIONAL_TAG_NAME, String.valueOf(!sourceCountryCode.equals(targetCountryCode))
+    )).increment();
+  }
+
   private static boolean usePhoneNumberIdentity(final Optional<String> identityType) {
     return "pni".equals(identityType.map(String::toLowerCase).orElse("aci"));
   }
@@ -239,11 +319,13 @@ public class KeysController {
         destination.getUuid();
 
     if (deviceIdSelector.equals("*")) {
-      preKeys = new HashMap<>();
+      final List<Long> deviceIds = new ArrayList<>();
 
-      for (final Device device : destination.getDevices()) {
-        keys.take(identifier, device.getId()).ifPresent(preKey -> preKeys.put(device.getId(), preKey));
+      for (final Device device : getSelectedDevices(destination, deviceIdSelector)) {
+        deviceIds.add(device.getId());
       }
+
+      preKeys = deviceIds.isEmpty() ? Collections.emptyMap() : keys.takeForDevices(identifier, deviceIds);
     } else {
       try {
         long deviceId = Long.parseLong(deviceIdSelector);
@@ -258,4 +340,50 @@ public class KeysController {
 
     return preKeys;
   }
+
+  private static List<Device> getSelectedDevices(final Account account, final String deviceIdSelector) {
+    final List<Device> selectedDevices = new ArrayList<>();
+    final boolean allDevices = deviceIdSelector.equals("*");
+    final long deviceId;
+
+    try {
+      deviceId = allDevices ? 0 : Long.parseLong(deviceIdSelector);
+    } catch (final NumberFormatException e) {
+      throw new WebApplicationException(Response.status(422).build());
+    }
+
+    for (final Device device : account.getDevices()) {
+      if (device.isEnabled() && (allDevices || device.getId() == deviceId)) {
+        selectedDevices.add(device);
+      }
+    }
+
+    return selectedDevices;
+  }
+
+  private static Optional<PreKeyResponse> buildPreKeyResponse(final Account target, final String deviceIdSelector,
+      final boolean usePhoneNumberIdentity, final Map<Long, PreKey> preKeysByDeviceId) {
+
+    return buildPreKeyResponse(target, getSelectedDevices(target, deviceIdSelector), usePhoneNumberIdentity,
+        preKeysByDeviceId);
+  }
+
+  private static Optional<PreKeyResponse> buildPreKeyResponse(final Account target, final List<Device> devices,
+      final boolean usePhoneNumberIdentity, final Map<Long, PreKey> preKeysByDeviceId) {
+
+    List<PreKeyResponseItem> responseItems = new LinkedList<>();
+
+    for (Device device : devices) {
+      SignedPreKey signedPreKey = usePhoneNumberIdentity ? device.getPhoneNumberIdentitySignedPreKey() : device.getSignedPreKey();
+      PreKey       preKey       = preKeysByDeviceId.get(device.getId());
+
+      if (signedPreKey != null || preKey != null) {
+        responseItems.add(new PreKeyResponseItem(device.getId(), device.getRegistrationId(), signedPreKey, preKey));
+      }
+    }
+
+    final String identityKey = usePhoneNumberIdentity ? target.getPhoneNumberIdentityKey() : target.getIdentityKey();
+
+    return responseItems.isEmpty() ? Optional.empty() : Optional.of(new PreKeyResponse(identityKey, responseItems));
+  }
 }
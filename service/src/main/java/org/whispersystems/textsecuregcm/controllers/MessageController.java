@@ -135,6 +135,9 @@ public class MessageController {
 
   private static final long MAX_MESSAGE_SIZE = DataSize.kibibytes(256).toBytes();
 
+  private static final ByteString MULTI_RECIPIENT_VERSION_PREFIX =
+      ByteString.copyFrom(new byte[]{MultiRecipientMessageProvider.VERSION});
+
   public MessageController(
       RateLimiters rateLimiters,
       MessageSender messageSender,
@@ -452,22 +455,17 @@ public class MessageController {
   @DELETE
   @Path("/uuid/{uuid}")
   public void removePendingMessage(@Auth AuthenticatedAccount auth, @PathParam("uuid") UUID uuid) {
-    try {
-      Optional<OutgoingMessageEntity> message = messagesManager.delete(
-          auth.getAccount().getUuid(),
-          auth.getAuthenticatedDevice().getId(),
-          uuid);
-
-      if (message.isPresent()) {
-        WebSocketConnection.recordMessageDeliveryDuration(message.get().getTimestamp(), auth.getAuthenticatedDevice());
-        if (!Util.isEmpty(message.get().getSource())
-            && message.get().getType() != Envelope.Type.SERVER_DELIVERY_RECEIPT_VALUE) {
-          receiptSender.sendReceipt(auth, message.get().getSourceUuid(), message.get().getTimestamp());
-        }
-      }
+    Optional<OutgoingMessageEntity> message = messagesManager.delete(
+        auth.getAccount().getUuid(),
+        auth.getAuthenticatedDevice().getId(),
+        uuid);
 
-    } catch (NoSuchUserException e) {
-      logger.warn("Sending delivery receipt", e);
+    if (message.isPresent()) {
+      WebSocketConnection.recordMessageDeliveryDuration(message.get().getTimestamp(), auth.getAuthenticatedDevice());
+      if (!Util.isEmpty(message.get().getSource())
+          && message.get().getType() != Envelope.Type.SERVER_DELIVERY_RECEIPT_VALUE) {
+        receiptSender.sendReceipt(auth, message.get().getSourceUuid(), message.get().getTimestamp());
+      }
     }
   }
 
@@ -549,22 +547,21 @@ public class MessageController {
       long timestamp,
       boolean online,
       Recipient recipient,
-      byte[] commonPayload) throws NoSuchUserException {
+      ByteString commonPayload) throws NoSuchUserException {
     try {
       Envelope.Builder messageBuilder = Envelope.newBuilder();
       long serverTimestamp = System.currentTimeMillis();
-      byte[] recipientKeyMaterial = recipient.getPerRecipientKeyMaterial();
 
-      byte[] payload = new byte[1 + recipientKeyMaterial.length + commonPayload.length];
-      payload[0] = MultiRecipientMessageProvider.VERSION;
-      System.arraycopy(recipientKeyMaterial, 0, payload, 1, recipientKeyMaterial.length);
-      System.arraycopy(commonPayload, 0, payload, 1 + recipientKeyMaterial.length, commonPayload.length);
+      // Every recipient's content ends with the same common payload, so share it rather than copying it per recipient
+      ByteString payload = MULTI_RECIPIENT_VERSION_PREFIX
+          .concat(recipient.getPerRecipientKeyMaterial())
+          .concat(commonPayload);
 
       messageBuilder
           .setType(Type.UNIDENTIFIED_SENDER)
           .setTimestamp(timestamp == 0 ? serverTimestamp : timestamp)
           .setServerTimestamp(serverTimestamp)
-          .setContent(ByteString.copyFrom(payload))
+          .setContent(payload)
           .setDestinationUuid(destinationAccount.getUuid().toString());
 
       messageSender.sendMessage(destinationAccount, destinationDevice, messageBuilder.build(), online);
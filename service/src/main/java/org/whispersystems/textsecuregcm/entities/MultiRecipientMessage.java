@@ -5,6 +5,11 @@
 
 package org.whispersystems.textsecuregcm.entities;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 import java.util.UUID;
 import javax.validation.Valid;
 import javax.validation.constraints.Max;
@@ -13,12 +18,21 @@ import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 import org.whispersystems.textsecuregcm.providers.MultiRecipientMessageProvider;
 
+/**
+ * A multi-recipient message as sent by the client. Recipients and payloads are views into the request body rather than
+ * copies of it, so the body must not be modified once the message has been constructed.
+ */
 public class MultiRecipientMessage {
 
+  public static final int PER_RECIPIENT_KEY_MATERIAL_LENGTH = 48;
+
+  private static final VarHandle BIG_ENDIAN_LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
   public static class Recipient {
 
-    @NotNull
-    private final UUID uuid;
+    private final byte[] body;
+    private final int uuidOffset;
+    private final int keyMaterialOffset;
 
     @Min(1)
     private final long deviceId;
@@ -27,19 +41,21 @@ public class MultiRecipientMessage {
     @Max(65535)
     private final int registrationId;
 
-    @Size(min = 48, max = 48)
-    @NotNull
-    private final byte[] perRecipientKeyMaterial;
-
-    public Recipient(UUID uuid, long deviceId, int registrationId, byte[] perRecipientKeyMaterial) {
-      this.uuid = uuid;
+    /**
+     * @param body the request body this recipient was read from
+     * @param uuidOffset the offset of the recipient's 16-byte UUID in network byte order within {@code body}
+     * @param keyMaterialOffset the offset of the recipient's key material within {@code body}
+     */
+    public Recipient(byte[] body, int uuidOffset, long deviceId, int registrationId, int keyMaterialOffset) {
+      this.body = body;
+      this.uuidOffset = uuidOffset;
       this.deviceId = deviceId;
       this.registrationId = registrationId;
-      this.perRecipientKeyMaterial = perRecipientKeyMaterial;
+      this.keyMaterialOffset = keyMaterialOffset;
     }
 
     public UUID getUuid() {
-      return uuid;
+      return new UUID((long) BIG_ENDIAN_LONG.get(body, uuidOffset), (long) BIG_ENDIAN_LONG.get(body, uuidOffset + 8));
     }
 
     public long getDeviceId() {
@@ -50,8 +66,8 @@ public class MultiRecipientMessage {
       return registrationId;
     }
 
-    public byte[] getPerRecipientKeyMaterial() {
-      return perRecipientKeyMaterial;
+    public ByteString getPerRecipientKeyMaterial() {
+      return UnsafeByteOperations.unsafeWrap(body, keyMaterialOffset, PER_RECIPIENT_KEY_MATERIAL_LENGTH);
     }
   }
 
@@ -61,10 +77,9 @@ public class MultiRecipientMessage {
   private final Recipient[] recipients;
 
   @NotNull
-  @Size(min = 32)
-  private final byte[] commonPayload;
+  private final ByteString commonPayload;
 
-  public MultiRecipientMessage(Recipient[] recipients, byte[] commonPayload) {
+  public MultiRecipientMessage(Recipient[] recipients, ByteString commonPayload) {
     this.recipients = recipients;
     this.commonPayload = commonPayload;
   }
@@ -73,7 +88,10 @@ public class MultiRecipientMessage {
     return recipients;
   }
 
-  public byte[] getCommonPayload() {
+  /**
+   * @return the payload shared by all recipients; every caller gets a view of the same bytes
+   */
+  public ByteString getCommonPayload() {
     return commonPayload;
   }
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.entities;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+import java.util.UUID;
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+import javax.validation.constraints.Size;
+
+public class PreKeyBatchRequest {
+
+  public static final int MAX_TARGETS = 128;
+
+  private final List<Target> targets;
+
+  @JsonCreator
+  public PreKeyBatchRequest(@JsonProperty("targets") final List<Target> targets) {
+    this.targets = targets;
+  }
+
+  @NotEmpty
+  @Size(max = MAX_TARGETS)
+  @Valid
+  public List<Target> getTargets() {
+    return targets;
+  }
+
+  public static class Target {
+
+    private final UUID identifier;
+    private final String deviceId;
+
+    @JsonCreator
+    public Target(@JsonProperty("identifier") final UUID identifier,
+        @JsonProperty("deviceId") final String deviceId) {
+
+      this.identifier = identifier;
+      this.deviceId = deviceId;
+    }
+
+    @NotNull
+    public UUID getIdentifier() {
+      return identifier;
+    }
+
+    /**
+     * @return the identifier of the target device, or "*" for all of the target account's devices
+     */
+    @NotNull
+    // At most 18 digits, so any accepted ID fits in a long
+    @Pattern(regexp = "^(\\*|[0-9]{1,18})$")
+    public String getDeviceId() {
+      return deviceId;
+    }
+  }
+}
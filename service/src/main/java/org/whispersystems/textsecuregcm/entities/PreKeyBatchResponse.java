@@ -0,0 +1,29 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.entities;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.Map;
+import java.util.UUID;
+
+public class PreKeyBatchResponse {
+
+  private final Map<UUID, PreKeyResponse> keys;
+
+  @JsonCreator
+  public PreKeyBatchResponse(@JsonProperty("keys") final Map<UUID, PreKeyResponse> keys) {
+    this.keys = keys;
+  }
+
+  /**
+   * @return pre-key responses keyed by the identifier requested for each target; targets that could not be found or
+   * that have no keys for any requested device are absent
+   */
+  public Map<UUID, PreKeyResponse> getKeys() {
+    return keys;
+  }
+}
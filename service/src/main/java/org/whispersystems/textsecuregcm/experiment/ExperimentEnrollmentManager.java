@@ -5,73 +5,162 @@
 
 package org.whispersystems.textsecuregcm.experiment;
 
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicConfiguration;
 import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicExperimentEnrollmentConfiguration;
 import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicPreRegistrationExperimentEnrollmentConfiguration;
 import org.whispersystems.textsecuregcm.storage.DynamicConfigurationManager;
 import org.whispersystems.textsecuregcm.util.Util;
 
+/**
+ * Determines whether accounts or phone numbers are enrolled in experiments defined in the dynamic configuration.
+ * <p/>
+ * Each time a new dynamic configuration is published, this manager replaces its enrollment index with an empty one for
+ * that configuration; experiment definitions are compiled into the index the first time they're checked, so
+ * individual enrollment checks don't need to re-read or re-derive anything from the configuration.
+ */
 public class ExperimentEnrollmentManager {
 
   private final DynamicConfigurationManager<DynamicConfiguration> dynamicConfigurationManager;
 
+  private volatile EnrollmentIndex enrollmentIndex;
+
   public ExperimentEnrollmentManager(final DynamicConfigurationManager<DynamicConfiguration> dynamicConfigurationManager) {
     this.dynamicConfigurationManager = dynamicConfigurationManager;
+
+    dynamicConfigurationManager.addChangeListener(
+        snapshot -> enrollmentIndex = new EnrollmentIndex(snapshot.getConfiguration()));
   }
 
   public boolean isEnrolled(final UUID accountUuid, final String experimentName) {
+    return getEnrollmentIndex().getUuidExperiment(experimentName)
+        .map(experiment -> experiment.isEnrolled(accountUuid))
+        .orElse(false);
+  }
 
-    final Optional<DynamicExperimentEnrollmentConfiguration> maybeConfiguration = dynamicConfigurationManager
-        .getConfiguration().getExperimentEnrollmentConfiguration(experimentName);
+  public boolean isEnrolled(final String e164, final String experimentName) {
+    return getEnrollmentIndex().getPreRegistrationExperiment(experimentName)
+        .map(experiment -> experiment.isEnrolled(e164))
+        .orElse(false);
+  }
 
-    return maybeConfiguration.map(config -> {
+  private EnrollmentIndex getEnrollmentIndex() {
+    final EnrollmentIndex currentIndex = enrollmentIndex;
 
-      if (config.getEnrolledUuids().contains(accountUuid)) {
-        return true;
-      }
+    if (currentIndex != null) {
+      return currentIndex;
+    }
+
+    // The initial configuration hasn't reached our listener yet; wait for it, but don't race the listener to store it
+    return new EnrollmentIndex(dynamicConfigurationManager.getConfiguration());
+  }
 
-      return isEnrolled(accountUuid, config.getEnrollmentPercentage(), experimentName);
+  private static boolean isInEnrollmentBucket(final int entityHash, final int experimentNameHash,
+      final int enrollmentPercentage) {
 
-    }).orElse(false);
+    if (enrollmentPercentage <= 0) {
+      return false;
+    } else if (enrollmentPercentage >= 100) {
+      return true;
+    }
+
+    return ((entityHash ^ experimentNameHash) & Integer.MAX_VALUE) % 100 < enrollmentPercentage;
   }
 
-  public boolean isEnrolled(final String e164, final String experimentName) {
+  /**
+   * An index of compiled experiments for a single version of the dynamic configuration. Experiments are compiled
+   * lazily the first time they're requested.
+   */
+  private static class EnrollmentIndex {
+
+    private final DynamicConfiguration configuration;
 
-    final Optional<DynamicPreRegistrationExperimentEnrollmentConfiguration> maybeConfiguration = dynamicConfigurationManager
-        .getConfiguration().getPreRegistrationEnrollmentConfiguration(experimentName);
+    private final Map<String, Optional<UuidExperiment>> uuidExperiments = new ConcurrentHashMap<>();
+    private final Map<String, Optional<PreRegistrationExperiment>> preRegistrationExperiments =
+        new ConcurrentHashMap<>();
 
-    return maybeConfiguration.map(config -> {
+    private EnrollmentIndex(final DynamicConfiguration configuration) {
+      this.configuration = configuration;
+    }
 
-      if (config.getEnrolledE164s().contains(e164)) {
+    Optional<UuidExperiment> getUuidExperiment(final String experimentName) {
+      return uuidExperiments.computeIfAbsent(experimentName, name ->
+          configuration.getExperimentEnrollmentConfiguration(name).map(config -> new UuidExperiment(name, config)));
+    }
+
+    Optional<PreRegistrationExperiment> getPreRegistrationExperiment(final String experimentName) {
+      return preRegistrationExperiments.computeIfAbsent(experimentName, name ->
+          configuration.getPreRegistrationEnrollmentConfiguration(name)
+              .map(config -> new PreRegistrationExperiment(name, config)));
+    }
+  }
+
+  private static class UuidExperiment {
+
+    private final int experimentNameHash;
+    private final Set<UUID> enrolledUuids;
+    private final int enrollmentPercentage;
+
+    private UuidExperiment(final String experimentName, final DynamicExperimentEnrollmentConfiguration configuration) {
+      this.experimentNameHash = experimentName.hashCode();
+      this.enrolledUuids = configuration.getEnrolledUuids();
+      this.enrollmentPercentage = configuration.getEnrollmentPercentage();
+    }
+
+    boolean isEnrolled(final UUID accountUuid) {
+      return enrolledUuids.contains(accountUuid)
+          || isInEnrollmentBucket(accountUuid.hashCode(), experimentNameHash, enrollmentPercentage);
+    }
+  }
+
+  private static class PreRegistrationExperiment {
+
+    private final int experimentNameHash;
+    private final Set<String> enrolledE164s;
+    private final Set<String> excludedE164s;
+    private final Set<String> includedCountryCodes;
+    private final Set<String> excludedCountryCodes;
+    private final boolean hasCountryCodeRules;
+    private final int enrollmentPercentage;
+
+    private PreRegistrationExperiment(final String experimentName,
+        final DynamicPreRegistrationExperimentEnrollmentConfiguration configuration) {
+
+      this.experimentNameHash = experimentName.hashCode();
+      this.enrolledE164s = configuration.getEnrolledE164s();
+      this.excludedE164s = configuration.getExcludedE164s();
+      this.includedCountryCodes = configuration.getIncludedCountryCodes();
+      this.excludedCountryCodes = configuration.getExcludedCountryCodes();
+      this.hasCountryCodeRules = !includedCountryCodes.isEmpty() || !excludedCountryCodes.isEmpty();
+      this.enrollmentPercentage = configuration.getEnrollmentPercentage();
+    }
+
+    boolean isEnrolled(final String e164) {
+      if (enrolledE164s.contains(e164)) {
         return true;
       }
 
-      if (config.getExcludedE164s().contains(e164)) {
+      if (excludedE164s.contains(e164)) {
         return false;
       }
 
-      {
+      if (hasCountryCodeRules) {
         final String countryCode = Util.getCountryCode(e164);
 
-        if (config.getIncludedCountryCodes().contains(countryCode)) {
+        if (includedCountryCodes.contains(countryCode)) {
           return true;
         }
 
-        if (config.getExcludedCountryCodes().contains(countryCode)) {
+        if (excludedCountryCodes.contains(countryCode)) {
           return false;
         }
       }
 
-      return isEnrolled(e164, config.getEnrollmentPercentage(), experimentName);
-
-    }).orElse(false);
-  }
-
-  private boolean isEnrolled(final Object entity, final int enrollmentPercentage, final String experimentName) {
-    final int enrollmentHash = ((entity.hashCode() ^ experimentName.hashCode()) & Integer.MAX_VALUE) % 100;
-
-    return enrollmentHash < enrollmentPercentage;
+      return isInEnrollmentBucket(e164.hashCode(), experimentNameHash, enrollmentPercentage);
+    }
   }
 }
@@ -24,57 +24,56 @@ public class CanonicalRequestGenerator {
   @Nonnull
   private final String domain;
 
+  private final int maxSizeBytes;
+
+  // Everything in a canonical request other than the object key and the request time is fixed for a given generator
   @Nonnull
-  private final String email;
+  private final String resourcePathPrefix;
 
-  private final int maxSizeBytes;
+  @Nonnull
+  private final String encodedCredentialPrefix;
 
   @Nonnull
-  private final String pathPrefix;
+  private final String canonicalQuerySuffix;
+
+  @Nonnull
+  private final String canonicalHeadersAndPayload;
 
   public CanonicalRequestGenerator(@Nonnull String domain, @Nonnull String email, int maxSizeBytes, @Nonnull String pathPrefix) {
     this.domain       = domain;
-    this.email        = email;
     this.maxSizeBytes = maxSizeBytes;
-    this.pathPrefix   = pathPrefix;
+
+    this.resourcePathPrefix = (Strings.isNullOrEmpty(pathPrefix) ? "" : pathPrefix) + '/';
+    this.encodedCredentialPrefix = URLEncoder.encode(email + '/', StandardCharsets.UTF_8);
+    this.canonicalQuerySuffix = "&X-Goog-Expires=" + Duration.of(25, ChronoUnit.HOURS).toSeconds() +
+        "&X-Goog-SignedHeaders=host%3Bx-goog-content-length-range%3Bx-goog-resumable";
+    this.canonicalHeadersAndPayload = "host:" + domain + '\n' +
+        "x-goog-content-length-range:1," + maxSizeBytes + '\n' +
+        "x-goog-resumable:start\n" +
+        '\n' +
+        "host;x-goog-content-length-range;x-goog-resumable\n" +
+        "UNSIGNED-PAYLOAD";
   }
 
   public CanonicalRequest createFor(@Nonnull final String key, @Nonnull final ZonedDateTime now) {
-    final StringBuilder result = new StringBuilder("POST\n");
-
-    final StringBuilder resourcePathBuilder = new StringBuilder();
-    if (!Strings.isNullOrEmpty(pathPrefix)) {
-      resourcePathBuilder.append(pathPrefix);
-    }
-    resourcePathBuilder.append('/').append(URLEncoder.encode(key, StandardCharsets.UTF_8));
-    final String resourcePath = resourcePathBuilder.toString();
-    result.append(resourcePath).append('\n');
-
+    final String resourcePath = resourcePathPrefix + URLEncoder.encode(key, StandardCharsets.UTF_8);
     final String activeDatetime = SIMPLE_UTC_DATE_TIME.format(now);
+    final String credentialScope = makeCredentialScope(now);
+
     final String canonicalQuery = "X-Goog-Algorithm=GOOG4-RSA-SHA256" +
-            "&X-Goog-Credential=" + URLEncoder.encode(makeCredential(email, now), StandardCharsets.UTF_8) +
+            "&X-Goog-Credential=" + encodedCredentialPrefix + URLEncoder.encode(credentialScope, StandardCharsets.UTF_8) +
             "&X-Goog-Date=" + URLEncoder.encode(activeDatetime, StandardCharsets.UTF_8) +
-            "&X-Goog-Expires=" + Duration.of(25, ChronoUnit.HOURS).toSeconds() +
-            "&X-Goog-SignedHeaders=host%3Bx-goog-content-length-range%3Bx-goog-resumable";
-    result.append(canonicalQuery).append('\n');
-
-    result.append("host:").append(domain).append('\n');
-    result.append("x-goog-content-length-range:1,").append(maxSizeBytes).append('\n');
-    result.append("x-goog-resumable:start\n");
-    result.append('\n');
+            canonicalQuerySuffix;
 
-    result.append("host;x-goog-content-length-range;x-goog-resumable\n");
+    final String canonicalRequest = "POST\n" +
+        resourcePath + '\n' +
+        canonicalQuery + '\n' +
+        canonicalHeadersAndPayload;
 
-    result.append("UNSIGNED-PAYLOAD");
-
-    return new CanonicalRequest(result.toString(), resourcePath, canonicalQuery, activeDatetime, makeCredentialScope(now), domain, maxSizeBytes);
+    return new CanonicalRequest(canonicalRequest, resourcePath, canonicalQuery, activeDatetime, credentialScope, domain, maxSizeBytes);
   }
 
   private String makeCredentialScope(@Nonnull ZonedDateTime now) {
     return SIMPLE_UTC_DATE.format(now) + "/auto/storage/goog4_request";
   }
-
-  private String makeCredential(@Nonnull String email, @Nonnull ZonedDateTime now) {
-    return email + '/' + makeCredentialScope(now);
-  }
 }
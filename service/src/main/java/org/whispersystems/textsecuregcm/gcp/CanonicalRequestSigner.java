@@ -27,6 +27,18 @@ public class CanonicalRequestSigner {
   @Nonnull
   private final PrivateKey rsaSigningKey;
 
+  // Initializing a Signature is comparatively expensive, but a Signature returns to its initialized state after each
+  // use, so each thread keeps one ready to go
+  private final ThreadLocal<Signature> signature = ThreadLocal.withInitial(this::newSignature);
+
+  private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  });
+
   private static final Pattern PRIVATE_KEY_PATTERN =
       Pattern.compile("^-+BEGIN PRIVATE KEY-+\\s*(.+)\\n-+END PRIVATE KEY-+\\s*$", Pattern.DOTALL);
 
@@ -45,29 +57,33 @@ public class CanonicalRequestSigner {
 
     result.append(canonicalRequest.getCredentialScope()).append('\n');
 
-    final MessageDigest sha256;
-    try {
-      sha256 = MessageDigest.getInstance("SHA-256");
-    } catch (NoSuchAlgorithmException e) {
-      throw new AssertionError(e);
-    }
-    sha256.update(canonicalRequest.getCanonicalRequest().getBytes(StandardCharsets.UTF_8));
-    result.append(Hex.encodeHex(sha256.digest()));
+    result.append(Hex.encodeHex(SHA256.get().digest(canonicalRequest.getCanonicalRequest().getBytes(StandardCharsets.UTF_8))));
 
     return result.toString();
   }
 
   private String sign(@Nonnull String stringToSign) {
-    final byte[] signature;
+    final byte[] signatureBytes;
+    try {
+      final Signature sha256rsa = signature.get();
+      sha256rsa.update(stringToSign.getBytes(StandardCharsets.UTF_8));
+      signatureBytes = sha256rsa.sign();
+    } catch (SignatureException e) {
+      // Discard the Signature in case it was left in an unusable state
+      signature.remove();
+      throw new AssertionError(e);
+    }
+    return Hex.encodeHexString(signatureBytes);
+  }
+
+  private Signature newSignature() {
     try {
       final Signature sha256rsa = Signature.getInstance("SHA256WITHRSA");
       sha256rsa.initSign(rsaSigningKey);
-      sha256rsa.update(stringToSign.getBytes(StandardCharsets.UTF_8));
-      signature = sha256rsa.sign();
-    } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
+      return sha256rsa;
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
       throw new AssertionError(e);
     }
-    return Hex.encodeHexString(signature);
   }
 
   private static PrivateKey initializeRsaSigningKey(String rsaSigningKey) throws IOException, InvalidKeyException, InvalidKeySpecException {
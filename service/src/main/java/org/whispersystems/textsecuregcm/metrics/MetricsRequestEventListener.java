@@ -19,7 +19,9 @@ import org.whispersystems.textsecuregcm.util.ua.ClientPlatform;
 import org.whispersystems.textsecuregcm.util.ua.UnrecognizedUserAgentException;
 import org.whispersystems.textsecuregcm.util.ua.UserAgent;
 import org.whispersystems.textsecuregcm.util.ua.UserAgentUtil;
+import org.whispersystems.websocket.fastpath.FastPathListener;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -27,9 +29,9 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * Gathers and reports request-level metrics.
+ * Gathers and reports request-level metrics for requests handled by Jersey or by a websocket fast-path handler.
  */
-public class MetricsRequestEventListener implements RequestEventListener {
+public class MetricsRequestEventListener implements RequestEventListener, FastPathListener {
 
     public static final String REQUEST_COUNTER_NAME = MetricRegistry.name(MetricsRequestEventListener.class, "request");
     public static final String ANDROID_REQUEST_COUNTER_NAME = MetricRegistry.name(MetricsRequestEventListener.class, "androidRequest");
@@ -70,26 +72,38 @@ public class MetricsRequestEventListener implements RequestEventListener {
     public void onEvent(final RequestEvent event) {
         if (event.getType() == RequestEvent.Type.FINISHED) {
             if (!event.getUriInfo().getMatchedTemplates().isEmpty()) {
-                final List<Tag> tags = new ArrayList<>(5);
-                tags.add(Tag.of(PATH_TAG, UriInfoUtil.getPathTemplate(event.getUriInfo())));
-                tags.add(Tag.of(STATUS_CODE_TAG, String.valueOf(event.getContainerResponse().getStatus())));
-                tags.add(Tag.of(TRAFFIC_SOURCE_TAG, trafficSource.name().toLowerCase()));
-
                 final List<String> userAgentValues = event.getContainerRequest().getRequestHeader("User-Agent");
-                // tags.addAll(UserAgentTagUtil.getUserAgentTags(userAgentValues != null ? userAgentValues.stream().findFirst().orElse(null) : null));
-                tags.add(UserAgentTagUtil.getPlatformTag(userAgentValues != null ? userAgentValues.stream().findFirst().orElse(null) : null));
 
-                meterRegistry.counter(REQUEST_COUNTER_NAME, tags).increment();
+                recordRequest(UriInfoUtil.getPathTemplate(event.getUriInfo()),
+                    event.getContainerResponse().getStatus(),
+                    userAgentValues != null ? userAgentValues.stream().findFirst().orElse(null) : null);
+            }
+        }
+    }
+
+    @Override
+    public void onRequestComplete(final String path, final int statusCode, @Nullable final String userAgent) {
+        recordRequest(path, statusCode, userAgent);
+    }
+
+    private void recordRequest(final String pathTemplate, final int statusCode, @Nullable final String userAgentString) {
+        final List<Tag> tags = new ArrayList<>(5);
+        tags.add(Tag.of(PATH_TAG, pathTemplate));
+        tags.add(Tag.of(STATUS_CODE_TAG, String.valueOf(statusCode)));
+        tags.add(Tag.of(TRAFFIC_SOURCE_TAG, trafficSource.name().toLowerCase()));
 
-                try {
-                    final UserAgent userAgent = UserAgentUtil.parseUserAgentString(userAgentValues != null ? userAgentValues.stream().findFirst().orElse(null) : null);
+        // tags.addAll(UserAgentTagUtil.getUserAgentTags(userAgentString));
+        tags.add(UserAgentTagUtil.getPlatformTag(userAgentString));
 
-                    recordDesktopOperatingSystem(userAgent);
-                    recordAndroidSdkVersion(userAgent);
-                    recordIosVersion(userAgent);
-                } catch (final UnrecognizedUserAgentException ignored) {
-                }
-            }
+        meterRegistry.counter(REQUEST_COUNTER_NAME, tags).increment();
+
+        try {
+            final UserAgent userAgent = UserAgentUtil.parseUserAgentString(userAgentString);
+
+            recordDesktopOperatingSystem(userAgent);
+            recordAndroidSdkVersion(userAgent);
+            recordIosVersion(userAgent);
+        } catch (final UnrecognizedUserAgentException ignored) {
         }
     }
 
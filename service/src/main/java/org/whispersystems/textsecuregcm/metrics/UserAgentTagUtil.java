@@ -5,8 +5,14 @@
 
 package org.whispersystems.textsecuregcm.metrics;
 
+import static org.whispersystems.textsecuregcm.metrics.MetricsUtil.name;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.vdurmont.semver4j.Semver;
+import io.micrometer.core.instrument.Metrics;
 import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import org.whispersystems.textsecuregcm.util.Pair;
 import org.whispersystems.textsecuregcm.util.ua.ClientPlatform;
 import org.whispersystems.textsecuregcm.util.ua.UnrecognizedUserAgentException;
@@ -14,10 +20,10 @@ import org.whispersystems.textsecuregcm.util.ua.UserAgent;
 import org.whispersystems.textsecuregcm.util.ua.UserAgentUtil;
 
 import java.util.EnumMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utility class for extracting platform/version metrics tags from User-Agent strings.
@@ -38,12 +44,44 @@ public class UserAgentTagUtil {
     }
 
     static final         int                               MAX_VERSIONS  = 1_000;
-    private static final Set<Pair<ClientPlatform, Semver>> SEEN_VERSIONS = new HashSet<>();
+    private static final Set<Pair<ClientPlatform, Semver>> SEEN_VERSIONS = ConcurrentHashMap.newKeySet();
+
+    // Tags for a given User-Agent string never change once computed: versions are never removed from SEEN_VERSIONS, so
+    // an allowed version stays allowed and an overflowed version stays overflowed.
+    private static final Cache<String, List<Tag>> USER_AGENT_TAGS_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(UserAgentUtil.MAX_CACHED_USER_AGENTS)
+            .recordStats()
+            .build();
+
+    static {
+        GuavaCacheMetrics.monitor(Metrics.globalRegistry, USER_AGENT_TAGS_CACHE, name(UserAgentTagUtil.class, "userAgentTagsCache"));
+    }
 
     private UserAgentTagUtil() {
     }
 
     public static List<Tag> getUserAgentTags(final String userAgentString) {
+        if (userAgentString == null) {
+            return UNRECOGNIZED_TAGS;
+        }
+
+        if (userAgentString.length() > UserAgentUtil.MAX_CACHED_USER_AGENT_LENGTH) {
+            return getUncachedUserAgentTags(userAgentString);
+        }
+
+        final List<Tag> cachedTags = USER_AGENT_TAGS_CACHE.getIfPresent(userAgentString);
+
+        if (cachedTags != null) {
+            return cachedTags;
+        }
+
+        final List<Tag> tags = getUncachedUserAgentTags(userAgentString);
+        USER_AGENT_TAGS_CACHE.put(userAgentString, tags);
+
+        return tags;
+    }
+
+    private static List<Tag> getUncachedUserAgentTags(final String userAgentString) {
         try {
             final UserAgent userAgent = UserAgentUtil.parseUserAgentString(userAgentString);
             final List<Tag> tags;
@@ -79,8 +117,7 @@ public class UserAgentTagUtil {
     private static boolean allowVersion(final ClientPlatform platform, final Semver version) {
         final Pair<ClientPlatform, Semver> platformAndVersion = new Pair<>(platform, version);
 
-        synchronized (SEEN_VERSIONS) {
-            return SEEN_VERSIONS.contains(platformAndVersion) || (SEEN_VERSIONS.size() < MAX_VERSIONS && SEEN_VERSIONS.add(platformAndVersion));
-        }
+        // Concurrent additions may overshoot MAX_VERSIONS by a few entries, which is harmless
+        return SEEN_VERSIONS.contains(platformAndVersion) || (SEEN_VERSIONS.size() < MAX_VERSIONS && SEEN_VERSIONS.add(platformAndVersion));
     }
 }
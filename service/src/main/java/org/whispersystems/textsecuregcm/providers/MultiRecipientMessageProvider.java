@@ -6,15 +6,18 @@
 package org.whispersystems.textsecuregcm.providers;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.protobuf.UnsafeByteOperations;
 import io.dropwizard.util.DataSizeUnit;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
-import java.util.UUID;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.NoContentException;
@@ -31,6 +34,15 @@ public class MultiRecipientMessageProvider implements MessageBodyReader<MultiRec
   public static final int MAX_MESSAGE_SIZE = Math.toIntExact(32 + DataSizeUnit.KIBIBYTES.toBytes(256));
   public static final byte VERSION = 0x22;
 
+  private static final int MAX_VARINT_LENGTH = 10;
+  private static final int MAX_RECIPIENT_LENGTH =
+      16 + MAX_VARINT_LENGTH + 2 + MultiRecipientMessage.PER_RECIPIENT_KEY_MATERIAL_LENGTH;
+
+  @VisibleForTesting
+  static final int MAX_BODY_SIZE = 1 + MAX_VARINT_LENGTH + MAX_RECIPIENT_COUNT * MAX_RECIPIENT_LENGTH + MAX_MESSAGE_SIZE;
+
+  private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
   @Override
   public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
     return MEDIA_TYPE.equals(mediaType.toString()) && MultiRecipientMessage.class.isAssignableFrom(type);
@@ -40,109 +52,182 @@ public class MultiRecipientMessageProvider implements MessageBodyReader<MultiRec
   public MultiRecipientMessage readFrom(Class<MultiRecipientMessage> type, Type genericType, Annotation[] annotations,
       MediaType mediaType, MultivaluedMap<String, String> httpHeaders, InputStream entityStream)
       throws IOException, WebApplicationException {
-    int versionByte = entityStream.read();
-    if (versionByte == -1) {
+
+    final ByteBuffer body = readBody(entityStream, getInitialBufferSize(httpHeaders));
+    return parse(body.array(), body.limit());
+  }
+
+  /**
+   * Parses a multi-recipient message from the first {@code length} bytes of {@code body}. The returned message refers
+   * to {@code body} instead of copying from it.
+   */
+  private static MultiRecipientMessage parse(byte[] body, int length) throws IOException, WebApplicationException {
+    if (length == 0) {
       throw new NoContentException("Empty body not allowed");
     }
-    if (versionByte != VERSION) {
+    if (body[0] != VERSION) {
       throw new BadRequestException("Unsupported version");
     }
-    long count = readVarint(entityStream);
-    if (count > MAX_RECIPIENT_COUNT) {
+
+    final BodyReader reader = new BodyReader(body, 1, length);
+
+    long count = reader.readVarint();
+    if (count < 0 || count > MAX_RECIPIENT_COUNT) {
       throw new BadRequestException("Maximum recipient count exceeded");
     }
-    MultiRecipientMessage.Recipient[] recipients = new MultiRecipientMessage.Recipient[Math.toIntExact(count)];
-    for (int i = 0; i < Math.toIntExact(count); i++) {
-      UUID uuid = readUuid(entityStream);
-      long deviceId = readVarint(entityStream);
-      int registrationId = readU16(entityStream);
-      byte[] perRecipientKeyMaterial = entityStream.readNBytes(48);
-      if (perRecipientKeyMaterial.length != 48) {
-        throw new IOException("Failed to read expected number of key material bytes for a recipient");
-      }
-      recipients[i] = new MultiRecipientMessage.Recipient(uuid, deviceId, registrationId, perRecipientKeyMaterial);
+    MultiRecipientMessage.Recipient[] recipients = new MultiRecipientMessage.Recipient[(int) count];
+    for (int i = 0; i < recipients.length; i++) {
+      int uuidOffset = reader.skip(16, "Insufficient bytes for UUID");
+      long deviceId = reader.readVarint();
+      int registrationId = reader.readU16();
+      int keyMaterialOffset = reader.skip(MultiRecipientMessage.PER_RECIPIENT_KEY_MATERIAL_LENGTH,
+          "Failed to read expected number of key material bytes for a recipient");
+
+      recipients[i] = new MultiRecipientMessage.Recipient(body, uuidOffset, deviceId, registrationId, keyMaterialOffset);
     }
 
-    // caller is responsible for checking that the entity stream is at EOF when we return; if there are more bytes than
-    // this it'll return an error back. We just need to limit how many we'll accept here.
-    byte[] commonPayload = entityStream.readNBytes(MAX_MESSAGE_SIZE);
-    if (commonPayload.length < 32) {
+    int commonPayloadLength = reader.remaining();
+    if (commonPayloadLength < 32) {
       throw new IOException("Failed to read expected number of common key material bytes");
     }
-    return new MultiRecipientMessage(recipients, commonPayload);
+    if (commonPayloadLength > MAX_MESSAGE_SIZE) {
+      throw new BadRequestException("Maximum message size exceeded");
+    }
+    return new MultiRecipientMessage(recipients,
+        UnsafeByteOperations.unsafeWrap(body, reader.position(), commonPayloadLength));
   }
 
   /**
-   * Reads a UUID in network byte order and converts to a UUID object.
+   * Sizes the body buffer from the request's {@code Content-Length} header if it has a usable one so the body can
+   * usually be read without growing the buffer.
    */
-  private UUID readUuid(InputStream stream) throws IOException {
-    byte[] buffer = new byte[8];
-
-    int read = stream.readNBytes(buffer, 0, 8);
-    if (read != 8) {
-      throw new IOException("Insufficient bytes for UUID");
-    }
-    long msb = convertNetworkByteOrderToLong(buffer);
+  private static int getInitialBufferSize(MultivaluedMap<String, String> httpHeaders) {
+    final String contentLength = httpHeaders != null ? httpHeaders.getFirst(HttpHeaders.CONTENT_LENGTH) : null;
 
-    read = stream.readNBytes(buffer, 0, 8);
-    if (read != 8) {
-      throw new IOException("Insufficient bytes for UUID");
+    if (contentLength != null) {
+      try {
+        return Math.toIntExact(Math.max(0, Math.min(Long.parseLong(contentLength.trim()), MAX_BODY_SIZE)));
+      } catch (NumberFormatException e) {
+        // Fall through to the default
+      }
     }
-    long lsb = convertNetworkByteOrderToLong(buffer);
 
-    return new UUID(msb, lsb);
-  }
-
-  private long convertNetworkByteOrderToLong(byte[] buffer) {
-    long result = 0;
-    for (int i = 0; i < 8; i++) {
-      result = (result << 8) | (buffer[i] & 0xFFL);
-    }
-    return result;
+    return DEFAULT_BUFFER_SIZE;
   }
 
   /**
-   * Reads a varint. A varint larger than 64 bits is rejected with a {@code WebApplicationException}. An
-   * {@code IOException} is thrown if the stream ends before we finish reading the varint.
+   * Reads the entire entity stream into a single array, rejecting bodies that couldn't possibly hold a valid message.
    *
-   * @return the varint value
+   * @return a buffer wrapping the body's backing array, with its limit set to the length of the body
    */
-  private long readVarint(InputStream stream) throws IOException, WebApplicationException {
-    boolean hasMore = true;
-    int currentOffset = 0;
-    int result = 0;
-    while (hasMore) {
-      if (currentOffset >= 64) {
-        throw new BadRequestException("varint is too large");
-      }
-      int b = stream.read();
-      if (b == -1) {
-        throw new IOException("Missing byte " + (currentOffset / 7) + " of varint");
-      }
-      if (currentOffset == 63 && (b & 0xFE) != 0) {
-        throw new BadRequestException("varint is too large");
+  private static ByteBuffer readBody(InputStream stream, int initialBufferSize) throws IOException {
+    byte[] body = new byte[initialBufferSize];
+    int length = 0;
+
+    while (true) {
+      if (length == body.length) {
+        // Only grow the buffer if there's actually more to read
+        int next = stream.read();
+        if (next == -1) {
+          break;
+        }
+        if (body.length >= MAX_BODY_SIZE) {
+          throw new BadRequestException("Maximum message size exceeded");
+        }
+
+        body = Arrays.copyOf(body, Math.min(Math.max(body.length * 2, DEFAULT_BUFFER_SIZE), MAX_BODY_SIZE));
+        body[length++] = (byte) next;
+      } else {
+        int read = stream.read(body, length, body.length - length);
+        if (read == -1) {
+          break;
+        }
+        length += read;
       }
-      hasMore = (b & 0x80) != 0;
-      result |= (b & 0x7F) << currentOffset;
-      currentOffset += 7;
     }
-    return result;
+
+    return ByteBuffer.wrap(body, 0, length);
   }
 
   /**
-   * Reads two bytes with most significant byte first. Treats the value as unsigned so the range returned is
-   * {@code [0, 65535]}.
+   * A bounds-checked cursor over a request body.
    */
   @VisibleForTesting
-  static int readU16(InputStream stream) throws IOException {
-    int b1 = stream.read();
-    if (b1 == -1) {
-      throw new IOException("Missing byte 1 of U16");
+  static class BodyReader {
+
+    private final byte[] body;
+    private final int limit;
+    private int position;
+
+    BodyReader(byte[] body, int position, int limit) {
+      this.body = body;
+      this.position = position;
+      this.limit = limit;
+    }
+
+    int position() {
+      return position;
+    }
+
+    int remaining() {
+      return limit - position;
+    }
+
+    /**
+     * Advances past {@code length} bytes, throwing an {@code IOException} with the given message if there aren't that
+     * many left.
+     *
+     * @return the offset of the first byte skipped
+     */
+    int skip(int length, String insufficientBytesMessage) throws IOException {
+      if (remaining() < length) {
+        throw new IOException(insufficientBytesMessage);
+      }
+      int start = position;
+      position += length;
+      return start;
+    }
+
+    /**
+     * Reads a varint. A varint larger than 64 bits is rejected with a {@code WebApplicationException}. An
+     * {@code IOException} is thrown if the body ends before we finish reading the varint.
+     *
+     * @return the varint value
+     */
+    long readVarint() throws IOException, WebApplicationException {
+      long result = 0;
+      for (int currentOffset = 0; ; currentOffset += 7) {
+        if (currentOffset >= 64) {
+          throw new BadRequestException("varint is too large");
+        }
+        if (position == limit) {
+          throw new IOException("Missing byte " + (currentOffset / 7) + " of varint");
+        }
+        int b = body[position++] & 0xFF;
+        if (currentOffset == 63 && (b & 0xFE) != 0) {
+          throw new BadRequestException("varint is too large");
+        }
+        result |= (long) (b & 0x7F) << currentOffset;
+        if ((b & 0x80) == 0) {
+          return result;
+        }
+      }
     }
-    int b2 = stream.read();
-    if (b2 == -1) {
-      throw new IOException("Missing byte 2 of U16");
+
+    /**
+     * Reads two bytes with most significant byte first. Treats the value as unsigned so the range returned is
+     * {@code [0, 65535]}.
+     */
+    int readU16() throws IOException {
+      if (position == limit) {
+        throw new IOException("Missing byte 1 of U16");
+      }
+      if (position + 1 == limit) {
+        throw new IOException("Missing byte 2 of U16");
+      }
+      int result = ((body[position] & 0xFF) << 8) | (body[position + 1] & 0xFF);
+      position += 2;
+      return result;
     }
-    return (b1 << 8) | b2;
   }
 }
@@ -7,6 +7,8 @@ package org.whispersystems.textsecuregcm.providers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.dispatch.io.RedisPubSubConnectionFactory;
+import org.whispersystems.dispatch.redis.BlockingPubSubConnection;
+import org.whispersystems.dispatch.redis.NioPubSubConnection;
 import org.whispersystems.dispatch.redis.PubSubConnection;
 import org.whispersystems.textsecuregcm.configuration.CircuitBreakerConfiguration;
 import org.whispersystems.textsecuregcm.redis.ReplicatedJedisPool;
@@ -27,11 +29,14 @@ public class RedisClientFactory implements RedisPubSubConnectionFactory {
 
   private final Logger logger = LoggerFactory.getLogger(RedisClientFactory.class);
 
+  private static final int MAX_PUBSUB_BUFFER_SIZE = 4 * 1024 * 1024;
+
   private final String    host;
   private final int       port;
+  private final boolean   nonBlockingPubSub;
   private final ReplicatedJedisPool jedisPool;
 
-  public RedisClientFactory(String name, String url, List<String> replicaUrls, CircuitBreakerConfiguration circuitBreakerConfiguration)
+  public RedisClientFactory(String name, String url, List<String> replicaUrls, CircuitBreakerConfiguration circuitBreakerConfiguration, boolean nonBlockingPubSub)
       throws URISyntaxException
   {
     JedisPoolConfig poolConfig = new JedisPoolConfig();
@@ -42,6 +47,7 @@ public class RedisClientFactory implements RedisPubSubConnectionFactory {
 
     this.host      = redisURI.getHost();
     this.port      = redisURI.getPort();
+    this.nonBlockingPubSub = nonBlockingPubSub;
 
     JedisPool       masterPool   = new JedisPool(poolConfig, host, port, Protocol.DEFAULT_TIMEOUT, null);
     List<JedisPool> replicaPools = new LinkedList<>();
@@ -66,8 +72,12 @@ public class RedisClientFactory implements RedisPubSubConnectionFactory {
   public PubSubConnection connect() {
     while (true) {
       try {
+        if (nonBlockingPubSub) {
+          return NioPubSubConnection.open(host, port, MAX_PUBSUB_BUFFER_SIZE);
+        }
+
         Socket socket = new Socket(host, port);
-        return new PubSubConnection(socket);
+        return new BlockingPubSubConnection(socket);
       } catch (IOException e) {
         logger.warn("Error connecting", e);
         Util.sleep(200);
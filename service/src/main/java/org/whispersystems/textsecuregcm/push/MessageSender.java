@@ -41,6 +41,7 @@ public class MessageSender implements Managed {
   private final GCMSender                  gcmSender;
   private final APNSender                  apnSender;
   private final PushLatencyManager         pushLatencyManager;
+  private final PushNotificationCoalescer  pushNotificationCoalescer;
 
   private static final String SEND_COUNTER_NAME      = name(MessageSender.class, "sendMessage");
   private static final String CHANNEL_TAG_NAME       = "channel";
@@ -52,7 +53,8 @@ public class MessageSender implements Managed {
                        MessagesManager       messagesManager,
                        GCMSender             gcmSender,
                        APNSender             apnSender,
-                       PushLatencyManager    pushLatencyManager)
+                       PushLatencyManager    pushLatencyManager,
+                       PushNotificationCoalescer pushNotificationCoalescer)
   {
     this.apnFallbackManager    = apnFallbackManager;
     this.clientPresenceManager = clientPresenceManager;
@@ -60,27 +62,13 @@ public class MessageSender implements Managed {
     this.gcmSender             = gcmSender;
     this.apnSender             = apnSender;
     this.pushLatencyManager    = pushLatencyManager;
+    this.pushNotificationCoalescer = pushNotificationCoalescer;
   }
 
   public void sendMessage(final Account account, final Device device, final Envelope message, boolean online)
       throws NotPushRegisteredException
   {
-    if (device.getGcmId() == null && device.getApnId() == null && !device.getFetchesMessages()) {
-      throw new NotPushRegisteredException("No delivery possible!");
-    }
-
-    final String channel;
-
-    if (device.getGcmId() != null) {
-      channel = "gcm";
-    } else if (device.getApnId() != null) {
-      channel = "apn";
-    } else if (device.getFetchesMessages()) {
-      channel = "websocket";
-    } else {
-      throw new AssertionError();
-    }
-
+    final String channel = getDeliveryChannelName(device);
     final boolean clientPresent;
 
     if (online) {
@@ -98,7 +86,7 @@ public class MessageSender implements Managed {
       clientPresent = clientPresenceManager.isPresent(account.getUuid(), device.getId());
 
       if (!clientPresent) {
-        sendNewMessageNotification(account, device);
+        sendCoalescedNewMessageNotification(account, device);
       }
     }
 
@@ -110,6 +98,70 @@ public class MessageSender implements Managed {
     Metrics.counter(SEND_COUNTER_NAME, tags).increment();
   }
 
+  /**
+   * Sends a batch of non-ephemeral messages to a single destination device. All messages are inserted before checking
+   * for client presence, and at most one push notification is sent for the whole batch.
+   *
+   * @param account the account to which the messages should be delivered
+   * @param device the device to which the messages should be delivered
+   * @param messages the messages to deliver
+   *
+   * @throws NotPushRegisteredException if the destination device has no means of receiving messages
+   */
+  public void sendMessages(final Account account, final Device device, final List<Envelope> messages)
+      throws NotPushRegisteredException
+  {
+    final String channel = getDeliveryChannelName(device);
+
+    for (final Envelope message : messages) {
+      messagesManager.insert(account.getUuid(), device.getId(), message);
+    }
+
+    final boolean clientPresent = clientPresenceManager.isPresent(account.getUuid(), device.getId());
+
+    if (!clientPresent) {
+      sendCoalescedNewMessageNotification(account, device);
+    }
+
+    final List<Tag> tags = List.of(
+        Tag.of(CHANNEL_TAG_NAME, channel),
+        Tag.of(EPHEMERAL_TAG_NAME, "false"),
+        Tag.of(CLIENT_ONLINE_TAG_NAME, String.valueOf(clientPresent)));
+
+    Metrics.counter(SEND_COUNTER_NAME, tags).increment(messages.size());
+  }
+
+  private static String getDeliveryChannelName(final Device device) throws NotPushRegisteredException {
+    if (device.getGcmId() != null) {
+      return "gcm";
+    } else if (device.getApnId() != null) {
+      return "apn";
+    } else if (device.getFetchesMessages()) {
+      return "websocket";
+    } else {
+      throw new NotPushRegisteredException("No delivery possible!");
+    }
+  }
+
+  /**
+   * Clears any notification coalescing window for the given device so that the next message that arrives while the
+   * device is disconnected triggers a push notification.
+   *
+   * @param account the account that owns the device
+   * @param device the device that has connected
+   *
+   * @see PushNotificationCoalescer
+   */
+  public void clearNotificationCoalescingWindow(final Account account, final Device device) {
+    pushNotificationCoalescer.clear(account.getUuid(), device.getId());
+  }
+
+  private void sendCoalescedNewMessageNotification(final Account account, final Device device) {
+    if (pushNotificationCoalescer.shouldSendNotification(account.getUuid(), device.getId())) {
+      sendNewMessageNotification(account, device);
+    }
+  }
+
   public void sendNewMessageNotification(final Account account, final Device device) {
     if (!Util.isEmpty(device.getGcmId())) {
       sendGcmNotification(account, device);
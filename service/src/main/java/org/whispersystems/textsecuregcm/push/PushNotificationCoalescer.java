@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.push;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.lettuce.core.RedisException;
+import io.lettuce.core.SetArgs;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import java.time.Duration;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicConfiguration;
+import org.whispersystems.textsecuregcm.redis.FaultTolerantRedisCluster;
+import org.whispersystems.textsecuregcm.storage.DynamicConfigurationManager;
+
+/**
+ * Suppresses redundant "new message" push notifications to the same device. When a burst of messages arrives for a
+ * device that isn't connected, only the first message within the configured coalescing window triggers a push
+ * notification; the device will retrieve the rest of its queue when it wakes up in response to that notification.
+ * <p/>
+ * The window for a device is claimed with a {@code SET NX PX} so that coalescing holds across all servers, and is
+ * cleared as soon as the device connects so that messages arriving after it disconnects always trigger a fresh
+ * notification. If Redis is unavailable, notifications are sent as though coalescing were disabled.
+ *
+ * @see DynamicConfiguration#getPushNotificationConfiguration()
+ */
+public class PushNotificationCoalescer {
+
+  private final FaultTolerantRedisCluster redisCluster;
+  private final DynamicConfigurationManager<DynamicConfiguration> dynamicConfigurationManager;
+
+  private static final Counter sentCounter = Metrics.counter(name(PushNotificationCoalescer.class, "sent"));
+  private static final Counter suppressedCounter = Metrics.counter(name(PushNotificationCoalescer.class, "suppressed"));
+
+  private static final Logger logger = LoggerFactory.getLogger(PushNotificationCoalescer.class);
+
+  public PushNotificationCoalescer(final FaultTolerantRedisCluster redisCluster,
+      final DynamicConfigurationManager<DynamicConfiguration> dynamicConfigurationManager) {
+
+    this.redisCluster = redisCluster;
+    this.dynamicConfigurationManager = dynamicConfigurationManager;
+  }
+
+  /**
+   * Checks whether a "new message" notification should be sent to the given device and, if so, opens a coalescing
+   * window for that device.
+   *
+   * @param accountUuid the identifier of the account that owns the destination device
+   * @param deviceId the identifier of the destination device
+   *
+   * @return {@code true} if a notification should be sent or {@code false} if a notification has already been sent
+   * within the current coalescing window
+   */
+  public boolean shouldSendNotification(final UUID accountUuid, final long deviceId) {
+    final Duration coalescingWindow = getCoalescingWindow();
+
+    boolean shouldSend = true;
+
+    if (!coalescingWindow.isZero() && !coalescingWindow.isNegative()) {
+      try {
+        shouldSend = "OK".equals(redisCluster.withCluster(connection ->
+            connection.sync().set(getCoalescingKey(accountUuid, deviceId), "",
+                SetArgs.Builder.nx().px(coalescingWindow.toMillis()))));
+      } catch (final RedisException e) {
+        logger.warn("Failed to check notification coalescing window", e);
+      }
+    }
+
+    if (shouldSend) {
+      sentCounter.increment();
+    } else {
+      suppressedCounter.increment();
+    }
+
+    return shouldSend;
+  }
+
+  /**
+   * Closes any open coalescing window for the given device. This should be called whenever the device connects and
+   * begins draining its queue so that subsequent messages trigger a new notification.
+   *
+   * @param accountUuid the identifier of the account that owns the device
+   * @param deviceId the identifier of the device
+   */
+  public void clear(final UUID accountUuid, final long deviceId) {
+    final Duration coalescingWindow = getCoalescingWindow();
+
+    if (!coalescingWindow.isZero() && !coalescingWindow.isNegative()) {
+      redisCluster.useCluster(connection -> connection.async().del(getCoalescingKey(accountUuid, deviceId)));
+    }
+  }
+
+  private Duration getCoalescingWindow() {
+    return dynamicConfigurationManager.getConfiguration().getPushNotificationConfiguration().getCoalescingWindow();
+  }
+
+  @VisibleForTesting
+  static String getCoalescingKey(final UUID accountUuid, final long deviceId) {
+    return "push_coalesce::" + accountUuid + "::" + deviceId;
+  }
+}
@@ -5,37 +5,176 @@
 
 package org.whispersystems.textsecuregcm.push;
 
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.dropwizard.lifecycle.Managed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.auth.AuthenticatedAccount;
-import org.whispersystems.textsecuregcm.controllers.NoSuchUserException;
 import org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
 import org.whispersystems.textsecuregcm.storage.Account;
 import org.whispersystems.textsecuregcm.storage.AccountsManager;
 import org.whispersystems.textsecuregcm.storage.Device;
 
-public class ReceiptSender {
+/**
+ * A receipt sender delivers server-generated delivery receipts to the original senders of acknowledged messages.
+ * Receipts are placed in a bounded queue and delivered by a small pool of worker threads so that callers (typically
+ * websocket response handlers) never block on account lookups or message fan-out. Workers drain receipts in batches
+ * and coalesce them by destination account so that each batch performs one account lookup per destination and one
+ * presence check (and at most one push notification) per destination device.
+ * <p/>
+ * If the queue is full, new receipts are dropped.
+ */
+public class ReceiptSender implements Managed {
 
   private final MessageSender   messageSender;
   private final AccountsManager accountManager;
 
+  private final BlockingQueue<PendingReceipt> pendingReceipts;
+
+  private final Thread[] workerThreads = new Thread[WORKER_THREAD_COUNT];
+  private final AtomicBoolean running = new AtomicBoolean(false);
+
+  private static final int WORKER_THREAD_COUNT = 2;
+  private static final int DEFAULT_QUEUE_CAPACITY = 100_000;
+
+  @VisibleForTesting
+  static final int MAX_BATCH_SIZE = 1_000;
+
+  private static final Counter receiptDroppedCounter = Metrics.counter(name(ReceiptSender.class, "receiptDropped"));
+  private static final Counter noSuchDestinationCounter = Metrics.counter(name(ReceiptSender.class, "noSuchDestination"));
+  private static final Timer receiptLagTimer = Metrics.timer(name(ReceiptSender.class, "receiptLag"));
+  private static final DistributionSummary batchSizeDistribution = Metrics.summary(name(ReceiptSender.class, "batchSize"));
+
   private static final Logger logger = LoggerFactory.getLogger(ReceiptSender.class);
 
+  @VisibleForTesting
+  static class PendingReceipt {
+
+    private final UUID destinationUuid;
+    private final Envelope envelope;
+    private final long enqueuedNanos;
+
+    PendingReceipt(final UUID destinationUuid, final Envelope envelope, final long enqueuedNanos) {
+      this.destinationUuid = destinationUuid;
+      this.envelope = envelope;
+      this.enqueuedNanos = enqueuedNanos;
+    }
+
+    UUID getDestinationUuid() {
+      return destinationUuid;
+    }
+
+    Envelope getEnvelope() {
+      return envelope;
+    }
+
+    long getEnqueuedNanos() {
+      return enqueuedNanos;
+    }
+  }
+
+  private class ReceiptWorker implements Runnable {
+
+    @Override
+    public void run() {
+      final List<PendingReceipt> batch = new ArrayList<>(MAX_BATCH_SIZE);
+
+      while (running.get()) {
+        try {
+          final PendingReceipt first = pendingReceipts.poll(1, TimeUnit.SECONDS);
+
+          if (first != null) {
+            batch.add(first);
+            pendingReceipts.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+            processBatch(batch);
+          }
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        } catch (final Exception e) {
+          logger.warn("Failed to process delivery receipts", e);
+        } finally {
+          batch.clear();
+        }
+      }
+    }
+  }
+
   public ReceiptSender(final AccountsManager accountManager, final MessageSender messageSender) {
+    this(accountManager, messageSender, DEFAULT_QUEUE_CAPACITY);
+  }
+
+  @VisibleForTesting
+  ReceiptSender(final AccountsManager accountManager, final MessageSender messageSender, final int queueCapacity) {
     this.accountManager = accountManager;
     this.messageSender = messageSender;
+    this.pendingReceipts = new ArrayBlockingQueue<>(queueCapacity);
+
+    Metrics.gaugeCollectionSize(name(ReceiptSender.class, "queueSize"), Collections.emptyList(), pendingReceipts);
+
+    for (int i = 0; i < workerThreads.length; i++) {
+      workerThreads[i] = new Thread(new ReceiptWorker(), "ReceiptSenderWorker-" + i);
+    }
+  }
+
+  @Override
+  public synchronized void start() {
+    running.set(true);
+
+    for (final Thread workerThread : workerThreads) {
+      workerThread.start();
+    }
+  }
+
+  @Override
+  public synchronized void stop() throws InterruptedException {
+    running.set(false);
+
+    for (final Thread workerThread : workerThreads) {
+      workerThread.join();
+    }
+
+    // Deliver anything that was enqueued after the workers stopped polling
+    final List<PendingReceipt> batch = new ArrayList<>(MAX_BATCH_SIZE);
+
+    while (pendingReceipts.drainTo(batch, MAX_BATCH_SIZE) > 0) {
+      processBatch(batch);
+      batch.clear();
+    }
   }
 
-  public void sendReceipt(AuthenticatedAccount source, UUID destinationUuid, long messageId) throws NoSuchUserException {
+  /**
+   * Enqueues a delivery receipt for asynchronous delivery to all of the destination account's devices. This method
+   * never blocks; if the receipt queue is full, the receipt is dropped.
+   *
+   * @param source the account and device that received and acknowledged the original message
+   * @param destinationUuid the identifier of the account that sent the original message
+   * @param messageId the client timestamp of the original message
+   */
+  public void sendReceipt(AuthenticatedAccount source, UUID destinationUuid, long messageId) {
     final Account sourceAccount = source.getAccount();
     if (sourceAccount.getUuid().equals(destinationUuid)) {
       return;
     }
 
-    final Account destinationAccount = accountManager.getByAccountIdentifier(destinationUuid)
-        .orElseThrow(() -> new NoSuchUserException(destinationUuid));
-
     final Envelope.Builder message = Envelope.newBuilder()
         .setServerTimestamp(System.currentTimeMillis())
         .setSource(sourceAccount.getNumber())
@@ -49,12 +188,46 @@ public class ReceiptSender {
       message.setRelay(sourceAccount.getRelay().get());
     }
 
-    for (final Device destinationDevice : destinationAccount.getDevices()) {
+    if (!pendingReceipts.offer(new PendingReceipt(destinationUuid, message.build(), System.nanoTime()))) {
+      receiptDroppedCounter.increment();
+    }
+  }
+
+  @VisibleForTesting
+  void processBatch(final List<PendingReceipt> batch) {
+    batchSizeDistribution.record(batch.size());
+
+    final Map<UUID, List<PendingReceipt>> receiptsByDestination = new LinkedHashMap<>();
+
+    for (final PendingReceipt pendingReceipt : batch) {
+      receiptsByDestination.computeIfAbsent(pendingReceipt.getDestinationUuid(), ignored -> new ArrayList<>())
+          .add(pendingReceipt);
+    }
+
+    receiptsByDestination.forEach((destinationUuid, receipts) -> {
       try {
-        messageSender.sendMessage(destinationAccount, destinationDevice, message.build(), false);
-      } catch (final NotPushRegisteredException e) {
-        logger.info("User no longer push registered for delivery receipt: " + e.getMessage());
+        final Optional<Account> maybeDestinationAccount = accountManager.getByAccountIdentifier(destinationUuid);
+
+        if (maybeDestinationAccount.isPresent()) {
+          final List<Envelope> envelopes = new ArrayList<>(receipts.size());
+          receipts.forEach(receipt -> envelopes.add(receipt.getEnvelope()));
+
+          for (final Device destinationDevice : maybeDestinationAccount.get().getDevices()) {
+            try {
+              messageSender.sendMessages(maybeDestinationAccount.get(), destinationDevice, envelopes);
+            } catch (final NotPushRegisteredException e) {
+              logger.info("User no longer push registered for delivery receipt: " + e.getMessage());
+            }
+          }
+        } else {
+          noSuchDestinationCounter.increment(receipts.size());
+        }
+      } catch (final Exception e) {
+        logger.warn("Failed to send delivery receipts to {}", destinationUuid, e);
+      } finally {
+        final long now = System.nanoTime();
+        receipts.forEach(receipt -> receiptLagTimer.record(now - receipt.getEnqueuedNanos(), TimeUnit.NANOSECONDS));
       }
-    }
+    });
   }
 }
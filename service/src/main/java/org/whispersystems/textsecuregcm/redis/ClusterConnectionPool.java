@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.redis;
+
+import static org.whispersystems.textsecuregcm.metrics.MetricsUtil.name;
+
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A fixed set of multiplexed cluster connections. Each command goes to whichever connection has the fewest commands
+ * in flight, so one slow or large command only delays the commands that happen to share its socket.
+ */
+class ClusterConnectionPool<K, V> {
+
+  private final List<StatefulRedisClusterConnection<K, V>> connections;
+  private final AtomicInteger[] inFlight;
+  private final AtomicInteger nextStart = new AtomicInteger();
+
+  private static final String IN_FLIGHT_GAUGE_NAME = name(ClusterConnectionPool.class, "inFlightCommands");
+
+  ClusterConnectionPool(final String clusterName, final String poolName, final int size,
+      final Supplier<StatefulRedisClusterConnection<K, V>> connectionSupplier) {
+
+    this.connections = new ArrayList<>(size);
+    this.inFlight = new AtomicInteger[size];
+
+    for (int i = 0; i < size; i++) {
+      connections.add(connectionSupplier.get());
+      inFlight[i] = Metrics.gauge(IN_FLIGHT_GAUGE_NAME,
+          Tags.of("cluster", clusterName, "pool", poolName, "connection", String.valueOf(i)),
+          new AtomicInteger());
+    }
+  }
+
+  <T> T withConnection(final Function<StatefulRedisClusterConnection<K, V>, T> function) {
+    final int index = selectLeastLoaded();
+
+    inFlight[index].incrementAndGet();
+
+    try {
+      return function.apply(connections.get(index));
+    } finally {
+      inFlight[index].decrementAndGet();
+    }
+  }
+
+  <T> CompletionStage<T> withConnectionAsync(final Function<StatefulRedisClusterConnection<K, V>, CompletionStage<T>> function) {
+    final int index = selectLeastLoaded();
+
+    inFlight[index].incrementAndGet();
+
+    try {
+      return function.apply(connections.get(index)).whenComplete((ignored, cause) -> inFlight[index].decrementAndGet());
+    } catch (final RuntimeException e) {
+      inFlight[index].decrementAndGet();
+      throw e;
+    }
+  }
+
+  int getInFlight(final int index) {
+    return inFlight[index].get();
+  }
+
+  void close() {
+    connections.forEach(StatefulRedisClusterConnection::close);
+  }
+
+  private int selectLeastLoaded() {
+    if (connections.size() == 1) {
+      return 0;
+    }
+
+    // Rotate the starting point so ties don't always go to the first connection
+    final int start = Math.floorMod(nextStart.getAndIncrement(), connections.size());
+
+    int selected = start;
+    int selectedInFlight = inFlight[start].get();
+
+    for (int i = 1; i < connections.size() && selectedInFlight > 0; i++) {
+      final int candidate = (start + i) % connections.size();
+      final int candidateInFlight = inFlight[candidate].get();
+
+      if (candidateInFlight < selectedInFlight) {
+        selected = candidate;
+        selectedInFlight = candidateInFlight;
+      }
+    }
+
+    return selected;
+  }
+}
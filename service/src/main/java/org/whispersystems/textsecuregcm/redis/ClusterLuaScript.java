@@ -5,17 +5,27 @@
 
 package org.whispersystems.textsecuregcm.redis;
 
+import static org.whispersystems.textsecuregcm.metrics.MetricsUtil.name;
+
 import com.google.common.annotations.VisibleForTesting;
 import io.lettuce.core.RedisNoScriptException;
 import io.lettuce.core.ScriptOutputType;
 import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.cluster.api.async.RedisAdvancedClusterAsyncCommands;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
 import org.apache.commons.codec.binary.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,27 +33,50 @@ import org.slf4j.LoggerFactory;
 public class ClusterLuaScript {
 
   private final FaultTolerantRedisCluster redisCluster;
+  private final RedisConnectionLane lane;
   private final ScriptOutputType scriptOutputType;
   private final String script;
   private final String sha;
 
+  private final Timer executeTimer;
+  private final Counter noScriptCounter;
+
   private static final String[] STRING_ARRAY = new String[0];
   private static final byte[][] BYTE_ARRAY_ARRAY = new byte[0][];
 
+  private static final String EXECUTE_TIMER_NAME = name(ClusterLuaScript.class, "execute");
+  private static final String NO_SCRIPT_COUNTER_NAME = name(ClusterLuaScript.class, "noScript");
+
   private static final Logger log = LoggerFactory.getLogger(ClusterLuaScript.class);
 
+  /**
+   * The keys and arguments for one invocation of a script in a batch.
+   */
+  public record Invocation<T>(List<T> keys, List<T> args) {
+  }
+
   public static ClusterLuaScript fromResource(final FaultTolerantRedisCluster redisCluster,
       final String resource,
       final ScriptOutputType scriptOutputType) throws IOException {
 
+    return fromResource(redisCluster, resource, scriptOutputType, RedisConnectionLane.DEFAULT);
+  }
+
+  public static ClusterLuaScript fromResource(final FaultTolerantRedisCluster redisCluster,
+      final String resource,
+      final ScriptOutputType scriptOutputType,
+      final RedisConnectionLane lane) throws IOException {
+
     try (final InputStream inputStream = ClusterLuaScript.class.getClassLoader().getResourceAsStream(resource)) {
       if (inputStream == null) {
         throw new IllegalArgumentException("Script not found: " + resource);
       }
 
       return new ClusterLuaScript(redisCluster,
+          resource,
           new String(inputStream.readAllBytes(), StandardCharsets.UTF_8),
-          scriptOutputType);
+          scriptOutputType,
+          lane);
     }
   }
 
@@ -52,7 +85,18 @@ public class ClusterLuaScript {
       final String script,
       final ScriptOutputType scriptOutputType) {
 
+    this(redisCluster, "inline", script, scriptOutputType, RedisConnectionLane.DEFAULT);
+  }
+
+  @VisibleForTesting
+  ClusterLuaScript(final FaultTolerantRedisCluster redisCluster,
+      final String name,
+      final String script,
+      final ScriptOutputType scriptOutputType,
+      final RedisConnectionLane lane) {
+
     this.redisCluster = redisCluster;
+    this.lane = lane;
     this.scriptOutputType = scriptOutputType;
     this.script = script;
 
@@ -62,6 +106,18 @@ public class ClusterLuaScript {
       // All Java implementations are required to support SHA-1, so this should never happen
       throw new AssertionError(e);
     }
+
+    this.executeTimer = Timer.builder(EXECUTE_TIMER_NAME)
+        .tag("cluster", String.valueOf(redisCluster.getName()))
+        .tag("script", name)
+        .publishPercentileHistogram()
+        .register(Metrics.globalRegistry);
+
+    this.noScriptCounter = Metrics.counter(NO_SCRIPT_COUNTER_NAME,
+        "cluster", String.valueOf(redisCluster.getName()),
+        "script", name);
+
+    redisCluster.registerLuaScript(this);
   }
 
   @VisibleForTesting
@@ -69,14 +125,97 @@ public class ClusterLuaScript {
     return sha;
   }
 
+  /**
+   * Loads this script into the script cache of every node in the cluster so that the first call on each node doesn't
+   * need to fall back to sending the whole script body. Called when the script is created and whenever the cluster's
+   * topology changes.
+   */
+  CompletableFuture<String> load() {
+    return redisCluster.withClusterAsync(connection -> connection.async().scriptLoad(script))
+        .whenComplete((ignored, cause) -> {
+          if (cause != null) {
+            log.warn("Failed to load script", cause);
+          }
+        });
+  }
+
   public Object execute(final List<String> keys, final List<String> args) {
-    return redisCluster.withCluster(connection ->
-        execute(connection, keys.toArray(STRING_ARRAY), args.toArray(STRING_ARRAY)));
+    return executeTimer.record(() -> redisCluster.withCluster(lane, connection ->
+        execute(connection, keys.toArray(STRING_ARRAY), args.toArray(STRING_ARRAY))));
   }
 
   public Object executeBinary(final List<byte[]> keys, final List<byte[]> args) {
-    return redisCluster.withBinaryCluster(connection ->
-        execute(connection, keys.toArray(BYTE_ARRAY_ARRAY), args.toArray(BYTE_ARRAY_ARRAY)));
+    return executeTimer.record(() -> redisCluster.withBinaryCluster(lane, connection ->
+        execute(connection, keys.toArray(BYTE_ARRAY_ARRAY), args.toArray(BYTE_ARRAY_ARRAY))));
+  }
+
+  public CompletableFuture<Object> executeAsync(final List<String> keys, final List<String> args) {
+    final Timer.Sample sample = Timer.start();
+
+    return redisCluster.withClusterAsync(lane, connection ->
+            executeAsync(connection.async(), keys.toArray(STRING_ARRAY), args.toArray(STRING_ARRAY)))
+        .whenComplete((ignored, cause) -> sample.stop(executeTimer));
+  }
+
+  public CompletableFuture<Object> executeBinaryAsync(final List<byte[]> keys, final List<byte[]> args) {
+    final Timer.Sample sample = Timer.start();
+
+    return redisCluster.withBinaryClusterAsync(lane, connection ->
+            executeAsync(connection.async(), keys.toArray(BYTE_ARRAY_ARRAY), args.toArray(BYTE_ARRAY_ARRAY)))
+        .whenComplete((ignored, cause) -> sample.stop(executeTimer));
+  }
+
+  /**
+   * Executes this script once for each of the given invocations, sending all of them in a single pipelined flush.
+   * Lettuce routes each invocation to the node that owns its keys' slot. Results are returned in invocation order.
+   */
+  public CompletableFuture<List<Object>> executeBatch(final List<Invocation<String>> invocations) {
+    return executeBatch(invocations, redisCluster::withClusterPipeline, STRING_ARRAY,
+        (keys, args) -> redisCluster.withClusterAsync(lane, connection -> executeEval(connection.async(), keys, args)));
+  }
+
+  public CompletableFuture<List<Object>> executeBinaryBatch(final List<Invocation<byte[]>> invocations) {
+    return executeBatch(invocations, redisCluster::withBinaryClusterPipeline, BYTE_ARRAY_ARRAY,
+        (keys, args) -> redisCluster.withBinaryClusterAsync(lane, connection -> executeEval(connection.async(), keys, args)));
+  }
+
+  private <T> CompletableFuture<List<Object>> executeBatch(final List<Invocation<T>> invocations,
+      final Function<Function<RedisAdvancedClusterAsyncCommands<T, T>, List<? extends CompletionStage<Object>>>, CompletableFuture<List<Object>>> pipeline,
+      final T[] emptyArray,
+      final EvalFallback<T> evalFallback) {
+
+    if (invocations.isEmpty()) {
+      return CompletableFuture.completedFuture(List.of());
+    }
+
+    final Timer.Sample sample = Timer.start();
+
+    return pipeline.apply(commands -> {
+          final List<CompletionStage<Object>> results = new ArrayList<>(invocations.size());
+
+          for (final Invocation<T> invocation : invocations) {
+            final T[] keys = invocation.keys().toArray(emptyArray);
+            final T[] args = invocation.args().toArray(emptyArray);
+
+            // Commands issued from here on would sit unflushed on the pipeline connection, so any NOSCRIPT fallbacks
+            // go through the regular async path instead
+            results.add(commands.<Object>evalsha(sha, scriptOutputType, keys, args)
+                .handle((result, cause) -> {
+                  if (cause == null) {
+                    return CompletableFuture.completedFuture(result);
+                  } else if (unwrap(cause) instanceof RedisNoScriptException) {
+                    noScriptCounter.increment();
+                    return evalFallback.eval(keys, args);
+                  } else {
+                    return CompletableFuture.<Object>failedFuture(unwrap(cause));
+                  }
+                })
+                .thenCompose(Function.identity()));
+          }
+
+          return results;
+        })
+        .whenComplete((ignored, cause) -> sample.stop(executeTimer));
   }
 
   private <T> Object execute(final StatefulRedisClusterConnection<T, T> connection, final T[] keys, final T[] args) {
@@ -84,6 +223,7 @@ public class ClusterLuaScript {
       try {
         return connection.sync().evalsha(sha, scriptOutputType, keys, args);
       } catch (final RedisNoScriptException e) {
+        noScriptCounter.increment();
         return connection.sync().eval(script, scriptOutputType, keys, args);
       }
     } catch (final Exception e) {
@@ -91,4 +231,34 @@ public class ClusterLuaScript {
       throw e;
     }
   }
+
+  private <T> CompletionStage<Object> executeAsync(final RedisAdvancedClusterAsyncCommands<T, T> commands, final T[] keys, final T[] args) {
+    return commands.<Object>evalsha(sha, scriptOutputType, keys, args)
+        .handle((result, cause) -> {
+          if (cause == null) {
+            return CompletableFuture.completedFuture(result);
+          } else if (unwrap(cause) instanceof RedisNoScriptException) {
+            noScriptCounter.increment();
+            return executeEval(commands, keys, args);
+          } else {
+            log.warn("Failed to execute script", cause);
+            return CompletableFuture.<Object>failedFuture(unwrap(cause));
+          }
+        })
+        .thenCompose(Function.identity());
+  }
+
+  private <T> CompletionStage<Object> executeEval(final RedisAdvancedClusterAsyncCommands<T, T> commands, final T[] keys, final T[] args) {
+    return commands.eval(script, scriptOutputType, keys, args);
+  }
+
+  private static Throwable unwrap(final Throwable throwable) {
+    return throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+  }
+
+  @FunctionalInterface
+  private interface EvalFallback<T> {
+
+    CompletionStage<Object> eval(T[] keys, T[] args);
+  }
 }
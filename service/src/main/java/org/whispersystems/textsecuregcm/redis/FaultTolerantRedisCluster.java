@@ -16,19 +16,31 @@ import io.lettuce.core.cluster.ClusterClientOptions;
 import io.lettuce.core.cluster.ClusterTopologyRefreshOptions;
 import io.lettuce.core.cluster.RedisClusterClient;
 import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.cluster.api.async.RedisAdvancedClusterAsyncCommands;
+import io.lettuce.core.cluster.event.ClusterTopologyChangedEvent;
 import io.lettuce.core.cluster.pubsub.StatefulRedisClusterPubSubConnection;
 import io.lettuce.core.codec.ByteArrayCodec;
 import io.lettuce.core.resource.ClientResources;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import org.whispersystems.textsecuregcm.configuration.CircuitBreakerConfiguration;
 import org.whispersystems.textsecuregcm.configuration.RedisClusterConfiguration;
 import org.whispersystems.textsecuregcm.configuration.RetryConfiguration;
 import org.whispersystems.textsecuregcm.util.CircuitBreakerUtil;
 import org.whispersystems.textsecuregcm.util.Constants;
+import reactor.core.Disposable;
 
 /**
  * A fault-tolerant access manager for a Redis cluster. A fault-tolerant Redis cluster provides managed,
@@ -40,24 +52,44 @@ public class FaultTolerantRedisCluster {
 
     private final RedisClusterClient clusterClient;
 
-    private final StatefulRedisClusterConnection<String, String> stringConnection;
-    private final StatefulRedisClusterConnection<byte[], byte[]> binaryConnection;
+    private final Map<RedisConnectionLane, ClusterConnectionPool<String, String>> stringConnectionPools = new EnumMap<>(RedisConnectionLane.class);
+    private final Map<RedisConnectionLane, ClusterConnectionPool<byte[], byte[]>> binaryConnectionPools = new EnumMap<>(RedisConnectionLane.class);
+
+    private StatefulRedisClusterConnection<String, String> stringPipelineConnection;
+    private StatefulRedisClusterConnection<byte[], byte[]> binaryPipelineConnection;
 
     private final List<StatefulRedisClusterPubSubConnection<?, ?>> pubSubConnections = new ArrayList<>();
 
-    private final CircuitBreaker circuitBreaker;
-    private final Retry          retry;
+    private final Set<ClusterLuaScript> luaScripts = ConcurrentHashMap.newKeySet();
+
+    private final CircuitBreaker           circuitBreaker;
+    private final Retry                    retry;
+    private final ScheduledExecutorService retryExecutor;
+
+    private final Disposable topologyChangeSubscription;
 
     public FaultTolerantRedisCluster(final String name, final RedisClusterConfiguration clusterConfiguration, final ClientResources clientResources) {
         this(name,
-             RedisClusterClient.create(clientResources, clusterConfiguration.getConfigurationUri()),
+             RedisClusterClient.create(RedisCommandMetrics.instrument(name, clientResources), clusterConfiguration.getConfigurationUri()),
              clusterConfiguration.getTimeout(),
              clusterConfiguration.getCircuitBreakerConfiguration(),
-             clusterConfiguration.getRetryConfiguration());
+             clusterConfiguration.getRetryConfiguration(),
+             Map.of(RedisConnectionLane.DEFAULT, clusterConfiguration.getConnectionPoolSize(),
+                    RedisConnectionLane.BULK, clusterConfiguration.getBulkConnectionPoolSize(),
+                    RedisConnectionLane.LATENCY_SENSITIVE, clusterConfiguration.getLatencySensitiveConnectionPoolSize()));
     }
 
     @VisibleForTesting
     FaultTolerantRedisCluster(final String name, final RedisClusterClient clusterClient, final Duration commandTimeout, final CircuitBreakerConfiguration circuitBreakerConfiguration, final RetryConfiguration retryConfiguration) {
+        this(name, clusterClient, commandTimeout, circuitBreakerConfiguration, retryConfiguration, Map.of(RedisConnectionLane.DEFAULT, 1));
+    }
+
+    /**
+     * @param connectionPoolSizes the number of connections (per codec) for each lane; lanes that are absent or have no
+     *                            connections share the default lane's connections
+     */
+    @VisibleForTesting
+    FaultTolerantRedisCluster(final String name, final RedisClusterClient clusterClient, final Duration commandTimeout, final CircuitBreakerConfiguration circuitBreakerConfiguration, final RetryConfiguration retryConfiguration, final Map<RedisConnectionLane, Integer> connectionPoolSizes) {
         this.name = name;
 
         this.clusterClient = clusterClient;
@@ -70,19 +102,52 @@ public class FaultTolerantRedisCluster {
                                                                                                                .build())
                                                           .build());
 
-        this.stringConnection = clusterClient.connect();
-        this.binaryConnection = clusterClient.connect(ByteArrayCodec.INSTANCE);
+        final int defaultPoolSize = Math.max(1, connectionPoolSizes.getOrDefault(RedisConnectionLane.DEFAULT, 1));
+
+        for (final RedisConnectionLane lane : RedisConnectionLane.values()) {
+            final int poolSize = lane == RedisConnectionLane.DEFAULT ? defaultPoolSize : connectionPoolSizes.getOrDefault(lane, 0);
+
+            if (poolSize > 0) {
+                final String poolName = lane.name().toLowerCase();
+
+                stringConnectionPools.put(lane, new ClusterConnectionPool<>(name, poolName + "_string", poolSize, clusterClient::connect));
+                binaryConnectionPools.put(lane, new ClusterConnectionPool<>(name, poolName + "_binary", poolSize, () -> clusterClient.connect(ByteArrayCodec.INSTANCE)));
+            } else {
+                stringConnectionPools.put(lane, stringConnectionPools.get(RedisConnectionLane.DEFAULT));
+                binaryConnectionPools.put(lane, binaryConnectionPools.get(RedisConnectionLane.DEFAULT));
+            }
+        }
 
         this.circuitBreaker = CircuitBreaker.of(name + "-breaker", circuitBreakerConfiguration.toCircuitBreakerConfig());
-        this.retry          = Retry.of(name + "-retry", retryConfiguration.toRetryConfigBuilder().retryOnException(exception -> exception instanceof RedisCommandTimeoutException).build());
+        this.retry          = Retry.of(name + "-retry", retryConfiguration.toRetryConfigBuilder().retryOnException(FaultTolerantRedisCluster::isRetryable).build());
+        this.retryExecutor  = clusterClient.getResources().eventExecutorGroup();
+
+        // Nodes that join the cluster or restart have empty script caches
+        topologyChangeSubscription = clusterClient.getResources().eventBus().get().subscribe(event -> {
+            if (event instanceof ClusterTopologyChangedEvent) {
+                luaScripts.forEach(ClusterLuaScript::load);
+            }
+        });
 
         CircuitBreakerUtil.registerMetrics(SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME), circuitBreaker, FaultTolerantRedisCluster.class);
         CircuitBreakerUtil.registerMetrics(SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME), retry, FaultTolerantRedisCluster.class);
     }
 
     void shutdown() {
-        stringConnection.close();
-        binaryConnection.close();
+        topologyChangeSubscription.dispose();
+
+        stringConnectionPools.values().stream().distinct().forEach(ClusterConnectionPool::close);
+        binaryConnectionPools.values().stream().distinct().forEach(ClusterConnectionPool::close);
+
+        synchronized (this) {
+            if (stringPipelineConnection != null) {
+                stringPipelineConnection.close();
+            }
+
+            if (binaryPipelineConnection != null) {
+                binaryPipelineConnection.close();
+            }
+        }
 
         for (final StatefulRedisClusterPubSubConnection<?, ?> pubSubConnection : pubSubConnections) {
             pubSubConnection.close();
@@ -96,24 +161,79 @@ public class FaultTolerantRedisCluster {
     }
 
     public void useCluster(final Consumer<StatefulRedisClusterConnection<String, String>> consumer) {
-        useConnection(stringConnection, consumer);
+        useCluster(RedisConnectionLane.DEFAULT, consumer);
+    }
+
+    public void useCluster(final RedisConnectionLane lane, final Consumer<StatefulRedisClusterConnection<String, String>> consumer) {
+        useConnection(stringConnectionPools.get(lane), consumer);
     }
 
     public <T> T withCluster(final Function<StatefulRedisClusterConnection<String, String>, T> function) {
-        return withConnection(stringConnection, function);
+        return withCluster(RedisConnectionLane.DEFAULT, function);
+    }
+
+    public <T> T withCluster(final RedisConnectionLane lane, final Function<StatefulRedisClusterConnection<String, String>, T> function) {
+        return withConnection(stringConnectionPools.get(lane), function);
     }
 
     public void useBinaryCluster(final Consumer<StatefulRedisClusterConnection<byte[], byte[]>> consumer) {
-        useConnection(binaryConnection, consumer);
+        useBinaryCluster(RedisConnectionLane.DEFAULT, consumer);
+    }
+
+    public void useBinaryCluster(final RedisConnectionLane lane, final Consumer<StatefulRedisClusterConnection<byte[], byte[]>> consumer) {
+        useConnection(binaryConnectionPools.get(lane), consumer);
     }
 
     public <T> T withBinaryCluster(final Function<StatefulRedisClusterConnection<byte[], byte[]>, T> function) {
-        return withConnection(binaryConnection, function);
+        return withBinaryCluster(RedisConnectionLane.DEFAULT, function);
+    }
+
+    public <T> T withBinaryCluster(final RedisConnectionLane lane, final Function<StatefulRedisClusterConnection<byte[], byte[]>, T> function) {
+        return withConnection(binaryConnectionPools.get(lane), function);
+    }
+
+    /**
+     * Runs an asynchronous operation against the shared string connections. The returned future completes when the
+     * operation's stage completes; commands that time out are retried without blocking the calling thread, and the
+     * whole operation is retried if any of its commands time out, so operations should be idempotent.
+     */
+    public <T> CompletableFuture<T> withClusterAsync(final Function<StatefulRedisClusterConnection<String, String>, CompletionStage<T>> function) {
+        return withClusterAsync(RedisConnectionLane.DEFAULT, function);
+    }
+
+    public <T> CompletableFuture<T> withClusterAsync(final RedisConnectionLane lane, final Function<StatefulRedisClusterConnection<String, String>, CompletionStage<T>> function) {
+        final ClusterConnectionPool<String, String> pool = stringConnectionPools.get(lane);
+        return withConnectionAsync(() -> pool.withConnectionAsync(function));
+    }
+
+    public <T> CompletableFuture<T> withBinaryClusterAsync(final Function<StatefulRedisClusterConnection<byte[], byte[]>, CompletionStage<T>> function) {
+        return withBinaryClusterAsync(RedisConnectionLane.DEFAULT, function);
+    }
+
+    public <T> CompletableFuture<T> withBinaryClusterAsync(final RedisConnectionLane lane, final Function<StatefulRedisClusterConnection<byte[], byte[]>, CompletionStage<T>> function) {
+        final ClusterConnectionPool<byte[], byte[]> pool = binaryConnectionPools.get(lane);
+        return withConnectionAsync(() -> pool.withConnectionAsync(function));
+    }
+
+    /**
+     * Issues a batch of commands in one network flush per node rather than one per command. The given function must
+     * only queue commands and return their futures; it must not wait on them, since nothing is sent until it returns.
+     * Pipelines run on a dedicated connection so they don't delay commands on the shared connection.
+     */
+    public <T> CompletableFuture<List<T>> withClusterPipeline(final Function<RedisAdvancedClusterAsyncCommands<String, String>, List<? extends CompletionStage<T>>> function) {
+        return withConnectionAsync(() -> executePipeline(getStringPipelineConnection(), function));
     }
 
-    private <K, V> void useConnection(final StatefulRedisClusterConnection<K, V> connection, final Consumer<StatefulRedisClusterConnection<K, V>> consumer) {
+    public <T> CompletableFuture<List<T>> withBinaryClusterPipeline(final Function<RedisAdvancedClusterAsyncCommands<byte[], byte[]>, List<? extends CompletionStage<T>>> function) {
+        return withConnectionAsync(() -> executePipeline(getBinaryPipelineConnection(), function));
+    }
+
+    private <K, V> void useConnection(final ClusterConnectionPool<K, V> pool, final Consumer<StatefulRedisClusterConnection<K, V>> consumer) {
         try {
-            circuitBreaker.executeCheckedRunnable(() -> retry.executeRunnable(() -> consumer.accept(connection)));
+            circuitBreaker.executeCheckedRunnable(() -> retry.executeRunnable(() -> pool.withConnection(connection -> {
+                consumer.accept(connection);
+                return null;
+            })));
         } catch (final Throwable t) {
             if (t instanceof RedisException) {
                 throw (RedisException) t;
@@ -123,9 +243,9 @@ public class FaultTolerantRedisCluster {
         }
     }
 
-    private <T, K, V> T withConnection(final StatefulRedisClusterConnection<K, V> connection, final Function<StatefulRedisClusterConnection<K, V>, T> function) {
+    private <T, K, V> T withConnection(final ClusterConnectionPool<K, V> pool, final Function<StatefulRedisClusterConnection<K, V>, T> function) {
         try {
-            return circuitBreaker.executeCheckedSupplier(() -> retry.executeCallable(() -> function.apply(connection)));
+            return circuitBreaker.executeCheckedSupplier(() -> retry.executeCallable(() -> pool.withConnection(function)));
         } catch (final Throwable t) {
             if (t instanceof RedisException) {
                 throw (RedisException) t;
@@ -135,6 +255,94 @@ public class FaultTolerantRedisCluster {
         }
     }
 
+    private <T> CompletableFuture<T> withConnectionAsync(final Supplier<CompletionStage<T>> supplier) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        try {
+            circuitBreaker.executeCompletionStage(() -> retry.executeCompletionStage(retryExecutor, supplier))
+                .whenComplete((result, cause) -> {
+                    if (cause == null) {
+                        future.complete(result);
+                    } else {
+                        final Throwable unwrapped = unwrap(cause);
+                        future.completeExceptionally(unwrapped instanceof RedisException ? unwrapped : new RedisException(unwrapped));
+                    }
+                });
+        } catch (final Throwable t) {
+            future.completeExceptionally(t instanceof RedisException ? t : new RedisException(t));
+        }
+
+        return future;
+    }
+
+    private static <K, V, T> CompletionStage<List<T>> executePipeline(final StatefulRedisClusterConnection<K, V> connection,
+            final Function<RedisAdvancedClusterAsyncCommands<K, V>, List<? extends CompletionStage<T>>> function) {
+
+        final List<? extends CompletionStage<T>> stages;
+
+        // Auto-flush is off for the whole connection, so pipelines can't interleave their commands
+        synchronized (connection) {
+            try {
+                stages = function.apply(connection.async());
+            } finally {
+                connection.flushCommands();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        final CompletableFuture<T>[] futures = stages.stream().map(CompletionStage::toCompletableFuture).toArray(CompletableFuture[]::new);
+
+        return CompletableFuture.allOf(futures).thenApply(ignored -> {
+            final List<T> results = new ArrayList<>(futures.length);
+
+            for (final CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+
+            return results;
+        });
+    }
+
+    private synchronized StatefulRedisClusterConnection<String, String> getStringPipelineConnection() {
+        if (stringPipelineConnection == null) {
+            stringPipelineConnection = clusterClient.connect();
+            stringPipelineConnection.setAutoFlushCommands(false);
+        }
+
+        return stringPipelineConnection;
+    }
+
+    private synchronized StatefulRedisClusterConnection<byte[], byte[]> getBinaryPipelineConnection() {
+        if (binaryPipelineConnection == null) {
+            binaryPipelineConnection = clusterClient.connect(ByteArrayCodec.INSTANCE);
+            binaryPipelineConnection.setAutoFlushCommands(false);
+        }
+
+        return binaryPipelineConnection;
+    }
+
+    private static boolean isRetryable(final Throwable throwable) {
+        return unwrap(throwable) instanceof RedisCommandTimeoutException;
+    }
+
+    private static Throwable unwrap(final Throwable throwable) {
+        Throwable unwrapped = throwable;
+
+        while (unwrapped instanceof CompletionException && unwrapped.getCause() != null) {
+            unwrapped = unwrapped.getCause();
+        }
+
+        return unwrapped;
+    }
+
+    /**
+     * Loads the given script on every node now and again whenever the cluster's topology changes.
+     */
+    void registerLuaScript(final ClusterLuaScript luaScript) {
+        luaScripts.add(luaScript);
+        luaScript.load();
+    }
+
     public FaultTolerantPubSubConnection<String, String> createPubSubConnection() {
         final StatefulRedisClusterPubSubConnection<String, String> pubSubConnection = clusterClient.connectPubSub();
         pubSubConnections.add(pubSubConnection);
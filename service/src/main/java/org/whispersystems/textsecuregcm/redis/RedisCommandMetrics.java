@@ -0,0 +1,215 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.redis;
+
+import static org.whispersystems.textsecuregcm.metrics.MetricsUtil.name;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.lettuce.core.cluster.SlotHash;
+import io.lettuce.core.metrics.CommandLatencyRecorder;
+import io.lettuce.core.protocol.CommandArgs;
+import io.lettuce.core.protocol.CommandArgsAccessor;
+import io.lettuce.core.protocol.CommandType;
+import io.lettuce.core.protocol.ProtocolKeyword;
+import io.lettuce.core.protocol.RedisCommand;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.NettyCustomizer;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Publishes per-command latency, wire-level payload sizes, and per-slot command counts for a single Redis cluster.
+ * Lettuce's latency recorder and Netty customizer are properties of a {@link ClientResources} instance, so each
+ * cluster gets its own copy of the shared resources via {@link #instrument(String, ClientResources)}; the copy shares
+ * event loops, timers, and the event bus with the original.
+ * <p>
+ * Tag cardinality is bounded: commands outside Lettuce's {@link CommandType} are reported as "other", and slots are
+ * aggregated into {@value #SLOT_RANGE_COUNT} contiguous ranges. Individual Lua scripts are timed by
+ * {@link ClusterLuaScript} itself since the wire protocol only identifies them by hash.
+ */
+class RedisCommandMetrics implements CommandLatencyRecorder, NettyCustomizer {
+
+  private final Map<CommandType, Timer> commandTimers = new EnumMap<>(CommandType.class);
+  private final Timer otherCommandTimer;
+
+  private final DistributionSummary requestBytes;
+  private final DistributionSummary responseBytes;
+
+  private final AtomicLongArray slotCommandCounts = new AtomicLongArray(SlotHash.SLOT_COUNT);
+
+  private final ChannelHandler byteCountingHandler = new ByteCountingHandler();
+  private final ChannelHandler slotCountingHandler = new SlotCountingHandler();
+
+  @VisibleForTesting
+  static final int SLOT_RANGE_COUNT = 64;
+  private static final int SLOTS_PER_RANGE = SlotHash.SLOT_COUNT / SLOT_RANGE_COUNT;
+
+  private static final String COMMAND_TIMER_NAME = name(RedisCommandMetrics.class, "command");
+  private static final String REQUEST_BYTES_NAME = name(RedisCommandMetrics.class, "requestBytes");
+  private static final String RESPONSE_BYTES_NAME = name(RedisCommandMetrics.class, "responseBytes");
+  private static final String SLOT_COMMANDS_COUNTER_NAME = name(RedisCommandMetrics.class, "slotCommands");
+
+  private static final String CLUSTER_TAG_NAME = "cluster";
+  private static final String COMMAND_TAG_NAME = "command";
+  private static final String SLOT_RANGE_TAG_NAME = "slotRange";
+
+  static ClientResources instrument(final String clusterName, final ClientResources clientResources) {
+    final RedisCommandMetrics commandMetrics = new RedisCommandMetrics(clusterName, Metrics.globalRegistry);
+
+    return clientResources.mutate()
+        .commandLatencyRecorder(commandMetrics)
+        .nettyCustomizer(commandMetrics)
+        .build();
+  }
+
+  @VisibleForTesting
+  RedisCommandMetrics(final String clusterName, final MeterRegistry meterRegistry) {
+    // Register every timer up front so recording a latency never needs to synchronize on the registry
+    for (final CommandType commandType : CommandType.values()) {
+      commandTimers.put(commandType, Timer.builder(COMMAND_TIMER_NAME)
+          .tag(CLUSTER_TAG_NAME, clusterName)
+          .tag(COMMAND_TAG_NAME, commandType.name())
+          .register(meterRegistry));
+    }
+
+    otherCommandTimer = Timer.builder(COMMAND_TIMER_NAME)
+        .tag(CLUSTER_TAG_NAME, clusterName)
+        .tag(COMMAND_TAG_NAME, "other")
+        .register(meterRegistry);
+
+    requestBytes = DistributionSummary.builder(REQUEST_BYTES_NAME)
+        .tag(CLUSTER_TAG_NAME, clusterName)
+        .baseUnit("bytes")
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+
+    responseBytes = DistributionSummary.builder(RESPONSE_BYTES_NAME)
+        .tag(CLUSTER_TAG_NAME, clusterName)
+        .baseUnit("bytes")
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+
+    for (int range = 0; range < SLOT_RANGE_COUNT; range++) {
+      final int firstSlot = range * SLOTS_PER_RANGE;
+
+      FunctionCounter.builder(SLOT_COMMANDS_COUNTER_NAME, slotCommandCounts, counts -> sumSlotRange(counts, firstSlot))
+          .tag(CLUSTER_TAG_NAME, clusterName)
+          .tag(SLOT_RANGE_TAG_NAME, firstSlot + "-" + (firstSlot + SLOTS_PER_RANGE - 1))
+          .register(meterRegistry);
+    }
+  }
+
+  @Override
+  public void recordCommandLatency(final SocketAddress local, final SocketAddress remote,
+      final ProtocolKeyword commandType, final long firstResponseLatency, final long completionLatency) {
+
+    final Timer timer = commandType instanceof CommandType ? commandTimers.get(commandType) : otherCommandTimer;
+    timer.record(completionLatency, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void afterChannelInitialized(final Channel channel) {
+    // Outbound messages pass from the tail of the pipeline to the head, so the slot counter sees commands before
+    // they're encoded and the byte counter sees exactly what's written to (and read from) the socket
+    channel.pipeline().addLast(slotCountingHandler);
+    channel.pipeline().addFirst(byteCountingHandler);
+  }
+
+  @VisibleForTesting
+  long getSlotCommandCount(final int slot) {
+    return slotCommandCounts.get(slot);
+  }
+
+  @VisibleForTesting
+  ChannelHandler getByteCountingHandler() {
+    return byteCountingHandler;
+  }
+
+  @VisibleForTesting
+  ChannelHandler getSlotCountingHandler() {
+    return slotCountingHandler;
+  }
+
+  private void countSlot(final RedisCommand<?, ?, ?> command) {
+    final CommandArgs<?, ?> args = command.getArgs();
+
+    if (args != null) {
+      final ByteBuffer firstKey = CommandArgsAccessor.encodeFirstKey(args);
+
+      if (firstKey != null) {
+        slotCommandCounts.incrementAndGet(SlotHash.getSlot(firstKey));
+      }
+    }
+  }
+
+  private static double sumSlotRange(final AtomicLongArray counts, final int firstSlot) {
+    long sum = 0;
+
+    for (int slot = firstSlot; slot < firstSlot + SLOTS_PER_RANGE; slot++) {
+      sum += counts.get(slot);
+    }
+
+    return sum;
+  }
+
+  @ChannelHandler.Sharable
+  private class ByteCountingHandler extends ChannelDuplexHandler {
+
+    @Override
+    public void channelRead(final ChannelHandlerContext context, final Object message) throws Exception {
+      if (message instanceof ByteBuf) {
+        responseBytes.record(((ByteBuf) message).readableBytes());
+      }
+
+      super.channelRead(context, message);
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext context, final Object message, final ChannelPromise promise) throws Exception {
+      if (message instanceof ByteBuf) {
+        requestBytes.record(((ByteBuf) message).readableBytes());
+      }
+
+      super.write(context, message, promise);
+    }
+  }
+
+  @ChannelHandler.Sharable
+  private class SlotCountingHandler extends ChannelOutboundHandlerAdapter {
+
+    @Override
+    public void write(final ChannelHandlerContext context, final Object message, final ChannelPromise promise) throws Exception {
+      if (message instanceof RedisCommand) {
+        countSlot((RedisCommand<?, ?, ?>) message);
+      } else if (message instanceof Collection) {
+        for (final Object command : (Collection<?>) message) {
+          if (command instanceof RedisCommand) {
+            countSlot((RedisCommand<?, ?, ?>) command);
+          }
+        }
+      }
+
+      super.write(context, message, promise);
+    }
+  }
+}
@@ -0,0 +1,17 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.redis;
+
+/**
+ * Classes of Redis work that may be isolated on their own connections so that, for example, large multi-page reads
+ * don't queue up behind small, latency-sensitive commands on the same socket. Lanes without dedicated connections
+ * configured share the default connections.
+ */
+public enum RedisConnectionLane {
+  DEFAULT,
+  BULK,
+  LATENCY_SENSITIVE
+}
@@ -9,42 +9,76 @@ import com.amazonaws.util.Base16Lower;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 
+/**
+ * Signs S3 POST policies with AWS Signature Version 4.
+ * <p/>
+ * The signing key depends only on the date, so each thread keeps a {@link Mac} already initialized with the signing
+ * key for the last date it saw and only derives a new key when the date changes.
+ */
 public class PolicySigner {
 
+  private static final DateTimeFormatter SIGNING_DATE = DateTimeFormatter.ofPattern("yyyyMMdd");
+
   private final String awsAccessSecret;
   private final String region;
 
+  private final ThreadLocal<DatedMac> datedMac = new ThreadLocal<>();
+
+  private static class DatedMac {
+
+    private final String date;
+    private final Mac mac;
+
+    private DatedMac(final String date, final Mac mac) {
+      this.date = date;
+      this.mac = mac;
+    }
+  }
+
   public PolicySigner(String awsAccessSecret, String region) {
     this.awsAccessSecret = awsAccessSecret;
     this.region          = region;
   }
 
   public String getSignature(ZonedDateTime now, String policy) {
+    final String date = now.format(SIGNING_DATE);
+    DatedMac signingMac = datedMac.get();
+
+    if (signingMac == null || !signingMac.date.equals(date)) {
+      signingMac = new DatedMac(date, getSigningMac(date));
+      datedMac.set(signingMac);
+    }
+
+    // doFinal resets the Mac, leaving it initialized with the signing key for the next call
+    return Base16Lower.encodeAsString(signingMac.mac.doFinal(policy.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private Mac getSigningMac(final String date) {
     try {
       Mac mac = Mac.getInstance("HmacSHA256");
 
-      mac.init(new SecretKeySpec(("AWS4" + awsAccessSecret).getBytes("UTF-8"), "HmacSHA256"));
-      byte[] dateKey = mac.doFinal(now.format(DateTimeFormatter.ofPattern("yyyyMMdd")).getBytes("UTF-8"));
+      mac.init(new SecretKeySpec(("AWS4" + awsAccessSecret).getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+      byte[] dateKey = mac.doFinal(date.getBytes(StandardCharsets.UTF_8));
 
       mac.init(new SecretKeySpec(dateKey, "HmacSHA256"));
-      byte[] dateRegionKey = mac.doFinal(region.getBytes("UTF-8"));
+      byte[] dateRegionKey = mac.doFinal(region.getBytes(StandardCharsets.UTF_8));
 
       mac.init(new SecretKeySpec(dateRegionKey, "HmacSHA256"));
-      byte[] dateRegionServiceKey = mac.doFinal("s3".getBytes("UTF-8"));
+      byte[] dateRegionServiceKey = mac.doFinal("s3".getBytes(StandardCharsets.UTF_8));
 
       mac.init(new SecretKeySpec(dateRegionServiceKey, "HmacSHA256"));
-      byte[] signingKey  = mac.doFinal("aws4_request".getBytes("UTF-8"));
+      byte[] signingKey  = mac.doFinal("aws4_request".getBytes(StandardCharsets.UTF_8));
 
       mac.init(new SecretKeySpec(signingKey, "HmacSHA256"));
 
-      return Base16Lower.encodeAsString(mac.doFinal(policy.getBytes("UTF-8")));
-    } catch (NoSuchAlgorithmException | InvalidKeyException | UnsupportedEncodingException e) {
+      return mac;
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
       throw new AssertionError(e);
     }
   }
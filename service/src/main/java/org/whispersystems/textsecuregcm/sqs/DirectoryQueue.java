@@ -13,24 +13,46 @@ import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import io.dropwizard.lifecycle.Managed;
 import io.micrometer.core.instrument.Metrics;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.configuration.SqsConfiguration;
 import org.whispersystems.textsecuregcm.storage.Account;
 import org.whispersystems.textsecuregcm.util.Constants;
+import org.whispersystems.textsecuregcm.util.Pair;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.core.exception.SdkServiceException;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
 import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
-import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
 
+/**
+ * Publishes directory updates to one or more SQS queues.
+ * <p/>
+ * Updates are coalesced per queue into {@code SendMessageBatch} calls. A batch is sent as soon as it's full (or would
+ * exceed the SQS payload limit), or once the oldest pending update has waited for {@link #MAX_LINGER}. If an account's
+ * number is updated more than once before its batch is sent, only the latest update is published. Callers block if
+ * too many batches are already in flight, so memory use stays bounded even if SQS slows down.
+ */
 public class DirectoryQueue implements Managed {
 
   private static final Logger  logger = LoggerFactory.getLogger(DirectoryQueue.class);
@@ -38,12 +60,29 @@ public class DirectoryQueue implements Managed {
   private final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
   private final Meter serviceErrorMeter = metricRegistry.meter(name(DirectoryQueue.class, "serviceError"));
   private final Meter clientErrorMeter = metricRegistry.meter(name(DirectoryQueue.class, "clientError"));
+  private final Meter failedEntryMeter = metricRegistry.meter(name(DirectoryQueue.class, "failedEntry"));
+  private final Meter supersededUpdateMeter = metricRegistry.meter(name(DirectoryQueue.class, "supersededUpdate"));
   private final Timer sendMessageBatchTimer = metricRegistry.timer(name(DirectoryQueue.class, "sendMessageBatch"));
 
-  private final List<String> queueUrls;
+  // SQS allows at most 10 entries and 256 KiB of payload per batch
+  @VisibleForTesting
+  static final int MAX_BATCH_SIZE = 10;
+  private static final int MAX_BATCH_PAYLOAD_BYTES = 256 * 1024;
+
+  @VisibleForTesting
+  static final Duration MAX_LINGER = Duration.ofMillis(50);
+
+  @VisibleForTesting
+  static final int MAX_OUTSTANDING_BATCHES = 128;
+
+  private static final Duration STOP_TIMEOUT = Duration.ofSeconds(5);
+
+  private final List<QueueBuffer> queueBuffers;
   private final SqsAsyncClient sqs;
+  private final ScheduledExecutorService flushExecutor;
 
   private final AtomicInteger outstandingRequests = new AtomicInteger();
+  private final Semaphore outstandingBatchPermits = new Semaphore(MAX_OUTSTANDING_BATCHES);
 
   private enum UpdateAction {
     ADD("add"),
@@ -61,23 +100,36 @@ public class DirectoryQueue implements Managed {
   }
 
   public DirectoryQueue(SqsConfiguration sqsConfig) {
-    StaticCredentialsProvider credentialsProvider = StaticCredentialsProvider.create(AwsBasicCredentials.create(
-        sqsConfig.getAccessKey(), sqsConfig.getAccessSecret()));
-
-    this.queueUrls = sqsConfig.getQueueUrls();
-
-    this.sqs = SqsAsyncClient.builder()
+    this(sqsConfig.getQueueUrls(), SqsAsyncClient.builder()
         .region(Region.of(sqsConfig.getRegion()))
-        .credentialsProvider(credentialsProvider)
-        .build();
+        .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(
+            sqsConfig.getAccessKey(), sqsConfig.getAccessSecret())))
+        .build());
 
     Metrics.gauge(name(getClass(), "outstandingRequests"), outstandingRequests);
   }
 
   @VisibleForTesting
   DirectoryQueue(final List<String> queueUrls, final SqsAsyncClient sqs) {
-    this.queueUrls = queueUrls;
+    this(queueUrls, sqs, Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread flushThread = new Thread(runnable, "DirectoryQueueFlusher");
+      flushThread.setDaemon(true);
+
+      return flushThread;
+    }));
+  }
+
+  @VisibleForTesting
+  DirectoryQueue(final List<String> queueUrls, final SqsAsyncClient sqs,
+      final ScheduledExecutorService flushExecutor) {
+
+    this.queueBuffers = new ArrayList<>(queueUrls.size());
     this.sqs = sqs;
+    this.flushExecutor = flushExecutor;
+
+    for (final String queueUrl : queueUrls) {
+      queueBuffers.add(new QueueBuffer(queueUrl));
+    }
   }
 
   @Override
@@ -86,12 +138,27 @@ public class DirectoryQueue implements Managed {
 
   @Override
   public void stop() throws Exception {
+    flush();
+
+    final long deadline = System.nanoTime() + STOP_TIMEOUT.toNanos();
+
     synchronized (outstandingRequests) {
-      while (outstandingRequests.get() > 0) {
-        outstandingRequests.wait();
+      long remainingNanos;
+
+      while (outstandingRequests.get() > 0 && (remainingNanos = deadline - System.nanoTime()) > 0) {
+        // wait(0) would wait forever, so always wait at least a millisecond
+        outstandingRequests.wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos)));
+      }
+
+      if (outstandingRequests.get() > 0) {
+        logger.warn("Directory queue did not finish within {} ms; {} requests may not have been sent",
+            STOP_TIMEOUT.toMillis(), outstandingRequests.get());
       }
     }
 
+    // Pending updates were flushed above, so there's nothing left for scheduled flushes to do, and they must not run
+    // against a closed client
+    flushExecutor.shutdownNow();
     sqs.close();
   }
 
@@ -109,27 +176,165 @@ public class DirectoryQueue implements Managed {
     sendUpdateMessage(account.getUuid(), newNumber, account.shouldBeVisibleInDirectory() ? UpdateAction.ADD : UpdateAction.DELETE);
   }
 
+  /**
+   * Sends all pending updates immediately, regardless of how long they've been waiting.
+   */
+  @VisibleForTesting
+  void flush() {
+    for (final QueueBuffer queueBuffer : queueBuffers) {
+      queueBuffer.flush(false);
+    }
+  }
+
   private void sendUpdateMessage(final UUID uuid, final String number, final UpdateAction action) {
-    for (final String queueUrl : queueUrls) {
-      final Timer.Context timerContext = sendMessageBatchTimer.time();
+    for (final QueueBuffer queueBuffer : queueBuffers) {
+      queueBuffer.add(uuid, number, action);
+    }
+  }
+
+  private static SendMessageBatchRequestEntry buildEntry(final String entryId, final UUID uuid, final String number,
+      final UpdateAction action) {
 
-      final SendMessageRequest request = SendMessageRequest.builder()
-          .queueUrl(queueUrl)
-          .messageBody("-")
-          .messageDeduplicationId(UUID.randomUUID().toString())
-          .messageGroupId(number)
-          .messageAttributes(Map.of(
-              "id", MessageAttributeValue.builder().dataType("String").stringValue(number).build(),
-              "uuid", MessageAttributeValue.builder().dataType("String").stringValue(uuid.toString()).build(),
-              "action", action.toMessageAttributeValue()
-          ))
-          .build();
+    return SendMessageBatchRequestEntry.builder()
+        .id(entryId)
+        .messageBody("-")
+        .messageDeduplicationId(UUID.randomUUID().toString())
+        .messageGroupId(number)
+        .messageAttributes(Map.of(
+            "id", MessageAttributeValue.builder().dataType("String").stringValue(number).build(),
+            "uuid", MessageAttributeValue.builder().dataType("String").stringValue(uuid.toString()).build(),
+            "action", action.toMessageAttributeValue()
+        ))
+        .build();
+  }
+
+  /**
+   * Estimates the size of an entry as SQS counts it against the batch payload limit: the message body plus the name,
+   * type, and value of each message attribute.
+   */
+  private static int getPayloadSize(final SendMessageBatchRequestEntry entry) {
+    int size = entry.messageBody().getBytes(StandardCharsets.UTF_8).length;
+
+    for (final Map.Entry<String, MessageAttributeValue> attribute : entry.messageAttributes().entrySet()) {
+      size += attribute.getKey().getBytes(StandardCharsets.UTF_8).length;
+      size += attribute.getValue().dataType().getBytes(StandardCharsets.UTF_8).length;
+      size += attribute.getValue().stringValue().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    return size;
+  }
+
+  /**
+   * Pending updates for a single queue. Updates are kept in the order in which they were last modified, so replacing
+   * a pending update moves it behind any updates that arrived in the meantime.
+   */
+  private class QueueBuffer {
+
+    private final String queueUrl;
+
+    private final LinkedHashMap<Pair<UUID, String>, UpdateAction> pendingUpdates = new LinkedHashMap<>();
+    private boolean flushScheduled = false;
+
+    private QueueBuffer(final String queueUrl) {
+      this.queueUrl = queueUrl;
+    }
+
+    synchronized void add(final UUID uuid, final String number, final UpdateAction action) {
+      final Pair<UUID, String> key = new Pair<>(uuid, number);
+
+      if (pendingUpdates.remove(key) != null) {
+        supersededUpdateMeter.mark();
+      }
+
+      pendingUpdates.put(key, action);
+
+      if (pendingUpdates.size() >= MAX_BATCH_SIZE) {
+        flush(true);
+      } else if (!flushScheduled) {
+        flushScheduled = true;
+        flushExecutor.schedule(() -> flush(false), MAX_LINGER.toMillis(), TimeUnit.MILLISECONDS);
+      }
+    }
+
+    /**
+     * Sends pending updates in batches.
+     *
+     * @param fullBatchesOnly if {@code true}, leaves any updates that won't fill a batch in the buffer
+     */
+    synchronized void flush(final boolean fullBatchesOnly) {
+      while (!pendingUpdates.isEmpty() && (!fullBatchesOnly || pendingUpdates.size() >= MAX_BATCH_SIZE)) {
+        // Wait for a permit before removing anything from the buffer; this is what pushes back on callers if SQS
+        // can't keep up, and holding the lock while waiting keeps batches for this queue in order.
+        outstandingBatchPermits.acquireUninterruptibly();
+
+        final List<SendMessageBatchRequestEntry> entries = new ArrayList<>(MAX_BATCH_SIZE);
+        int payloadSize = 0;
+
+        final Iterator<Map.Entry<Pair<UUID, String>, UpdateAction>> iterator = pendingUpdates.entrySet().iterator();
+
+        while (iterator.hasNext() && entries.size() < MAX_BATCH_SIZE) {
+          final Map.Entry<Pair<UUID, String>, UpdateAction> pendingUpdate = iterator.next();
+          final SendMessageBatchRequestEntry entry;
+          final int entryPayloadSize;
+
+          try {
+            entry = buildEntry(String.valueOf(entries.size()),
+                pendingUpdate.getKey().first(), pendingUpdate.getKey().second(), pendingUpdate.getValue());
+
+            entryPayloadSize = getPayloadSize(entry);
+          } catch (final RuntimeException e) {
+            // An update that can't be turned into an entry never will be; drop it rather than failing every flush
+            failedEntryMeter.mark();
+            logger.warn("Failed to build directory update entry", e);
+
+            iterator.remove();
+            continue;
+          }
+
+          if (!entries.isEmpty() && payloadSize + entryPayloadSize > MAX_BATCH_PAYLOAD_BYTES) {
+            break;
+          }
+
+          entries.add(entry);
+          payloadSize += entryPayloadSize;
+          iterator.remove();
+        }
+
+        if (entries.isEmpty()) {
+          outstandingBatchPermits.release();
+        } else {
+          sendBatch(entries);
+        }
+      }
+
+      if (pendingUpdates.isEmpty()) {
+        flushScheduled = false;
+      } else if (!flushScheduled) {
+        flushScheduled = true;
+        flushExecutor.schedule(() -> flush(false), MAX_LINGER.toMillis(), TimeUnit.MILLISECONDS);
+      }
+    }
+
+    private void sendBatch(final List<SendMessageBatchRequestEntry> entries) {
+      final Timer.Context timerContext = sendMessageBatchTimer.time();
 
       synchronized (outstandingRequests) {
         outstandingRequests.incrementAndGet();
       }
 
-      sqs.sendMessage(request).whenComplete((response, cause) -> {
+      CompletableFuture<SendMessageBatchResponse> responseFuture;
+
+      try {
+        responseFuture = sqs.sendMessageBatch(SendMessageBatchRequest.builder()
+            .queueUrl(queueUrl)
+            .entries(entries)
+            .build());
+      } catch (final RuntimeException e) {
+        // Handle synchronous failures like asynchronous ones so the permit and outstanding request are released
+        responseFuture = CompletableFuture.failedFuture(e);
+      }
+
+      responseFuture.whenComplete((response, cause) -> {
         try {
           if (cause instanceof SdkServiceException) {
             serviceErrorMeter.mark();
@@ -139,8 +344,16 @@ public class DirectoryQueue implements Managed {
             logger.warn("sqs client error", cause);
           } else if (cause != null) {
             logger.warn("sqs unexpected error", cause);
+          } else if (response.hasFailed() && !response.failed().isEmpty()) {
+            failedEntryMeter.mark(response.failed().size());
+
+            for (final BatchResultErrorEntry failedEntry : response.failed()) {
+              logger.warn("sqs failed to send batch entry: {} ({})", failedEntry.code(), failedEntry.message());
+            }
           }
         } finally {
+          outstandingBatchPermits.release();
+
           synchronized (outstandingRequests) {
             outstandingRequests.decrementAndGet();
             outstandingRequests.notifyAll();
@@ -7,16 +7,34 @@ package org.whispersystems.textsecuregcm.storage;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.SharedMetricRegistries;
 import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
+import io.dropwizard.lifecycle.Managed;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.storage.mappers.AbusiveHostRuleRowMapper;
+import org.whispersystems.textsecuregcm.util.CidrTrie;
 import org.whispersystems.textsecuregcm.util.Constants;
+import org.whispersystems.textsecuregcm.util.Pair;
 
-public class AbusiveHostRules {
+/**
+ * Abusive host rules block or restrict registration attempts from particular hosts or networks. Rules are stored in
+ * Postgres, but lookups are normally served from an in-memory {@link CidrTrie} of all rules so that lookups don't
+ * depend on the database during, for example, an SMS-pumping attack. The trie is loaded on startup, extended with
+ * newly-inserted rules on a short interval (and immediately after this server inserts a rule), and rebuilt from
+ * scratch periodically to pick up rules that have been changed or removed. If the trie isn't available, lookups fall
+ * back to querying Postgres directly.
+ */
+public class AbusiveHostRules implements Managed {
 
   private static final Logger logger = LoggerFactory.getLogger(AbusiveHostRules.class);
 
@@ -26,19 +44,103 @@ public class AbusiveHostRules {
   public static final String REGIONS = "regions";
   public static final String NOTES = "notes";
 
+  private static final Duration REFRESH_INTERVAL = Duration.ofSeconds(30);
+  private static final int FULL_REFRESH_PERIOD = 20;
+
   private final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
   private final Timer getTimer = metricRegistry.timer(name(AbusiveHostRules.class, "get"));
   private final Timer insertTimer = metricRegistry.timer(name(AbusiveHostRules.class, "setBlockedHost"));
+  private final Timer refreshTimer = metricRegistry.timer(name(AbusiveHostRules.class, "refresh"));
+  private final Meter indexLookupMeter = metricRegistry.meter(name(AbusiveHostRules.class, "indexLookup"));
+  private final Meter databaseLookupMeter = metricRegistry.meter(name(AbusiveHostRules.class, "databaseLookup"));
 
   private final FaultTolerantDatabase database;
+  private final ScheduledExecutorService refreshExecutor;
+
+  private final AbusiveHostRuleRowMapper rowMapper = new AbusiveHostRuleRowMapper();
+
+  private volatile RuleIndex ruleIndex;
+  private int refreshCount = 0;
+
+  private ScheduledFuture<?> refreshFuture;
+
+  /**
+   * An immutable index of all known rules as of a particular refresh.
+   */
+  private static class RuleIndex {
+
+    private final List<Pair<Long, AbusiveHostRule>> rules;
+    private final long maxId;
+    private final CidrTrie<AbusiveHostRule> trie = new CidrTrie<>();
+
+    private RuleIndex(final List<Pair<Long, AbusiveHostRule>> rules) {
+      this.rules = rules;
+
+      long maxId = 0;
 
-  public AbusiveHostRules(FaultTolerantDatabase database) {
+      for (final Pair<Long, AbusiveHostRule> idAndRule : rules) {
+        maxId = Math.max(maxId, idAndRule.first());
+
+        try {
+          final Pair<byte[], Integer> addressAndPrefixLength = CidrTrie.parseCidr(idAndRule.second().host());
+          trie.put(addressAndPrefixLength.first(), addressAndPrefixLength.second(), idAndRule.second());
+        } catch (final IllegalArgumentException e) {
+          logger.warn("Failed to index abusive host rule for {}", idAndRule.second().host(), e);
+        }
+      }
+
+      this.maxId = maxId;
+    }
+  }
+
+  public AbusiveHostRules(FaultTolerantDatabase database, ScheduledExecutorService refreshExecutor) {
 
     this.database = database;
-    this.database.getDatabase().registerRowMapper(new AbusiveHostRuleRowMapper());
+    this.refreshExecutor = refreshExecutor;
+    this.database.getDatabase().registerRowMapper(rowMapper);
+  }
+
+  @Override
+  public synchronized void start() {
+    try {
+      refresh(true);
+    } catch (final Exception e) {
+      logger.warn("Failed to load abusive host rules; will query database directly until rules are loaded", e);
+    }
+
+    refreshFuture = refreshExecutor.scheduleWithFixedDelay(() -> {
+          try {
+            refresh(++refreshCount % FULL_REFRESH_PERIOD == 0);
+          } catch (final Exception e) {
+            logger.warn("Failed to refresh abusive host rules", e);
+          }
+        },
+        REFRESH_INTERVAL.toMillis(), REFRESH_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (refreshFuture != null) {
+      refreshFuture.cancel(false);
+    }
   }
 
   public List<AbusiveHostRule> getAbusiveHostRulesFor(String host) {
+    final RuleIndex index = ruleIndex;
+
+    if (index != null && host.indexOf('/') == -1) {
+      try {
+        final byte[] address = CidrTrie.parseCidr(host).first();
+        indexLookupMeter.mark();
+
+        return index.trie.get(address);
+      } catch (final IllegalArgumentException e) {
+        // Let the database decide what to make of this host
+      }
+    }
+
+    databaseLookupMeter.mark();
+
     return database.with(jdbi -> jdbi.withHandle(handle -> {
       try (Timer.Context timer = getTimer.time()) {
         return handle.createQuery("SELECT * FROM abusive_host_rules WHERE :host::inet <<= " + HOST)
@@ -60,6 +162,49 @@ public class AbusiveHostRules {
             .execute();
       }
     }));
+
+    // Pick up the new rule right away rather than waiting for the next scheduled refresh
+    refreshExecutor.execute(() -> {
+      try {
+        refresh(false);
+      } catch (final Exception e) {
+        logger.warn("Failed to refresh abusive host rules", e);
+      }
+    });
+  }
+
+  /**
+   * Refreshes the in-memory rule index.
+   *
+   * @param full if {@code true}, reload all rules from the database; otherwise, load only rules added since the last
+   * refresh
+   */
+  @VisibleForTesting
+  synchronized void refresh(final boolean full) {
+    final RuleIndex currentIndex = ruleIndex;
+
+    try (Timer.Context timer = refreshTimer.time()) {
+      if (full || currentIndex == null) {
+        ruleIndex = new RuleIndex(loadRulesWithIdGreaterThan(-1));
+      } else {
+        final List<Pair<Long, AbusiveHostRule>> newRules = loadRulesWithIdGreaterThan(currentIndex.maxId);
+
+        if (!newRules.isEmpty()) {
+          final List<Pair<Long, AbusiveHostRule>> rules = new ArrayList<>(currentIndex.rules.size() + newRules.size());
+          rules.addAll(currentIndex.rules);
+          rules.addAll(newRules);
+
+          ruleIndex = new RuleIndex(rules);
+        }
+      }
+    }
   }
 
+  private List<Pair<Long, AbusiveHostRule>> loadRulesWithIdGreaterThan(final long id) {
+    return database.with(jdbi -> jdbi.withHandle(handle ->
+        handle.createQuery("SELECT * FROM abusive_host_rules WHERE " + ID + " > :id")
+            .bind("id", id)
+            .map((resultSet, ctx) -> new Pair<>(resultSet.getLong(ID), rowMapper.map(resultSet, ctx)))
+            .list()));
+  }
 }
@@ -6,12 +6,21 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.Uninterruptibles;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import javax.validation.ConstraintViolation;
 import javax.validation.Validation;
 import javax.validation.Validator;
@@ -24,6 +33,14 @@ import software.amazon.awssdk.services.appconfig.AppConfigClient;
 import software.amazon.awssdk.services.appconfig.model.GetConfigurationRequest;
 import software.amazon.awssdk.services.appconfig.model.GetConfigurationResponse;
 
+/**
+ * A dynamic configuration manager polls AppConfig for changes to a dynamic configuration document and publishes each
+ * new version as an immutable {@link Snapshot}. Reads are lock-free once the initial configuration has been loaded.
+ * Callers that derive expensive state from the configuration may register a change listener to recompute that state
+ * once per configuration change rather than on every read.
+ *
+ * @param <T> the type of the configuration document
+ */
 public class DynamicConfigurationManager<T> {
 
   private final String application;
@@ -31,14 +48,22 @@ public class DynamicConfigurationManager<T> {
   private final String configurationName;
   private final String clientId;
   private final AppConfigClient appConfigClient;
+  private final ScheduledExecutorService pollExecutor;
 
   private final Class<T> configurationClass;
 
-  private final AtomicReference<T> configuration = new AtomicReference<>();
+  private final AtomicReference<Snapshot<T>> snapshot = new AtomicReference<>();
+  private final CountDownLatch initialized = new CountDownLatch(1);
+
+  // Guards changeListeners and serializes publishing new snapshots with registering listeners, so every listener sees
+  // every snapshot from the one it was registered with onward, exactly once and in generation order
+  private final Object publishLock = new Object();
+  private final List<Consumer<Snapshot<T>>> changeListeners = new ArrayList<>();
 
   private GetConfigurationResponse lastConfigResult;
 
-  private boolean initialized = false;
+  private static final Duration POLL_INTERVAL = Duration.ofSeconds(5);
+  private static final Duration POLL_JITTER = Duration.ofSeconds(1);
 
   private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper(new YAMLFactory())
       .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
@@ -48,6 +73,43 @@ public class DynamicConfigurationManager<T> {
 
   private static final Logger logger = LoggerFactory.getLogger(DynamicConfigurationManager.class);
 
+  /**
+   * An immutable view of a single version of a dynamic configuration.
+   *
+   * @param <T> the type of the configuration document
+   */
+  public static class Snapshot<T> {
+
+    private final T configuration;
+    private final String version;
+    private final long generation;
+
+    Snapshot(final T configuration, final String version, final long generation) {
+      this.configuration = configuration;
+      this.version = version;
+      this.generation = generation;
+    }
+
+    public T getConfiguration() {
+      return configuration;
+    }
+
+    /**
+     * @return the AppConfig version identifier of this configuration
+     */
+    public String getVersion() {
+      return version;
+    }
+
+    /**
+     * @return a number that increases by one each time a new configuration is published by this manager; callers may
+     * compare generations to cheaply check whether a configuration has changed
+     */
+    public long getGeneration() {
+      return generation;
+    }
+  }
+
   public DynamicConfigurationManager(String application, String environment, String configurationName,
       Class<T> configurationClass) {
     this(AppConfigClient.builder()
@@ -61,46 +123,116 @@ public class DynamicConfigurationManager<T> {
   @VisibleForTesting
   DynamicConfigurationManager(AppConfigClient appConfigClient, String application, String environment,
       String configurationName, String clientId, Class<T> configurationClass) {
+    this(appConfigClient, application, environment, configurationName, clientId, configurationClass,
+        Executors.newSingleThreadScheduledExecutor(runnable -> {
+          final Thread workerThread = new Thread(runnable, "DynamicConfigurationManagerWorker");
+          workerThread.setDaemon(true);
+
+          return workerThread;
+        }));
+  }
+
+  @VisibleForTesting
+  DynamicConfigurationManager(AppConfigClient appConfigClient, String application, String environment,
+      String configurationName, String clientId, Class<T> configurationClass, ScheduledExecutorService pollExecutor) {
     this.appConfigClient = appConfigClient;
     this.application = application;
     this.environment = environment;
     this.configurationName = configurationName;
     this.clientId = clientId;
     this.configurationClass = configurationClass;
+    this.pollExecutor = pollExecutor;
   }
 
+  /**
+   * Returns the current configuration, blocking until the initial configuration has been loaded if necessary.
+   *
+   * @return the current configuration
+   */
   public T getConfiguration() {
-    synchronized (this) {
-      while (!initialized) {
-        Util.wait(this);
-      }
+    return getSnapshot().getConfiguration();
+  }
+
+  /**
+   * Returns a snapshot of the current configuration, blocking until the initial configuration has been loaded if
+   * necessary.
+   *
+   * @return a snapshot of the current configuration
+   */
+  public Snapshot<T> getSnapshot() {
+    final Snapshot<T> currentSnapshot = snapshot.get();
+
+    if (currentSnapshot != null) {
+      return currentSnapshot;
     }
 
-    return configuration.get();
+    Uninterruptibles.awaitUninterruptibly(initialized);
+    return snapshot.get();
+  }
+
+  /**
+   * Registers a listener to be notified with each new snapshot of the configuration. If a configuration has already
+   * been loaded, the listener is handed the current snapshot immediately on the calling thread. Later snapshots are
+   * delivered in generation order on the thread that loaded them: the thread that called {@link #start()} for the
+   * initial configuration, and the polling thread after that. Newer snapshots wait until every listener has handled
+   * the current one, so listeners should be quick and must not block.
+   *
+   * @param listener the listener to notify when the configuration changes
+   */
+  public void addChangeListener(final Consumer<Snapshot<T>> listener) {
+    synchronized (publishLock) {
+      changeListeners.add(listener);
+
+      final Snapshot<T> currentSnapshot = snapshot.get();
+
+      if (currentSnapshot != null) {
+        notifyListener(listener, currentSnapshot);
+      }
+    }
   }
 
   public void start() {
-    configuration.set(retrieveInitialDynamicConfiguration());
+    publish(retrieveInitialDynamicConfiguration());
+    scheduleNextPoll();
+  }
 
-    synchronized (this) {
-      this.initialized = true;
-      this.notifyAll();
+  private void scheduleNextPoll() {
+    final long jitterMillis = ThreadLocalRandom.current().nextLong(-POLL_JITTER.toMillis(), POLL_JITTER.toMillis() + 1);
+
+    pollExecutor.schedule(this::poll, POLL_INTERVAL.toMillis() + jitterMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @VisibleForTesting
+  void poll() {
+    try {
+      retrieveDynamicConfiguration().ifPresent(this::publish);
+    } catch (Throwable t) {
+      logger.warn("Error retrieving dynamic configuration", t);
+    } finally {
+      scheduleNextPoll();
     }
+  }
 
-    final Thread workerThread = new Thread(() -> {
-      while (true) {
-        try {
-          retrieveDynamicConfiguration().ifPresent(configuration::set);
-        } catch (Throwable t) {
-          logger.warn("Error retrieving dynamic configuration", t);
-        }
+  private void publish(final T configuration) {
+    synchronized (publishLock) {
+      final Snapshot<T> previousSnapshot = snapshot.get();
+      final long generation = previousSnapshot != null ? previousSnapshot.getGeneration() + 1 : 1;
+      final Snapshot<T> newSnapshot = new Snapshot<>(configuration, lastConfigResult.configurationVersion(), generation);
 
-        Util.sleep(5000);
-      }
-    }, "DynamicConfigurationManagerWorker");
+      snapshot.set(newSnapshot);
+      changeListeners.forEach(listener -> notifyListener(listener, newSnapshot));
+    }
+
+    // Release callers waiting for the initial configuration only once listeners have derived their state from it
+    initialized.countDown();
+  }
 
-    workerThread.setDaemon(true);
-    workerThread.start();
+  private void notifyListener(final Consumer<Snapshot<T>> listener, final Snapshot<T> newSnapshot) {
+    try {
+      listener.accept(newSnapshot);
+    } catch (final Exception e) {
+      logger.warn("Dynamic configuration change listener failed", e);
+    }
   }
 
   private Optional<T> retrieveDynamicConfiguration() throws JsonProcessingException {
@@ -6,56 +6,101 @@
 package org.whispersystems.textsecuregcm.storage;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.Metrics;
 import io.micrometer.core.instrument.Timer;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.entities.PreKey;
 import org.whispersystems.textsecuregcm.util.AttributeValues;
+import org.whispersystems.textsecuregcm.util.Pair;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
 import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
 import software.amazon.awssdk.services.dynamodb.model.DeleteRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.PutRequest;
 import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
 import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
 import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
 import software.amazon.awssdk.services.dynamodb.model.Select;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 
 import static org.whispersystems.textsecuregcm.metrics.MetricsUtil.name;
 
 public class Keys extends AbstractDynamoDbStore {
 
+  private final DynamoDbAsyncClient dynamoDbAsyncClient;
   private final String tableName;
 
   static final String KEY_ACCOUNT_UUID = "U";
   static final String KEY_DEVICE_ID_KEY_ID = "DK";
   static final String KEY_PUBLIC_KEY = "P";
+  static final String KEY_COUNT = "C";
+
+  private static final byte COUNT_SORT_KEY_MARKER = (byte) 0xff;
+  private static final int MAX_ATTEMPTS_TO_WRITE_BATCH = 25;
 
   private static final Timer STORE_KEYS_TIMER = Metrics.timer(name(Keys.class, "storeKeys"));
+  private static final Timer APPEND_KEYS_TIMER = Metrics.timer(name(Keys.class, "appendKeys"));
   private static final Timer TAKE_KEY_FOR_DEVICE_TIMER = Metrics.timer(name(Keys.class, "takeKeyForDevice"));
+  private static final Timer TAKE_KEYS_FOR_DEVICES_TIMER = Metrics.timer(name(Keys.class, "takeKeysForDevices"));
   private static final Timer GET_KEY_COUNT_TIMER = Metrics.timer(name(Keys.class, "getKeyCount"));
   private static final Timer DELETE_KEYS_FOR_DEVICE_TIMER = Metrics.timer(name(Keys.class, "deleteKeysForDevice"));
   private static final Timer DELETE_KEYS_FOR_ACCOUNT_TIMER = Metrics.timer(name(Keys.class, "deleteKeysForAccount"));
   private static final DistributionSummary CONTESTED_KEY_DISTRIBUTION = Metrics.summary(name(Keys.class, "contestedKeys"));
   private static final DistributionSummary KEY_COUNT_DISTRIBUTION = Metrics.summary(name(Keys.class, "keyCount"));
+  private static final Counter RECOUNT_KEYS_COUNTER = Metrics.counter(name(Keys.class, "recountKeys"));
+
+  private static final Logger logger = LoggerFactory.getLogger(Keys.class);
+
+  @VisibleForTesting
+  static final int TAKE_CANDIDATE_PAGE_SIZE = 16;
 
-  public Keys(final DynamoDbClient dynamoDB, final String tableName) {
+  public Keys(final DynamoDbClient dynamoDB, final DynamoDbAsyncClient dynamoDbAsyncClient, final String tableName) {
     super(dynamoDB);
+    this.dynamoDbAsyncClient = dynamoDbAsyncClient;
     this.tableName = tableName;
   }
 
+  /**
+   * Replaces all of the pre-keys for the given device with the given keys. Batches of new keys are written
+   * concurrently once the old keys have been removed.
+   *
+   * @param identifier the identifier of the account that owns the device
+   * @param deviceId the identifier of the device
+   * @param keys the device's new pre-keys
+   */
   public void store(final UUID identifier, final long deviceId, final List<PreKey> keys) {
     STORE_KEYS_TIMER.record(() -> {
       delete(identifier, deviceId);
 
+      final List<CompletableFuture<Void>> batchFutures = new ArrayList<>();
+
       writeInBatches(keys, batch -> {
         List<WriteRequest> items = new ArrayList<>();
         for (final PreKey preKey : batch) {
@@ -65,44 +110,74 @@ public class Keys extends AbstractDynamoDbStore {
                   .build())
               .build());
         }
-        executeTableWriteItemsUntilComplete(Map.of(tableName, items));
+        batchFutures.add(executeTableWriteItemsUntilCompleteAsync(Map.of(tableName, items), 0));
       });
+
+      CompletableFuture.allOf(batchFutures.toArray(CompletableFuture[]::new)).join();
+
+      db().putItem(PutItemRequest.builder()
+          .tableName(tableName)
+          .item(Map.of(
+              KEY_ACCOUNT_UUID, getPartitionKey(identifier),
+              KEY_DEVICE_ID_KEY_ID, getCountSortKey(deviceId),
+              KEY_COUNT, AttributeValues.fromLong(keys.stream().mapToLong(PreKey::getKeyId).distinct().count())))
+          .build());
+    });
+  }
+
+  /**
+   * Adds the given pre-keys to the given device's existing pre-keys without first removing old keys. Keys are written
+   * concurrently; a key with the same ID as an existing key replaces that key.
+   *
+   * @param identifier the identifier of the account that owns the device
+   * @param deviceId the identifier of the device
+   * @param keys the pre-keys to add
+   */
+  public void append(final UUID identifier, final long deviceId, final List<PreKey> keys) {
+    APPEND_KEYS_TIMER.record(() -> {
+      final List<CompletableFuture<Boolean>> putFutures = keys.stream()
+          .map(preKey -> dynamoDbAsyncClient.putItem(PutItemRequest.builder()
+                  .tableName(tableName)
+                  .item(getItemFromPreKey(identifier, deviceId, preKey))
+                  .returnValues(ReturnValue.ALL_OLD)
+                  .build())
+              .thenApply(putItemResponse -> !putItemResponse.hasAttributes()))
+          .collect(Collectors.toList());
+
+      CompletableFuture.allOf(putFutures.toArray(CompletableFuture[]::new)).join();
+
+      final long addedKeys = putFutures.stream().filter(CompletableFuture::join).count();
+
+      if (addedKeys > 0) {
+        adjustCount(getPartitionKey(identifier), deviceId, addedKeys).join();
+      }
     });
   }
 
   public Optional<PreKey> take(final UUID identifier, final long deviceId) {
     return TAKE_KEY_FOR_DEVICE_TIMER.record(() -> {
       final AttributeValue partitionKey = getPartitionKey(identifier);
-      QueryRequest queryRequest = QueryRequest.builder()
-          .tableName(tableName)
-          .keyConditionExpression("#uuid = :uuid AND begins_with (#sort, :sortprefix)")
-          .expressionAttributeNames(Map.of("#uuid", KEY_ACCOUNT_UUID, "#sort", KEY_DEVICE_ID_KEY_ID))
-          .expressionAttributeValues(Map.of(
-              ":uuid", partitionKey,
-              ":sortprefix", getSortKeyPrefix(deviceId)))
-          .projectionExpression(KEY_DEVICE_ID_KEY_ID)
-          .consistentRead(false)
-          .build();
-
       int contestedKeys = 0;
 
       try {
-        QueryResponse response = db().query(queryRequest);
-        for (Map<String, AttributeValue> candidate : response.items()) {
-          DeleteItemRequest deleteItemRequest = DeleteItemRequest.builder()
-              .tableName(tableName)
-              .key(Map.of(
-                  KEY_ACCOUNT_UUID, partitionKey,
-                  KEY_DEVICE_ID_KEY_ID, candidate.get(KEY_DEVICE_ID_KEY_ID)))
-              .returnValues(ReturnValue.ALL_OLD)
-              .build();
-          DeleteItemResponse deleteItemResponse = db().deleteItem(deleteItemRequest);
-          if (deleteItemResponse.hasAttributes()) {
-            return Optional.of(getPreKeyFromItem(deleteItemResponse.attributes()));
+        Map<String, AttributeValue> exclusiveStartKey = null;
+
+        do {
+          final QueryResponse response = db().query(getTakeQueryRequest(partitionKey, deviceId, exclusiveStartKey));
+
+          for (final Map<String, AttributeValue> candidate : shuffledCandidates(response)) {
+            try {
+              DeleteItemResponse deleteItemResponse = db().deleteItem(getTakeDeleteItemRequest(partitionKey, candidate));
+              adjustCount(partitionKey, deviceId, -1).join();
+
+              return Optional.of(getPreKeyFromItem(deleteItemResponse.attributes()));
+            } catch (final ConditionalCheckFailedException e) {
+              contestedKeys++;
+            }
           }
 
-          contestedKeys++;
-        }
+          exclusiveStartKey = response.hasLastEvaluatedKey() ? response.lastEvaluatedKey() : null;
+        } while (exclusiveStartKey != null);
 
         return Optional.empty();
       } finally {
@@ -111,33 +186,264 @@ public class Keys extends AbstractDynamoDbStore {
     });
   }
 
+  /**
+   * Takes one pre-key for each of the given devices. Queries and claims for different devices are issued concurrently;
+   * candidates for any single device are still claimed one at a time so that a single take never consumes more than
+   * one key.
+   *
+   * @param identifier the identifier of the account that owns the devices
+   * @param deviceIds the identifiers of the devices for which to take pre-keys
+   *
+   * @return a map of device identifiers to pre-keys; devices that have no pre-keys remaining are absent
+   */
+  public Map<Long, PreKey> takeForDevices(final UUID identifier, final Collection<Long> deviceIds) {
+    return TAKE_KEYS_FOR_DEVICES_TIMER.record(() -> takeForDevicesAsync(identifier, deviceIds).join());
+  }
+
+  /**
+   * Asynchronously takes one pre-key for each of the given devices.
+   *
+   * @param identifier the identifier of the account that owns the devices
+   * @param deviceIds the identifiers of the devices for which to take pre-keys
+   *
+   * @return a future that yields a map of device identifiers to pre-keys; devices that have no pre-keys remaining are
+   * absent
+   *
+   * @see #takeForDevices(UUID, Collection)
+   */
+  public CompletableFuture<Map<Long, PreKey>> takeForDevicesAsync(final UUID identifier, final Collection<Long> deviceIds) {
+    final AttributeValue partitionKey = getPartitionKey(identifier);
+    final Map<Long, PreKey> preKeysByDeviceId = new ConcurrentHashMap<>();
+
+    return CompletableFuture.allOf(deviceIds.stream()
+            .distinct()
+            .map(deviceId -> takeAsync(partitionKey, deviceId, null, 0)
+                .thenAccept(maybePreKey -> maybePreKey.ifPresent(preKey -> preKeysByDeviceId.put(deviceId, preKey))))
+            .toArray(CompletableFuture[]::new))
+        .thenApply(ignored -> preKeysByDeviceId);
+  }
+
+  private CompletableFuture<Optional<PreKey>> takeAsync(final AttributeValue partitionKey, final long deviceId,
+      @Nullable final Map<String, AttributeValue> exclusiveStartKey, final int contestedKeys) {
+
+    return dynamoDbAsyncClient.query(getTakeQueryRequest(partitionKey, deviceId, exclusiveStartKey))
+        .thenCompose(response -> claimFirstAvailable(partitionKey, shuffledCandidates(response).iterator(), contestedKeys)
+            .thenCompose(claimResult -> {
+              if (claimResult.first().isPresent()) {
+                CONTESTED_KEY_DISTRIBUTION.record(claimResult.second());
+                return adjustCount(partitionKey, deviceId, -1).thenApply(ignored -> claimResult.first());
+              }
+
+              if (!response.hasLastEvaluatedKey()) {
+                CONTESTED_KEY_DISTRIBUTION.record(claimResult.second());
+                return CompletableFuture.completedFuture(Optional.<PreKey>empty());
+              }
+
+              return takeAsync(partitionKey, deviceId, response.lastEvaluatedKey(), claimResult.second());
+            }));
+  }
+
+  /**
+   * Tries to claim each of the given candidates in turn until one is claimed successfully or the candidates are
+   * exhausted.
+   *
+   * @return a future that yields the claimed pre-key (if any) and the running count of contested keys
+   */
+  private CompletableFuture<Pair<Optional<PreKey>, Integer>> claimFirstAvailable(final AttributeValue partitionKey,
+      final Iterator<Map<String, AttributeValue>> candidates, final int contestedKeys) {
+
+    if (!candidates.hasNext()) {
+      return CompletableFuture.completedFuture(new Pair<>(Optional.empty(), contestedKeys));
+    }
+
+    return dynamoDbAsyncClient.deleteItem(getTakeDeleteItemRequest(partitionKey, candidates.next()))
+        .handle((deleteItemResponse, throwable) -> {
+          if (throwable == null) {
+            return CompletableFuture.completedFuture(
+                new Pair<>(Optional.of(getPreKeyFromItem(deleteItemResponse.attributes())), contestedKeys));
+          }
+
+          if (Throwables.getRootCause(throwable) instanceof ConditionalCheckFailedException) {
+            return claimFirstAvailable(partitionKey, candidates, contestedKeys + 1);
+          }
+
+          return CompletableFuture.<Pair<Optional<PreKey>, Integer>>failedFuture(throwable);
+        })
+        .thenCompose(Function.identity());
+  }
+
+  /**
+   * Adjusts the stored pre-key count for the given device. Counts are only adjusted if a count item already exists
+   * and would not become negative; if no count item exists, the next call to {@link #getCount(UUID, long)} counts the
+   * device's keys directly and creates one. If the adjustment fails for any other reason, the count item is removed
+   * so that it will be recounted rather than left inaccurate.
+   */
+  private CompletableFuture<Void> adjustCount(final AttributeValue partitionKey, final long deviceId, final long delta) {
+    final Map<String, AttributeValue> countItemKey = Map.of(
+        KEY_ACCOUNT_UUID, partitionKey,
+        KEY_DEVICE_ID_KEY_ID, getCountSortKey(deviceId));
+
+    return dynamoDbAsyncClient.updateItem(UpdateItemRequest.builder()
+            .tableName(tableName)
+            .key(countItemKey)
+            .updateExpression("ADD #count :delta")
+            .conditionExpression("attribute_exists(#uuid) AND #count >= :minimum")
+            .expressionAttributeNames(Map.of("#uuid", KEY_ACCOUNT_UUID, "#count", KEY_COUNT))
+            .expressionAttributeValues(Map.of(
+                ":delta", AttributeValues.fromLong(delta),
+                ":minimum", AttributeValues.fromLong(Math.max(0, -delta))))
+            .build())
+        .<Void>thenApply(ignored -> null)
+        .exceptionallyCompose(throwable -> {
+          if (Throwables.getRootCause(throwable) instanceof ConditionalCheckFailedException) {
+            return CompletableFuture.completedFuture(null);
+          }
+
+          logger.warn("Failed to update pre-key count; removing count item", throwable);
+
+          return dynamoDbAsyncClient.deleteItem(DeleteItemRequest.builder()
+                  .tableName(tableName)
+                  .key(countItemKey)
+                  .build())
+              .<Void>thenApply(ignored -> null)
+              .exceptionally(ignored -> null);
+        });
+  }
+
+  private CompletableFuture<Void> executeTableWriteItemsUntilCompleteAsync(final Map<String, List<WriteRequest>> items,
+      final int attempt) {
+
+    return dynamoDbAsyncClient.batchWriteItem(BatchWriteItemRequest.builder().requestItems(items).build())
+        .thenCompose(response -> {
+          if (!response.hasUnprocessedItems() || response.unprocessedItems().isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+          }
+
+          if (attempt + 1 >= MAX_ATTEMPTS_TO_WRITE_BATCH) {
+            return CompletableFuture.failedFuture(new IllegalStateException(
+                "Failed to write all pre-keys after " + MAX_ATTEMPTS_TO_WRITE_BATCH + " attempts"));
+          }
+
+          return executeTableWriteItemsUntilCompleteAsync(response.unprocessedItems(), attempt + 1);
+        });
+  }
+
+  /**
+   * Returns the candidates from a page of take query results in random order. Concurrent takers for the same device
+   * see the same page of lowest-sorted keys; trying those keys in a random order instead of all racing for the first
+   * one spreads takers across the page and keeps the number of contested deletes low.
+   */
+  private static List<Map<String, AttributeValue>> shuffledCandidates(final QueryResponse response) {
+    final List<Map<String, AttributeValue>> candidates = new ArrayList<>(response.items());
+    Collections.shuffle(candidates, ThreadLocalRandom.current());
+
+    return candidates;
+  }
+
+  private QueryRequest getTakeQueryRequest(final AttributeValue partitionKey, final long deviceId,
+      @Nullable final Map<String, AttributeValue> exclusiveStartKey) {
+
+    return QueryRequest.builder()
+        .tableName(tableName)
+        .keyConditionExpression("#uuid = :uuid AND begins_with (#sort, :sortprefix)")
+        .expressionAttributeNames(Map.of("#uuid", KEY_ACCOUNT_UUID, "#sort", KEY_DEVICE_ID_KEY_ID))
+        .expressionAttributeValues(Map.of(
+            ":uuid", partitionKey,
+            ":sortprefix", getSortKeyPrefix(deviceId)))
+        .projectionExpression(KEY_DEVICE_ID_KEY_ID)
+        .exclusiveStartKey(exclusiveStartKey)
+        .limit(TAKE_CANDIDATE_PAGE_SIZE)
+        .consistentRead(false)
+        .build();
+  }
+
+  private DeleteItemRequest getTakeDeleteItemRequest(final AttributeValue partitionKey,
+      final Map<String, AttributeValue> candidate) {
+
+    return DeleteItemRequest.builder()
+        .tableName(tableName)
+        .key(Map.of(
+            KEY_ACCOUNT_UUID, partitionKey,
+            KEY_DEVICE_ID_KEY_ID, candidate.get(KEY_DEVICE_ID_KEY_ID)))
+        .conditionExpression("attribute_exists(#uuid)")
+        .expressionAttributeNames(Map.of("#uuid", KEY_ACCOUNT_UUID))
+        .returnValues(ReturnValue.ALL_OLD)
+        .build();
+  }
+
+  /**
+   * Returns the number of pre-keys remaining for the given device. Counts are normally read from a per-device count
+   * item maintained by {@link #store(UUID, long, List)}, {@link #append(UUID, long, List)} and the various
+   * {@code take} methods; if no count item exists, keys are counted directly and a new count item is created.
+   *
+   * @param identifier the identifier of the account that owns the device
+   * @param deviceId the identifier of the device
+   *
+   * @return the number of pre-keys remaining for the given device
+   */
   public int getCount(final UUID identifier, final long deviceId) {
     return GET_KEY_COUNT_TIMER.record(() -> {
-      QueryRequest queryRequest = QueryRequest.builder()
+      final GetItemResponse getItemResponse = db().getItem(GetItemRequest.builder()
           .tableName(tableName)
-          .keyConditionExpression("#uuid = :uuid AND begins_with (#sort, :sortprefix)")
-          .expressionAttributeNames(Map.of("#uuid", KEY_ACCOUNT_UUID, "#sort", KEY_DEVICE_ID_KEY_ID))
-          .expressionAttributeValues(Map.of(
-              ":uuid", getPartitionKey(identifier),
-              ":sortprefix", getSortKeyPrefix(deviceId)))
-          .select(Select.COUNT)
+          .key(Map.of(
+              KEY_ACCOUNT_UUID, getPartitionKey(identifier),
+              KEY_DEVICE_ID_KEY_ID, getCountSortKey(deviceId)))
           .consistentRead(false)
-          .build();
+          .build());
 
-      int keyCount = 0;
-      // This is very confusing, but does appear to be the intended behavior. See:
-      //
-      // - https://github.com/aws/aws-sdk-java/issues/693
-      // - https://github.com/aws/aws-sdk-java/issues/915
-      // - https://docs.aws.amazon.com/amazondynamodb/latest/developerguide/Query.html#Query.Count
-      for (final QueryResponse page : db().queryPaginator(queryRequest)) {
-        keyCount += page.count();
+      final int keyCount;
+
+      if (getItemResponse.hasItem()) {
+        keyCount = (int) Math.max(0, AttributeValues.getLong(getItemResponse.item(), KEY_COUNT, 0));
+      } else {
+        RECOUNT_KEYS_COUNTER.increment();
+        keyCount = countKeys(identifier, deviceId);
+
+        try {
+          db().putItem(PutItemRequest.builder()
+              .tableName(tableName)
+              .item(Map.of(
+                  KEY_ACCOUNT_UUID, getPartitionKey(identifier),
+                  KEY_DEVICE_ID_KEY_ID, getCountSortKey(deviceId),
+                  KEY_COUNT, AttributeValues.fromLong(keyCount)))
+              .conditionExpression("attribute_not_exists(#uuid)")
+              .expressionAttributeNames(Map.of("#uuid", KEY_ACCOUNT_UUID))
+              .build());
+        } catch (final ConditionalCheckFailedException ignored) {
+          // Somebody else created a count item while we were counting; theirs is at least as fresh as ours
+        }
       }
+
       KEY_COUNT_DISTRIBUTION.record(keyCount);
       return keyCount;
     });
   }
 
+  private int countKeys(final UUID identifier, final long deviceId) {
+    QueryRequest queryRequest = QueryRequest.builder()
+        .tableName(tableName)
+        .keyConditionExpression("#uuid = :uuid AND begins_with (#sort, :sortprefix)")
+        .expressionAttributeNames(Map.of("#uuid", KEY_ACCOUNT_UUID, "#sort", KEY_DEVICE_ID_KEY_ID))
+        .expressionAttributeValues(Map.of(
+            ":uuid", getPartitionKey(identifier),
+            ":sortprefix", getSortKeyPrefix(deviceId)))
+        .select(Select.COUNT)
+        .consistentRead(false)
+        .build();
+
+    int keyCount = 0;
+    // This is very confusing, but does appear to be the intended behavior. See:
+    //
+    // - https://github.com/aws/aws-sdk-java/issues/693
+    // - https://github.com/aws/aws-sdk-java/issues/915
+    // - https://docs.aws.amazon.com/amazondynamodb/latest/developerguide/Query.html#Query.Count
+    for (final QueryResponse page : db().queryPaginator(queryRequest)) {
+      keyCount += page.count();
+    }
+
+    return keyCount;
+  }
+
   public void delete(final UUID accountUuid) {
     DELETE_KEYS_FOR_ACCOUNT_TIMER.record(() -> {
       final QueryRequest queryRequest = QueryRequest.builder()
@@ -168,6 +474,13 @@ public class Keys extends AbstractDynamoDbStore {
           .build();
 
       deleteItemsForAccountMatchingQuery(accountUuid, queryRequest);
+
+      db().deleteItem(DeleteItemRequest.builder()
+          .tableName(tableName)
+          .key(Map.of(
+              KEY_ACCOUNT_UUID, getPartitionKey(accountUuid),
+              KEY_DEVICE_ID_KEY_ID, getCountSortKey(deviceId)))
+          .build());
     });
   }
 
@@ -200,6 +513,18 @@ public class Keys extends AbstractDynamoDbStore {
     return AttributeValues.fromByteBuffer(byteBuffer.flip());
   }
 
+  /**
+   * Returns the sort key for a device's count item. Count sort keys begin with a marker byte that can never begin a
+   * (non-negative) device ID, and so count items never match a device's pre-key sort key prefix.
+   */
+  @VisibleForTesting
+  static AttributeValue getCountSortKey(final long deviceId) {
+    final ByteBuffer byteBuffer = ByteBuffer.wrap(new byte[9]);
+    byteBuffer.put(COUNT_SORT_KEY_MARKER);
+    byteBuffer.putLong(deviceId);
+    return AttributeValues.fromByteBuffer(byteBuffer.flip());
+  }
+
   @VisibleForTesting
   static AttributeValue getSortKeyPrefix(final long deviceId) {
     final ByteBuffer byteBuffer = ByteBuffer.wrap(new byte[8]);
@@ -5,45 +5,195 @@
 
 package org.whispersystems.textsecuregcm.storage;
 
+import static org.whispersystems.textsecuregcm.metrics.MetricsUtil.name;
+
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.dropwizard.lifecycle.Managed;
 import io.lettuce.core.RedisException;
+import io.lettuce.core.cluster.SlotHash;
+import io.lettuce.core.cluster.event.ClusterTopologyChangedEvent;
+import io.lettuce.core.cluster.models.partitions.RedisClusterNode;
+import io.lettuce.core.cluster.pubsub.RedisClusterPubSubAdapter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicConfiguration;
+import org.whispersystems.textsecuregcm.redis.FaultTolerantPubSubConnection;
 import org.whispersystems.textsecuregcm.redis.FaultTolerantRedisCluster;
 import org.whispersystems.textsecuregcm.util.SystemMapper;
+import reactor.core.Disposable;
 
-public class ProfilesManager {
+/**
+ * Stores versioned profiles, backed by a Redis cache and, once started, an in-process near cache.
+ * <p/>
+ * Profiles can be read from Redis in either a compact binary encoding or JSON. Servers that predate the binary encoding
+ * can only read JSON, so profiles are written as JSON unless the binary encoding is enabled in the dynamic configuration
+ * (which should only happen once no such servers remain). Changes to a profile are broadcast to all servers via a Redis pub/sub channel so each
+ * server can evict its near-cached copies; because pub/sub delivery isn't guaranteed, near-cached profiles also expire
+ * after a short time.
+ */
+public class ProfilesManager extends RedisClusterPubSubAdapter<String, String> implements Managed {
 
   private final Logger logger = LoggerFactory.getLogger(ProfilesManager.class);
 
   private static final String CACHE_PREFIX = "profiles::";
 
+  private static final String INVALIDATION_CHANNEL = "profiles::invalidate";
+
+  private static final int MAX_NEAR_CACHED_ACCOUNTS = 50_000;
+  private static final Duration NEAR_CACHE_TTL = Duration.ofMinutes(1);
+
+  // Must be a power of two
+  private static final int INVALIDATION_GENERATION_STRIPES = 4096;
+
+  // JSON-encoded profiles always start with '{', so this can't be mistaken for a legacy entry
+  private static final byte BINARY_FORMAT_VERSION = 0x01;
+
+  private static final DistributionSummary BINARY_PROFILE_SIZE = DistributionSummary.builder(name(ProfilesManager.class, "cachedProfileSize"))
+      .tag("encoding", "binary")
+      .register(Metrics.globalRegistry);
+
+  private static final DistributionSummary JSON_PROFILE_SIZE = DistributionSummary.builder(name(ProfilesManager.class, "cachedProfileSize"))
+      .tag("encoding", "json")
+      .register(Metrics.globalRegistry);
+
   private final Profiles profiles;
   private final FaultTolerantRedisCluster cacheCluster;
   private final ObjectMapper mapper;
+  private final DynamicConfigurationManager<DynamicConfiguration> dynamicConfigurationManager;
+
+  private final Cache<UUID, Map<String, VersionedProfile>> nearCache;
+  private final AtomicLongArray invalidationGenerations = new AtomicLongArray(INVALIDATION_GENERATION_STRIPES);
+  private volatile boolean nearCacheEnabled = false;
+
+  @Nullable
+  private FaultTolerantPubSubConnection<String, String> pubSubConnection;
+
+  @Nullable
+  private Disposable topologyChangeSubscription;
 
   public ProfilesManager(final Profiles profiles,
-      final FaultTolerantRedisCluster cacheCluster) {
+      final FaultTolerantRedisCluster cacheCluster,
+      final DynamicConfigurationManager<DynamicConfiguration> dynamicConfigurationManager) {
     this.profiles = profiles;
     this.cacheCluster = cacheCluster;
     this.mapper = SystemMapper.getMapper();
+    this.dynamicConfigurationManager = dynamicConfigurationManager;
+
+    this.nearCache = CacheBuilder.newBuilder()
+        .maximumSize(MAX_NEAR_CACHED_ACCOUNTS)
+        .expireAfterWrite(NEAR_CACHE_TTL)
+        .recordStats()
+        .build();
+
+    GuavaCacheMetrics.monitor(Metrics.globalRegistry, nearCache, name(ProfilesManager.class, "nearCache"));
+  }
+
+  /**
+   * Subscribes to profile invalidation messages from other servers and enables the near cache. Until a server is
+   * started, it still broadcasts invalidations, but never caches profiles locally.
+   */
+  @Override
+  public void start() {
+    pubSubConnection = cacheCluster.createPubSubConnection();
+
+    pubSubConnection.usePubSubConnection(connection -> {
+      connection.addListener(this);
+      topologyChangeSubscription = connection.getResources().eventBus().get()
+          .filter(event -> event instanceof ClusterTopologyChangedEvent)
+          .subscribe(event -> subscribeToInvalidations());
+    });
+
+    subscribeToInvalidations();
+    nearCacheEnabled = true;
+  }
+
+  @Override
+  public void stop() {
+    nearCacheEnabled = false;
+    nearCache.invalidateAll();
+
+    if (topologyChangeSubscription != null) {
+      topologyChangeSubscription.dispose();
+      topologyChangeSubscription = null;
+    }
+
+    if (pubSubConnection != null) {
+      pubSubConnection.usePubSubConnection(connection -> {
+        connection.removeListener(this);
+        connection.sync().upstream().commands().unsubscribe(INVALIDATION_CHANNEL);
+      });
+    }
+  }
+
+  private void subscribeToInvalidations() {
+    final int slot = SlotHash.getSlot(INVALIDATION_CHANNEL);
+
+    // Messages published to any node are broadcast to every node, so it doesn't matter which node we subscribe to, but
+    // choosing the channel's "home" node keeps subscriptions predictable across topology changes
+    pubSubConnection.usePubSubConnection(connection ->
+        connection.sync().nodes(node -> node.is(RedisClusterNode.NodeFlag.UPSTREAM) && node.hasSlot(slot))
+            .commands()
+            .subscribe(INVALIDATION_CHANNEL));
+
+    // We may have missed invalidations while (re)subscribing
+    nearCache.invalidateAll();
+  }
+
+  @Override
+  public void message(final RedisClusterNode node, final String channel, final String message) {
+    if (INVALIDATION_CHANNEL.equals(channel)) {
+      try {
+        invalidateNearCache(UUID.fromString(message));
+      } catch (final IllegalArgumentException e) {
+        logger.warn("Received invalid profile invalidation message: {}", message);
+      }
+    }
   }
 
   public void set(UUID uuid, VersionedProfile versionedProfile) {
     memcacheSet(uuid, versionedProfile);
     profiles.set(uuid, versionedProfile);
+    broadcastInvalidation(uuid);
   }
 
   public void deleteAll(UUID uuid) {
     memcacheDelete(uuid);
     profiles.deleteAll(uuid);
+    broadcastInvalidation(uuid);
   }
 
   public Optional<VersionedProfile> get(UUID uuid, String version) {
+    if (nearCacheEnabled) {
+      final Map<String, VersionedProfile> nearCachedProfiles = nearCache.getIfPresent(uuid);
+
+      if (nearCachedProfiles != null && nearCachedProfiles.containsKey(version)) {
+        return Optional.of(nearCachedProfiles.get(version));
+      }
+    }
+
+    // If an invalidation for this account arrives while we're fetching the profile, what we fetched may already be stale
+    final int stripe = getInvalidationGenerationStripe(uuid);
+    final long generationBeforeFetch = invalidationGenerations.get(stripe);
+
     Optional<VersionedProfile> profile = memcacheGet(uuid, version);
 
     if (profile.isEmpty()) {
@@ -51,25 +201,72 @@ public class ProfilesManager {
       profile.ifPresent(versionedProfile -> memcacheSet(uuid, versionedProfile));
     }
 
+    if (nearCacheEnabled && profile.isPresent()) {
+      final VersionedProfile fetchedProfile = profile.get();
+
+      // Checking the generation inside compute means an invalidation either happens before the check (and we skip
+      // caching) or waits for us to finish and then evicts what we cached
+      nearCache.asMap().compute(uuid, (ignored, nearCachedProfiles) -> {
+        if (invalidationGenerations.get(stripe) != generationBeforeFetch) {
+          return nearCachedProfiles;
+        }
+
+        final Map<String, VersionedProfile> updatedProfiles =
+            nearCachedProfiles != null ? nearCachedProfiles : new ConcurrentHashMap<>();
+
+        updatedProfiles.put(version, fetchedProfile);
+        return updatedProfiles;
+      });
+    }
+
     return profile;
   }
 
-  private void memcacheSet(UUID uuid, VersionedProfile profile) {
+  private void broadcastInvalidation(final UUID uuid) {
+    invalidateNearCache(uuid);
+
     try {
-      final String profileJson = mapper.writeValueAsString(profile);
+      cacheCluster.useCluster(connection -> connection.sync().publish(INVALIDATION_CHANNEL, uuid.toString()));
+    } catch (final RedisException e) {
+      logger.warn("Failed to broadcast profile invalidation", e);
+    }
+  }
+
+  private void invalidateNearCache(final UUID uuid) {
+    invalidationGenerations.incrementAndGet(getInvalidationGenerationStripe(uuid));
+    nearCache.invalidate(uuid);
+  }
 
-      cacheCluster.useCluster(connection -> connection.sync().hset(CACHE_PREFIX + uuid.toString(), profile.getVersion(), profileJson));
-    } catch (JsonProcessingException e) {
-      throw new IllegalArgumentException(e);
+  private static int getInvalidationGenerationStripe(final UUID uuid) {
+    return uuid.hashCode() & (INVALIDATION_GENERATION_STRIPES - 1);
+  }
+
+  private void memcacheSet(UUID uuid, VersionedProfile profile) {
+    final byte[] encodedProfile;
+
+    if (dynamicConfigurationManager.getConfiguration().getProfilesConfiguration().isBinaryCacheEncodingEnabled()) {
+      encodedProfile = encode(profile);
+      BINARY_PROFILE_SIZE.record(encodedProfile.length);
+    } else {
+      try {
+        encodedProfile = mapper.writeValueAsBytes(profile);
+        JSON_PROFILE_SIZE.record(encodedProfile.length);
+      } catch (final JsonProcessingException e) {
+        throw new IllegalArgumentException(e);
+      }
     }
+
+    cacheCluster.useBinaryCluster(connection -> connection.sync().hset(getCacheKey(uuid),
+        profile.getVersion().getBytes(StandardCharsets.UTF_8), encodedProfile));
   }
 
   private Optional<VersionedProfile> memcacheGet(UUID uuid, String version) {
     try {
-      final String json = cacheCluster.withCluster(connection -> connection.sync().hget(CACHE_PREFIX + uuid.toString(), version));
+      final byte[] encodedProfile = cacheCluster.withBinaryCluster(connection ->
+          connection.sync().hget(getCacheKey(uuid), version.getBytes(StandardCharsets.UTF_8)));
 
-      if (json == null) return Optional.empty();
-      else              return Optional.of(mapper.readValue(json, VersionedProfile.class));
+      if (encodedProfile == null) return Optional.empty();
+      else                        return Optional.of(decode(encodedProfile));
     } catch (IOException e) {
       logger.warn("Error deserializing value...", e);
       return Optional.empty();
@@ -80,6 +277,91 @@ public class ProfilesManager {
   }
 
   private void memcacheDelete(UUID uuid) {
-    cacheCluster.useCluster(connection -> connection.sync().del(CACHE_PREFIX + uuid.toString()));
+    cacheCluster.useBinaryCluster(connection -> connection.sync().del(getCacheKey(uuid)));
+  }
+
+  private static byte[] getCacheKey(final UUID uuid) {
+    return (CACHE_PREFIX + uuid.toString()).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] encode(final VersionedProfile profile) {
+    final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(256);
+
+    try (final DataOutputStream out = new DataOutputStream(byteArrayOutputStream)) {
+      out.writeByte(BINARY_FORMAT_VERSION);
+
+      writeNullableBytes(out, toBytes(profile.getVersion()));
+      writeNullableBytes(out, toBytes(profile.getName()));
+      writeNullableBytes(out, toBytes(profile.getAvatar()));
+      writeNullableBytes(out, toBytes(profile.getAboutEmoji()));
+      writeNullableBytes(out, toBytes(profile.getAbout()));
+      writeNullableBytes(out, toBytes(profile.getPaymentAddress()));
+      writeNullableBytes(out, profile.getCommitment());
+    } catch (final IOException e) {
+      // This should never happen when writing to a ByteArrayOutputStream
+      throw new AssertionError(e);
+    }
+
+    return byteArrayOutputStream.toByteArray();
+  }
+
+  private VersionedProfile decode(final byte[] encodedProfile) throws IOException {
+    if (encodedProfile.length > 0 && encodedProfile[0] == '{') {
+      return mapper.readValue(encodedProfile, VersionedProfile.class);
+    }
+
+    try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(encodedProfile))) {
+      final byte formatVersion = in.readByte();
+
+      if (formatVersion != BINARY_FORMAT_VERSION) {
+        throw new IOException("Unexpected profile format version: " + formatVersion);
+      }
+
+      return new VersionedProfile(
+          fromBytes(readNullableBytes(in)),
+          fromBytes(readNullableBytes(in)),
+          fromBytes(readNullableBytes(in)),
+          fromBytes(readNullableBytes(in)),
+          fromBytes(readNullableBytes(in)),
+          fromBytes(readNullableBytes(in)),
+          readNullableBytes(in));
+    }
+  }
+
+  private static void writeNullableBytes(final DataOutputStream out, @Nullable final byte[] bytes) throws IOException {
+    if (bytes == null) {
+      out.writeInt(-1);
+    } else {
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  @Nullable
+  private static byte[] readNullableBytes(final DataInputStream in) throws IOException {
+    final int length = in.readInt();
+
+    if (length < 0) {
+      return null;
+    }
+
+    if (length > in.available()) {
+      throw new IOException("Field length exceeds remaining profile data");
+    }
+
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+
+    return bytes;
+  }
+
+  @Nullable
+  private static byte[] toBytes(@Nullable final String string) {
+    return string != null ? string.getBytes(StandardCharsets.UTF_8) : null;
+  }
+
+  @Nullable
+  private static String fromBytes(@Nullable final byte[] bytes) {
+    return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
   }
 }
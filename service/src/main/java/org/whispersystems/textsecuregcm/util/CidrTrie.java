@@ -0,0 +1,176 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.util;
+
+import com.google.common.net.InetAddresses;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A binary trie of IPv4 and IPv6 network prefixes. Finding all of the prefixes that contain an address takes time
+ * proportional to the address length and allocates nothing unless at least one prefix matches.
+ * <p/>
+ * IPv4 and IPv6 prefixes are kept in separate trees, and an address only ever matches prefixes from its own family,
+ * which mirrors the behavior of Postgres's {@code inet} containment operators.
+ * <p/>
+ * Tries are not safe for concurrent modification, but may be safely read by any number of threads once fully built
+ * and safely published.
+ *
+ * @param <T> the type of value associated with each prefix
+ */
+public class CidrTrie<T> {
+
+  private final Node<T> ipv4Root = new Node<>();
+  private final Node<T> ipv6Root = new Node<>();
+
+  private static class Node<T> {
+
+    @SuppressWarnings("unchecked")
+    private final Node<T>[] children = new Node[2];
+
+    private List<T> values = Collections.emptyList();
+  }
+
+  /**
+   * Associates a value with the network prefix of the given length starting at the given address. Any bits of the
+   * address beyond the prefix length are ignored.
+   *
+   * @param address the raw bytes of the network address (4 bytes for IPv4 or 16 bytes for IPv6)
+   * @param prefixLength the number of significant leading bits in the address
+   * @param value the value to associate with the network prefix
+   *
+   * @throws IllegalArgumentException if the address is neither an IPv4 nor an IPv6 address, or if the prefix length is
+   * out of range for the address
+   */
+  public void put(final byte[] address, final int prefixLength, final T value) {
+    if (prefixLength < 0 || prefixLength > address.length * 8) {
+      throw new IllegalArgumentException("Invalid prefix length for address: " + prefixLength);
+    }
+
+    Node<T> node = getRoot(address);
+
+    for (int i = 0; i < prefixLength; i++) {
+      final int bit = getBit(address, i);
+
+      if (node.children[bit] == null) {
+        node.children[bit] = new Node<>();
+      }
+
+      node = node.children[bit];
+    }
+
+    if (node.values.isEmpty()) {
+      node.values = new ArrayList<>(1);
+    }
+
+    node.values.add(value);
+  }
+
+  /**
+   * Returns the values associated with every network prefix that contains the given address, ordered from the
+   * shortest prefix to the longest.
+   *
+   * @param address the raw bytes of the address to look up (4 bytes for IPv4 or 16 bytes for IPv6)
+   *
+   * @return the values associated with all prefixes containing the given address
+   */
+  public List<T> get(final byte[] address) {
+    Node<T> node = getRoot(address);
+    List<T> matches = Collections.emptyList();
+
+    for (int i = 0; node != null; i++) {
+      if (!node.values.isEmpty()) {
+        if (matches.isEmpty()) {
+          matches = new ArrayList<>(node.values);
+        } else {
+          matches.addAll(node.values);
+        }
+      }
+
+      if (i == address.length * 8) {
+        break;
+      }
+
+      node = node.children[getBit(address, i)];
+    }
+
+    return matches;
+  }
+
+  private Node<T> getRoot(final byte[] address) {
+    if (address.length == 4) {
+      return ipv4Root;
+    } else if (address.length == 16) {
+      return ipv6Root;
+    }
+
+    throw new IllegalArgumentException("Unexpected address length: " + address.length);
+  }
+
+  private static int getBit(final byte[] address, final int index) {
+    return (address[index / 8] >> (7 - (index % 8))) & 1;
+  }
+
+  /**
+   * Returns the raw bytes of an address as Postgres would interpret the given textual form. Unlike
+   * {@link InetAddress#getAddress()}, IPv4-mapped IPv6 addresses (e.g. {@code ::ffff:192.0.2.1}) remain IPv6
+   * addresses.
+   */
+  private static byte[] getAddressBytes(final String addressString, final InetAddress address) {
+    if (address instanceof Inet4Address && addressString.indexOf(':') >= 0) {
+      final byte[] mappedAddress = new byte[16];
+      mappedAddress[10] = (byte) 0xff;
+      mappedAddress[11] = (byte) 0xff;
+      System.arraycopy(address.getAddress(), 0, mappedAddress, 12, 4);
+
+      return mappedAddress;
+    }
+
+    return address.getAddress();
+  }
+
+  /**
+   * Parses an address or network in Postgres {@code inet} text form ({@code address} or {@code address/prefixLength})
+   * without performing any name resolution.
+   *
+   * @param cidr the textual address or network
+   *
+   * @return a pair of the raw address bytes and the prefix length
+   *
+   * @throws IllegalArgumentException if the given string is not a valid IPv4 or IPv6 address or network
+   */
+  public static Pair<byte[], Integer> parseCidr(final String cidr) {
+    final int slashIndex = cidr.indexOf('/');
+    final String addressString = slashIndex >= 0 ? cidr.substring(0, slashIndex) : cidr;
+
+    if (addressString.indexOf('%') >= 0) {
+      // Postgres doesn't accept scoped IPv6 addresses
+      throw new IllegalArgumentException("Scoped addresses are not supported: " + cidr);
+    }
+
+    final byte[] address = getAddressBytes(addressString, InetAddresses.forString(addressString));
+    final int prefixLength;
+
+    if (slashIndex >= 0) {
+      try {
+        prefixLength = Integer.parseInt(cidr.substring(slashIndex + 1));
+      } catch (final NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid prefix length: " + cidr, e);
+      }
+
+      if (prefixLength < 0 || prefixLength > address.length * 8) {
+        throw new IllegalArgumentException("Invalid prefix length: " + cidr);
+      }
+    } else {
+      prefixLength = address.length * 8;
+    }
+
+    return new Pair<>(address, prefixLength);
+  }
+}
@@ -5,17 +5,41 @@
 
 package org.whispersystems.textsecuregcm.util.ua;
 
+import static org.whispersystems.textsecuregcm.metrics.MetricsUtil.name;
+
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.vdurmont.semver4j.Semver;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.EnumMap;
 import java.util.Map;
+import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class UserAgentUtil {
 
+    public static final int MAX_CACHED_USER_AGENTS = 10_000;
+
+    // Real User-Agent strings are far shorter than this; longer strings are parsed every time so a client can't pin
+    // arbitrarily large keys in the cache
+    public static final int MAX_CACHED_USER_AGENT_LENGTH = 256;
+
+    private static final Cache<String, Optional<UserAgent>> PARSED_USER_AGENT_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_USER_AGENTS)
+            .recordStats()
+            .build();
+
+    static {
+        GuavaCacheMetrics.monitor(Metrics.globalRegistry, PARSED_USER_AGENT_CACHE, name(UserAgentUtil.class, "parsedUserAgentCache"));
+    }
+
+    private static final String STANDARD_UA_PREFIX = "Signal-";
+
     private static final Pattern STANDARD_UA_PATTERN = Pattern.compile("^Signal-(Android|Desktop|iOS)/([^ ]+)( (.+))?$", Pattern.CASE_INSENSITIVE);
 
     private static final Map<ClientPlatform, Pattern> LEGACY_PATTERNS_BY_PLATFORM = new EnumMap<>(ClientPlatform.class);
@@ -26,11 +50,43 @@ public class UserAgentUtil {
         LEGACY_PATTERNS_BY_PLATFORM.put(ClientPlatform.IOS, Pattern.compile("^Signal/([^ ]+)( (.+))?$", Pattern.CASE_INSENSITIVE));
     }
 
+    /**
+     * Parses a User-Agent string. Parse results (including failures) are cached, since the same handful of User-Agent
+     * strings are parsed over and over again by metrics listeners, controllers, and websocket request handlers.
+     *
+     * @param userAgentString the User-Agent string to parse
+     *
+     * @return the parsed User-Agent
+     *
+     * @throws UnrecognizedUserAgentException if the given string could not be parsed as a Signal User-Agent
+     */
     public static UserAgent parseUserAgentString(final String userAgentString) throws UnrecognizedUserAgentException {
         if (StringUtils.isBlank(userAgentString)) {
             throw new UnrecognizedUserAgentException("User-Agent string is blank");
         }
 
+        if (userAgentString.length() > MAX_CACHED_USER_AGENT_LENGTH) {
+            return parseUncachedUserAgentString(userAgentString);
+        }
+
+        final Optional<UserAgent> maybeCachedUserAgent = PARSED_USER_AGENT_CACHE.getIfPresent(userAgentString);
+
+        if (maybeCachedUserAgent != null) {
+            return maybeCachedUserAgent.orElseThrow(UnrecognizedUserAgentException::new);
+        }
+
+        try {
+            final UserAgent userAgent = parseUncachedUserAgentString(userAgentString);
+            PARSED_USER_AGENT_CACHE.put(userAgentString, Optional.of(userAgent));
+
+            return userAgent;
+        } catch (final UnrecognizedUserAgentException e) {
+            PARSED_USER_AGENT_CACHE.put(userAgentString, Optional.empty());
+            throw e;
+        }
+    }
+
+    private static UserAgent parseUncachedUserAgentString(final String userAgentString) throws UnrecognizedUserAgentException {
         try {
             final UserAgent standardUserAgent = parseStandardUserAgentString(userAgentString);
 
@@ -50,8 +106,57 @@ public class UserAgentUtil {
         throw new UnrecognizedUserAgentException();
     }
 
+    /**
+     * Parses a User-Agent string of the form {@code Signal-<platform>/<version>[ <additional specifiers>]}. This is
+     * equivalent to matching against {@link #STANDARD_UA_PATTERN}, but dispatches on the platform prefix directly
+     * instead of running a regular expression.
+     */
     @VisibleForTesting
     static UserAgent parseStandardUserAgentString(final String userAgentString) {
+        if (containsLineTerminator(userAgentString)) {
+            // Regular expressions have subtle rules about line terminators; defer to the pattern for these unusual cases
+            return parseStandardUserAgentStringWithPattern(userAgentString);
+        }
+
+        if (!regionMatchesIgnoreAsciiCase(userAgentString, 0, STANDARD_UA_PREFIX)) {
+            return null;
+        }
+
+        for (final ClientPlatform platform : ClientPlatform.values()) {
+            final int platformEnd = STANDARD_UA_PREFIX.length() + platform.name().length();
+
+            if (regionMatchesIgnoreAsciiCase(userAgentString, STANDARD_UA_PREFIX.length(), platform.name())
+                    && userAgentString.length() > platformEnd
+                    && userAgentString.charAt(platformEnd) == '/') {
+
+                final int versionStart = platformEnd + 1;
+                final int spaceIndex = userAgentString.indexOf(' ', versionStart);
+                final int versionEnd = spaceIndex == -1 ? userAgentString.length() : spaceIndex;
+
+                if (versionEnd == versionStart) {
+                    return null;
+                }
+
+                final String additionalSpecifiers;
+
+                if (spaceIndex == -1) {
+                    additionalSpecifiers = null;
+                } else if (spaceIndex == userAgentString.length() - 1) {
+                    // A trailing space must be followed by at least one character
+                    return null;
+                } else {
+                    additionalSpecifiers = StringUtils.stripToNull(userAgentString.substring(spaceIndex + 1));
+                }
+
+                return new UserAgent(platform, new Semver(userAgentString.substring(versionStart, versionEnd)), additionalSpecifiers);
+            }
+        }
+
+        return null;
+    }
+
+    @VisibleForTesting
+    static UserAgent parseStandardUserAgentStringWithPattern(final String userAgentString) {
         final Matcher matcher = STANDARD_UA_PATTERN.matcher(userAgentString);
 
         if (matcher.matches()) {
@@ -61,6 +166,50 @@ public class UserAgentUtil {
         return null;
     }
 
+    private static boolean regionMatchesIgnoreAsciiCase(final String string, final int offset, final String expected) {
+        if (string.length() < offset + expected.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < expected.length(); i++) {
+            final char actual = string.charAt(offset + i);
+            final char lowerCaseActual = actual >= 'A' && actual <= 'Z' ? (char) (actual + ('a' - 'A')) : actual;
+            final char expectedChar = expected.charAt(i);
+            final char lowerCaseExpected = expectedChar >= 'A' && expectedChar <= 'Z' ? (char) (expectedChar + ('a' - 'A')) : expectedChar;
+
+            if (lowerCaseActual != lowerCaseExpected) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean containsLineTerminator(final String string) {
+        for (int i = 0; i < string.length(); i++) {
+            switch (string.charAt(i)) {
+                case '\n':
+                case '\r':
+                case '\u0085':
+                case '\u2028':
+                case '\u2029':
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    @VisibleForTesting
+    static void clearCache() {
+        PARSED_USER_AGENT_CACHE.invalidateAll();
+    }
+
+    @VisibleForTesting
+    static long getCacheSize() {
+        return PARSED_USER_AGENT_CACHE.size();
+    }
+
     @VisibleForTesting
     static UserAgent parseLegacyUserAgentString(final String userAgentString) {
         for (final Map.Entry<ClientPlatform, Pattern> entry : LEGACY_PATTERNS_BY_PLATFORM.entrySet()) {
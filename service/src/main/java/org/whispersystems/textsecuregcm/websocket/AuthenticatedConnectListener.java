@@ -69,6 +69,7 @@ public class AuthenticatedConnectListener implements WebSocketConnectListener {
 
       openWebsocketCounter.inc();
       RedisOperation.unchecked(() -> apnFallbackManager.cancel(auth.getAccount(), device));
+      RedisOperation.unchecked(() -> messageSender.clearNotificationCoalescingWindow(auth.getAccount(), device));
 
       context.addListener(new WebSocketSessionContext.WebSocketEventListener() {
         @Override
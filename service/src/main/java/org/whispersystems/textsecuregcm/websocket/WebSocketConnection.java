@@ -38,7 +38,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.textsecuregcm.auth.AuthenticatedAccount;
 import org.whispersystems.textsecuregcm.controllers.MessageController;
-import org.whispersystems.textsecuregcm.controllers.NoSuchUserException;
 import org.whispersystems.textsecuregcm.entities.OutgoingMessageEntity;
 import org.whispersystems.textsecuregcm.entities.OutgoingMessageEntityList;
 import org.whispersystems.textsecuregcm.metrics.UserAgentTagUtil;
@@ -207,8 +206,6 @@ public class WebSocketConnection implements MessageAvailabilityListener, Displac
 
     try {
       receiptSender.sendReceipt(auth, UUID.fromString(message.getSourceUuid()), message.getTimestamp());
-    } catch (NoSuchUserException e) {
-      logger.info("No longer registered: {}", e.getMessage());
     } catch (WebApplicationException e) {
       logger.warn("Bad federated response for receipt: {}", e.getResponse().getStatus());
     } catch (IllegalArgumentException e) {
@@ -150,7 +150,7 @@ public class DeleteUserCommand extends EnvironmentCommand<WhisperServerConfigura
           configuration.getDynamoDbTables().getProfiles().getTableName());
       ReservedUsernames reservedUsernames = new ReservedUsernames(dynamoDbClient,
           configuration.getDynamoDbTables().getReservedUsernames().getTableName());
-      Keys keys = new Keys(dynamoDbClient,
+      Keys keys = new Keys(dynamoDbClient, dynamoDbAsyncClient,
           configuration.getDynamoDbTables().getKeys().getTableName());
       MessagesDynamoDb messagesDynamoDb = new MessagesDynamoDb(dynamoDbClient,
           configuration.getDynamoDbTables().getMessages().getTableName(),
@@ -176,7 +176,7 @@ public class DeleteUserCommand extends EnvironmentCommand<WhisperServerConfigura
       PushLatencyManager pushLatencyManager = new PushLatencyManager(metricsCluster, dynamicConfigurationManager);
       DirectoryQueue directoryQueue = new DirectoryQueue(
           configuration.getDirectoryConfiguration().getSqsConfiguration());
-      ProfilesManager profilesManager = new ProfilesManager(profiles, cacheCluster);
+      ProfilesManager profilesManager = new ProfilesManager(profiles, cacheCluster, dynamicConfigurationManager);
       ReportMessageDynamoDb reportMessageDynamoDb = new ReportMessageDynamoDb(dynamoDbClient,
           configuration.getDynamoDbTables().getReportMessage().getTableName(),
           configuration.getReportMessageConfiguration().getReportTtl());
@@ -153,7 +153,7 @@ public class SetUserDiscoverabilityCommand extends EnvironmentCommand<WhisperSer
           configuration.getDynamoDbTables().getProfiles().getTableName());
       ReservedUsernames reservedUsernames = new ReservedUsernames(dynamoDbClient,
           configuration.getDynamoDbTables().getReservedUsernames().getTableName());
-      Keys keys = new Keys(dynamoDbClient,
+      Keys keys = new Keys(dynamoDbClient, dynamoDbAsyncClient,
           configuration.getDynamoDbTables().getKeys().getTableName());
       MessagesDynamoDb messagesDynamoDb = new MessagesDynamoDb(dynamoDbClient,
           configuration.getDynamoDbTables().getMessages().getTableName(),
@@ -177,7 +177,7 @@ public class SetUserDiscoverabilityCommand extends EnvironmentCommand<WhisperSer
       PushLatencyManager pushLatencyManager = new PushLatencyManager(metricsCluster, dynamicConfigurationManager);
       DirectoryQueue directoryQueue = new DirectoryQueue(
           configuration.getDirectoryConfiguration().getSqsConfiguration());
-      ProfilesManager profilesManager = new ProfilesManager(profiles, cacheCluster);
+      ProfilesManager profilesManager = new ProfilesManager(profiles, cacheCluster, dynamicConfigurationManager);
       ReportMessageDynamoDb reportMessageDynamoDb = new ReportMessageDynamoDb(dynamoDbClient,
           configuration.getDynamoDbTables().getReportMessage().getTableName(),
           configuration.getReportMessageConfiguration().getReportTtl());
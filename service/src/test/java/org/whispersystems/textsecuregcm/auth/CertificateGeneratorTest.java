@@ -5,16 +5,25 @@
 
 package org.whispersystems.textsecuregcm.auth;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import org.junit.Test;
 import org.whispersystems.textsecuregcm.crypto.Curve;
+import org.whispersystems.textsecuregcm.entities.MessageProtos.SenderCertificate;
 import org.whispersystems.textsecuregcm.storage.Account;
 import org.whispersystems.textsecuregcm.storage.Device;
 
 import java.io.IOException;
 import java.security.InvalidKeyException;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.concurrent.TimeUnit;
 import java.util.UUID;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -39,4 +48,45 @@ public class CertificateGeneratorTest {
         assertTrue(certificateGenerator.createFor(account, device, true).length > 0);
         assertTrue(certificateGenerator.createFor(account, device, false).length > 0);
     }
+
+    @Test
+    public void testCreateForCached() throws IOException, InvalidKeyException {
+        final Account account = mock(Account.class);
+        final Device device = mock(Device.class);
+        final Clock clock = mock(Clock.class);
+        final CertificateGenerator certificateGenerator = new CertificateGenerator(Base64.getDecoder().decode(SIGNING_CERTIFICATE), Curve.decodePrivatePoint(Base64.getDecoder().decode(SIGNING_KEY)), 1, MoreExecutors.newDirectExecutorService(), clock);
+
+        when(account.getIdentityKey()).thenReturn(IDENTITY_KEY);
+        when(account.getUuid()).thenReturn(UUID.randomUUID());
+        when(account.getNumber()).thenReturn("+18005551234");
+        when(device.getId()).thenReturn(4L);
+
+        final long windowMillis = CertificateGenerator.ISSUANCE_WINDOW.toMillis();
+        final long windowStart = Instant.parse("2021-10-01T00:00:00Z").toEpochMilli();
+
+        when(clock.millis()).thenReturn(windowStart + 1);
+        final byte[] certificate = certificateGenerator.createFor(account, device, true);
+
+        // Signatures are randomized, so identical bytes mean the certificate came from the cache
+        when(clock.millis()).thenReturn(windowStart + windowMillis - 1);
+        assertArrayEquals(certificate, certificateGenerator.createFor(account, device, true));
+        assertFalse(Arrays.equals(certificate, certificateGenerator.createFor(account, device, false)));
+
+        assertEquals(windowStart + TimeUnit.DAYS.toMillis(1), getExpiration(certificate));
+
+        when(clock.millis()).thenReturn(windowStart + windowMillis);
+        final byte[] nextWindowCertificate = certificateGenerator.createFor(account, device, true);
+
+        assertFalse(Arrays.equals(certificate, nextWindowCertificate));
+        assertEquals(windowStart + windowMillis + TimeUnit.DAYS.toMillis(1), getExpiration(nextWindowCertificate));
+
+        // A new identity key means a new certificate, even within the same window
+        when(account.getIdentityKey()).thenReturn("BXrPxKqw+8+Ka4/fDxX4b1FtQtqsIDh6s30m2qCZNrF4");
+        assertFalse(Arrays.equals(nextWindowCertificate, certificateGenerator.createFor(account, device, true)));
+    }
+
+    private static long getExpiration(final byte[] senderCertificate) throws IOException {
+        return SenderCertificate.Certificate.parseFrom(SenderCertificate.parseFrom(senderCertificate).getCertificate())
+            .getExpires();
+    }
 }
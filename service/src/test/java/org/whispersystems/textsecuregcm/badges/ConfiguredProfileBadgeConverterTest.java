@@ -8,9 +8,12 @@ package org.whispersystems.textsecuregcm.badges;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatNullPointerException;
 import static org.junit.jupiter.params.provider.Arguments.arguments;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.time.Clock;
@@ -165,6 +168,41 @@ public class ConfiguredProfileBadgeConverterTest {
         arguments(idFor(1), notExpired, true, true, null));
   }
 
+  @Test
+  void testLocalizedBadgesReused() {
+    BadgesConfiguration badgesConfiguration = createBadges(2);
+    ConfiguredProfileBadgeConverter badgeConverter =
+        new ConfiguredProfileBadgeConverter(clock, badgesConfiguration,
+            new HeaderControlledResourceBundleLookup(resourceBundleFactory));
+
+    Locale enGb = new Locale("en", "GB");
+    Locale en = new Locale("en");
+    setupResourceBundle(enGb);
+
+    final List<AccountBadge> accountBadges = List.of(
+        new AccountBadge(idFor(0), Instant.ofEpochSecond(43), true),
+        new AccountBadge(idFor(1), Instant.ofEpochSecond(43), true));
+
+    final List<Badge> badges = badgeConverter.convert(List.of(enGb, en), accountBadges, false);
+
+    // Duplicate locales don't change how the bundle is resolved, and so shouldn't trigger another lookup
+    final List<Badge> moreBadges = badgeConverter.convert(List.of(enGb, en, enGb), accountBadges, false);
+
+    assertThat(moreBadges).hasSize(2);
+    assertThat(moreBadges.get(0)).isSameAs(badges.get(0));
+    assertThat(moreBadges.get(1)).isSameAs(badges.get(1));
+    assertThat(badgeConverter.translate(List.of(enGb, en), idFor(1))).isSameAs(badges.get(1));
+
+    verify(resourceBundleFactory, times(1)).createBundle(any(), any(), any());
+
+    // Self badges carry per-account details, but should still be localized
+    assertThat(badgeConverter.convert(List.of(enGb, en), accountBadges.subList(0, 1), true))
+        .containsExactly(new SelfBadge(idFor(0), "other", nameFor(0), desriptionFor(0),
+            List.of("l", "m", "h", "x", "xx", "xxx"), "SVG",
+            List.of(new BadgeSvg("sl", "sd"), new BadgeSvg("ml", "md"), new BadgeSvg("ll", "ld")),
+            Instant.ofEpochSecond(43), true));
+  }
+
   @Test
   void testCustomControl() {
     BadgesConfiguration badgesConfiguration = createBadges(1);
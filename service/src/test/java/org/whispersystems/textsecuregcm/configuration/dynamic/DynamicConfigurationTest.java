@@ -404,4 +404,52 @@ class DynamicConfigurationTest {
       assertThat(directoryReconcilerConfiguration.isEnabled()).isFalse();
     }
   }
+
+  @Test
+  void testParsePushNotifications() throws JsonProcessingException {
+    {
+      final String emptyConfigYaml = "test: true";
+      final DynamicConfiguration emptyConfig =
+          DynamicConfigurationManager.parseConfiguration(emptyConfigYaml, DynamicConfiguration.class).orElseThrow();
+
+      assertThat(emptyConfig.getPushNotificationConfiguration().getCoalescingWindow()).isEqualTo(Duration.ZERO);
+    }
+
+    {
+      final String pushNotificationConfig = """
+          pushNotifications:
+            coalescingWindow: PT5S
+          """;
+
+      DynamicPushNotificationConfiguration pushNotificationConfiguration =
+          DynamicConfigurationManager.parseConfiguration(pushNotificationConfig, DynamicConfiguration.class).orElseThrow()
+              .getPushNotificationConfiguration();
+
+      assertThat(pushNotificationConfiguration.getCoalescingWindow()).isEqualTo(Duration.ofSeconds(5));
+    }
+  }
+
+  @Test
+  void testParseProfiles() throws JsonProcessingException {
+    {
+      final String emptyConfigYaml = "test: true";
+      final DynamicConfiguration emptyConfig =
+          DynamicConfigurationManager.parseConfiguration(emptyConfigYaml, DynamicConfiguration.class).orElseThrow();
+
+      assertThat(emptyConfig.getProfilesConfiguration().isBinaryCacheEncodingEnabled()).isFalse();
+    }
+
+    {
+      final String profilesConfig = """
+          profiles:
+            binaryCacheEncodingEnabled: true
+          """;
+
+      DynamicProfilesConfiguration profilesConfiguration =
+          DynamicConfigurationManager.parseConfiguration(profilesConfig, DynamicConfiguration.class).orElseThrow()
+              .getProfilesConfiguration();
+
+      assertThat(profilesConfiguration.isBinaryCacheEncodingEnabled()).isTrue();
+    }
+  }
 }
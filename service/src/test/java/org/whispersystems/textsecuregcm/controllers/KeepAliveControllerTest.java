@@ -0,0 +1,121 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.controllers;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codahale.metrics.MetricRegistry;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.UpgradeRequest;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.whispersystems.textsecuregcm.auth.AuthenticatedAccount;
+import org.whispersystems.textsecuregcm.push.ClientPresenceManager;
+import org.whispersystems.textsecuregcm.storage.Account;
+import org.whispersystems.textsecuregcm.storage.Device;
+import org.whispersystems.textsecuregcm.util.Pair;
+import org.whispersystems.websocket.WebSocketResourceProvider;
+import org.whispersystems.websocket.fastpath.FastPathRouter;
+import org.whispersystems.websocket.logging.WebsocketRequestLog;
+import org.whispersystems.websocket.messages.protobuf.ProtobufWebSocketMessageFactory;
+import org.whispersystems.websocket.messages.protobuf.SubProtocol;
+
+class KeepAliveControllerTest {
+
+  private ClientPresenceManager clientPresenceManager;
+  private MetricRegistry metricRegistry;
+  private FastPathRouter<AuthenticatedAccount> router;
+
+  private static final ProtobufWebSocketMessageFactory MESSAGE_FACTORY = new ProtobufWebSocketMessageFactory();
+
+  @BeforeEach
+  void setUp() {
+    clientPresenceManager = mock(ClientPresenceManager.class);
+    metricRegistry = new MetricRegistry();
+    router = new FastPathRouter<>();
+
+    new KeepAliveController(clientPresenceManager).registerFastPathHandlers(router, metricRegistry);
+  }
+
+  @Test
+  void testKeepAlive() throws Exception {
+    final UUID accountUuid = UUID.randomUUID();
+    final Account account = mock(Account.class);
+    final Device device = mock(Device.class);
+
+    when(account.getUuid()).thenReturn(accountUuid);
+    when(device.getId()).thenReturn(1L);
+    when(clientPresenceManager.isLocallyPresent(accountUuid, 1L)).thenReturn(true);
+
+    final AuthenticatedAccount auth = new AuthenticatedAccount(() -> new Pair<>(account, device));
+    final Session session = mock(Session.class);
+
+    assertThat(sendRequest(auth, session, "/v1/keepalive").getStatus()).isEqualTo(200);
+
+    verify(clientPresenceManager).isLocallyPresent(accountUuid, 1L);
+    verify(session, never()).close(anyInt(), anyString());
+    assertThat(metricRegistry.timer(name(KeepAliveController.class, "getKeepAlive")).getCount()).isEqualTo(1);
+  }
+
+  @Test
+  void testKeepAliveUnauthenticated() throws Exception {
+    assertThat(sendRequest(null, mock(Session.class), "/v1/keepalive").getStatus()).isEqualTo(401);
+
+    verify(clientPresenceManager, never()).isLocallyPresent(any(), anyLong());
+    assertThat(metricRegistry.timer(name(KeepAliveController.class, "getKeepAlive")).getCount()).isZero();
+  }
+
+  @Test
+  void testProvisioningKeepAlive() throws Exception {
+    assertThat(sendRequest(null, mock(Session.class), "/v1/keepalive/provisioning").getStatus()).isEqualTo(200);
+    assertThat(metricRegistry.timer(name(KeepAliveController.class, "getProvisioningKeepAlive")).getCount()).isEqualTo(1);
+  }
+
+  private SubProtocol.WebSocketResponseMessage sendRequest(final AuthenticatedAccount auth, final Session session,
+      final String path) throws Exception {
+
+    final WebSocketResourceProvider<AuthenticatedAccount> provider = new WebSocketResourceProvider<>("127.0.0.1",
+        mock(ApplicationHandler.class), mock(WebsocketRequestLog.class), auth, MESSAGE_FACTORY, Optional.empty(),
+        30000, router);
+
+    final RemoteEndpoint remoteEndpoint = mock(RemoteEndpoint.class);
+    final UpgradeRequest upgradeRequest = mock(UpgradeRequest.class);
+
+    when(session.getUpgradeRequest()).thenReturn(upgradeRequest);
+    when(session.getRemote()).thenReturn(remoteEndpoint);
+    when(upgradeRequest.getHeaders()).thenReturn(Map.of());
+
+    provider.onWebSocketConnect(session);
+
+    final byte[] message = MESSAGE_FACTORY.createRequest(Optional.of(1L), "GET", path, List.of(), Optional.empty())
+        .toByteArray();
+
+    provider.onWebSocketBinary(message, 0, message.length);
+
+    final ArgumentCaptor<ByteBuffer> responseCaptor = ArgumentCaptor.forClass(ByteBuffer.class);
+    verify(remoteEndpoint, atLeastOnce()).sendBytesByFuture(responseCaptor.capture());
+
+    return SubProtocol.WebSocketMessage.parseFrom(responseCaptor.getValue().array()).getResponse();
+  }
+}
@@ -8,6 +8,7 @@ package org.whispersystems.textsecuregcm.controllers;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
@@ -35,6 +36,9 @@ import io.dropwizard.auth.PolymorphicAuthValueFactoryProvider;
 import io.dropwizard.testing.junit5.DropwizardExtensionsSupport;
 import io.dropwizard.testing.junit5.ResourceExtension;
 import io.lettuce.core.cluster.api.sync.RedisAdvancedClusterCommands;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collection;
 import java.util.HashSet;
@@ -43,6 +47,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
@@ -72,6 +77,7 @@ import org.whispersystems.textsecuregcm.entities.StaleDevices;
 import org.whispersystems.textsecuregcm.limits.RateLimiter;
 import org.whispersystems.textsecuregcm.limits.RateLimiters;
 import org.whispersystems.textsecuregcm.mappers.RateLimitExceededExceptionMapper;
+import org.whispersystems.textsecuregcm.providers.MultiRecipientMessageProvider;
 import org.whispersystems.textsecuregcm.push.ApnFallbackManager;
 import org.whispersystems.textsecuregcm.push.MessageSender;
 import org.whispersystems.textsecuregcm.push.ReceiptSender;
@@ -118,6 +124,7 @@ class MessageControllerTest {
       .addProvider(new PolymorphicAuthValueFactoryProvider.Binder<>(
           ImmutableSet.of(AuthenticatedAccount.class, DisabledPermittedAuthenticatedAccount.class)))
       .addProvider(RateLimitExceededExceptionMapper.class)
+      .addProvider(MultiRecipientMessageProvider.class)
       .setTestContainerFactory(new GrizzlyWebTestContainerFactory())
       .addResource(new MessageController(rateLimiters, messageSender, receiptSender, accountsManager,
           messagesManager, apnFallbackManager, reportMessageManager, multiRecipientMessageExecutor))
@@ -170,7 +177,8 @@ class MessageControllerTest {
         rateLimiters,
         rateLimiter,
         apnFallbackManager,
-        reportMessageManager
+        reportMessageManager,
+        multiRecipientMessageExecutor
     );
   }
 
@@ -356,6 +364,60 @@ class MessageControllerTest {
     verify(messageSender, times(2)).sendMessage(any(Account.class), any(Device.class), any(Envelope.class), eq(false));
   }
 
+  @Test
+  void testMultiRecipientMessage() throws Exception {
+    final Account singleDeviceAccount = accountsManager.getByAccountIdentifier(SINGLE_DEVICE_UUID).orElseThrow();
+    singleDeviceAccount.setUnrestrictedUnidentifiedAccess(true);
+
+    when(multiRecipientMessageExecutor.invokeAll(any())).thenAnswer(invocation -> {
+      for (final Callable<?> callable : invocation.<Collection<Callable<?>>>getArgument(0)) {
+        callable.call();
+      }
+
+      return List.of();
+    });
+
+    final byte[] keyMaterial = new byte[48];
+    final byte[] commonPayload = new byte[1024];
+    Arrays.fill(keyMaterial, (byte) 0x11);
+    Arrays.fill(commonPayload, (byte) 0x22);
+
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    body.write(MultiRecipientMessageProvider.VERSION);
+    body.write(1); // recipient count
+    body.write(ByteBuffer.allocate(16)
+        .putLong(SINGLE_DEVICE_UUID.getMostSignificantBits())
+        .putLong(SINGLE_DEVICE_UUID.getLeastSignificantBits())
+        .array());
+    body.write(1); // device ID
+    body.write(new byte[]{0, 111}); // registration ID
+    body.write(keyMaterial);
+    body.write(commonPayload);
+
+    Response response =
+        resources.getJerseyTest()
+            .target("/v1/messages/multi_recipient")
+            .queryParam("online", true)
+            .queryParam("ts", 1234)
+            .request()
+            .header(OptionalAccess.UNIDENTIFIED, Base64.getEncoder().encodeToString(new byte[16]))
+            .put(Entity.entity(body.toByteArray(), MultiRecipientMessageProvider.MEDIA_TYPE));
+
+    assertThat("Good Response", response.getStatus(), is(equalTo(200)));
+
+    ArgumentCaptor<Envelope> captor = ArgumentCaptor.forClass(Envelope.class);
+    verify(messageSender).sendMessage(any(Account.class), any(Device.class), captor.capture(), eq(true));
+
+    final ByteArrayOutputStream expectedContent = new ByteArrayOutputStream();
+    expectedContent.write(MultiRecipientMessageProvider.VERSION);
+    expectedContent.write(keyMaterial);
+    expectedContent.write(commonPayload);
+
+    assertArrayEquals(expectedContent.toByteArray(), captor.getValue().getContent().toByteArray());
+    assertEquals(1234, captor.getValue().getTimestamp());
+    assertEquals(SINGLE_DEVICE_UUID.toString(), captor.getValue().getDestinationUuid());
+  }
+
   @Test
   void testRegistrationIdMismatch() throws Exception {
     Response response =
@@ -9,18 +9,23 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.Collections;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.mockito.ArgumentCaptor;
 import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicConfiguration;
 import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicExperimentEnrollmentConfiguration;
 import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicPreRegistrationExperimentEnrollmentConfiguration;
@@ -32,6 +37,8 @@ class ExperimentEnrollmentManagerTest {
   private DynamicExperimentEnrollmentConfiguration experimentEnrollmentConfiguration;
   private DynamicPreRegistrationExperimentEnrollmentConfiguration preRegistrationExperimentEnrollmentConfiguration;
 
+  private DynamicConfigurationManager<DynamicConfiguration> dynamicConfigurationManager;
+  private Consumer<DynamicConfigurationManager.Snapshot<DynamicConfiguration>> changeListener;
   private ExperimentEnrollmentManager experimentEnrollmentManager;
 
   private Account account;
@@ -45,23 +52,44 @@ class ExperimentEnrollmentManagerTest {
 
   @BeforeEach
   void setUp() {
-    final DynamicConfigurationManager dynamicConfigurationManager = mock(DynamicConfigurationManager.class);
-    final DynamicConfiguration dynamicConfiguration = mock(DynamicConfiguration.class);
+    dynamicConfigurationManager = mock(DynamicConfigurationManager.class);
 
     experimentEnrollmentManager = new ExperimentEnrollmentManager(dynamicConfigurationManager);
 
+    final ArgumentCaptor<Consumer<DynamicConfigurationManager.Snapshot<DynamicConfiguration>>> listenerCaptor =
+        ArgumentCaptor.forClass(Consumer.class);
+
+    verify(dynamicConfigurationManager).addChangeListener(listenerCaptor.capture());
+    changeListener = listenerCaptor.getValue();
+
     experimentEnrollmentConfiguration = mock(DynamicExperimentEnrollmentConfiguration.class);
     preRegistrationExperimentEnrollmentConfiguration = mock(
         DynamicPreRegistrationExperimentEnrollmentConfiguration.class);
 
-    when(dynamicConfigurationManager.getConfiguration()).thenReturn(dynamicConfiguration);
+    publishNewConfiguration();
+
+    account = mock(Account.class);
+    when(account.getUuid()).thenReturn(ACCOUNT_UUID);
+  }
+
+  /**
+   * Experiment definitions are compiled once per configuration version, so changes to experiment configuration only
+   * take effect when a new dynamic configuration is published.
+   */
+  private void publishNewConfiguration() {
+    final DynamicConfiguration dynamicConfiguration = mock(DynamicConfiguration.class);
+
     when(dynamicConfiguration.getExperimentEnrollmentConfiguration(UUID_EXPERIMENT_NAME))
         .thenReturn(Optional.of(experimentEnrollmentConfiguration));
     when(dynamicConfiguration.getPreRegistrationEnrollmentConfiguration(E164_EXPERIMENT_NAME))
         .thenReturn(Optional.of(preRegistrationExperimentEnrollmentConfiguration));
 
-    account = mock(Account.class);
-    when(account.getUuid()).thenReturn(ACCOUNT_UUID);
+    @SuppressWarnings("unchecked") final DynamicConfigurationManager.Snapshot<DynamicConfiguration> snapshot =
+        mock(DynamicConfigurationManager.Snapshot.class);
+
+    when(snapshot.getConfiguration()).thenReturn(dynamicConfiguration);
+
+    changeListener.accept(snapshot);
   }
 
   @Test
@@ -71,15 +99,68 @@ class ExperimentEnrollmentManagerTest {
         experimentEnrollmentManager.isEnrolled(account.getUuid(), UUID_EXPERIMENT_NAME + "-unrelated-experiment"));
 
     when(experimentEnrollmentConfiguration.getEnrolledUuids()).thenReturn(Set.of(ACCOUNT_UUID));
+    publishNewConfiguration();
     assertTrue(experimentEnrollmentManager.isEnrolled(account.getUuid(), UUID_EXPERIMENT_NAME));
 
     when(experimentEnrollmentConfiguration.getEnrolledUuids()).thenReturn(Collections.emptySet());
     when(experimentEnrollmentConfiguration.getEnrollmentPercentage()).thenReturn(0);
+    publishNewConfiguration();
 
     assertFalse(experimentEnrollmentManager.isEnrolled(account.getUuid(), UUID_EXPERIMENT_NAME));
 
     when(experimentEnrollmentConfiguration.getEnrollmentPercentage()).thenReturn(100);
+    publishNewConfiguration();
+    assertTrue(experimentEnrollmentManager.isEnrolled(account.getUuid(), UUID_EXPERIMENT_NAME));
+  }
+
+  @Test
+  void testIsEnrolled_UuidExperimentCompiledOncePerConfiguration() {
+    when(experimentEnrollmentConfiguration.getEnrolledUuids()).thenReturn(Set.of(ACCOUNT_UUID));
+
+    assertTrue(experimentEnrollmentManager.isEnrolled(account.getUuid(), UUID_EXPERIMENT_NAME));
     assertTrue(experimentEnrollmentManager.isEnrolled(account.getUuid(), UUID_EXPERIMENT_NAME));
+
+    verify(experimentEnrollmentConfiguration, times(1)).getEnrolledUuids();
+    verify(dynamicConfigurationManager, never()).getConfiguration();
+
+    when(experimentEnrollmentConfiguration.getEnrolledUuids()).thenReturn(Collections.emptySet());
+    assertTrue(experimentEnrollmentManager.isEnrolled(account.getUuid(), UUID_EXPERIMENT_NAME),
+        "experiment changes shouldn't take effect until a new configuration is published");
+
+    publishNewConfiguration();
+    assertFalse(experimentEnrollmentManager.isEnrolled(account.getUuid(), UUID_EXPERIMENT_NAME));
+  }
+
+  @Test
+  void testIsEnrolled_BeforeInitialConfiguration() {
+    final DynamicConfigurationManager<DynamicConfiguration> unstartedConfigurationManager =
+        mock(DynamicConfigurationManager.class);
+
+    final DynamicConfiguration dynamicConfiguration = mock(DynamicConfiguration.class);
+    when(dynamicConfiguration.getExperimentEnrollmentConfiguration(UUID_EXPERIMENT_NAME))
+        .thenReturn(Optional.of(experimentEnrollmentConfiguration));
+    when(unstartedConfigurationManager.getConfiguration()).thenReturn(dynamicConfiguration);
+    when(experimentEnrollmentConfiguration.getEnrolledUuids()).thenReturn(Set.of(ACCOUNT_UUID));
+
+    // Until the listener hears about the initial configuration, checks fall back to reading it directly
+    assertTrue(new ExperimentEnrollmentManager(unstartedConfigurationManager)
+        .isEnrolled(account.getUuid(), UUID_EXPERIMENT_NAME));
+  }
+
+  @Test
+  void testIsEnrolled_UuidExperimentBuckets() {
+    final int enrollmentPercentage = 37;
+
+    when(experimentEnrollmentConfiguration.getEnrollmentPercentage()).thenReturn(enrollmentPercentage);
+
+    // Bucket assignments must remain stable so that enrolled accounts don't drift in and out of experiments
+    for (int i = 0; i < 1_000; i++) {
+      final UUID uuid = UUID.randomUUID();
+      final boolean expectEnrolled =
+          ((uuid.hashCode() ^ UUID_EXPERIMENT_NAME.hashCode()) & Integer.MAX_VALUE) % 100 < enrollmentPercentage;
+
+      assertEquals(expectEnrolled, experimentEnrollmentManager.isEnrolled(uuid, UUID_EXPERIMENT_NAME));
+    }
   }
 
   @ParameterizedTest
@@ -120,6 +120,30 @@ class MetricsRequestEventListenerTest {
         // assertTrue(tags.contains(Tag.of(UserAgentTagUtil.VERSION_TAG, "4.53.7")));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    void testOnFastPathRequestComplete() {
+        final ArgumentCaptor<Iterable<Tag>> tagCaptor = ArgumentCaptor.forClass(Iterable.class);
+        when(meterRegistry.counter(eq(MetricsRequestEventListener.REQUEST_COUNTER_NAME), any(Iterable.class))).thenReturn(counter);
+
+        listener.onRequestComplete("/v1/keepalive", 200, "Signal-Android 4.53.7 (Android 8.1)");
+
+        verify(meterRegistry).counter(eq(MetricsRequestEventListener.REQUEST_COUNTER_NAME), tagCaptor.capture());
+        verify(counter).increment();
+
+        final Set<Tag> tags = new HashSet<>();
+
+        for (final Tag tag : tagCaptor.getValue()) {
+            tags.add(tag);
+        }
+
+        assertEquals(4, tags.size());
+        assertTrue(tags.contains(Tag.of(MetricsRequestEventListener.PATH_TAG, "/v1/keepalive")));
+        assertTrue(tags.contains(Tag.of(MetricsRequestEventListener.STATUS_CODE_TAG, "200")));
+        assertTrue(tags.contains(Tag.of(MetricsRequestEventListener.TRAFFIC_SOURCE_TAG, TRAFFIC_SOURCE.name().toLowerCase())));
+        assertTrue(tags.contains(Tag.of(UserAgentTagUtil.PLATFORM_TAG, "android")));
+    }
+
     @Test
     void testActualRouteMessageSuccess() throws InvalidProtocolBufferException {
         MetricsApplicationEventListener applicationEventListener = mock(MetricsApplicationEventListener.class);
@@ -48,6 +48,7 @@ public class UserAgentTagUtilTest {
                 new Object[] { "Signal Desktop 1.22.45-foo-0",                          UserAgentTagUtil.UNRECOGNIZED_TAGS },
                 new Object[] { "Signal Desktop 1.34.5-beta.1-fakeclientemporium",       UserAgentTagUtil.UNRECOGNIZED_TAGS },
                 new Object[] { "Signal Desktop 1.32.0-beta.3",                          UserAgentTagUtil.UNRECOGNIZED_TAGS },
+                new Object[] { "Signal/4.53.7 (" + "x".repeat(300) + ")",               platformVersionTags("ios", "4.53.7") },
         };
     }
 
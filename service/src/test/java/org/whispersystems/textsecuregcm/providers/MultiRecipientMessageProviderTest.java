@@ -6,13 +6,32 @@
 package org.whispersystems.textsecuregcm.providers;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.params.provider.Arguments.arguments;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
 import java.util.stream.Stream;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.NoContentException;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.whispersystems.textsecuregcm.entities.MultiRecipientMessage;
 
 public class MultiRecipientMessageProviderTest {
 
@@ -34,11 +53,225 @@ public class MultiRecipientMessageProviderTest {
   @ParameterizedTest
   @MethodSource("readU16TestCases")
   void testReadU16(int expectedValue, byte[] input) throws Exception {
-    try (final ByteArrayInputStream stream = new ByteArrayInputStream(input)) {
-      assertThat(MultiRecipientMessageProvider.readU16(stream)).isEqualTo(expectedValue);
+    assertThat(new MultiRecipientMessageProvider.BodyReader(input, 0, input.length).readU16()).isEqualTo(expectedValue);
+  }
+
+  static Stream<Arguments> readVarintTestCases() {
+    return Stream.of(
+        arguments(0L, new byte[]{0x00}),
+        arguments(1L, new byte[]{0x01}),
+        arguments(300L, new byte[]{(byte) 0xAC, 0x02}),
+        arguments(1L << 35, new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01}),
+        arguments(-1L, new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+            (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01})
+    );
+  }
+
+  @ParameterizedTest
+  @MethodSource("readVarintTestCases")
+  void testReadVarint(long expectedValue, byte[] input) throws Exception {
+    final MultiRecipientMessageProvider.BodyReader reader = new MultiRecipientMessageProvider.BodyReader(input, 0, input.length);
+
+    assertThat(reader.readVarint()).isEqualTo(expectedValue);
+    assertThat(reader.remaining()).isZero();
+  }
+
+  @Test
+  void testReadVarintTooLarge() {
+    final byte[] input = new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x02};
+
+    assertThatThrownBy(() -> new MultiRecipientMessageProvider.BodyReader(input, 0, input.length).readVarint())
+        .isInstanceOf(BadRequestException.class);
+  }
+
+  @Test
+  void testReadFrom() throws Exception {
+    final List<TestRecipient> recipients = List.of(
+        new TestRecipient(UUID.randomUUID(), 1, 0xBEEF, randomBytes(48, 1)),
+        new TestRecipient(UUID.randomUUID(), 300, 0, randomBytes(48, 2)),
+        new TestRecipient(UUID.randomUUID(), Long.MAX_VALUE, 0xFFFF, randomBytes(48, 3)));
+
+    final byte[] commonPayload = randomBytes(1000, 4);
+    final byte[] body = serialize(recipients, commonPayload);
+
+    // Both with an accurate content length and without one, which forces the buffer to grow
+    final MultivaluedMap<String, String> headers = new MultivaluedHashMap<>();
+    headers.putSingle(HttpHeaders.CONTENT_LENGTH, String.valueOf(body.length));
+
+    for (final MultivaluedMap<String, String> httpHeaders : List.of(headers, new MultivaluedHashMap<String, String>())) {
+      final MultiRecipientMessage message = readFrom(body, httpHeaders);
+
+      assertThat(message.getRecipients()).hasSize(recipients.size());
+
+      for (int i = 0; i < recipients.size(); i++) {
+        final MultiRecipientMessage.Recipient recipient = message.getRecipients()[i];
+
+        assertThat(recipient.getUuid()).isEqualTo(recipients.get(i).uuid());
+        assertThat(recipient.getDeviceId()).isEqualTo(recipients.get(i).deviceId());
+        assertThat(recipient.getRegistrationId()).isEqualTo(recipients.get(i).registrationId());
+        assertThat(recipient.getPerRecipientKeyMaterial().toByteArray()).isEqualTo(recipients.get(i).keyMaterial());
+      }
+
+      assertThat(message.getCommonPayload().toByteArray()).isEqualTo(commonPayload);
     }
   }
-  
-  
 
+  @Test
+  void testReadFromLargeBody() throws Exception {
+    final List<TestRecipient> recipients = randomRecipients(MultiRecipientMessageProvider.MAX_RECIPIENT_COUNT, new Random(5));
+    final byte[] commonPayload = randomBytes(MultiRecipientMessageProvider.MAX_MESSAGE_SIZE, 6);
+
+    final MultiRecipientMessage message = readFrom(serialize(recipients, commonPayload), new MultivaluedHashMap<>());
+
+    assertThat(message.getRecipients()).hasSize(MultiRecipientMessageProvider.MAX_RECIPIENT_COUNT);
+    assertThat(message.getRecipients()[4999].getUuid()).isEqualTo(recipients.get(4999).uuid());
+    assertThat(message.getCommonPayload().toByteArray()).isEqualTo(commonPayload);
+  }
+
+  @Test
+  void testMalformedBodies() {
+    final byte[] keyMaterial = new byte[48];
+    final byte[] valid = serialize(List.of(new TestRecipient(UUID.randomUUID(), 1, 1, keyMaterial)), new byte[32]);
+
+    assertThatThrownBy(() -> readFrom(new byte[0], new MultivaluedHashMap<>()))
+        .isInstanceOf(NoContentException.class);
+
+    final byte[] wrongVersion = valid.clone();
+    wrongVersion[0] = 0x23;
+    assertThatThrownBy(() -> readFrom(wrongVersion, new MultivaluedHashMap<>()))
+        .isInstanceOf(BadRequestException.class);
+
+    // A short common payload
+    assertThatThrownBy(() -> readFrom(Arrays.copyOf(valid, valid.length - 1), new MultivaluedHashMap<>()))
+        .isInstanceOf(IOException.class);
+
+    // Too many recipients
+    assertThatThrownBy(() -> readFrom(new byte[]{MultiRecipientMessageProvider.VERSION, (byte) 0x89, 0x27},
+        new MultivaluedHashMap<>()))
+        .isInstanceOf(BadRequestException.class);
+
+    // A negative recipient count
+    assertThatThrownBy(() -> readFrom(new byte[]{MultiRecipientMessageProvider.VERSION, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01},
+        new MultivaluedHashMap<>()))
+        .isInstanceOf(BadRequestException.class);
+
+    // A common payload that's too large
+    assertThatThrownBy(() -> readFrom(serialize(List.of(new TestRecipient(UUID.randomUUID(), 1, 1, keyMaterial)),
+        new byte[MultiRecipientMessageProvider.MAX_MESSAGE_SIZE + 1]), new MultivaluedHashMap<>()))
+        .isInstanceOf(BadRequestException.class);
+
+    // A body larger than any valid message
+    assertThatThrownBy(() -> readFrom(new byte[MultiRecipientMessageProvider.MAX_BODY_SIZE + 1],
+        new MultivaluedHashMap<>()))
+        .isInstanceOf(BadRequestException.class);
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {-1, 0, 7, 1 << 30})
+  void testUnreliableContentLength(final int contentLength) throws Exception {
+    final byte[] commonPayload = randomBytes(100_000, 7);
+    final byte[] body = serialize(randomRecipients(100, new Random(8)), commonPayload);
+
+    final MultivaluedMap<String, String> headers = new MultivaluedHashMap<>();
+    headers.putSingle(HttpHeaders.CONTENT_LENGTH, String.valueOf(contentLength));
+
+    assertThat(readFrom(body, headers).getCommonPayload().toByteArray()).isEqualTo(commonPayload);
+  }
+
+  @Test
+  void testFuzz() {
+    // Mutated and truncated versions of valid messages must either parse or be rejected with the exceptions the parser
+    // promises; anything else (an index out of bounds, say) is a bug
+    final Random random = new Random(9);
+
+    for (int iteration = 0; iteration < 20_000; iteration++) {
+      final byte[] body = serialize(randomRecipients(random.nextInt(4), random), randomBytes(random.nextInt(64), random.nextLong()));
+
+      final int mutations = random.nextInt(4);
+      for (int i = 0; i < mutations && body.length > 0; i++) {
+        body[random.nextInt(body.length)] = (byte) random.nextInt(256);
+      }
+
+      final int length = random.nextBoolean() ? body.length : random.nextInt(body.length + 1);
+      final byte[] input = Arrays.copyOf(body, length);
+
+      try {
+        final MultiRecipientMessage message = readFrom(input, new MultivaluedHashMap<>());
+
+        // Anything that parses must be internally consistent
+        int expectedLength = 1;
+        for (final MultiRecipientMessage.Recipient recipient : message.getRecipients()) {
+          assertThat(recipient.getUuid()).isNotNull();
+          assertThat(recipient.getRegistrationId()).isBetween(0, 0xFFFF);
+          assertThat(recipient.getPerRecipientKeyMaterial().size()).isEqualTo(48);
+          expectedLength += 16 + 2 + 48;
+        }
+        assertThat(message.getCommonPayload().size()).isGreaterThanOrEqualTo(32);
+        assertThat(expectedLength + message.getCommonPayload().size()).isLessThanOrEqualTo(length);
+      } catch (final IOException | WebApplicationException e) {
+        // Expected for malformed input
+      }
+    }
+  }
+
+  private static MultiRecipientMessage readFrom(final byte[] body, final MultivaluedMap<String, String> headers)
+      throws IOException {
+
+    return new MultiRecipientMessageProvider().readFrom(MultiRecipientMessage.class, MultiRecipientMessage.class, null,
+        MediaType.valueOf(MultiRecipientMessageProvider.MEDIA_TYPE), headers, new ByteArrayInputStream(body));
+  }
+
+  private record TestRecipient(UUID uuid, long deviceId, int registrationId, byte[] keyMaterial) {
+  }
+
+  private static List<TestRecipient> randomRecipients(final int count, final Random random) {
+    final List<TestRecipient> recipients = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      recipients.add(new TestRecipient(new UUID(random.nextLong(), random.nextLong()), 1 + random.nextInt(10),
+          random.nextInt(0x10000), randomBytes(48, random.nextLong())));
+    }
+
+    return recipients;
+  }
+
+  private static byte[] randomBytes(final int length, final long seed) {
+    final byte[] bytes = new byte[length];
+    new Random(seed).nextBytes(bytes);
+
+    return bytes;
+  }
+
+  private static byte[] serialize(final List<TestRecipient> recipients, final byte[] commonPayload) {
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+    stream.write(MultiRecipientMessageProvider.VERSION);
+    writeVarint(stream, recipients.size());
+
+    for (final TestRecipient recipient : recipients) {
+      stream.writeBytes(ByteBuffer.allocate(16)
+          .putLong(recipient.uuid().getMostSignificantBits())
+          .putLong(recipient.uuid().getLeastSignificantBits())
+          .array());
+      writeVarint(stream, recipient.deviceId());
+      stream.write(recipient.registrationId() >> 8);
+      stream.write(recipient.registrationId());
+      stream.writeBytes(recipient.keyMaterial());
+    }
+
+    stream.writeBytes(commonPayload);
+
+    return stream.toByteArray();
+  }
+
+  private static void writeVarint(final ByteArrayOutputStream stream, long value) {
+    while ((value & ~0x7FL) != 0) {
+      stream.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+
+    stream.write((int) value);
+  }
 }
@@ -7,17 +7,20 @@ package org.whispersystems.textsecuregcm.push;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 import com.google.protobuf.ByteString;
+import java.util.List;
 import java.util.UUID;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.jupiter.api.BeforeEach;
@@ -39,6 +42,7 @@ class MessageSenderTest {
   private MessagesManager messagesManager;
   private GCMSender gcmSender;
   private APNSender apnSender;
+  private PushNotificationCoalescer pushNotificationCoalescer;
   private MessageSender messageSender;
 
   private static final UUID ACCOUNT_UUID = UUID.randomUUID();
@@ -55,15 +59,18 @@ class MessageSenderTest {
     messagesManager = mock(MessagesManager.class);
     gcmSender = mock(GCMSender.class);
     apnSender = mock(APNSender.class);
+    pushNotificationCoalescer = mock(PushNotificationCoalescer.class);
     messageSender = new MessageSender(mock(ApnFallbackManager.class),
         clientPresenceManager,
         messagesManager,
         gcmSender,
         apnSender,
-        mock(PushLatencyManager.class));
+        mock(PushLatencyManager.class),
+        pushNotificationCoalescer);
 
     when(account.getUuid()).thenReturn(ACCOUNT_UUID);
     when(device.getId()).thenReturn(DEVICE_ID);
+    when(pushNotificationCoalescer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID)).thenReturn(true);
   }
 
   @Test
@@ -126,6 +133,19 @@ class MessageSenderTest {
     verifyNoInteractions(apnSender);
   }
 
+  @Test
+  void testSendMessageClientNotPresentNotificationCoalesced() throws Exception {
+    when(clientPresenceManager.isPresent(ACCOUNT_UUID, DEVICE_ID)).thenReturn(false);
+    when(pushNotificationCoalescer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID)).thenReturn(false);
+    when(device.getGcmId()).thenReturn("gcm-id");
+
+    messageSender.sendMessage(account, device, message, false);
+
+    verify(messagesManager).insert(ACCOUNT_UUID, DEVICE_ID, message);
+    verifyNoInteractions(gcmSender);
+    verifyNoInteractions(apnSender);
+  }
+
   @Test
   void testSendMessageApnClientNotPresent() throws Exception {
     when(clientPresenceManager.isPresent(ACCOUNT_UUID, DEVICE_ID)).thenReturn(false);
@@ -150,6 +170,32 @@ class MessageSenderTest {
     verifyNoInteractions(apnSender);
   }
 
+  @Test
+  void testSendMessagesGcmClientNotPresent() throws Exception {
+    final MessageProtos.Envelope secondMessage = generateRandomMessage();
+
+    when(clientPresenceManager.isPresent(ACCOUNT_UUID, DEVICE_ID)).thenReturn(false);
+    when(device.getGcmId()).thenReturn("gcm-id");
+
+    messageSender.sendMessages(account, device, List.of(message, secondMessage));
+
+    verify(messagesManager).insert(ACCOUNT_UUID, DEVICE_ID, message);
+    verify(messagesManager).insert(ACCOUNT_UUID, DEVICE_ID, secondMessage);
+    verify(clientPresenceManager, times(1)).isPresent(ACCOUNT_UUID, DEVICE_ID);
+    verify(gcmSender, times(1)).sendMessage(any());
+    verifyNoInteractions(apnSender);
+  }
+
+  @Test
+  void testSendMessagesNotPushRegistered() {
+    assertThrows(NotPushRegisteredException.class,
+        () -> messageSender.sendMessages(account, device, List.of(message)));
+
+    verifyNoInteractions(messagesManager);
+    verifyNoInteractions(gcmSender);
+    verifyNoInteractions(apnSender);
+  }
+
   private MessageProtos.Envelope generateRandomMessage() {
     return MessageProtos.Envelope.newBuilder()
         .setTimestamp(System.currentTimeMillis())
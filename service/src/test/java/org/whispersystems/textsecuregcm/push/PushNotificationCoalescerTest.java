@@ -0,0 +1,88 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.push;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.UUID;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicConfiguration;
+import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicPushNotificationConfiguration;
+import org.whispersystems.textsecuregcm.redis.RedisClusterExtension;
+import org.whispersystems.textsecuregcm.storage.DynamicConfigurationManager;
+
+class PushNotificationCoalescerTest {
+
+  @RegisterExtension
+  static final RedisClusterExtension REDIS_CLUSTER_EXTENSION = RedisClusterExtension.builder().build();
+
+  private DynamicPushNotificationConfiguration pushNotificationConfiguration;
+  private PushNotificationCoalescer pushNotificationCoalescer;
+
+  private static final UUID ACCOUNT_UUID = UUID.randomUUID();
+  private static final long DEVICE_ID = 1L;
+
+  @BeforeEach
+  void setUp() {
+    @SuppressWarnings("unchecked") final DynamicConfigurationManager<DynamicConfiguration> dynamicConfigurationManager =
+        mock(DynamicConfigurationManager.class);
+
+    final DynamicConfiguration dynamicConfiguration = mock(DynamicConfiguration.class);
+    pushNotificationConfiguration = mock(DynamicPushNotificationConfiguration.class);
+
+    when(dynamicConfigurationManager.getConfiguration()).thenReturn(dynamicConfiguration);
+    when(dynamicConfiguration.getPushNotificationConfiguration()).thenReturn(pushNotificationConfiguration);
+
+    pushNotificationCoalescer =
+        new PushNotificationCoalescer(REDIS_CLUSTER_EXTENSION.getRedisCluster(), dynamicConfigurationManager);
+  }
+
+  @Test
+  void testShouldSendNotificationDisabled() {
+    when(pushNotificationConfiguration.getCoalescingWindow()).thenReturn(Duration.ZERO);
+
+    assertTrue(pushNotificationCoalescer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+    assertTrue(pushNotificationCoalescer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+  }
+
+  @Test
+  void testShouldSendNotification() {
+    when(pushNotificationConfiguration.getCoalescingWindow()).thenReturn(Duration.ofMinutes(1));
+
+    assertTrue(pushNotificationCoalescer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+    assertFalse(pushNotificationCoalescer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+    assertTrue(pushNotificationCoalescer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID + 1));
+  }
+
+  @Test
+  void testClear() {
+    when(pushNotificationConfiguration.getCoalescingWindow()).thenReturn(Duration.ofMinutes(1));
+
+    assertTrue(pushNotificationCoalescer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+
+    pushNotificationCoalescer.clear(ACCOUNT_UUID, DEVICE_ID);
+
+    assertTrue(pushNotificationCoalescer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+  }
+
+  @Test
+  void testWindowExpires() throws InterruptedException {
+    when(pushNotificationConfiguration.getCoalescingWindow()).thenReturn(Duration.ofMillis(100));
+
+    assertTrue(pushNotificationCoalescer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+    assertFalse(pushNotificationCoalescer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+
+    Thread.sleep(200);
+
+    assertTrue(pushNotificationCoalescer.shouldSendNotification(ACCOUNT_UUID, DEVICE_ID));
+  }
+}
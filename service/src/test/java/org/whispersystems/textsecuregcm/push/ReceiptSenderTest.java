@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013-2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.push;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.whispersystems.textsecuregcm.auth.AuthenticatedAccount;
+import org.whispersystems.textsecuregcm.entities.MessageProtos.Envelope;
+import org.whispersystems.textsecuregcm.storage.Account;
+import org.whispersystems.textsecuregcm.storage.AccountsManager;
+import org.whispersystems.textsecuregcm.storage.Device;
+import org.whispersystems.textsecuregcm.util.Pair;
+
+class ReceiptSenderTest {
+
+  private AccountsManager accountsManager;
+  private MessageSender messageSender;
+
+  private AuthenticatedAccount source;
+
+  private static final UUID SOURCE_UUID = UUID.randomUUID();
+  private static final String SOURCE_NUMBER = "+18005551234";
+
+  @BeforeEach
+  void setUp() {
+    accountsManager = mock(AccountsManager.class);
+    messageSender = mock(MessageSender.class);
+
+    final Account sourceAccount = mock(Account.class);
+    final Device sourceDevice = mock(Device.class);
+
+    when(sourceAccount.getUuid()).thenReturn(SOURCE_UUID);
+    when(sourceAccount.getNumber()).thenReturn(SOURCE_NUMBER);
+    when(sourceAccount.getRelay()).thenReturn(Optional.empty());
+    when(sourceDevice.getId()).thenReturn(2L);
+
+    source = new AuthenticatedAccount(() -> new Pair<>(sourceAccount, sourceDevice));
+  }
+
+  @Test
+  void testSendReceiptCoalescesByDestination() throws Exception {
+    final UUID destinationUuid = UUID.randomUUID();
+    final Account destinationAccount = mock(Account.class);
+    final Device firstDevice = mock(Device.class);
+    final Device secondDevice = mock(Device.class);
+
+    when(destinationAccount.getDevices()).thenReturn(Set.of(firstDevice, secondDevice));
+    when(accountsManager.getByAccountIdentifier(destinationUuid)).thenReturn(Optional.of(destinationAccount));
+
+    final ReceiptSender receiptSender = new ReceiptSender(accountsManager, messageSender, 16);
+
+    receiptSender.sendReceipt(source, destinationUuid, 1111L);
+    receiptSender.sendReceipt(source, destinationUuid, 2222L);
+    receiptSender.sendReceipt(source, destinationUuid, 3333L);
+
+    // Stopping without starting flushes anything still in the queue on the calling thread
+    receiptSender.stop();
+
+    verify(accountsManager, times(1)).getByAccountIdentifier(destinationUuid);
+
+    @SuppressWarnings("unchecked") final ArgumentCaptor<List<Envelope>> envelopeCaptor =
+        ArgumentCaptor.forClass(List.class);
+
+    verify(messageSender).sendMessages(eq(destinationAccount), eq(firstDevice), envelopeCaptor.capture());
+    verify(messageSender).sendMessages(eq(destinationAccount), eq(secondDevice), anyList());
+
+    final List<Envelope> envelopes = envelopeCaptor.getValue();
+    assertEquals(3, envelopes.size());
+    assertEquals(List.of(1111L, 2222L, 3333L), List.of(envelopes.get(0).getTimestamp(),
+        envelopes.get(1).getTimestamp(), envelopes.get(2).getTimestamp()));
+
+    for (final Envelope envelope : envelopes) {
+      assertEquals(Envelope.Type.SERVER_DELIVERY_RECEIPT, envelope.getType());
+      assertEquals(SOURCE_UUID.toString(), envelope.getSourceUuid());
+      assertEquals(SOURCE_NUMBER, envelope.getSource());
+      assertEquals(2, envelope.getSourceDevice());
+      assertEquals(destinationUuid.toString(), envelope.getDestinationUuid());
+    }
+  }
+
+  @Test
+  void testSendReceiptToSelf() throws Exception {
+    final ReceiptSender receiptSender = new ReceiptSender(accountsManager, messageSender, 16);
+
+    receiptSender.sendReceipt(source, SOURCE_UUID, 1111L);
+    receiptSender.stop();
+
+    verifyNoInteractions(accountsManager);
+    verifyNoInteractions(messageSender);
+  }
+
+  @Test
+  void testSendReceiptQueueFull() throws Exception {
+    final UUID destinationUuid = UUID.randomUUID();
+    final Account destinationAccount = mock(Account.class);
+    final Device destinationDevice = mock(Device.class);
+
+    when(destinationAccount.getDevices()).thenReturn(Set.of(destinationDevice));
+    when(accountsManager.getByAccountIdentifier(destinationUuid)).thenReturn(Optional.of(destinationAccount));
+
+    final ReceiptSender receiptSender = new ReceiptSender(accountsManager, messageSender, 2);
+
+    receiptSender.sendReceipt(source, destinationUuid, 1111L);
+    receiptSender.sendReceipt(source, destinationUuid, 2222L);
+    receiptSender.sendReceipt(source, destinationUuid, 3333L);
+    receiptSender.stop();
+
+    @SuppressWarnings("unchecked") final ArgumentCaptor<List<Envelope>> envelopeCaptor =
+        ArgumentCaptor.forClass(List.class);
+
+    verify(messageSender).sendMessages(eq(destinationAccount), eq(destinationDevice), envelopeCaptor.capture());
+    assertEquals(2, envelopeCaptor.getValue().size());
+  }
+
+  @Test
+  void testProcessBatchNoSuchDestination() throws Exception {
+    final UUID missingUuid = UUID.randomUUID();
+    final UUID presentUuid = UUID.randomUUID();
+    final Account presentAccount = mock(Account.class);
+    final Device presentDevice = mock(Device.class);
+
+    when(presentAccount.getDevices()).thenReturn(Set.of(presentDevice));
+    when(accountsManager.getByAccountIdentifier(missingUuid)).thenReturn(Optional.empty());
+    when(accountsManager.getByAccountIdentifier(presentUuid)).thenReturn(Optional.of(presentAccount));
+
+    final ReceiptSender receiptSender = new ReceiptSender(accountsManager, messageSender, 16);
+
+    receiptSender.sendReceipt(source, missingUuid, 1111L);
+    receiptSender.sendReceipt(source, presentUuid, 2222L);
+    receiptSender.stop();
+
+    verify(messageSender, times(1)).sendMessages(any(), any(), anyList());
+    verify(messageSender).sendMessages(eq(presentAccount), eq(presentDevice), anyList());
+  }
+}
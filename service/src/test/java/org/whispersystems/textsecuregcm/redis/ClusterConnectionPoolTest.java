@@ -0,0 +1,109 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.redis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ClusterConnectionPoolTest {
+
+  private List<StatefulRedisClusterConnection<String, String>> connections;
+  private ClusterConnectionPool<String, String> pool;
+
+  @BeforeEach
+  @SuppressWarnings("unchecked")
+  void setUp() {
+    connections = new ArrayList<>();
+
+    pool = new ClusterConnectionPool<>("test", "default", 3, () -> {
+      final StatefulRedisClusterConnection<String, String> connection = mock(StatefulRedisClusterConnection.class);
+      connections.add(connection);
+
+      return connection;
+    });
+  }
+
+  @Test
+  void testLeastLoadedSelection() {
+    final List<CompletableFuture<Void>> pending = new ArrayList<>();
+    final Set<StatefulRedisClusterConnection<String, String>> used = new HashSet<>();
+
+    // Three outstanding async commands should land on three different connections
+    for (int i = 0; i < 3; i++) {
+      final CompletableFuture<Void> future = new CompletableFuture<>();
+      pending.add(future);
+
+      pool.withConnectionAsync(connection -> {
+        used.add(connection);
+        return future;
+      });
+    }
+
+    assertEquals(3, used.size());
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(1, pool.getInFlight(i));
+    }
+
+    pending.get(1).complete(null);
+
+    assertEquals(0, pool.getInFlight(1));
+    assertSame(connections.get(1), pool.withConnection(connection -> connection));
+  }
+
+  @Test
+  void testSyncInFlightReleased() {
+    pool.withConnection(connection -> {
+      assertEquals(1, pool.getInFlight(connections.indexOf(connection)));
+
+      // A nested command must not reuse the busy connection while idle ones exist
+      assertNotSame(connection, pool.withConnection(nested -> nested));
+      return null;
+    });
+
+    assertThrows(IllegalStateException.class, () -> pool.withConnection(connection -> {
+      throw new IllegalStateException();
+    }));
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, pool.getInFlight(i));
+    }
+  }
+
+  @Test
+  void testAsyncInFlightReleasedOnFailure() {
+    final CompletableFuture<String> future = new CompletableFuture<>();
+    final CompletionStage<String> stage = pool.withConnectionAsync(connection -> future);
+
+    future.completeExceptionally(new RuntimeException());
+
+    assertThrows(Exception.class, () -> stage.toCompletableFuture().join());
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, pool.getInFlight(i));
+    }
+  }
+
+  @Test
+  void testClose() {
+    pool.close();
+    connections.forEach(connection -> verify(connection).close());
+  }
+}
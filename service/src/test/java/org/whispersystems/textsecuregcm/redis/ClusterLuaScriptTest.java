@@ -6,6 +6,7 @@
 package org.whispersystems.textsecuregcm.redis;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
@@ -16,6 +17,8 @@ import static org.mockito.Mockito.when;
 import io.lettuce.core.RedisNoScriptException;
 import io.lettuce.core.ScriptOutputType;
 import io.lettuce.core.cluster.api.sync.RedisAdvancedClusterCommands;
+import io.lettuce.core.cluster.event.ClusterTopologyChangedEvent;
+import java.util.ArrayList;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
@@ -92,10 +95,16 @@ public class ClusterLuaScriptTest {
 
   @Test
   public void testExecuteRealCluster() {
+    REDIS_CLUSTER_EXTENSION.getRedisCluster().useCluster(connection ->
+        connection.sync().upstream().commands().configResetstat());
+
     final ClusterLuaScript script = new ClusterLuaScript(REDIS_CLUSTER_EXTENSION.getRedisCluster(),
         "return 2;",
         ScriptOutputType.INTEGER);
 
+    // Scripts are loaded asynchronously when they're created; make sure that's finished before counting EVALs
+    script.load().join();
+
     for (int i = 0; i < 7; i++) {
       assertEquals(2L, script.execute(Collections.emptyList(), Collections.emptyList()));
     }
@@ -120,6 +129,89 @@ public class ClusterLuaScriptTest {
           .orElse(0);
     });
 
-    assertEquals(1, evalCount);
+    assertEquals(0, evalCount);
+  }
+
+  @Test
+  void testExecuteAsyncRealCluster() {
+    final FaultTolerantRedisCluster cluster = REDIS_CLUSTER_EXTENSION.getRedisCluster();
+
+    final ClusterLuaScript script = new ClusterLuaScript(cluster, "return 2;", ScriptOutputType.INTEGER);
+    script.load().join();
+
+    assertEquals(2L, script.executeAsync(Collections.emptyList(), Collections.emptyList()).join());
+
+    // Simulate a node losing its script cache; execution should fall back to EVAL
+    cluster.useCluster(connection -> connection.sync().scriptFlush());
+
+    assertEquals(2L, script.executeBinaryAsync(Collections.emptyList(), Collections.emptyList()).join());
+  }
+
+  @Test
+  void testExecuteBatchRealCluster() {
+    final FaultTolerantRedisCluster cluster = REDIS_CLUSTER_EXTENSION.getRedisCluster();
+
+    final ClusterLuaScript script = new ClusterLuaScript(cluster,
+        "return redis.call(\"INCRBY\", KEYS[1], ARGV[1])",
+        ScriptOutputType.INTEGER);
+
+    script.load().join();
+
+    final List<ClusterLuaScript.Invocation<String>> invocations = new ArrayList<>();
+
+    for (int i = 0; i < 100; i++) {
+      invocations.add(new ClusterLuaScript.Invocation<>(List.of("key::" + i), List.of(String.valueOf(i))));
+    }
+
+    final List<Object> results = script.executeBatch(invocations).join();
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals((long) i, results.get(i));
+    }
+
+    cluster.useCluster(connection -> connection.sync().scriptFlush());
+
+    final List<ClusterLuaScript.Invocation<byte[]>> binaryInvocations = new ArrayList<>();
+
+    for (int i = 0; i < 100; i++) {
+      binaryInvocations.add(new ClusterLuaScript.Invocation<>(List.of(("key::" + i).getBytes(StandardCharsets.UTF_8)),
+          List.of("1".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    final List<Object> binaryResults = script.executeBinaryBatch(binaryInvocations).join();
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals((long) i + 1, binaryResults.get(i));
+    }
+  }
+
+  @Test
+  void testReloadOnTopologyChange() throws InterruptedException {
+    final FaultTolerantRedisCluster cluster = REDIS_CLUSTER_EXTENSION.getRedisCluster();
+
+    final ClusterLuaScript script = new ClusterLuaScript(cluster, "return 3;", ScriptOutputType.INTEGER);
+    script.load().join();
+
+    cluster.useCluster(connection -> connection.sync().scriptFlush());
+
+    cluster.useCluster(connection -> connection.getResources().eventBus()
+        .publish(new ClusterTopologyChangedEvent(Collections.emptyList(), Collections.emptyList())));
+
+    boolean loadedEverywhere = false;
+
+    for (int i = 0; i < 50 && !loadedEverywhere; i++) {
+      loadedEverywhere = cluster.withCluster(connection -> connection.sync().upstream().commands()
+          .scriptExists(script.getSha())
+          .asMap()
+          .values()
+          .stream()
+          .allMatch(exists -> exists.get(0)));
+
+      if (!loadedEverywhere) {
+        Thread.sleep(100);
+      }
+    }
+
+    assertTrue(loadedEverywhere);
   }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013-2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.redis;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+class FaultTolerantRedisClusterIntegrationTest {
+
+  @RegisterExtension
+  static final RedisClusterExtension REDIS_CLUSTER_EXTENSION = RedisClusterExtension.builder()
+      .connectionPoolSizes(Map.of(RedisConnectionLane.DEFAULT, 2, RedisConnectionLane.BULK, 1))
+      .build();
+
+  @Test
+  void testAsyncCommands() {
+    final FaultTolerantRedisCluster cluster = REDIS_CLUSTER_EXTENSION.getRedisCluster();
+
+    final String value = cluster.withClusterAsync(connection -> connection.async().set("key", "value")
+            .thenCompose(ignored -> connection.async().get("key")))
+        .join();
+
+    assertEquals("value", value);
+
+    final byte[] binaryValue = cluster.withBinaryClusterAsync(connection -> connection.async().get("key".getBytes(StandardCharsets.UTF_8)))
+        .join();
+
+    assertArrayEquals("value".getBytes(StandardCharsets.UTF_8), binaryValue);
+    assertNull(cluster.withClusterAsync(connection -> connection.async().get("missing")).join());
+  }
+
+  @Test
+  void testPipeline() {
+    final FaultTolerantRedisCluster cluster = REDIS_CLUSTER_EXTENSION.getRedisCluster();
+    final int keyCount = 1_000;
+
+    final List<String> setResults = cluster.<String>withClusterPipeline(commands -> {
+      final List<CompletableFuture<String>> futures = new ArrayList<>(keyCount);
+
+      for (int i = 0; i < keyCount; i++) {
+        futures.add(commands.set("key::" + i, "value::" + i).toCompletableFuture());
+      }
+
+      return futures;
+    }).join();
+
+    assertEquals(keyCount, setResults.size());
+    setResults.forEach(result -> assertEquals("OK", result));
+
+    final List<byte[]> values = cluster.<byte[]>withBinaryClusterPipeline(commands -> {
+      final List<CompletableFuture<byte[]>> futures = new ArrayList<>(keyCount);
+
+      for (int i = 0; i < keyCount; i++) {
+        futures.add(commands.get(("key::" + i).getBytes(StandardCharsets.UTF_8)).toCompletableFuture());
+      }
+
+      return futures;
+    }).join();
+
+    for (int i = 0; i < keyCount; i++) {
+      assertArrayEquals(("value::" + i).getBytes(StandardCharsets.UTF_8), values.get(i));
+    }
+  }
+
+  @Test
+  void testSyncAndAsyncCommandsSeeSameData() throws InterruptedException {
+    final FaultTolerantRedisCluster cluster = REDIS_CLUSTER_EXTENSION.getRedisCluster();
+    final int operationCount = 10_000;
+
+    // Sync callers need a thread per in-flight command; async callers issue everything from one thread, and should see
+    // every increment the sync callers made
+    final ExecutorService executor = Executors.newFixedThreadPool(16);
+
+    for (int i = 0; i < operationCount; i++) {
+      final String key = "sync::" + i;
+      executor.execute(() -> cluster.useCluster(connection -> connection.sync().incr(key)));
+    }
+
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+    final List<CompletableFuture<Long>> futures = new ArrayList<>(operationCount);
+
+    for (int i = 0; i < operationCount; i++) {
+      final String key = "sync::" + i;
+      futures.add(cluster.withClusterAsync(connection -> connection.async().incr(key)));
+    }
+
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    futures.forEach(future -> assertEquals(2L, future.join()));
+  }
+
+  @Test
+  void testSmallCommandsDuringBulkReads() throws InterruptedException {
+    final FaultTolerantRedisCluster cluster = REDIS_CLUSTER_EXTENSION.getRedisCluster();
+    final byte[] bulkKey = "bulk".getBytes(StandardCharsets.UTF_8);
+    final byte[] item = new byte[8192];
+
+    cluster.useBinaryCluster(connection -> {
+      for (int i = 0; i < 1_000; i++) {
+        connection.sync().rpush(bulkKey, item);
+      }
+    });
+
+    cluster.useCluster(connection -> connection.sync().set("small", "value"));
+
+    final AtomicBoolean running = new AtomicBoolean(true);
+    final AtomicInteger bulkReads = new AtomicInteger();
+    final ExecutorService bulkReaders = Executors.newFixedThreadPool(4);
+
+    for (int i = 0; i < 4; i++) {
+      bulkReaders.execute(() -> {
+        while (running.get()) {
+          cluster.useBinaryCluster(RedisConnectionLane.BULK, connection -> connection.sync().lrange(bulkKey, 0, -1));
+          bulkReads.incrementAndGet();
+        }
+      });
+    }
+
+    try {
+      // Small reads go to the default lane and get their own answers even while the bulk lane is busy with 8MB reads
+      for (int i = 0; i < 1_000; i++) {
+        assertEquals("value", cluster.withCluster(connection -> connection.sync().get("small")));
+      }
+    } finally {
+      running.set(false);
+      bulkReaders.shutdown();
+      assertTrue(bulkReaders.awaitTermination(30, TimeUnit.SECONDS));
+    }
+
+    assertTrue(bulkReads.get() > 0);
+  }
+}
@@ -12,15 +12,23 @@ import io.lettuce.core.cluster.RedisClusterClient;
 import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
 import io.lettuce.core.cluster.api.sync.RedisAdvancedClusterCommands;
 import io.lettuce.core.cluster.pubsub.StatefulRedisClusterPubSubConnection;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.event.Event;
 import io.lettuce.core.event.EventBus;
 import io.lettuce.core.resource.ClientResources;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.whispersystems.textsecuregcm.configuration.CircuitBreakerConfiguration;
 import org.whispersystems.textsecuregcm.configuration.RetryConfiguration;
-import reactor.core.publisher.Flux;
+import reactor.core.publisher.DirectProcessor;
 
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -31,6 +39,8 @@ public class FaultTolerantRedisClusterTest {
 
     private RedisAdvancedClusterCommands<String, String> clusterCommands;
     private FaultTolerantRedisCluster                    faultTolerantCluster;
+    private EventExecutorGroup                           eventExecutorGroup;
+    private DirectProcessor<Event>                       events;
 
     @SuppressWarnings("unchecked")
     @Before
@@ -44,11 +54,13 @@ public class FaultTolerantRedisClusterTest {
         clusterCommands = mock(RedisAdvancedClusterCommands.class);
 
         when(clusterClient.connect()).thenReturn(clusterConnection);
+        when(clusterClient.connect(ByteArrayCodec.INSTANCE)).thenReturn(mock(StatefulRedisClusterConnection.class));
         when(clusterClient.connectPubSub()).thenReturn(pubSubConnection);
         when(clusterClient.getResources()).thenReturn(clientResources);
         when(clusterConnection.sync()).thenReturn(clusterCommands);
         when(clientResources.eventBus()).thenReturn(eventBus);
-        when(eventBus.get()).thenReturn(mock(Flux.class));
+        when(clientResources.eventExecutorGroup()).thenReturn(eventExecutorGroup = new DefaultEventExecutorGroup(1));
+        when(eventBus.get()).thenReturn(events = DirectProcessor.create());
 
         final CircuitBreakerConfiguration breakerConfiguration = new CircuitBreakerConfiguration();
         breakerConfiguration.setFailureRateThreshold(100);
@@ -57,11 +69,16 @@ public class FaultTolerantRedisClusterTest {
 
         final RetryConfiguration retryConfiguration = new RetryConfiguration();
         retryConfiguration.setMaxAttempts(3);
-        retryConfiguration.setWaitDuration(0);
+        retryConfiguration.setWaitDuration(1);
 
         faultTolerantCluster = new FaultTolerantRedisCluster("test", clusterClient, Duration.ofSeconds(2), breakerConfiguration, retryConfiguration);
     }
 
+    @After
+    public void tearDown() {
+        eventExecutorGroup.shutdownGracefully();
+    }
+
     @Test
     public void testBreaker() {
         when(clusterCommands.get(anyString()))
@@ -79,6 +96,15 @@ public class FaultTolerantRedisClusterTest {
         assertTrue(redisException.getCause() instanceof CallNotPermittedException);
     }
 
+    @Test
+    public void testShutdownDisposesTopologySubscription() {
+        assertTrue(events.hasDownstreams());
+
+        faultTolerantCluster.shutdown();
+
+        assertFalse(events.hasDownstreams());
+    }
+
     @Test
     public void testRetry() {
         when(clusterCommands.get(anyString()))
@@ -96,4 +122,50 @@ public class FaultTolerantRedisClusterTest {
 
         assertThrows(RedisCommandTimeoutException.class, () -> faultTolerantCluster.withCluster(connection -> connection.sync().get("key")));
     }
+
+    @Test
+    public void testBreakerAsync() {
+        final AtomicInteger calls = new AtomicInteger();
+
+        assertEquals("value", faultTolerantCluster.withClusterAsync(connection -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("value");
+        }).join());
+
+        final CompletionException failure = assertThrows(CompletionException.class,
+                () -> faultTolerantCluster.withClusterAsync(connection -> {
+                    calls.incrementAndGet();
+                    return CompletableFuture.failedFuture(new RuntimeException("Badness has ensued."));
+                }).join());
+
+        assertTrue(failure.getCause() instanceof RedisException);
+
+        final CompletionException rejection = assertThrows(CompletionException.class,
+                () -> faultTolerantCluster.withClusterAsync(connection -> {
+                    calls.incrementAndGet();
+                    return CompletableFuture.completedFuture("value");
+                }).join());
+
+        assertTrue(rejection.getCause() instanceof RedisException);
+        assertTrue(rejection.getCause().getCause() instanceof CallNotPermittedException);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testRetryAsync() {
+        final AtomicInteger attempts = new AtomicInteger();
+
+        assertEquals("value", faultTolerantCluster.withClusterAsync(connection ->
+                attempts.incrementAndGet() < 3
+                        ? CompletableFuture.failedFuture(new RedisCommandTimeoutException())
+                        : CompletableFuture.completedFuture("value")).join());
+
+        assertEquals(3, attempts.get());
+
+        final CompletionException exhausted = assertThrows(CompletionException.class,
+                () -> faultTolerantCluster.withClusterAsync(connection ->
+                        CompletableFuture.<String>failedFuture(new RedisCommandTimeoutException())).join());
+
+        assertTrue(exhausted.getCause() instanceof RedisCommandTimeoutException);
+    }
 }
@@ -20,6 +20,7 @@ import java.net.ServerSocket;
 import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import org.junit.jupiter.api.extension.AfterAllCallback;
 import org.junit.jupiter.api.extension.AfterEachCallback;
@@ -37,6 +38,12 @@ public class RedisClusterExtension implements BeforeAllCallback, BeforeEachCallb
     return new RedisClusterExtensionBuilder();
   }
 
+  private final Map<RedisConnectionLane, Integer> connectionPoolSizes;
+
+  private RedisClusterExtension(final Map<RedisConnectionLane, Integer> connectionPoolSizes) {
+    this.connectionPoolSizes = connectionPoolSizes;
+  }
+
 
   @Override
   public void afterAll(final ExtensionContext context) throws Exception {
@@ -74,7 +81,8 @@ public class RedisClusterExtension implements BeforeAllCallback, BeforeEachCallb
         RedisClusterClient.create(urls.stream().map(RedisURI::create).collect(Collectors.toList())),
         Duration.ofSeconds(2),
         new CircuitBreakerConfiguration(),
-        new RetryConfiguration());
+        new RetryConfiguration(),
+        connectionPoolSizes);
 
     redisCluster.useCluster(connection -> {
       boolean setAll = false;
@@ -205,12 +213,19 @@ public class RedisClusterExtension implements BeforeAllCallback, BeforeEachCallb
 
   public static class RedisClusterExtensionBuilder {
 
+    private Map<RedisConnectionLane, Integer> connectionPoolSizes = Map.of(RedisConnectionLane.DEFAULT, 1);
+
     private RedisClusterExtensionBuilder() {
 
     }
 
+    public RedisClusterExtensionBuilder connectionPoolSizes(final Map<RedisConnectionLane, Integer> connectionPoolSizes) {
+      this.connectionPoolSizes = connectionPoolSizes;
+      return this;
+    }
+
     public RedisClusterExtension build() {
-      return new RedisClusterExtension();
+      return new RedisClusterExtension(connectionPoolSizes);
     }
   }
 }
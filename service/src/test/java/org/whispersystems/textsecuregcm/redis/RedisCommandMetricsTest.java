@@ -0,0 +1,137 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.redis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.whispersystems.textsecuregcm.metrics.MetricsUtil.name;
+
+import io.lettuce.core.cluster.SlotHash;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.output.StatusOutput;
+import io.lettuce.core.protocol.Command;
+import io.lettuce.core.protocol.CommandArgs;
+import io.lettuce.core.protocol.CommandType;
+import io.lettuce.core.protocol.ProtocolKeyword;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RedisCommandMetricsTest {
+
+  private SimpleMeterRegistry meterRegistry;
+  private RedisCommandMetrics commandMetrics;
+
+  private static final SocketAddress LOCAL_ADDRESS = new InetSocketAddress("127.0.0.1", 40000);
+  private static final SocketAddress REMOTE_ADDRESS = new InetSocketAddress("127.0.0.1", 6379);
+
+  private static final String COMMAND_TIMER_NAME = name(RedisCommandMetrics.class, "command");
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    commandMetrics = new RedisCommandMetrics("test", meterRegistry);
+  }
+
+  @Test
+  void testRecordCommandLatency() {
+    commandMetrics.recordCommandLatency(LOCAL_ADDRESS, REMOTE_ADDRESS, CommandType.GET, 1_000, 2_000);
+    commandMetrics.recordCommandLatency(LOCAL_ADDRESS, REMOTE_ADDRESS, CommandType.GET, 1_000, 4_000);
+    commandMetrics.recordCommandLatency(LOCAL_ADDRESS, REMOTE_ADDRESS, CommandType.EVALSHA, 1_000, 2_000);
+
+    final ProtocolKeyword customCommand = new ProtocolKeyword() {
+      @Override
+      public byte[] getBytes() {
+        return "CUSTOM".getBytes(StandardCharsets.US_ASCII);
+      }
+
+      @Override
+      public String name() {
+        return "CUSTOM";
+      }
+    };
+
+    commandMetrics.recordCommandLatency(LOCAL_ADDRESS, REMOTE_ADDRESS, customCommand, 1_000, 2_000);
+
+    assertEquals(2, meterRegistry.get(COMMAND_TIMER_NAME).tags("cluster", "test", "command", "GET").timer().count());
+    assertEquals(6_000, meterRegistry.get(COMMAND_TIMER_NAME).tags("command", "GET").timer().totalTime(TimeUnit.NANOSECONDS));
+    assertEquals(1, meterRegistry.get(COMMAND_TIMER_NAME).tags("command", "EVALSHA").timer().count());
+    assertEquals(1, meterRegistry.get(COMMAND_TIMER_NAME).tags("command", "other").timer().count());
+
+    // One timer per known command plus "other", and nothing new after recording an unknown command
+    assertEquals(CommandType.values().length + 1, meterRegistry.get(COMMAND_TIMER_NAME).timers().size());
+  }
+
+  @Test
+  void testSlotCounting() {
+    final EmbeddedChannel channel = new EmbeddedChannel(commandMetrics.getSlotCountingHandler());
+
+    channel.writeOutbound(buildGetCommand("foo"));
+    channel.writeOutbound(List.of(buildGetCommand("foo"), buildGetCommand("{foo}bar"), buildGetCommand("baz")));
+    channel.writeOutbound(new Command<>(CommandType.PING, new StatusOutput<>(StringCodec.UTF8)));
+
+    final int fooSlot = SlotHash.getSlot("foo");
+
+    assertEquals(3, commandMetrics.getSlotCommandCount(fooSlot));
+    assertEquals(1, commandMetrics.getSlotCommandCount(SlotHash.getSlot("baz")));
+
+    final int slotsPerRange = SlotHash.SLOT_COUNT / RedisCommandMetrics.SLOT_RANGE_COUNT;
+    final int firstSlotInRange = fooSlot - (fooSlot % slotsPerRange);
+
+    assertEquals(3.0, meterRegistry.get(name(RedisCommandMetrics.class, "slotCommands"))
+        .tag("slotRange", firstSlotInRange + "-" + (firstSlotInRange + slotsPerRange - 1))
+        .functionCounter()
+        .count());
+
+    assertEquals(RedisCommandMetrics.SLOT_RANGE_COUNT,
+        meterRegistry.get(name(RedisCommandMetrics.class, "slotCommands")).functionCounters().size());
+
+    // Commands still make it to the rest of the pipeline
+    assertEquals(3, drainOutbound(channel));
+  }
+
+  @Test
+  void testByteCounting() {
+    final EmbeddedChannel channel = new EmbeddedChannel(commandMetrics.getByteCountingHandler());
+
+    channel.writeOutbound(Unpooled.wrappedBuffer(new byte[10]));
+    channel.writeOutbound(Unpooled.wrappedBuffer(new byte[30]));
+    channel.writeInbound(Unpooled.wrappedBuffer(new byte[100]));
+
+    assertEquals(2, meterRegistry.get(name(RedisCommandMetrics.class, "requestBytes")).summary().count());
+    assertEquals(40.0, meterRegistry.get(name(RedisCommandMetrics.class, "requestBytes")).summary().totalAmount());
+    assertEquals(100.0, meterRegistry.get(name(RedisCommandMetrics.class, "responseBytes")).summary().totalAmount());
+
+    assertEquals(2, drainOutbound(channel));
+    ((ByteBuf) channel.readInbound()).release();
+  }
+
+  private static Command<String, String, String> buildGetCommand(final String key) {
+    return new Command<>(CommandType.GET, new StatusOutput<>(StringCodec.UTF8), new CommandArgs<>(StringCodec.UTF8).addKey(key));
+  }
+
+  private static int drainOutbound(final EmbeddedChannel channel) {
+    int messages = 0;
+    Object message;
+
+    while ((message = channel.readOutbound()) != null) {
+      if (message instanceof ByteBuf) {
+        ((ByteBuf) message).release();
+      }
+
+      messages++;
+    }
+
+    return messages;
+  }
+}
@@ -6,19 +6,26 @@
 package org.whispersystems.textsecuregcm.sqs;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.junit.jupiter.api.Assertions.assertTrue;
-import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -29,38 +36,93 @@ import org.mockito.ArgumentCaptor;
 import org.whispersystems.textsecuregcm.storage.Account;
 import software.amazon.awssdk.services.sqs.SqsAsyncClient;
 import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
-import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
-import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
 
 public class DirectoryQueueTest {
 
-  private SqsAsyncClient sqsAsyncClient;
+  private FakeSqsAsyncClient sqsAsyncClient;
+  private ScheduledExecutorService flushExecutor;
+
+  /**
+   * A minimal stand-in for SQS that records batch requests and lets tests decide when (and whether) they complete.
+   */
+  private static class FakeSqsAsyncClient implements SqsAsyncClient {
+
+    private final List<SendMessageBatchRequest> requests = Collections.synchronizedList(new ArrayList<>());
+    private final List<CompletableFuture<SendMessageBatchResponse>> responseFutures =
+        Collections.synchronizedList(new ArrayList<>());
+
+    private volatile boolean completeImmediately = true;
+    private volatile boolean throwSynchronously = false;
+    private volatile boolean closed = false;
+
+    @Override
+    public CompletableFuture<SendMessageBatchResponse> sendMessageBatch(final SendMessageBatchRequest request) {
+      assertFalse(closed, "Batches must not be sent after the client is closed");
+      assertTrue(request.entries().size() <= DirectoryQueue.MAX_BATCH_SIZE);
+
+      requests.add(request);
+
+      if (throwSynchronously) {
+        throw new IllegalStateException("Expected");
+      }
+
+      final CompletableFuture<SendMessageBatchResponse> responseFuture = new CompletableFuture<>();
+      responseFutures.add(responseFuture);
+
+      if (completeImmediately) {
+        responseFuture.complete(SendMessageBatchResponse.builder().build());
+      }
+
+      return responseFuture;
+    }
+
+    void completeAll() {
+      synchronized (responseFutures) {
+        responseFutures.forEach(future -> future.complete(SendMessageBatchResponse.builder().build()));
+      }
+    }
+
+    List<SendMessageBatchRequestEntry> getEntries(final String queueUrl) {
+      synchronized (requests) {
+        return requests.stream()
+            .filter(request -> request.queueUrl().equals(queueUrl))
+            .flatMap(request -> request.entries().stream())
+            .collect(Collectors.toList());
+      }
+    }
+
+    @Override
+    public String serviceName() {
+      return "sqs";
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
 
   @BeforeEach
   void setUp() {
-    sqsAsyncClient = mock(SqsAsyncClient.class);
-
-    when(sqsAsyncClient.sendMessage(any(SendMessageRequest.class)))
-        .thenReturn(CompletableFuture.completedFuture(SendMessageResponse.builder().build()));
+    sqsAsyncClient = new FakeSqsAsyncClient();
+    flushExecutor = mock(ScheduledExecutorService.class);
   }
 
   @ParameterizedTest
   @MethodSource("argumentsForTestRefreshRegisteredUser")
   void testRefreshRegisteredUser(final boolean shouldBeVisibleInDirectory, final String expectedAction) {
-    final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://test"), sqsAsyncClient);
+    final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://test"), sqsAsyncClient, flushExecutor);
 
-    final Account account = mock(Account.class);
-    when(account.getNumber()).thenReturn("+18005556543");
-    when(account.getUuid()).thenReturn(UUID.randomUUID());
-    when(account.shouldBeVisibleInDirectory()).thenReturn(shouldBeVisibleInDirectory);
-
-    directoryQueue.refreshAccount(account);
-
-    final ArgumentCaptor<SendMessageRequest> requestCaptor = ArgumentCaptor.forClass(SendMessageRequest.class);
-    verify(sqsAsyncClient).sendMessage(requestCaptor.capture());
+    directoryQueue.refreshAccount(mockAccount("+18005556543", UUID.randomUUID(), shouldBeVisibleInDirectory));
+    directoryQueue.flush();
 
+    assertEquals(1, sqsAsyncClient.requests.size());
+    assertEquals(1, sqsAsyncClient.requests.get(0).entries().size());
     assertEquals(MessageAttributeValue.builder().dataType("String").stringValue(expectedAction).build(),
-        requestCaptor.getValue().messageAttributes().get("action"));
+        sqsAsyncClient.requests.get(0).entries().get(0).messageAttributes().get("action"));
   }
 
   @SuppressWarnings("unused")
@@ -72,37 +134,152 @@ public class DirectoryQueueTest {
 
   @Test
   void testSendMessageMultipleQueues() {
-    final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://first", "sqs://second"), sqsAsyncClient);
+    final DirectoryQueue directoryQueue =
+        new DirectoryQueue(List.of("sqs://first", "sqs://second"), sqsAsyncClient, flushExecutor);
 
-    final Account account = mock(Account.class);
-    when(account.getNumber()).thenReturn("+18005556543");
-    when(account.getUuid()).thenReturn(UUID.randomUUID());
-    when(account.shouldBeVisibleInDirectory()).thenReturn(true);
+    directoryQueue.refreshAccount(mockAccount("+18005556543", UUID.randomUUID(), true));
+    directoryQueue.flush();
 
-    directoryQueue.refreshAccount(account);
+    assertEquals(2, sqsAsyncClient.requests.size());
 
-    final ArgumentCaptor<SendMessageRequest> requestCaptor = ArgumentCaptor.forClass(SendMessageRequest.class);
-    verify(sqsAsyncClient, times(2)).sendMessage(requestCaptor.capture());
+    for (final String queueUrl : List.of("sqs://first", "sqs://second")) {
+      final List<SendMessageBatchRequestEntry> entries = sqsAsyncClient.getEntries(queueUrl);
 
-    for (final SendMessageRequest sendMessageRequest : requestCaptor.getAllValues()) {
+      assertEquals(1, entries.size());
       assertEquals(MessageAttributeValue.builder().dataType("String").stringValue("add").build(),
-          sendMessageRequest.messageAttributes().get("action"));
+          entries.get(0).messageAttributes().get("action"));
     }
   }
 
   @Test
-  void testStop() {
-    final CompletableFuture<SendMessageResponse> sendMessageFuture = new CompletableFuture<>();
-    when(sqsAsyncClient.sendMessage(any(SendMessageRequest.class))).thenReturn(sendMessageFuture);
+  void testBatching() {
+    final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://test"), sqsAsyncClient, flushExecutor);
+    final int accountCount = DirectoryQueue.MAX_BATCH_SIZE * 2 + 5;
 
-    final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://test"), sqsAsyncClient);
+    for (int i = 0; i < accountCount; i++) {
+      directoryQueue.refreshAccount(mockAccount(String.format("+1800555%04d", i), UUID.randomUUID(), true));
+    }
 
-    final Account account = mock(Account.class);
-    when(account.getNumber()).thenReturn("+18005556543");
-    when(account.getUuid()).thenReturn(UUID.randomUUID());
-    when(account.shouldBeVisibleInDirectory()).thenReturn(true);
+    // Full batches go out right away; the remainder waits for the linger timer
+    assertEquals(2, sqsAsyncClient.requests.size());
+    assertTrue(sqsAsyncClient.requests.stream()
+        .allMatch(request -> request.entries().size() == DirectoryQueue.MAX_BATCH_SIZE));
+
+    directoryQueue.flush();
+
+    assertEquals(3, sqsAsyncClient.requests.size());
+    assertEquals(5, sqsAsyncClient.requests.get(2).entries().size());
+
+    final List<String> numbers = sqsAsyncClient.getEntries("sqs://test").stream()
+        .map(SendMessageBatchRequestEntry::messageGroupId)
+        .collect(Collectors.toList());
+
+    assertEquals(accountCount, numbers.size());
+
+    for (int i = 0; i < accountCount; i++) {
+      assertEquals(String.format("+1800555%04d", i), numbers.get(i), "Updates should be sent in order");
+    }
+
+    for (final SendMessageBatchRequest request : sqsAsyncClient.requests) {
+      assertEquals(request.entries().size(),
+          request.entries().stream().map(SendMessageBatchRequestEntry::id).distinct().count(),
+          "Entry IDs must be unique within a batch");
+    }
+  }
+
+  @Test
+  void testLinger() {
+    final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://test"), sqsAsyncClient, flushExecutor);
+
+    directoryQueue.refreshAccount(mockAccount("+18005550001", UUID.randomUUID(), true));
+    directoryQueue.refreshAccount(mockAccount("+18005550002", UUID.randomUUID(), true));
+
+    assertTrue(sqsAsyncClient.requests.isEmpty());
+
+    // Only the first pending update should schedule a flush
+    final ArgumentCaptor<Runnable> flushCaptor = ArgumentCaptor.forClass(Runnable.class);
+    verify(flushExecutor).schedule(flushCaptor.capture(), eq(DirectoryQueue.MAX_LINGER.toMillis()),
+        eq(TimeUnit.MILLISECONDS));
+
+    flushCaptor.getValue().run();
+
+    assertEquals(1, sqsAsyncClient.requests.size());
+    assertEquals(2, sqsAsyncClient.requests.get(0).entries().size());
+  }
+
+  @Test
+  void testSupersededUpdates() {
+    final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://test"), sqsAsyncClient, flushExecutor);
+
+    final UUID uuid = UUID.randomUUID();
+    final Account account = mockAccount("+18005550001", uuid, true);
 
     directoryQueue.refreshAccount(account);
+    directoryQueue.refreshAccount(mockAccount("+18005550002", UUID.randomUUID(), true));
+    directoryQueue.deleteAccount(account);
+    directoryQueue.flush();
+
+    final List<SendMessageBatchRequestEntry> entries = sqsAsyncClient.getEntries("sqs://test");
+
+    assertEquals(2, entries.size());
+    assertEquals("+18005550002", entries.get(0).messageGroupId());
+    assertEquals("+18005550001", entries.get(1).messageGroupId());
+    assertEquals(MessageAttributeValue.builder().dataType("String").stringValue("delete").build(),
+        entries.get(1).messageAttributes().get("action"));
+  }
+
+  @Test
+  void testChangePhoneNumber() {
+    final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://test"), sqsAsyncClient, flushExecutor);
+
+    directoryQueue.changePhoneNumber(mockAccount("+18005550002", UUID.randomUUID(), true),
+        "+18005550001", "+18005550002");
+    directoryQueue.flush();
+
+    // Updates for different numbers don't supersede one another, even if they're for the same account
+    final List<SendMessageBatchRequestEntry> entries = sqsAsyncClient.getEntries("sqs://test");
+
+    assertEquals(2, entries.size());
+    assertEquals("+18005550001", entries.get(0).messageGroupId());
+    assertEquals("delete", entries.get(0).messageAttributes().get("action").stringValue());
+    assertEquals("+18005550002", entries.get(1).messageGroupId());
+    assertEquals("add", entries.get(1).messageAttributes().get("action").stringValue());
+  }
+
+  @Test
+  void testBackpressure() {
+    sqsAsyncClient.completeImmediately = false;
+
+    final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://test"), sqsAsyncClient, flushExecutor);
+
+    for (int i = 0; i < DirectoryQueue.MAX_OUTSTANDING_BATCHES * DirectoryQueue.MAX_BATCH_SIZE; i++) {
+      directoryQueue.refreshAccount(mockAccount(String.format("+1800555%04d", i), UUID.randomUUID(), true));
+    }
+
+    assertEquals(DirectoryQueue.MAX_OUTSTANDING_BATCHES, sqsAsyncClient.requests.size());
+
+    final CompletableFuture<Void> blockedUpdatesFuture = CompletableFuture.runAsync(() -> {
+      for (int i = 0; i < DirectoryQueue.MAX_BATCH_SIZE; i++) {
+        directoryQueue.refreshAccount(mockAccount(String.format("+1800666%04d", i), UUID.randomUUID(), true));
+      }
+    });
+
+    assertThrows(TimeoutException.class, () -> blockedUpdatesFuture.get(1, TimeUnit.SECONDS),
+        "Callers should block while too many batches are outstanding");
+
+    sqsAsyncClient.completeAll();
+
+    blockedUpdatesFuture.join();
+    assertEquals(DirectoryQueue.MAX_OUTSTANDING_BATCHES + 1, sqsAsyncClient.requests.size());
+  }
+
+  @Test
+  void testStop() {
+    sqsAsyncClient.completeImmediately = false;
+
+    final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://test"), sqsAsyncClient, flushExecutor);
+
+    directoryQueue.refreshAccount(mockAccount("+18005556543", UUID.randomUUID(), true));
 
     final CompletableFuture<Boolean> stopFuture = CompletableFuture.supplyAsync(() -> {
       try {
@@ -116,7 +293,55 @@ public class DirectoryQueueTest {
     assertThrows(TimeoutException.class, () -> stopFuture.get(1, TimeUnit.SECONDS),
         "Directory queue should not finish shutting down until all outstanding requests are resolved");
 
-    sendMessageFuture.complete(SendMessageResponse.builder().build());
+    // Pending updates should be flushed on shutdown without waiting for the linger timer
+    assertEquals(Set.of("+18005556543"), sqsAsyncClient.getEntries("sqs://test").stream()
+        .map(SendMessageBatchRequestEntry::messageGroupId)
+        .collect(Collectors.toSet()));
+
+    sqsAsyncClient.completeAll();
     assertTrue(stopFuture.join());
+    assertTrue(sqsAsyncClient.closed);
+    verify(flushExecutor).shutdownNow();
+  }
+
+  @Test
+  void testStopWithUnresolvedRequests() {
+    sqsAsyncClient.completeImmediately = false;
+
+    final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://test"), sqsAsyncClient, flushExecutor);
+
+    directoryQueue.refreshAccount(mockAccount("+18005556543", UUID.randomUUID(), true));
+
+    // Requests that never resolve shouldn't keep the server from shutting down
+    assertTimeoutPreemptively(Duration.ofSeconds(30), directoryQueue::stop);
+
+    verify(flushExecutor).shutdownNow();
+    assertTrue(sqsAsyncClient.closed);
+  }
+
+  @Test
+  void testSynchronousSendFailure() throws Exception {
+    sqsAsyncClient.throwSynchronously = true;
+
+    final DirectoryQueue directoryQueue = new DirectoryQueue(List.of("sqs://test"), sqsAsyncClient, flushExecutor);
+
+    // If failed batches held on to their permits, this would block forever
+    for (int i = 0; i < (DirectoryQueue.MAX_OUTSTANDING_BATCHES + 1) * DirectoryQueue.MAX_BATCH_SIZE; i++) {
+      directoryQueue.refreshAccount(mockAccount(String.format("+1800555%04d", i), UUID.randomUUID(), true));
+    }
+
+    assertEquals(DirectoryQueue.MAX_OUTSTANDING_BATCHES + 1, sqsAsyncClient.requests.size());
+
+    assertTimeoutPreemptively(Duration.ofSeconds(5), directoryQueue::stop);
+    assertTrue(sqsAsyncClient.closed);
+  }
+
+  private static Account mockAccount(final String number, final UUID uuid, final boolean shouldBeVisibleInDirectory) {
+    final Account account = mock(Account.class);
+    when(account.getNumber()).thenReturn(number);
+    when(account.getUuid()).thenReturn(uuid);
+    when(account.shouldBeVisibleInDirectory()).thenReturn(shouldBeVisibleInDirectory);
+
+    return account;
   }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.storage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import io.zonky.test.db.postgres.embedded.LiquibasePreparer;
+import io.zonky.test.db.postgres.junit5.EmbeddedPostgresExtension;
+import io.zonky.test.db.postgres.junit5.PreparedDbExtension;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.whispersystems.textsecuregcm.configuration.CircuitBreakerConfiguration;
+
+class AbusiveHostRulesIndexTest {
+
+  @RegisterExtension
+  PreparedDbExtension db = EmbeddedPostgresExtension.preparedDatabase(
+      LiquibasePreparer.forClasspathLocation("abusedb.xml"));
+
+  private ScheduledExecutorService refreshExecutor;
+
+  // Never started, and so always queries the database directly
+  private AbusiveHostRules databaseAbusiveHostRules;
+
+  private AbusiveHostRules indexedAbusiveHostRules;
+
+  @BeforeEach
+  void setUp() {
+    refreshExecutor = mock(ScheduledExecutorService.class);
+
+    doAnswer(invocation -> {
+      invocation.<Runnable>getArgument(0).run();
+      return null;
+    }).when(refreshExecutor).execute(any());
+
+    final FaultTolerantDatabase database = new FaultTolerantDatabase("abusive_hosts-test",
+        Jdbi.create(db.getTestDatabase()), new CircuitBreakerConfiguration());
+
+    databaseAbusiveHostRules = new AbusiveHostRules(database, mock(ScheduledExecutorService.class));
+    indexedAbusiveHostRules = new AbusiveHostRules(database, refreshExecutor);
+  }
+
+  @Test
+  void testRandomizedRulesMatchDatabase() throws SQLException {
+    final Random random = new Random(0x5ea1);
+
+    try (final Connection connection = db.getTestDatabase().getConnection();
+        final PreparedStatement statement = connection.prepareStatement(
+            "INSERT INTO abusive_host_rules (host, blocked, regions) VALUES (?::INET, ?, ?) ON CONFLICT DO NOTHING")) {
+
+      for (int i = 0; i < 500; i++) {
+        statement.setString(1, randomNetwork(random));
+        statement.setInt(2, random.nextInt(2));
+        statement.setString(3, random.nextBoolean() ? null : "+1,+49");
+        statement.execute();
+      }
+    }
+
+    indexedAbusiveHostRules.start();
+
+    final List<String> hosts = new ArrayList<>();
+
+    for (int i = 0; i < 2_000; i++) {
+      hosts.add(randomHost(random));
+    }
+
+    int hostsWithMatches = 0;
+
+    for (final String host : hosts) {
+      final List<AbusiveHostRule> expectedRules = databaseAbusiveHostRules.getAbusiveHostRulesFor(host);
+
+      assertThat(indexedAbusiveHostRules.getAbusiveHostRulesFor(host))
+          .as("Rules for %s", host)
+          .containsExactlyInAnyOrderElementsOf(expectedRules);
+
+      if (!expectedRules.isEmpty()) {
+        hostsWithMatches++;
+      }
+    }
+
+    // Make sure the randomized rules and hosts actually overlap enough to be meaningful
+    assertThat(hostsWithMatches).isGreaterThan(hosts.size() / 10);
+  }
+
+  @Test
+  void testRefresh() throws SQLException {
+    indexedAbusiveHostRules.start();
+
+    assertThat(indexedAbusiveHostRules.getAbusiveHostRulesFor("192.168.1.1")).isEmpty();
+
+    // Rules inserted by this server should be indexed immediately
+    indexedAbusiveHostRules.setBlockedHost("192.168.1.1", "Testing");
+    assertThat(indexedAbusiveHostRules.getAbusiveHostRulesFor("192.168.1.1"))
+        .containsExactly(new AbusiveHostRule("192.168.1.1", true, List.of()));
+
+    try (final Connection connection = db.getTestDatabase().getConnection();
+        final PreparedStatement statement = connection.prepareStatement(
+            "INSERT INTO abusive_host_rules (host, blocked) VALUES ('192.168.0.0/16'::INET, 0)")) {
+
+      statement.execute();
+    }
+
+    // Rules inserted elsewhere should be picked up by the next incremental refresh
+    indexedAbusiveHostRules.refresh(false);
+    assertThat(indexedAbusiveHostRules.getAbusiveHostRulesFor("192.168.1.1")).hasSize(2);
+
+    try (final Connection connection = db.getTestDatabase().getConnection();
+        final PreparedStatement statement = connection.prepareStatement("DELETE FROM abusive_host_rules")) {
+
+      statement.execute();
+    }
+
+    // Removed rules are only noticed by full refreshes
+    indexedAbusiveHostRules.refresh(false);
+    assertThat(indexedAbusiveHostRules.getAbusiveHostRulesFor("192.168.1.1")).hasSize(2);
+
+    indexedAbusiveHostRules.refresh(true);
+    assertThat(indexedAbusiveHostRules.getAbusiveHostRulesFor("192.168.1.1")).isEmpty();
+  }
+
+  private static String randomNetwork(final Random random) {
+    switch (random.nextInt(3)) {
+      case 0:
+        return randomIpv4Address(random) + "/" + (8 + random.nextInt(25));
+
+      case 1:
+        return randomIpv6Address(random) + "/" + (32 + random.nextInt(97));
+
+      default:
+        return "::ffff:" + randomIpv4Address(random) + "/" + (96 + random.nextInt(33));
+    }
+  }
+
+  private static String randomHost(final Random random) {
+    switch (random.nextInt(3)) {
+      case 0:
+        return randomIpv4Address(random);
+
+      case 1:
+        return randomIpv6Address(random);
+
+      default:
+        return "::ffff:" + randomIpv4Address(random);
+    }
+  }
+
+  // Addresses are drawn from small ranges so that randomly-generated hosts are likely to fall into some of the
+  // randomly-generated networks
+  private static String randomIpv4Address(final Random random) {
+    return "10." + random.nextInt(4) + "." + random.nextInt(4) + "." + random.nextInt(256);
+  }
+
+  private static String randomIpv6Address(final Random random) {
+    return "2001:db8:" + Integer.toHexString(random.nextInt(4)) + "::" + Integer.toHexString(random.nextInt(0x10000));
+  }
+}
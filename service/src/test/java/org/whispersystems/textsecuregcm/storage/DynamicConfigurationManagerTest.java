@@ -1,9 +1,19 @@
 package org.whispersystems.textsecuregcm.storage;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -39,4 +49,97 @@ public class DynamicConfigurationManagerTest {
 
     assertThat(dynamicConfigurationManager.getConfiguration()).isNotNull();
   }
+
+  @Test
+  public void testPollAndListeners() {
+    final ScheduledExecutorService pollExecutor = mock(ScheduledExecutorService.class);
+    dynamicConfigurationManager =
+        new DynamicConfigurationManager<>(appConfig, "foo", "bar", "baz", "poof", DynamicConfiguration.class, pollExecutor);
+
+    when(appConfig.getConfiguration(any(GetConfigurationRequest.class)))
+        .thenReturn(GetConfigurationResponse.builder()
+            .content(SdkBytes.fromByteArray("test: true".getBytes())).configurationVersion("1").build())
+        .thenReturn(GetConfigurationResponse.builder()
+            .content(SdkBytes.fromByteArray("test: true".getBytes())).configurationVersion("1").build())
+        .thenReturn(GetConfigurationResponse.builder()
+            .content(SdkBytes.fromByteArray("test: false".getBytes())).configurationVersion("2").build());
+
+    dynamicConfigurationManager.start();
+
+    verify(pollExecutor).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+
+    final DynamicConfigurationManager.Snapshot<DynamicConfiguration> initialSnapshot =
+        dynamicConfigurationManager.getSnapshot();
+
+    assertThat(initialSnapshot.getVersion()).isEqualTo("1");
+    assertThat(initialSnapshot.getGeneration()).isEqualTo(1);
+
+    final List<DynamicConfigurationManager.Snapshot<DynamicConfiguration>> publishedSnapshots = new ArrayList<>();
+    dynamicConfigurationManager.addChangeListener(publishedSnapshots::add);
+
+    // Listeners registered after the initial configuration has loaded should hear about it immediately
+    assertThat(publishedSnapshots).containsExactly(initialSnapshot);
+
+    // No change
+    dynamicConfigurationManager.poll();
+
+    assertThat(dynamicConfigurationManager.getSnapshot()).isSameAs(initialSnapshot);
+    assertThat(publishedSnapshots).hasSize(1);
+
+    dynamicConfigurationManager.poll();
+
+    final DynamicConfigurationManager.Snapshot<DynamicConfiguration> updatedSnapshot =
+        dynamicConfigurationManager.getSnapshot();
+
+    assertThat(updatedSnapshot.getVersion()).isEqualTo("2");
+    assertThat(updatedSnapshot.getGeneration()).isEqualTo(2);
+    assertThat(updatedSnapshot.getConfiguration()).isNotSameAs(initialSnapshot.getConfiguration());
+    assertThat(publishedSnapshots).containsExactly(initialSnapshot, updatedSnapshot);
+
+    // Each poll, successful or not, schedules the next one
+    verify(pollExecutor, times(3)).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testListenerRegisteredBeforeStart() {
+    final ScheduledExecutorService pollExecutor = mock(ScheduledExecutorService.class);
+    dynamicConfigurationManager =
+        new DynamicConfigurationManager<>(appConfig, "foo", "bar", "baz", "poof", DynamicConfiguration.class, pollExecutor);
+
+    when(appConfig.getConfiguration(any(GetConfigurationRequest.class)))
+        .thenReturn(GetConfigurationResponse.builder()
+            .content(SdkBytes.fromByteArray("test: true".getBytes())).configurationVersion("1").build());
+
+    final List<Long> publishedGenerations = new ArrayList<>();
+    dynamicConfigurationManager.addChangeListener(snapshot -> publishedGenerations.add(snapshot.getGeneration()));
+
+    assertThat(publishedGenerations).isEmpty();
+
+    dynamicConfigurationManager.start();
+
+    assertThat(publishedGenerations).containsExactly(1L);
+  }
+
+  @Test
+  public void testFailingListener() {
+    final ScheduledExecutorService pollExecutor = mock(ScheduledExecutorService.class);
+    dynamicConfigurationManager =
+        new DynamicConfigurationManager<>(appConfig, "foo", "bar", "baz", "poof", DynamicConfiguration.class, pollExecutor);
+
+    when(appConfig.getConfiguration(any(GetConfigurationRequest.class)))
+        .thenReturn(GetConfigurationResponse.builder()
+            .content(SdkBytes.fromByteArray("test: true".getBytes())).configurationVersion("1").build());
+
+    final List<Long> publishedGenerations = new ArrayList<>();
+
+    dynamicConfigurationManager.addChangeListener(snapshot -> {
+      throw new RuntimeException("OH NO");
+    });
+    dynamicConfigurationManager.addChangeListener(snapshot -> publishedGenerations.add(snapshot.getGeneration()));
+
+    // One listener's failure shouldn't keep others from hearing about new configurations
+    dynamicConfigurationManager.start();
+
+    assertThat(publishedGenerations).containsExactly(1L);
+  }
 }
@@ -7,15 +7,26 @@ package org.whispersystems.textsecuregcm.storage;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.ClassRule;
 import org.junit.Test;
 import org.whispersystems.textsecuregcm.entities.PreKey;
+import org.whispersystems.textsecuregcm.util.AttributeValues;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
 
 public class KeysTest {
 
@@ -29,7 +40,8 @@ public class KeysTest {
 
     @Before
     public void setup() {
-        keys = new Keys(dynamoDbRule.getDynamoDbClient(), KeysDynamoDbRule.TABLE_NAME);
+        keys = new Keys(dynamoDbRule.getDynamoDbClient(), dynamoDbRule.getDynamoDbAsyncClient(),
+            KeysDynamoDbRule.TABLE_NAME);
     }
 
     @Test
@@ -58,10 +70,91 @@ public class KeysTest {
         assertEquals(Optional.empty(), keys.take(ACCOUNT_UUID, DEVICE_ID));
 
         final PreKey preKey = new PreKey(1, "public-key");
+        final PreKey differentPreKey = new PreKey(2, "different-pre-key");
 
-        keys.store(ACCOUNT_UUID, DEVICE_ID, List.of(preKey, new PreKey(2, "different-pre-key")));
-        assertEquals(Optional.of(preKey), keys.take(ACCOUNT_UUID, DEVICE_ID));
+        keys.store(ACCOUNT_UUID, DEVICE_ID, List.of(preKey, differentPreKey));
+
+        final Optional<PreKey> firstTakenKey = keys.take(ACCOUNT_UUID, DEVICE_ID);
+        assertTrue(firstTakenKey.isPresent());
+        assertTrue(Set.of(preKey, differentPreKey).contains(firstTakenKey.get()));
         assertEquals(1, keys.getCount(ACCOUNT_UUID, DEVICE_ID));
+
+        final Optional<PreKey> secondTakenKey = keys.take(ACCOUNT_UUID, DEVICE_ID);
+        assertTrue(secondTakenKey.isPresent());
+        assertEquals(Set.of(preKey, differentPreKey), Set.of(firstTakenKey.get(), secondTakenKey.get()));
+        assertEquals(Optional.empty(), keys.take(ACCOUNT_UUID, DEVICE_ID));
+    }
+
+    @Test
+    public void testTakeForDevices() {
+        final UUID accountUuid = UUID.randomUUID();
+
+        final PreKey firstDeviceKey = new PreKey(1, "first-device-key");
+        final PreKey anotherFirstDeviceKey = new PreKey(3, "another-first-device-key");
+        final PreKey secondDeviceKey = new PreKey(2, "second-device-key");
+
+        keys.store(accountUuid, DEVICE_ID, List.of(firstDeviceKey, anotherFirstDeviceKey));
+        keys.store(accountUuid, DEVICE_ID + 1, List.of(secondDeviceKey));
+
+        final Map<Long, PreKey> firstTakenKeys =
+            keys.takeForDevices(accountUuid, List.of(DEVICE_ID, DEVICE_ID + 1, DEVICE_ID + 2));
+
+        assertEquals(Set.of(DEVICE_ID, DEVICE_ID + 1), firstTakenKeys.keySet());
+        assertEquals(secondDeviceKey, firstTakenKeys.get(DEVICE_ID + 1));
+
+        assertEquals(1, keys.getCount(accountUuid, DEVICE_ID));
+        assertEquals(0, keys.getCount(accountUuid, DEVICE_ID + 1));
+
+        final Map<Long, PreKey> secondTakenKeys = keys.takeForDevices(accountUuid, List.of(DEVICE_ID, DEVICE_ID + 1));
+
+        assertEquals(Set.of(DEVICE_ID), secondTakenKeys.keySet());
+        assertEquals(Set.of(firstDeviceKey, anotherFirstDeviceKey),
+            Set.of(firstTakenKeys.get(DEVICE_ID), secondTakenKeys.get(DEVICE_ID)));
+
+        assertEquals(Collections.emptyMap(), keys.takeForDevices(accountUuid, List.of(DEVICE_ID, DEVICE_ID + 1)));
+    }
+
+    @Test
+    public void testTakeConcurrent() throws InterruptedException {
+        final UUID accountUuid = UUID.randomUUID();
+        final int keyCount = Keys.TAKE_CANDIDATE_PAGE_SIZE * 4;
+        final int takerCount = Keys.TAKE_CANDIDATE_PAGE_SIZE;
+
+        final List<PreKey> preKeys = new ArrayList<>(keyCount);
+
+        for (int i = 0; i < keyCount; i++) {
+            preKeys.add(new PreKey(i, "public-key-" + i));
+        }
+
+        keys.store(accountUuid, DEVICE_ID, preKeys);
+
+        // Each taker alternates between the synchronous and asynchronous paths until no keys remain; every key should
+        // be handed out exactly once even though takers are all contending for the same device.
+        final List<PreKey> takenKeys = Collections.synchronizedList(new ArrayList<>());
+        final ExecutorService executorService = Executors.newFixedThreadPool(takerCount);
+
+        for (int i = 0; i < takerCount; i++) {
+            final boolean useAsync = i % 2 == 0;
+
+            executorService.submit(() -> {
+                Optional<PreKey> maybePreKey;
+
+                do {
+                    maybePreKey = useAsync
+                        ? Optional.ofNullable(keys.takeForDevices(accountUuid, List.of(DEVICE_ID)).get(DEVICE_ID))
+                        : keys.take(accountUuid, DEVICE_ID);
+
+                    maybePreKey.ifPresent(takenKeys::add);
+                } while (maybePreKey.isPresent());
+            });
+        }
+
+        executorService.shutdown();
+        assertTrue(executorService.awaitTermination(1, TimeUnit.MINUTES));
+
+        assertEquals(keyCount, takenKeys.size());
+        assertEquals(new HashSet<>(preKeys), new HashSet<>(takenKeys));
+        assertEquals(0, keys.getCount(accountUuid, DEVICE_ID));
     }
 
     @Test
@@ -72,6 +165,73 @@ public class KeysTest {
         assertEquals(1, keys.getCount(ACCOUNT_UUID, DEVICE_ID));
     }
 
+    @Test
+    public void testGetCountTracksTakes() {
+        final UUID accountUuid = UUID.randomUUID();
+
+        keys.store(accountUuid, DEVICE_ID, List.of(new PreKey(1, "public-key"), new PreKey(2, "different-public-key"),
+            new PreKey(3, "third-public-key")));
+
+        assertEquals(3, keys.getCount(accountUuid, DEVICE_ID));
+
+        keys.take(accountUuid, DEVICE_ID);
+        assertEquals(2, keys.getCount(accountUuid, DEVICE_ID));
+
+        keys.takeForDevices(accountUuid, List.of(DEVICE_ID));
+        assertEquals(1, keys.getCount(accountUuid, DEVICE_ID));
+
+        keys.take(accountUuid, DEVICE_ID);
+        keys.take(accountUuid, DEVICE_ID);
+        assertEquals(0, keys.getCount(accountUuid, DEVICE_ID));
+    }
+
+    @Test
+    public void testGetCountWithoutCountItem() {
+        final UUID accountUuid = UUID.randomUUID();
+
+        keys.store(accountUuid, DEVICE_ID, List.of(new PreKey(1, "public-key"), new PreKey(2, "different-public-key")));
+
+        dynamoDbRule.getDynamoDbClient().deleteItem(DeleteItemRequest.builder()
+            .tableName(KeysDynamoDbRule.TABLE_NAME)
+            .key(Map.of(
+                Keys.KEY_ACCOUNT_UUID, AttributeValues.fromUUID(accountUuid),
+                Keys.KEY_DEVICE_ID_KEY_ID, Keys.getCountSortKey(DEVICE_ID)))
+            .build());
+
+        // Taking a key without a count item shouldn't create a (wrong) count item
+        keys.take(accountUuid, DEVICE_ID);
+
+        assertEquals(1, keys.getCount(accountUuid, DEVICE_ID));
+
+        keys.take(accountUuid, DEVICE_ID);
+        assertEquals(0, keys.getCount(accountUuid, DEVICE_ID));
+    }
+
+    @Test
+    public void testAppend() {
+        final UUID accountUuid = UUID.randomUUID();
+
+        keys.store(accountUuid, DEVICE_ID, List.of(new PreKey(1, "public-key")));
+        keys.append(accountUuid, DEVICE_ID, List.of(new PreKey(2, "different-public-key"), new PreKey(3, "third-public-key")));
+
+        assertEquals(3, keys.getCount(accountUuid, DEVICE_ID));
+
+        keys.append(accountUuid, DEVICE_ID, List.of(new PreKey(3, "replacement-third-public-key"), new PreKey(4, "fourth-public-key")));
+        assertEquals("Appending a key with an existing ID should replace the existing key",
+            4, keys.getCount(accountUuid, DEVICE_ID));
+
+        final Set<PreKey> takenKeys = new HashSet<>();
+
+        for (int i = 0; i < 4; i++) {
+            keys.take(accountUuid, DEVICE_ID).ifPresent(takenKeys::add);
+        }
+
+        assertEquals(Set.of(new PreKey(1, "public-key"), new PreKey(2, "different-public-key"),
+            new PreKey(3, "replacement-third-public-key"), new PreKey(4, "fourth-public-key")), takenKeys);
+
+        assertEquals(0, keys.getCount(accountUuid, DEVICE_ID));
+    }
+
     @Test
     public void testDeleteByAccount() {
         keys.store(ACCOUNT_UUID, DEVICE_ID, List.of(new PreKey(1, "public-key"), new PreKey(2, "different-public-key")));
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.util.Base64;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.Executors;
 import javax.ws.rs.core.Response;
 import org.apache.commons.lang3.StringUtils;
 import org.glassfish.jersey.test.grizzly.GrizzlyWebTestContainerFactory;
@@ -76,7 +77,7 @@ class CertificateControllerTest {
           ImmutableSet.of(AuthenticatedAccount.class, DisabledPermittedAuthenticatedAccount.class)))
       .setMapper(SystemMapper.getMapper())
       .setTestContainerFactory(new GrizzlyWebTestContainerFactory())
-      .addResource(new CertificateController(certificateGenerator, serverZkAuthOperations))
+      .addResource(new CertificateController(certificateGenerator, serverZkAuthOperations, Executors.newFixedThreadPool(4)))
       .build();
 
   @Test
@@ -262,6 +263,41 @@ class CertificateControllerTest {
     }
   }
 
+  @Test
+  void testGetCachedAuthCredentials() {
+    final UUID phoneNumberIdentifier = UUID.randomUUID();
+    when(AuthHelper.VALID_ACCOUNT.getPhoneNumberIdentifier()).thenReturn(phoneNumberIdentifier);
+
+    final GroupCredentials firstCredentials = getAuthCredentials(Util.currentDaysSinceEpoch(), Util.currentDaysSinceEpoch() + 3);
+    final GroupCredentials secondCredentials = getAuthCredentials(Util.currentDaysSinceEpoch() + 2, Util.currentDaysSinceEpoch() + 7);
+
+    assertThat(firstCredentials.getCredentials().size()).isEqualTo(4);
+    assertThat(secondCredentials.getCredentials().size()).isEqualTo(6);
+
+    // Issuance is randomized, so identical credentials for overlapping days must have come from the cache
+    for (int i = 0; i < 2; i++) {
+      assertArrayEquals(firstCredentials.getCredentials().get(i + 2).getCredential(),
+          secondCredentials.getCredentials().get(i).getCredential());
+    }
+
+    final ClientZkAuthOperations clientZkAuthOperations = new ClientZkAuthOperations(serverSecretParams.getPublicParams());
+
+    for (final GroupCredentials.GroupCredential credential : secondCredentials.getCredentials()) {
+      assertThatCode(() -> clientZkAuthOperations.receiveAuthCredential(phoneNumberIdentifier,
+          credential.getRedemptionTime(), new AuthCredentialResponse(credential.getCredential())))
+          .doesNotThrowAnyException();
+    }
+  }
+
+  private GroupCredentials getAuthCredentials(final int startRedemptionTime, final int endRedemptionTime) {
+    return resources.getJerseyTest()
+        .target("/v1/certificate/group/" + startRedemptionTime + "/" + endRedemptionTime)
+        .queryParam("identity", "pni")
+        .request()
+        .header("Authorization", AuthHelper.getAuthHeader(AuthHelper.VALID_UUID, AuthHelper.VALID_PASSWORD))
+        .get(GroupCredentials.class);
+  }
+
   @Test
   void testTooManyDaysOut() {
     Response response = resources.getJerseyTest()
@@ -8,6 +8,7 @@ package org.whispersystems.textsecuregcm.tests.controllers;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
@@ -18,18 +19,23 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.ImmutableSet;
 import io.dropwizard.auth.PolymorphicAuthValueFactoryProvider;
 import io.dropwizard.testing.junit5.DropwizardExtensionsSupport;
 import io.dropwizard.testing.junit5.ResourceExtension;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.time.Duration;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -47,6 +53,8 @@ import org.whispersystems.textsecuregcm.auth.OptionalAccess;
 import org.whispersystems.textsecuregcm.controllers.KeysController;
 import org.whispersystems.textsecuregcm.controllers.RateLimitExceededException;
 import org.whispersystems.textsecuregcm.entities.PreKey;
+import org.whispersystems.textsecuregcm.entities.PreKeyBatchRequest;
+import org.whispersystems.textsecuregcm.entities.PreKeyBatchResponse;
 import org.whispersystems.textsecuregcm.entities.PreKeyCount;
 import org.whispersystems.textsecuregcm.entities.PreKeyResponse;
 import org.whispersystems.textsecuregcm.entities.PreKeyState;
@@ -376,10 +384,8 @@ class KeysControllerTest {
 
   @Test
   void validMultiRequestTestV2() {
-    when(KEYS.take(EXISTS_UUID, 1)).thenReturn(Optional.of(SAMPLE_KEY));
-    when(KEYS.take(EXISTS_UUID, 2)).thenReturn(Optional.of(SAMPLE_KEY2));
-    when(KEYS.take(EXISTS_UUID, 3)).thenReturn(Optional.of(SAMPLE_KEY3));
-    when(KEYS.take(EXISTS_UUID, 4)).thenReturn(Optional.of(SAMPLE_KEY4));
+    when(KEYS.takeForDevices(eq(EXISTS_UUID), any()))
+        .thenReturn(Map.of(1L, SAMPLE_KEY, 2L, SAMPLE_KEY2, 4L, SAMPLE_KEY4));
 
     PreKeyResponse results = resources.getJerseyTest()
                                       .target(String.format("/v2/keys/%s/*", EXISTS_UUID))
@@ -425,10 +431,95 @@ class KeysControllerTest {
     assertThat(signedPreKey).isNull();
     assertThat(deviceId).isEqualTo(4);
 
-    verify(KEYS).take(EXISTS_UUID, 1);
-    verify(KEYS).take(EXISTS_UUID, 2);
-    verify(KEYS).take(EXISTS_UUID, 3);
-    verify(KEYS).take(EXISTS_UUID, 4);
+    // Keys should only be taken for enabled devices
+    verify(KEYS).takeForDevices(eq(EXISTS_UUID), argThat(deviceIds ->
+        deviceIds.size() == 3 && deviceIds.containsAll(List.of(1L, 2L, 4L))));
+    verifyNoMoreInteractions(KEYS);
+  }
+
+  @Test
+  void validBatchRequest() {
+    when(KEYS.takeForDevicesAsync(eq(EXISTS_UUID), any()))
+        .thenReturn(CompletableFuture.completedFuture(Map.of(1L, SAMPLE_KEY, 2L, SAMPLE_KEY2)));
+    when(KEYS.takeForDevicesAsync(eq(EXISTS_PNI), any()))
+        .thenReturn(CompletableFuture.completedFuture(Map.of(1L, SAMPLE_KEY_PNI)));
+
+    final PreKeyBatchRequest request = new PreKeyBatchRequest(List.of(
+        new PreKeyBatchRequest.Target(EXISTS_UUID, "1"),
+        new PreKeyBatchRequest.Target(EXISTS_UUID, "2"),
+        new PreKeyBatchRequest.Target(EXISTS_PNI, "1"),
+        new PreKeyBatchRequest.Target(NOT_EXISTS_UUID, "*")));
+
+    final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    Metrics.addRegistry(meterRegistry);
+
+    final PreKeyBatchResponse response;
+
+    try {
+      response = resources.getJerseyTest()
+          .target("/v2/keys/batch")
+          .request()
+          .header("Authorization", AuthHelper.getAuthHeader(AuthHelper.VALID_UUID, AuthHelper.VALID_PASSWORD))
+          .post(Entity.entity(request, MediaType.APPLICATION_JSON_TYPE), PreKeyBatchResponse.class);
+    } finally {
+      Metrics.removeRegistry(meterRegistry);
+    }
+
+    // Every target that resolved to an account counts as a pre-key request, just like a single-target request
+    assertThat(meterRegistry.get(MetricRegistry.name(KeysController.class, "preKeyGet"))
+        .tag("sourceCountry", "1")
+        .tag("international", "false")
+        .counter()
+        .count()).isEqualTo(3);
+
+    assertThat(response.getKeys()).containsOnlyKeys(EXISTS_UUID, EXISTS_PNI);
+
+    final PreKeyResponse aciResponse = response.getKeys().get(EXISTS_UUID);
+    assertThat(aciResponse.getIdentityKey()).isEqualTo(existsAccount.getIdentityKey());
+    assertThat(aciResponse.getDevicesCount()).isEqualTo(2);
+    assertThat(aciResponse.getDevice(1).getPreKey()).isEqualTo(SAMPLE_KEY);
+    assertThat(aciResponse.getDevice(1).getSignedPreKey()).isEqualTo(SAMPLE_SIGNED_KEY);
+    assertThat(aciResponse.getDevice(2).getPreKey()).isEqualTo(SAMPLE_KEY2);
+    assertThat(aciResponse.getDevice(2).getSignedPreKey()).isEqualTo(SAMPLE_SIGNED_KEY2);
+
+    final PreKeyResponse pniResponse = response.getKeys().get(EXISTS_PNI);
+    assertThat(pniResponse.getIdentityKey()).isEqualTo(existsAccount.getPhoneNumberIdentityKey());
+    assertThat(pniResponse.getDevicesCount()).isEqualTo(1);
+    assertThat(pniResponse.getDevice(1).getPreKey()).isEqualTo(SAMPLE_KEY_PNI);
+    assertThat(pniResponse.getDevice(1).getSignedPreKey()).isEqualTo(SAMPLE_SIGNED_PNI_KEY);
+
+    verify(KEYS).takeForDevicesAsync(EXISTS_UUID, Set.of(1L, 2L));
+    verify(KEYS).takeForDevicesAsync(EXISTS_PNI, Set.of(1L));
+    verifyNoMoreInteractions(KEYS);
+  }
+
+  @Test
+  void batchRequestUnauthenticated() {
+    final PreKeyBatchRequest request = new PreKeyBatchRequest(List.of(new PreKeyBatchRequest.Target(EXISTS_UUID, "1")));
+
+    final Response response = resources.getJerseyTest()
+        .target("/v2/keys/batch")
+        .request()
+        .header(OptionalAccess.UNIDENTIFIED, AuthHelper.getUnidentifiedAccessHeader("1337".getBytes()))
+        .post(Entity.entity(request, MediaType.APPLICATION_JSON_TYPE));
+
+    assertThat(response.getStatus()).isEqualTo(401);
+    verifyNoMoreInteractions(KEYS);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"abc", "", "99999999999999999999", "1234567890123456789"})
+  void batchRequestInvalidDeviceSelector(final String deviceIdSelector) {
+    final PreKeyBatchRequest request =
+        new PreKeyBatchRequest(List.of(new PreKeyBatchRequest.Target(EXISTS_UUID, deviceIdSelector)));
+
+    final Response response = resources.getJerseyTest()
+        .target("/v2/keys/batch")
+        .request()
+        .header("Authorization", AuthHelper.getAuthHeader(AuthHelper.VALID_UUID, AuthHelper.VALID_PASSWORD))
+        .post(Entity.entity(request, MediaType.APPLICATION_JSON_TYPE));
+
+    assertThat(response.getStatus()).isEqualTo(422);
     verifyNoMoreInteractions(KEYS);
   }
 
@@ -509,6 +600,29 @@ class KeysControllerTest {
     verify(accounts).update(eq(AuthHelper.VALID_ACCOUNT), any());
   }
 
+  @Test
+  void putKeysAppendTestV2() {
+    final SignedPreKey signedPreKey = new SignedPreKey(31338, "foobaz", "myvalidsig");
+    final String       identityKey  = "barbar";
+
+    List<PreKey> preKeys = List.of(new PreKey(31337, "foobar"));
+
+    PreKeyState preKeyState = new PreKeyState(identityKey, signedPreKey, preKeys);
+
+    Response response =
+        resources.getJerseyTest()
+            .target("/v2/keys")
+            .queryParam("append", "true")
+            .request()
+            .header("Authorization", AuthHelper.getAuthHeader(AuthHelper.VALID_UUID, AuthHelper.VALID_PASSWORD))
+            .put(Entity.entity(preKeyState, MediaType.APPLICATION_JSON_TYPE));
+
+    assertThat(response.getStatus()).isEqualTo(204);
+
+    verify(KEYS).append(eq(AuthHelper.VALID_UUID), eq(1L), eq(preKeys));
+    verify(KEYS, never()).store(any(), anyLong(), any());
+  }
+
   @Test
   void putKeysByPhoneNumberIdentifierTestV2() {
     final SignedPreKey signedPreKey = new SignedPreKey(31338, "foobaz", "myvalidsig");
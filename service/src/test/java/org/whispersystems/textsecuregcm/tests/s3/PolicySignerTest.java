@@ -14,6 +14,7 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 
 public class PolicySignerTest {
 
@@ -26,4 +27,22 @@ public class PolicySignerTest {
 
     assertEquals(policySigner.getSignature(zonedDateTime, encodedPolicy), "8afdbf4008c03f22c2cd3cdb72e4afbb1f6a588f3255ac628749a66d7f09699e");
   }
+
+  @Test
+  public void testSignatureAcrossDates() {
+    ZonedDateTime firstDate  = ZonedDateTime.ofInstant(Instant.parse("2015-12-29T00:00:00Z"), ZoneOffset.UTC);
+    ZonedDateTime secondDate = ZonedDateTime.ofInstant(Instant.parse("2015-12-30T00:00:00Z"), ZoneOffset.UTC);
+    PolicySigner  policySigner  = new PolicySigner("wJalrXUtnFEMI/K7MDENG/bPxRfiCYEXAMPLEKEY", "us-east-1");
+
+    String firstSignature  = policySigner.getSignature(firstDate, "policy");
+    String secondSignature = policySigner.getSignature(secondDate, "policy");
+
+    assertNotEquals(firstSignature, secondSignature);
+
+    // Reusing a signer across dates and policies should give the same results as a fresh signer
+    assertEquals(firstSignature, policySigner.getSignature(firstDate, "policy"));
+    assertEquals(secondSignature, new PolicySigner("wJalrXUtnFEMI/K7MDENG/bPxRfiCYEXAMPLEKEY", "us-east-1").getSignature(secondDate, "policy"));
+    assertEquals(new PolicySigner("wJalrXUtnFEMI/K7MDENG/bPxRfiCYEXAMPLEKEY", "us-east-1").getSignature(firstDate, "other policy"),
+                 policySigner.getSignature(firstDate, "other policy"));
+  }
 }
@@ -6,6 +6,7 @@
 package org.whispersystems.textsecuregcm.tests.storage;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.Mockito.mock;
 
 import io.zonky.test.db.postgres.embedded.LiquibasePreparer;
 import io.zonky.test.db.postgres.junit5.EmbeddedPostgresExtension;
@@ -15,6 +16,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 import org.jdbi.v3.core.Jdbi;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -40,7 +42,7 @@ class AbusiveHostRulesTest {
   void setup() {
     this.abusiveHostRules = new AbusiveHostRules(
         new FaultTolerantDatabase("abusive_hosts-test", Jdbi.create(db.getTestDatabase()),
-            new CircuitBreakerConfiguration()));
+            new CircuitBreakerConfiguration()), mock(ScheduledExecutorService.class));
   }
 
   @Test
@@ -7,11 +7,16 @@ package org.whispersystems.textsecuregcm.tests.storage;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
-import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -19,40 +24,85 @@ import static org.mockito.Mockito.when;
 
 import io.lettuce.core.RedisException;
 import io.lettuce.core.cluster.api.sync.RedisAdvancedClusterCommands;
+import io.lettuce.core.cluster.pubsub.StatefulRedisClusterPubSubConnection;
+import io.lettuce.core.cluster.pubsub.api.sync.NodeSelectionPubSubCommands;
+import io.lettuce.core.event.Event;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Consumer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicConfiguration;
+import org.whispersystems.textsecuregcm.configuration.dynamic.DynamicProfilesConfiguration;
+import org.whispersystems.textsecuregcm.redis.FaultTolerantPubSubConnection;
 import org.whispersystems.textsecuregcm.redis.FaultTolerantRedisCluster;
+import org.whispersystems.textsecuregcm.storage.DynamicConfigurationManager;
 import org.whispersystems.textsecuregcm.storage.Profiles;
 import org.whispersystems.textsecuregcm.storage.ProfilesManager;
 import org.whispersystems.textsecuregcm.storage.VersionedProfile;
 import org.whispersystems.textsecuregcm.tests.util.RedisClusterHelper;
+import org.whispersystems.textsecuregcm.util.SystemMapper;
+import reactor.core.publisher.DirectProcessor;
 
 public class ProfilesManagerTest {
 
   private Profiles profiles;
   private RedisAdvancedClusterCommands<String, String> commands;
+  private RedisAdvancedClusterCommands<byte[], byte[]> binaryCommands;
+
+  private DynamicProfilesConfiguration profilesConfiguration;
+  private DynamicConfigurationManager<DynamicConfiguration> dynamicConfigurationManager;
 
   private ProfilesManager profilesManager;
 
+  private static final byte[] VERSION = "someversion".getBytes(StandardCharsets.UTF_8);
+
   @BeforeEach
   void setUp() {
     //noinspection unchecked
     commands = mock(RedisAdvancedClusterCommands.class);
-    final FaultTolerantRedisCluster cacheCluster = RedisClusterHelper.buildMockRedisCluster(commands);
+    //noinspection unchecked
+    binaryCommands = mock(RedisAdvancedClusterCommands.class);
+    final FaultTolerantRedisCluster cacheCluster = RedisClusterHelper.buildMockRedisCluster(commands, binaryCommands);
+
+    //noinspection unchecked
+    when(cacheCluster.createPubSubConnection()).thenReturn(mock(FaultTolerantPubSubConnection.class));
 
     profiles = mock(Profiles.class);
 
-    profilesManager = new ProfilesManager(profiles, cacheCluster);
+    profilesConfiguration = mock(DynamicProfilesConfiguration.class);
+    dynamicConfigurationManager = mockDynamicConfigurationManager(profilesConfiguration);
+
+    profilesManager = new ProfilesManager(profiles, cacheCluster, dynamicConfigurationManager);
   }
 
   @Test
   public void testGetProfileInCache() {
     UUID uuid = UUID.randomUUID();
+    VersionedProfile profile = new VersionedProfile("someversion", "somename", "someavatar", null, "someabout",
+        null, "somecommitment".getBytes());
 
-    when(commands.hget(eq("profiles::" + uuid), eq("someversion"))).thenReturn("{\"version\": \"someversion\", \"name\": \"somename\", \"avatar\": \"someavatar\", \"commitment\":\"" + Base64.getEncoder().encodeToString("somecommitment".getBytes()) + "\"}");
+    final byte[] encodedProfile = encode(profile);
+    when(binaryCommands.hget(aryEq(getCacheKey(uuid)), aryEq(VERSION))).thenReturn(encodedProfile);
+
+    Optional<VersionedProfile> retrieved = profilesManager.get(uuid, "someversion");
+
+    assertTrue(retrieved.isPresent());
+    assertEquals(profile, retrieved.get());
+
+    verify(binaryCommands, times(1)).hget(aryEq(getCacheKey(uuid)), aryEq(VERSION));
+    verifyNoMoreInteractions(binaryCommands);
+    verifyNoMoreInteractions(profiles);
+  }
+
+  @Test
+  public void testGetProfileInCacheJson() {
+    UUID uuid = UUID.randomUUID();
+
+    when(binaryCommands.hget(aryEq(getCacheKey(uuid)), aryEq(VERSION))).thenReturn(("{\"version\": \"someversion\", \"name\": \"somename\", \"avatar\": \"someavatar\", \"commitment\":\"" + Base64.getEncoder().encodeToString("somecommitment".getBytes()) + "\"}").getBytes(StandardCharsets.UTF_8));
 
     Optional<VersionedProfile> profile = profilesManager.get(uuid, "someversion");
 
@@ -61,8 +111,8 @@ public class ProfilesManagerTest {
     assertEquals(profile.get().getAvatar(), "someavatar");
     assertThat(profile.get().getCommitment()).isEqualTo("somecommitment".getBytes());
 
-    verify(commands, times(1)).hget(eq("profiles::" + uuid), eq("someversion"));
-    verifyNoMoreInteractions(commands);
+    verify(binaryCommands, times(1)).hget(aryEq(getCacheKey(uuid)), aryEq(VERSION));
+    verifyNoMoreInteractions(binaryCommands);
     verifyNoMoreInteractions(profiles);
   }
 
@@ -72,7 +122,7 @@ public class ProfilesManagerTest {
     VersionedProfile profile = new VersionedProfile("someversion", "somename", "someavatar", null, null,
         null, "somecommitment".getBytes());
 
-    when(commands.hget(eq("profiles::" + uuid), eq("someversion"))).thenReturn(null);
+    when(binaryCommands.hget(aryEq(getCacheKey(uuid)), aryEq(VERSION))).thenReturn(null);
     when(profiles.get(eq(uuid), eq("someversion"))).thenReturn(Optional.of(profile));
 
     Optional<VersionedProfile> retrieved = profilesManager.get(uuid, "someversion");
@@ -80,9 +130,9 @@ public class ProfilesManagerTest {
     assertTrue(retrieved.isPresent());
     assertSame(retrieved.get(), profile);
 
-    verify(commands, times(1)).hget(eq("profiles::" + uuid), eq("someversion"));
-    verify(commands, times(1)).hset(eq("profiles::" + uuid), eq("someversion"), anyString());
-    verifyNoMoreInteractions(commands);
+    verify(binaryCommands, times(1)).hget(aryEq(getCacheKey(uuid)), aryEq(VERSION));
+    verify(binaryCommands, times(1)).hset(aryEq(getCacheKey(uuid)), aryEq(VERSION), any(byte[].class));
+    verifyNoMoreInteractions(binaryCommands);
 
     verify(profiles, times(1)).get(eq(uuid), eq("someversion"));
     verifyNoMoreInteractions(profiles);
@@ -94,7 +144,7 @@ public class ProfilesManagerTest {
     VersionedProfile profile = new VersionedProfile("someversion", "somename", "someavatar", null, null,
         null, "somecommitment".getBytes());
 
-    when(commands.hget(eq("profiles::" + uuid), eq("someversion"))).thenThrow(new RedisException("Connection lost"));
+    when(binaryCommands.hget(aryEq(getCacheKey(uuid)), aryEq(VERSION))).thenThrow(new RedisException("Connection lost"));
     when(profiles.get(eq(uuid), eq("someversion"))).thenReturn(Optional.of(profile));
 
     Optional<VersionedProfile> retrieved = profilesManager.get(uuid, "someversion");
@@ -102,11 +152,217 @@ public class ProfilesManagerTest {
     assertTrue(retrieved.isPresent());
     assertSame(retrieved.get(), profile);
 
-    verify(commands, times(1)).hget(eq("profiles::" + uuid), eq("someversion"));
-    verify(commands, times(1)).hset(eq("profiles::" + uuid), eq("someversion"), anyString());
-    verifyNoMoreInteractions(commands);
+    verify(binaryCommands, times(1)).hget(aryEq(getCacheKey(uuid)), aryEq(VERSION));
+    verify(binaryCommands, times(1)).hset(aryEq(getCacheKey(uuid)), aryEq(VERSION), any(byte[].class));
+    verifyNoMoreInteractions(binaryCommands);
 
     verify(profiles, times(1)).get(eq(uuid), eq("someversion"));
     verifyNoMoreInteractions(profiles);
   }
+
+  @Test
+  public void testSet() {
+    UUID             uuid    = UUID.randomUUID();
+    VersionedProfile profile = new VersionedProfile("someversion", "somename", "someavatar", "someemoji", "someabout",
+        "somepaymentaddress", "somecommitment".getBytes());
+
+    when(profilesConfiguration.isBinaryCacheEncodingEnabled()).thenReturn(true);
+
+    profilesManager.set(uuid, profile);
+
+    final ArgumentCaptor<byte[]> encodedProfileCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(binaryCommands).hset(aryEq(getCacheKey(uuid)), aryEq(VERSION), encodedProfileCaptor.capture());
+    verify(profiles).set(uuid, profile);
+    verify(commands).publish("profiles::invalidate", uuid.toString());
+
+    // The binary encoding should be more compact than JSON, and should round-trip through the cache
+    assertThat(encodedProfileCaptor.getValue().length).isLessThan(encodeJson(profile).length);
+
+    when(binaryCommands.hget(aryEq(getCacheKey(uuid)), aryEq(VERSION))).thenReturn(encodedProfileCaptor.getValue());
+    assertEquals(Optional.of(profile), profilesManager.get(uuid, "someversion"));
+    verify(profiles, never()).get(any(), any());
+  }
+
+  @Test
+  public void testSetJson() {
+    UUID             uuid    = UUID.randomUUID();
+    VersionedProfile profile = new VersionedProfile("someversion", "somename", "someavatar", "someemoji", "someabout",
+        "somepaymentaddress", "somecommitment".getBytes());
+
+    // Servers that can't read the binary encoding may still be running, so we write JSON unless told otherwise
+    profilesManager.set(uuid, profile);
+
+    final ArgumentCaptor<byte[]> encodedProfileCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(binaryCommands).hset(aryEq(getCacheKey(uuid)), aryEq(VERSION), encodedProfileCaptor.capture());
+    verify(profiles).set(uuid, profile);
+
+    assertThat(encodedProfileCaptor.getValue()).isEqualTo(encodeJson(profile));
+
+    when(binaryCommands.hget(aryEq(getCacheKey(uuid)), aryEq(VERSION))).thenReturn(encodedProfileCaptor.getValue());
+    assertEquals(Optional.of(profile), profilesManager.get(uuid, "someversion"));
+    verify(profiles, never()).get(any(), any());
+  }
+
+  @Test
+  public void testDeleteAll() {
+    UUID uuid = UUID.randomUUID();
+
+    profilesManager.deleteAll(uuid);
+
+    verify(binaryCommands).del(aryEq(getCacheKey(uuid)));
+    verify(profiles).deleteAll(uuid);
+    verify(commands).publish("profiles::invalidate", uuid.toString());
+  }
+
+  @Test
+  public void testNearCache() {
+    UUID             uuid    = UUID.randomUUID();
+    VersionedProfile profile = new VersionedProfile("someversion", "somename", "someavatar", null, null,
+        null, "somecommitment".getBytes());
+
+    final byte[] encodedProfile = encode(profile);
+    when(binaryCommands.hget(aryEq(getCacheKey(uuid)), aryEq(VERSION))).thenReturn(encodedProfile);
+
+    // The near cache isn't used until the manager has subscribed to invalidations
+    profilesManager.get(uuid, "someversion");
+    profilesManager.get(uuid, "someversion");
+    verify(binaryCommands, times(2)).hget(aryEq(getCacheKey(uuid)), aryEq(VERSION));
+
+    profilesManager.start();
+
+    assertEquals(Optional.of(profile), profilesManager.get(uuid, "someversion"));
+    assertEquals(Optional.of(profile), profilesManager.get(uuid, "someversion"));
+    verify(binaryCommands, times(3)).hget(aryEq(getCacheKey(uuid)), aryEq(VERSION));
+
+    // Other versions of the same profile are cached separately
+    assertEquals(Optional.empty(), profilesManager.get(uuid, "otherversion"));
+
+    // An invalidation from another server evicts all versions of the profile
+    profilesManager.message(null, "profiles::invalidate", uuid.toString());
+
+    assertEquals(Optional.of(profile), profilesManager.get(uuid, "someversion"));
+    verify(binaryCommands, times(4)).hget(aryEq(getCacheKey(uuid)), aryEq(VERSION));
+
+    // Invalid messages are ignored
+    profilesManager.message(null, "profiles::invalidate", "not a uuid");
+
+    profilesManager.stop();
+  }
+
+  @Test
+  public void testNearCacheInvalidatedDuringFetch() {
+    // Deliberately chosen so the two accounts don't share an invalidation stripe
+    final UUID uuid = new UUID(0, 1);
+    final UUID otherUuid = new UUID(0, 2);
+    final VersionedProfile profile = new VersionedProfile("someversion", "somename", "someavatar", null, null,
+        null, "somecommitment".getBytes());
+
+    final byte[] encodedProfile = encode(profile);
+
+    profilesManager.start();
+
+    // An invalidation for some other account shouldn't keep us from near-caching what we fetched
+    when(binaryCommands.hget(aryEq(getCacheKey(uuid)), aryEq(VERSION))).thenAnswer(invocation -> {
+      profilesManager.message(null, "profiles::invalidate", otherUuid.toString());
+      return encodedProfile;
+    });
+
+    assertEquals(Optional.of(profile), profilesManager.get(uuid, "someversion"));
+    assertEquals(Optional.of(profile), profilesManager.get(uuid, "someversion"));
+    verify(binaryCommands, times(1)).hget(aryEq(getCacheKey(uuid)), aryEq(VERSION));
+
+    profilesManager.message(null, "profiles::invalidate", uuid.toString());
+
+    // …but an invalidation for the same account means what we fetched may already be stale
+    when(binaryCommands.hget(aryEq(getCacheKey(uuid)), aryEq(VERSION))).thenAnswer(invocation -> {
+      profilesManager.message(null, "profiles::invalidate", uuid.toString());
+      return encodedProfile;
+    });
+
+    assertEquals(Optional.of(profile), profilesManager.get(uuid, "someversion"));
+    assertEquals(Optional.of(profile), profilesManager.get(uuid, "someversion"));
+    verify(binaryCommands, times(3)).hget(aryEq(getCacheKey(uuid)), aryEq(VERSION));
+
+    profilesManager.stop();
+  }
+
+  @Test
+  public void testStopDisposesTopologySubscription() {
+    final DirectProcessor<Event> events = DirectProcessor.create();
+
+    //noinspection unchecked
+    final StatefulRedisClusterPubSubConnection<String, String> connection =
+        mock(StatefulRedisClusterPubSubConnection.class, RETURNS_DEEP_STUBS);
+
+    when(connection.getResources().eventBus().get()).thenReturn(events);
+    //noinspection unchecked
+    when(connection.sync().nodes(any()).commands()).thenReturn(mock(NodeSelectionPubSubCommands.class));
+    //noinspection unchecked
+    when(connection.sync().upstream().commands()).thenReturn(mock(NodeSelectionPubSubCommands.class));
+
+    //noinspection unchecked
+    final FaultTolerantPubSubConnection<String, String> pubSubConnection = mock(FaultTolerantPubSubConnection.class);
+
+    doAnswer(invocation -> {
+      final Consumer<StatefulRedisClusterPubSubConnection<String, String>> consumer = invocation.getArgument(0);
+      consumer.accept(connection);
+      return null;
+    }).when(pubSubConnection).usePubSubConnection(any());
+
+    final FaultTolerantRedisCluster cacheCluster = RedisClusterHelper.buildMockRedisCluster(commands, binaryCommands);
+    when(cacheCluster.createPubSubConnection()).thenReturn(pubSubConnection);
+
+    final ProfilesManager manager = new ProfilesManager(profiles, cacheCluster, dynamicConfigurationManager);
+
+    manager.start();
+    assertTrue(events.hasDownstreams());
+
+    manager.stop();
+    assertFalse(events.hasDownstreams());
+  }
+
+  private static byte[] getCacheKey(final UUID uuid) {
+    return ("profiles::" + uuid).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private byte[] encode(final VersionedProfile profile) {
+    final ArgumentCaptor<byte[]> encodedProfileCaptor = ArgumentCaptor.forClass(byte[].class);
+
+    // Use a separate manager so we don't disturb interactions with the manager under test
+    //noinspection unchecked
+    final RedisAdvancedClusterCommands<byte[], byte[]> encodingCommands = mock(RedisAdvancedClusterCommands.class);
+    final DynamicProfilesConfiguration binaryEncodingConfiguration = mock(DynamicProfilesConfiguration.class);
+    when(binaryEncodingConfiguration.isBinaryCacheEncodingEnabled()).thenReturn(true);
+
+    //noinspection unchecked
+    new ProfilesManager(mock(Profiles.class),
+        RedisClusterHelper.buildMockRedisCluster(mock(RedisAdvancedClusterCommands.class), encodingCommands),
+        mockDynamicConfigurationManager(binaryEncodingConfiguration))
+        .set(UUID.randomUUID(), profile);
+
+    verify(encodingCommands).hset(any(byte[].class), any(byte[].class), encodedProfileCaptor.capture());
+    return encodedProfileCaptor.getValue();
+  }
+
+  private static DynamicConfigurationManager<DynamicConfiguration> mockDynamicConfigurationManager(
+      final DynamicProfilesConfiguration profilesConfiguration) {
+
+    final DynamicConfiguration dynamicConfiguration = mock(DynamicConfiguration.class);
+    when(dynamicConfiguration.getProfilesConfiguration()).thenReturn(profilesConfiguration);
+
+    //noinspection unchecked
+    final DynamicConfigurationManager<DynamicConfiguration> dynamicConfigurationManager =
+        mock(DynamicConfigurationManager.class);
+    when(dynamicConfigurationManager.getConfiguration()).thenReturn(dynamicConfiguration);
+
+    return dynamicConfigurationManager;
+  }
+
+  private static byte[] encodeJson(final VersionedProfile profile) {
+    try {
+      return SystemMapper.getMapper().writeValueAsBytes(profile);
+    } catch (final Exception e) {
+      throw new AssertionError(e);
+    }
+  }
 }
@@ -8,6 +8,7 @@ package org.whispersystems.textsecuregcm.tests.util;
 import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
 import io.lettuce.core.cluster.api.sync.RedisAdvancedClusterCommands;
 import org.whispersystems.textsecuregcm.redis.FaultTolerantRedisCluster;
+import org.whispersystems.textsecuregcm.redis.RedisConnectionLane;
 
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -69,6 +70,24 @@ public class RedisClusterHelper {
             return null;
         }).when(cluster).useBinaryCluster(any(Consumer.class));
         
+        when(cluster.withCluster(any(RedisConnectionLane.class), any(Function.class))).thenAnswer(invocation -> {
+            return invocation.getArgument(1, Function.class).apply(stringConnection);
+        });
+
+        doAnswer(invocation -> {
+            invocation.getArgument(1, Consumer.class).accept(stringConnection);
+            return null;
+        }).when(cluster).useCluster(any(RedisConnectionLane.class), any(Consumer.class));
+
+        when(cluster.withBinaryCluster(any(RedisConnectionLane.class), any(Function.class))).thenAnswer(invocation -> {
+            return invocation.getArgument(1, Function.class).apply(binaryConnection);
+        });
+
+        doAnswer(invocation -> {
+            invocation.getArgument(1, Consumer.class).accept(binaryConnection);
+            return null;
+        }).when(cluster).useBinaryCluster(any(RedisConnectionLane.class), any(Consumer.class));
+
         return cluster;
     }
 }
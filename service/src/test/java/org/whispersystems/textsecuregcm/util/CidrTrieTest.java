@@ -0,0 +1,68 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.whispersystems.textsecuregcm.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class CidrTrieTest {
+
+  @Test
+  void testGet() {
+    final CidrTrie<String> trie = new CidrTrie<>();
+
+    put(trie, "10.0.0.0/8");
+    put(trie, "10.1.0.0/16");
+    put(trie, "10.1.2.3");
+    put(trie, "0.0.0.0/0");
+    put(trie, "2001:db8::/32");
+    put(trie, "::ffff:10.1.0.0/112");
+
+    assertEquals(List.of("0.0.0.0/0", "10.0.0.0/8", "10.1.0.0/16", "10.1.2.3"), get(trie, "10.1.2.3"));
+    assertEquals(List.of("0.0.0.0/0", "10.0.0.0/8", "10.1.0.0/16"), get(trie, "10.1.2.4"));
+    assertEquals(List.of("0.0.0.0/0"), get(trie, "192.168.1.1"));
+    assertEquals(List.of("2001:db8::/32"), get(trie, "2001:db8:1::1"));
+    assertEquals(List.of("::ffff:10.1.0.0/112"), get(trie, "::ffff:10.1.2.3"));
+    assertTrue(get(trie, "2001:db9::1").isEmpty());
+  }
+
+  @Test
+  void testParseCidr() {
+    final Pair<byte[], Integer> ipv4 = CidrTrie.parseCidr("192.168.1.0/24");
+    assertArrayEquals(new byte[]{(byte) 192, (byte) 168, 1, 0}, ipv4.first());
+    assertEquals(24, ipv4.second());
+
+    assertEquals(32, CidrTrie.parseCidr("192.168.1.1").second());
+    assertEquals(128, CidrTrie.parseCidr("2001:db8::1").second());
+
+    final Pair<byte[], Integer> mapped = CidrTrie.parseCidr("::ffff:192.168.1.1");
+    assertEquals(16, mapped.first().length);
+    assertEquals(128, mapped.second());
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"", "example.com", "192.168.1.1/33", "192.168.1.1/-1", "192.168.1.1/", "2001:db8::/129",
+      "fe80::1%eth0"})
+  void testParseCidrInvalid(final String cidr) {
+    assertThrows(IllegalArgumentException.class, () -> CidrTrie.parseCidr(cidr));
+  }
+
+  private static void put(final CidrTrie<String> trie, final String cidr) {
+    final Pair<byte[], Integer> addressAndPrefixLength = CidrTrie.parseCidr(cidr);
+    trie.put(addressAndPrefixLength.first(), addressAndPrefixLength.second(), cidr);
+  }
+
+  private static List<String> get(final CidrTrie<String> trie, final String address) {
+    return trie.get(CidrTrie.parseCidr(address).first());
+  }
+}
@@ -66,6 +66,79 @@ public class UserAgentUtilTest {
         };
     }
 
+    @Test
+    @Parameters(method = "argumentsForTestParseStandardUserAgentStringMatchesPattern")
+    public void testParseStandardUserAgentStringMatchesPattern(final String userAgentString) {
+        UserAgent expected;
+        Class<? extends Exception> expectedException = null;
+
+        try {
+            expected = UserAgentUtil.parseStandardUserAgentStringWithPattern(userAgentString);
+        } catch (final Exception e) {
+            expected = null;
+            expectedException = e.getClass();
+        }
+
+        if (expectedException != null) {
+            assertThrows(expectedException, () -> UserAgentUtil.parseStandardUserAgentString(userAgentString));
+        } else {
+            assertEquals(expected, UserAgentUtil.parseStandardUserAgentString(userAgentString));
+        }
+    }
+
+    private static Object argumentsForTestParseStandardUserAgentStringMatchesPattern() {
+        return new Object[] {
+                "Signal-Android/4.68.3 Android/25",
+                "signal-android/4.68.3 Android/25",
+                "SIGNAL-IOS/3.9.0",
+                "Signal-iOS/3.9.0 (iPhone; iOS 12.2; Scale/3.00)",
+                "Signal-Desktop/1.32.0-beta.3",
+                "Signal-Desktop/1.2.3 ",
+                "Signal-Desktop/1.2.3  ",
+                "Signal-Desktop/1.2.3  Linux ",
+                "Signal-Desktop/ Linux",
+                "Signal-Desktop/",
+                "Signal-Desktop",
+                "Signal-Desktop 1.2.3",
+                "Signal-Windows/1.2.3",
+                "Signal-\u0131OS/3.9.0",
+                "Signal-Android/4.68.3\nAndroid/25",
+                "Signal-Android/4.68.3 Android/25\n",
+                "Signal-Android/4.6-8.3.unreasonableversionstring-17",
+                "Signal-",
+                "Signal",
+                "This is obviously not a reasonable User-Agent string."
+        };
+    }
+
+    @Test
+    public void testParseUserAgentStringCached() throws UnrecognizedUserAgentException {
+        UserAgentUtil.clearCache();
+
+        final String userAgentString = "Signal-Android/4.68.3 Android/25";
+        final UserAgent expectedUserAgent = new UserAgent(ClientPlatform.ANDROID, new Semver("4.68.3"), "Android/25");
+
+        assertEquals(expectedUserAgent, UserAgentUtil.parseUserAgentString(userAgentString));
+        assertEquals(expectedUserAgent, UserAgentUtil.parseUserAgentString(userAgentString));
+
+        final String bogusUserAgentString = "This is obviously not a reasonable User-Agent string.";
+
+        assertThrows(UnrecognizedUserAgentException.class, () -> UserAgentUtil.parseUserAgentString(bogusUserAgentString));
+        assertThrows(UnrecognizedUserAgentException.class, () -> UserAgentUtil.parseUserAgentString(bogusUserAgentString));
+    }
+
+    @Test
+    public void testParseLongUserAgentStringNotCached() throws UnrecognizedUserAgentException {
+        UserAgentUtil.clearCache();
+
+        final String userAgentString = "Signal-Android/4.68.3 " + "A".repeat(UserAgentUtil.MAX_CACHED_USER_AGENT_LENGTH);
+        final UserAgent expectedUserAgent = new UserAgent(ClientPlatform.ANDROID, new Semver("4.68.3"),
+                "A".repeat(UserAgentUtil.MAX_CACHED_USER_AGENT_LENGTH));
+
+        assertEquals(expectedUserAgent, UserAgentUtil.parseUserAgentString(userAgentString));
+        assertEquals(0, UserAgentUtil.getCacheSize());
+    }
+
     @Test
     @Parameters(method = "argumentsForTestParseLegacyUserAgentString")
     public void testParseLegacyUserAgentString(final String userAgentString, final UserAgent expectedUserAgent) {
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.whispersystems.websocket;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.whispersystems.websocket.messages.WebSocketResponseMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tracks the requests a server has sent over one websocket connection that are still waiting for a response. Entries
+ * live in parallel arrays indexed by open addressing with linear probing, so tracking a request doesn't allocate
+ * anything beyond the caller's future.
+ * <p>
+ * Deadlines are enforced by a single timer shared by all connections, which sweeps the tables that have pending
+ * requests once per tick; a request may therefore outlive its deadline by up to one tick.
+ */
+class PendingRequestTable {
+
+  private static final long EMPTY = -1;
+  private static final int  INITIAL_CAPACITY = 16;
+
+  @VisibleForTesting
+  static final long TICK_MILLIS = 1_000;
+
+  private static final Set<PendingRequestTable> ACTIVE_TABLES = ConcurrentHashMap.newKeySet();
+
+  private static final ScheduledExecutorService TIMEOUT_EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "websocket-request-timeout");
+    thread.setDaemon(true);
+
+    return thread;
+  });
+
+  static {
+    TIMEOUT_EXECUTOR.scheduleAtFixedRate(() -> expireAll(System.nanoTime()), TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  private final long timeoutNanos;
+
+  private long[]                                        ids;
+  private long[]                                        deadlines;
+  private CompletableFuture<WebSocketResponseMessage>[] futures;
+  private int                                           size;
+  private boolean                                       active;
+
+  PendingRequestTable(long timeoutMillis) {
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    allocate(INITIAL_CAPACITY);
+  }
+
+  /**
+   * @param requestId a non-negative request ID that isn't already pending
+   */
+  synchronized void put(long requestId, CompletableFuture<WebSocketResponseMessage> future) {
+    if ((size + 1) * 2 > ids.length) {
+      resize(ids.length * 2);
+    }
+
+    int index = indexFor(requestId);
+
+    while (ids[index] != EMPTY) {
+      index = (index + 1) & (ids.length - 1);
+    }
+
+    ids[index]       = requestId;
+    deadlines[index] = System.nanoTime() + timeoutNanos;
+    futures[index]   = future;
+    size++;
+
+    if (!active) {
+      active = true;
+      ACTIVE_TABLES.add(this);
+    }
+  }
+
+  synchronized CompletableFuture<WebSocketResponseMessage> remove(long requestId) {
+    int index = indexFor(requestId);
+
+    while (ids[index] != EMPTY) {
+      if (ids[index] == requestId) {
+        CompletableFuture<WebSocketResponseMessage> future = futures[index];
+        removeAt(index);
+
+        return future;
+      }
+
+      index = (index + 1) & (ids.length - 1);
+    }
+
+    return null;
+  }
+
+  /**
+   * Removes every pending request; the caller is responsible for completing the returned futures.
+   */
+  synchronized List<CompletableFuture<WebSocketResponseMessage>> removeAll() {
+    List<CompletableFuture<WebSocketResponseMessage>> removed = new ArrayList<>(size);
+
+    for (CompletableFuture<WebSocketResponseMessage> future : futures) {
+      if (future != null) {
+        removed.add(future);
+      }
+    }
+
+    allocate(INITIAL_CAPACITY);
+    deactivate();
+
+    return removed;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  @VisibleForTesting
+  void expire(long nowNanos) {
+    List<CompletableFuture<WebSocketResponseMessage>> expired = removeExpired(nowNanos);
+
+    for (CompletableFuture<WebSocketResponseMessage> future : expired) {
+      future.completeExceptionally(new TimeoutException("No response received"));
+    }
+  }
+
+  @VisibleForTesting
+  synchronized boolean isActive() {
+    return active && ACTIVE_TABLES.contains(this);
+  }
+
+  private synchronized List<CompletableFuture<WebSocketResponseMessage>> removeExpired(long nowNanos) {
+    if (size == 0) {
+      deactivate();
+      return Collections.emptyList();
+    }
+
+    List<Long> expiredIds = null;
+
+    for (int i = 0; i < ids.length; i++) {
+      if (ids[i] != EMPTY && deadlines[i] - nowNanos <= 0) {
+        if (expiredIds == null) {
+          expiredIds = new ArrayList<>();
+        }
+
+        expiredIds.add(ids[i]);
+      }
+    }
+
+    if (expiredIds == null) {
+      return Collections.emptyList();
+    }
+
+    // Removal shifts entries around, so find everything first and remove by ID afterwards
+    List<CompletableFuture<WebSocketResponseMessage>> expired = new ArrayList<>(expiredIds.size());
+
+    for (long requestId : expiredIds) {
+      expired.add(remove(requestId));
+    }
+
+    return expired;
+  }
+
+  private static void expireAll(long nowNanos) {
+    for (PendingRequestTable table : ACTIVE_TABLES) {
+      table.expire(nowNanos);
+    }
+  }
+
+  private void deactivate() {
+    if (active) {
+      active = false;
+      ACTIVE_TABLES.remove(this);
+    }
+  }
+
+  private void removeAt(int index) {
+    int mask = ids.length - 1;
+
+    clear(index);
+    size--;
+
+    // Shift later entries in the same probe run back so lookups never stop early at the new hole
+    int next = (index + 1) & mask;
+
+    while (ids[next] != EMPTY) {
+      int home = indexFor(ids[next]);
+
+      if (((next - home) & mask) >= ((next - index) & mask)) {
+        ids[index]       = ids[next];
+        deadlines[index] = deadlines[next];
+        futures[index]   = futures[next];
+
+        clear(next);
+        index = next;
+      }
+
+      next = (next + 1) & mask;
+    }
+  }
+
+  private void clear(int index) {
+    ids[index]       = EMPTY;
+    deadlines[index] = 0;
+    futures[index]   = null;
+  }
+
+  private void resize(int capacity) {
+    long[]                                        oldIds       = ids;
+    long[]                                        oldDeadlines = deadlines;
+    CompletableFuture<WebSocketResponseMessage>[] oldFutures   = futures;
+
+    allocate(capacity);
+
+    for (int i = 0; i < oldIds.length; i++) {
+      if (oldIds[i] != EMPTY) {
+        int index = indexFor(oldIds[i]);
+
+        while (ids[index] != EMPTY) {
+          index = (index + 1) & (ids.length - 1);
+        }
+
+        ids[index]       = oldIds[i];
+        deadlines[index] = oldDeadlines[i];
+        futures[index]   = oldFutures[i];
+        size++;
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void allocate(int capacity) {
+    ids       = new long[capacity];
+    deadlines = new long[capacity];
+    futures   = new CompletableFuture[capacity];
+    size      = 0;
+
+    Arrays.fill(ids, EMPTY);
+  }
+
+  private int indexFor(long requestId) {
+    // Request IDs are sequential, so spread them out before masking
+    long hash = requestId * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ (hash >>> 32)) & (ids.length - 1);
+  }
+}
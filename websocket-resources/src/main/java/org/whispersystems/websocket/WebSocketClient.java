@@ -18,30 +18,37 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
 @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
 public class WebSocketClient {
 
   private static final Logger logger = LoggerFactory.getLogger(WebSocketClient.class);
 
-  private final Session                                                session;
-  private final RemoteEndpoint                                         remoteEndpoint;
-  private final WebSocketMessageFactory                                messageFactory;
-  private final Map<Long, CompletableFuture<WebSocketResponseMessage>> pendingRequestMapper;
-  private final long                                                   created;
+  private static final SecureRandom SECURE_RANDOM = new SecureRandom();
 
-  public WebSocketClient(Session session, RemoteEndpoint remoteEndpoint,
-                         WebSocketMessageFactory messageFactory,
-                         Map<Long, CompletableFuture<WebSocketResponseMessage>> pendingRequestMapper)
+  private final Session                 session;
+  private final RemoteEndpoint          remoteEndpoint;
+  private final WebSocketMessageFactory messageFactory;
+  private final PendingRequestTable     pendingRequests;
+  private final AtomicLong              nextRequestId;
+  private final long                    created;
+
+  WebSocketClient(Session session, RemoteEndpoint remoteEndpoint,
+                  WebSocketMessageFactory messageFactory,
+                  PendingRequestTable pendingRequests)
   {
-    this.session              = session;
-    this.remoteEndpoint       = remoteEndpoint;
-    this.messageFactory       = messageFactory;
-    this.pendingRequestMapper = pendingRequestMapper;
-    this.created              = System.currentTimeMillis();
+    this.session         = session;
+    this.remoteEndpoint  = remoteEndpoint;
+    this.messageFactory  = messageFactory;
+    this.pendingRequests = pendingRequests;
+    this.created         = System.currentTimeMillis();
+
+    // Request IDs only need to be unique within a connection; starting each connection at a random point keeps them
+    // from being predictable without paying for a secure random number on every request
+    this.nextRequestId   = new AtomicLong(SECURE_RANDOM.nextLong());
   }
 
   public CompletableFuture<WebSocketResponseMessage> sendRequest(String verb, String path,
@@ -51,7 +58,7 @@ public class WebSocketClient {
     final long                                        requestId = generateRequestId();
     final CompletableFuture<WebSocketResponseMessage> future    = new CompletableFuture<>();
 
-    pendingRequestMapper.put(requestId, future);
+    pendingRequests.put(requestId, future);
 
     WebSocketMessage requestMessage = messageFactory.createRequest(Optional.of(requestId), verb, path, headers, body);
 
@@ -60,7 +67,7 @@ public class WebSocketClient {
         @Override
         public void writeFailed(Throwable x) {
           logger.debug("Write failed", x);
-          pendingRequestMapper.remove(requestId);
+          pendingRequests.remove(requestId);
           future.completeExceptionally(x);
         }
 
@@ -69,7 +76,7 @@ public class WebSocketClient {
       });
     } catch (WebSocketException e) {
       logger.debug("Write", e);
-      pendingRequestMapper.remove(requestId);
+      pendingRequests.remove(requestId);
       future.completeExceptionally(e);
     }
 
@@ -101,7 +108,7 @@ public class WebSocketClient {
   }
 
   private long generateRequestId() {
-    return Math.abs(new SecureRandom().nextLong());
+    return nextRequestId.getAndIncrement() & Long.MAX_VALUE;
   }
 
 }
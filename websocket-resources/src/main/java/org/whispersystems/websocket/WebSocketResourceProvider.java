@@ -9,11 +9,15 @@ import org.eclipse.jetty.websocket.api.RemoteEndpoint;
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.WebSocketListener;
 import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.internal.util.collection.StringKeyIgnoreCaseMultivaluedMap;
 import org.glassfish.jersey.server.ApplicationHandler;
 import org.glassfish.jersey.server.ContainerRequest;
 import org.glassfish.jersey.server.ContainerResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.whispersystems.websocket.fastpath.FastPathResponse;
+import org.whispersystems.websocket.fastpath.FastPathRouter;
+import org.whispersystems.websocket.logging.WebsocketEvent;
 import org.whispersystems.websocket.logging.WebsocketRequestLog;
 import org.whispersystems.websocket.messages.InvalidMessageException;
 import org.whispersystems.websocket.messages.WebSocketMessage;
@@ -39,7 +43,6 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 
 
 @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
@@ -47,8 +50,6 @@ public class WebSocketResourceProvider<T extends Principal> implements WebSocket
 
   private static final Logger logger = LoggerFactory.getLogger(WebSocketResourceProvider.class);
 
-  private final Map<Long, CompletableFuture<WebSocketResponseMessage>> requestMap = new ConcurrentHashMap<>();
-
   private final T                                  authenticated;
   private final WebSocketMessageFactory            messageFactory;
   private final Optional<WebSocketConnectListener> connectListener;
@@ -56,6 +57,8 @@ public class WebSocketResourceProvider<T extends Principal> implements WebSocket
   private final WebsocketRequestLog                requestLog;
   private final long                               idleTimeoutMillis;
   private final String                             remoteAddress;
+  private final FastPathRouter<T>                  fastPathRouter;
+  private final PendingRequestTable                pendingRequests;
 
   private Session                 session;
   private RemoteEndpoint          remoteEndpoint;
@@ -70,6 +73,18 @@ public class WebSocketResourceProvider<T extends Principal> implements WebSocket
                                    WebSocketMessageFactory            messageFactory,
                                    Optional<WebSocketConnectListener> connectListener,
                                    long                               idleTimeoutMillis)
+  {
+    this(remoteAddress, jerseyHandler, requestLog, authenticated, messageFactory, connectListener, idleTimeoutMillis, new FastPathRouter<>());
+  }
+
+  public WebSocketResourceProvider(String                             remoteAddress,
+                                   ApplicationHandler                 jerseyHandler,
+                                   WebsocketRequestLog                requestLog,
+                                   T                                  authenticated,
+                                   WebSocketMessageFactory            messageFactory,
+                                   Optional<WebSocketConnectListener> connectListener,
+                                   long                               idleTimeoutMillis,
+                                   FastPathRouter<T>                  fastPathRouter)
   {
     this.remoteAddress     = remoteAddress;
     this.jerseyHandler     = jerseyHandler;
@@ -78,13 +93,17 @@ public class WebSocketResourceProvider<T extends Principal> implements WebSocket
     this.messageFactory    = messageFactory;
     this.connectListener   = connectListener;
     this.idleTimeoutMillis = idleTimeoutMillis;
+    this.fastPathRouter    = fastPathRouter;
+
+    // Clients that haven't answered a request within the idle timeout aren't going to
+    this.pendingRequests   = new PendingRequestTable(idleTimeoutMillis);
   }
 
   @Override
   public void onWebSocketConnect(Session session) {
     this.session        = session;
     this.remoteEndpoint = session.getRemote();
-    this.context        = new WebSocketSessionContext(new WebSocketClient(session, remoteEndpoint, messageFactory, requestMap));
+    this.context        = new WebSocketSessionContext(new WebSocketClient(session, remoteEndpoint, messageFactory, pendingRequests));
     this.context.setAuthenticated(authenticated);
     this.session.setIdleTimeout(idleTimeoutMillis);
 
@@ -124,12 +143,8 @@ public class WebSocketResourceProvider<T extends Principal> implements WebSocket
     if (context != null) {
       context.notifyClosed(statusCode, reason);
 
-      for (long requestId : requestMap.keySet()) {
-        CompletableFuture<WebSocketResponseMessage> outstandingRequest = requestMap.remove(requestId);
-
-        if (outstandingRequest != null) {
-          outstandingRequest.completeExceptionally(new IOException("Connection closed!"));
-        }
+      for (CompletableFuture<WebSocketResponseMessage> outstandingRequest : pendingRequests.removeAll()) {
+        outstandingRequest.completeExceptionally(new IOException("Connection closed!"));
       }
     }
   }
@@ -140,6 +155,13 @@ public class WebSocketResourceProvider<T extends Principal> implements WebSocket
   }
 
   private void handleRequest(WebSocketRequestMessage requestMessage) {
+    Optional<FastPathRouter.Route<T>> fastPathRoute = fastPathRouter.route(requestMessage.getVerb(), requestMessage.getPath());
+
+    if (fastPathRoute.isPresent()) {
+      handleFastPathRequest(fastPathRoute.get(), requestMessage);
+      return;
+    }
+
     ContainerRequest containerRequest = new ContainerRequest(null, URI.create(requestMessage.getPath()), requestMessage.getVerb(), new WebSocketSecurityContext(new ContextPrincipal(context)), new MapPropertiesDelegate(new HashMap<>()), jerseyHandler.getConfiguration());
     containerRequest.headers(getCombinedHeaders(session.getUpgradeRequest().getHeaders(), requestMessage.getHeaders()));
 
@@ -161,6 +183,62 @@ public class WebSocketResourceProvider<T extends Principal> implements WebSocket
     });
   }
 
+  private void handleFastPathRequest(FastPathRouter.Route<T> route, WebSocketRequestMessage requestMessage) {
+    CompletableFuture<FastPathResponse> responseFuture;
+
+    if (route.isAuthenticationRequired() && authenticated == null) {
+      responseFuture = CompletableFuture.completedFuture(new FastPathResponse(401, "Unauthorized", List.of(), Optional.empty()));
+    } else {
+      try {
+        responseFuture = route.getHandler().handle(context, Optional.ofNullable(authenticated), requestMessage);
+      } catch (Exception e) {
+        responseFuture = CompletableFuture.failedFuture(e);
+      }
+    }
+
+    responseFuture.whenComplete((response, cause) -> {
+      if (cause != null) {
+        logger.warn("Websocket Error: " + requestMessage.getVerb() + " " + requestMessage.getPath(), cause);
+        response = new FastPathResponse(500, "Error response", List.of(), Optional.empty());
+      }
+
+      if (requestMessage.hasRequestId()) {
+        byte[] responseBytes = messageFactory.createResponse(requestMessage.getRequestId(),
+                                                             response.getStatus(),
+                                                             response.getReason(),
+                                                             response.getHeaders(),
+                                                             response.getBody())
+                                             .toByteArray();
+
+        remoteEndpoint.sendBytesByFuture(ByteBuffer.wrap(responseBytes));
+      }
+
+      fastPathRouter.notifyListeners(route.getPath(), response.getStatus(), getUserAgent(requestMessage));
+
+      requestLog.log(remoteAddress,
+                     requestMessage.getVerb(),
+                     requestMessage.getPath(),
+                     response.getStatus(),
+                     response.getBody().map(body -> (long) body.length).orElse((long) WebsocketEvent.SENTINEL),
+                     () -> {
+                       StringKeyIgnoreCaseMultivaluedMap<String> headers = new StringKeyIgnoreCaseMultivaluedMap<>();
+                       headers.putAll(getCombinedHeaders(session.getUpgradeRequest().getHeaders(), requestMessage.getHeaders()));
+
+                       return headers;
+                     });
+    });
+  }
+
+  private String getUserAgent(WebSocketRequestMessage requestMessage) {
+    for (Map.Entry<String, String> header : requestMessage.getHeaders().entrySet()) {
+      if ("User-Agent".equalsIgnoreCase(header.getKey())) {
+        return header.getValue();
+      }
+    }
+
+    return session.getUpgradeRequest().getHeader("User-Agent");
+  }
+
   @VisibleForTesting
   static Map<String, List<String>> getCombinedHeaders(final Map<String, List<String>> upgradeRequestHeaders, final Map<String, String> requestMessageHeaders) {
     final Map<String, List<String>> combinedHeaders = new HashMap<>();
@@ -187,7 +265,7 @@ public class WebSocketResourceProvider<T extends Principal> implements WebSocket
   }
 
   private void handleResponse(WebSocketResponseMessage responseMessage) {
-    CompletableFuture<WebSocketResponseMessage> future = requestMap.remove(responseMessage.getRequestId());
+    CompletableFuture<WebSocketResponseMessage> future = pendingRequests.remove(responseMessage.getRequestId());
 
     if (future != null) {
       future.complete(responseMessage);
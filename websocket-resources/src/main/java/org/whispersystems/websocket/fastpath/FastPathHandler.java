@@ -0,0 +1,25 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.whispersystems.websocket.fastpath;
+
+import org.whispersystems.websocket.messages.WebSocketRequestMessage;
+import org.whispersystems.websocket.session.WebSocketSessionContext;
+
+import java.security.Principal;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Handles a websocket request directly, without building a Jersey request or running it through Jersey's filters,
+ * exception mappers, and message body writers. Exceptions thrown by a handler (or used to complete its future
+ * exceptionally) produce a 500 response.
+ */
+@FunctionalInterface
+public interface FastPathHandler<T extends Principal> {
+
+  CompletableFuture<FastPathResponse> handle(WebSocketSessionContext context,
+                                             Optional<T> authenticated,
+                                             WebSocketRequestMessage request);
+}
@@ -0,0 +1,22 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.whispersystems.websocket.fastpath;
+
+import javax.annotation.Nullable;
+
+/**
+ * Receives a notification for every request answered by a {@link FastPathHandler}, standing in for the Jersey
+ * request event listeners that would otherwise have observed the request.
+ */
+@FunctionalInterface
+public interface FastPathListener {
+
+  /**
+   * @param path the path under which the handler was registered
+   * @param statusCode the status code of the response sent to the client
+   * @param userAgent the User-Agent of the request, if any
+   */
+  void onRequestComplete(String path, int statusCode, @Nullable String userAgent);
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.whispersystems.websocket.fastpath;
+
+import java.util.List;
+import java.util.Optional;
+
+public class FastPathResponse {
+
+  private static final FastPathResponse OK = new FastPathResponse(200, "OK", List.of(), Optional.empty());
+
+  private final int              status;
+  private final String           reason;
+  private final List<String>     headers;
+  private final Optional<byte[]> body;
+
+  /**
+   * @param headers headers in "name:value" form
+   */
+  public FastPathResponse(int status, String reason, List<String> headers, Optional<byte[]> body) {
+    this.status  = status;
+    this.reason  = reason;
+    this.headers = headers;
+    this.body    = body;
+  }
+
+  public static FastPathResponse ok() {
+    return OK;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  public String getReason() {
+    return reason;
+  }
+
+  public List<String> getHeaders() {
+    return headers;
+  }
+
+  public Optional<byte[]> getBody() {
+    return body;
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.whispersystems.websocket.fastpath;
+
+import javax.annotation.Nullable;
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Routes selected websocket requests to {@link FastPathHandler}s instead of Jersey. Routes match on the exact verb and
+ * path of a request; anything else, including requests with query strings, goes to Jersey as usual.
+ */
+public class FastPathRouter<T extends Principal> {
+
+  // Keyed by path, then by verb, so that looking up a route doesn't need to build a combined key for every frame
+  private final Map<String, Map<String, Route<T>>> routes    = new ConcurrentHashMap<>();
+  private final List<FastPathListener>             listeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * @param authenticationRequired if {@code true}, requests from unauthenticated sessions receive a 401 response
+   *                               without reaching the handler
+   */
+  public void register(String verb, String path, boolean authenticationRequired, FastPathHandler<T> handler) {
+    Map<String, Route<T>> routesByVerb = routes.computeIfAbsent(path, ignored -> new ConcurrentHashMap<>());
+
+    if (routesByVerb.putIfAbsent(verb, new Route<>(path, authenticationRequired, handler)) != null) {
+      throw new IllegalArgumentException("A handler is already registered for " + verb + " " + path);
+    }
+  }
+
+  public void addListener(FastPathListener listener) {
+    listeners.add(listener);
+  }
+
+  public Optional<Route<T>> route(String verb, String path) {
+    Map<String, Route<T>> routesByVerb = routes.get(path);
+
+    if (routesByVerb == null) {
+      return Optional.empty();
+    }
+
+    return Optional.ofNullable(routesByVerb.get(verb));
+  }
+
+  public void notifyListeners(String path, int statusCode, @Nullable String userAgent) {
+    for (FastPathListener listener : listeners) {
+      listener.onRequestComplete(path, statusCode, userAgent);
+    }
+  }
+
+  public static class Route<T extends Principal> {
+
+    private final String             path;
+    private final boolean            authenticationRequired;
+    private final FastPathHandler<T> handler;
+
+    private Route(String path, boolean authenticationRequired, FastPathHandler<T> handler) {
+      this.path                   = path;
+      this.authenticationRequired = authenticationRequired;
+      this.handler                = handler;
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public boolean isAuthenticationRequired() {
+      return authenticationRequired;
+    }
+
+    public FastPathHandler<T> getHandler() {
+      return handler;
+    }
+  }
+}
@@ -5,27 +5,56 @@
 package org.whispersystems.websocket.logging;
 
 import ch.qos.logback.core.spi.DeferredProcessingAware;
+import com.google.common.base.Suppliers;
 import org.glassfish.jersey.server.ContainerRequest;
 import org.glassfish.jersey.server.ContainerResponse;
 
 import javax.ws.rs.core.MultivaluedMap;
 import java.util.List;
+import java.util.function.Supplier;
 
 public class WebsocketEvent implements DeferredProcessingAware {
 
   public static final int    SENTINEL = -1;
   public static final String NA       = "-";
 
-  private final String            remoteAddress;
-  private final ContainerRequest  request;
-  private final ContainerResponse response;
-  private final long              timestamp;
+  private final String                                   remoteAddress;
+  private final String                                   method;
+  private final String                                   path;
+  private final int                                      statusCode;
+  private final long                                     contentLength;
+  private final Supplier<MultivaluedMap<String, String>> requestHeaders;
+  private final long                                     timestamp;
 
   public WebsocketEvent(String remoteAddress, ContainerRequest jerseyRequest, ContainerResponse jettyResponse) {
-    this.timestamp     = System.currentTimeMillis();
-    this.remoteAddress = remoteAddress;
-    this.request       = jerseyRequest;
-    this.response      = jettyResponse;
+    this(remoteAddress,
+         jerseyRequest.getMethod(),
+         jerseyRequest.getBaseUri().getPath() + jerseyRequest.getPath(false),
+         jettyResponse.getStatus(),
+         jettyResponse.getLength(),
+         jerseyRequest::getRequestHeaders);
+  }
+
+  /**
+   * Creates an event for a request that was handled without a Jersey request/response pair. Request headers are only
+   * gathered if a filter or layout actually asks for them.
+   */
+  public WebsocketEvent(String remoteAddress, String method, String path, int statusCode, long contentLength,
+                        Supplier<MultivaluedMap<String, String>> requestHeaders)
+  {
+    this(System.currentTimeMillis(), remoteAddress, method, path, statusCode, contentLength, requestHeaders);
+  }
+
+  WebsocketEvent(long timestamp, String remoteAddress, String method, String path, int statusCode, long contentLength,
+                 Supplier<MultivaluedMap<String, String>> requestHeaders)
+  {
+    this.timestamp      = timestamp;
+    this.remoteAddress  = remoteAddress;
+    this.method         = method;
+    this.path           = path;
+    this.statusCode     = statusCode;
+    this.contentLength  = contentLength;
+    this.requestHeaders = Suppliers.memoize(requestHeaders::get);
   }
 
   public String getRemoteHost() {
@@ -42,11 +71,11 @@ public class WebsocketEvent implements DeferredProcessingAware {
   }
 
   public String getMethod() {
-    return request.getMethod();
+    return method;
   }
 
   public String getPath() {
-    return request.getBaseUri().getPath() + request.getPath(false);
+    return path;
   }
 
   public String getProtocol() {
@@ -54,21 +83,21 @@ public class WebsocketEvent implements DeferredProcessingAware {
   }
 
   public int getStatusCode() {
-    return response.getStatus();
+    return statusCode;
   }
 
   public long getContentLength() {
-    return response.getLength();
+    return contentLength;
   }
 
   public String getRequestHeader(String key) {
-    List<String> values = request.getRequestHeader(key);
+    List<String> values = requestHeaders.get().get(key);
 
     if (values == null) return NA;
     else                return values.stream().findFirst().orElse(NA);
   }
 
   public MultivaluedMap<String, String> getRequestHeaderMap() {
-    return request.getRequestHeaders();
+    return requestHeaders.get();
   }
 }
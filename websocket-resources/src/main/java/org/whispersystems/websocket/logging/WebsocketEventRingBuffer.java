@@ -0,0 +1,147 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.whispersystems.websocket.logging;
+
+import javax.ws.rs.core.MultivaluedMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A bounded, lock-free queue of request log entries with any number of producers and a single consumer. Entries are
+ * written into pre-allocated records, so enqueueing an entry never allocates; {@link WebsocketEvent}s are only built
+ * when the consumer drains the buffer.
+ * <p>
+ * Each record carries a sequence number that tells producers and the consumer whose turn it is: a record at index
+ * {@code i} is free for the producer claiming position {@code p} when its sequence is {@code p}, and ready for the
+ * consumer when its sequence is {@code p + 1}.
+ */
+class WebsocketEventRingBuffer {
+
+  private final Record[]        records;
+  private final AtomicLongArray sequences;
+  private final int             mask;
+
+  private final AtomicLong producerPosition = new AtomicLong();
+  private final AtomicLong consumerPosition = new AtomicLong();
+
+  WebsocketEventRingBuffer(int minimumCapacity) {
+    final int capacity = Integer.highestOneBit(Math.max(2, minimumCapacity - 1)) << 1;
+
+    this.records   = new Record[capacity];
+    this.sequences = new AtomicLongArray(capacity);
+    this.mask      = capacity - 1;
+
+    for (int i = 0; i < capacity; i++) {
+      records[i] = new Record();
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * @return {@code true} if the entry was enqueued or {@code false} if the buffer was full
+   */
+  boolean offer(long timestamp, String remoteAddress, String method, String pathPrefix, String path, int statusCode,
+                long contentLength, Supplier<MultivaluedMap<String, String>> requestHeaders)
+  {
+    long position = producerPosition.get();
+
+    while (true) {
+      final int  index    = (int) position & mask;
+      final long sequence = sequences.get(index);
+
+      if (sequence == position) {
+        if (producerPosition.compareAndSet(position, position + 1)) {
+          final Record record = records[index];
+
+          record.timestamp      = timestamp;
+          record.remoteAddress  = remoteAddress;
+          record.method         = method;
+          record.pathPrefix     = pathPrefix;
+          record.path           = path;
+          record.statusCode     = statusCode;
+          record.contentLength  = contentLength;
+          record.requestHeaders = requestHeaders;
+
+          sequences.lazySet(index, position + 1);
+          return true;
+        }
+
+        position = producerPosition.get();
+      } else if (sequence < position) {
+        // The consumer hasn't released this record from the last lap yet
+        return false;
+      } else {
+        // Another producer claimed this position first
+        position = producerPosition.get();
+      }
+    }
+  }
+
+  /**
+   * Passes every entry that's ready to the given consumer. Must only be called from one thread at a time.
+   *
+   * @return the number of entries drained
+   */
+  int drain(Consumer<WebsocketEvent> consumer) {
+    long position = consumerPosition.get();
+    int  drained  = 0;
+
+    while (true) {
+      final int index = (int) position & mask;
+
+      if (sequences.get(index) != position + 1) {
+        break;
+      }
+
+      final Record         record = records[index];
+      final WebsocketEvent event  = new WebsocketEvent(record.timestamp, record.remoteAddress, record.method,
+                                                       record.pathPrefix + record.path, record.statusCode,
+                                                       record.contentLength, record.requestHeaders);
+
+      // Don't keep request headers reachable until this record comes around again
+      record.clear();
+
+      sequences.lazySet(index, position + records.length);
+      consumerPosition.lazySet(++position);
+
+      consumer.accept(event);
+      drained++;
+    }
+
+    return drained;
+  }
+
+  /**
+   * @return the approximate number of entries waiting to be drained
+   */
+  int size() {
+    return (int) Math.max(0, producerPosition.get() - consumerPosition.get());
+  }
+
+  int capacity() {
+    return records.length;
+  }
+
+  private static class Record {
+    private long                                     timestamp;
+    private String                                   remoteAddress;
+    private String                                   method;
+    private String                                   pathPrefix;
+    private String                                   path;
+    private int                                      statusCode;
+    private long                                     contentLength;
+    private Supplier<MultivaluedMap<String, String>> requestHeaders;
+
+    private void clear() {
+      remoteAddress  = null;
+      method         = null;
+      pathPrefix     = null;
+      path           = null;
+      requestHeaders = null;
+    }
+  }
+}
@@ -6,31 +6,92 @@ package org.whispersystems.websocket.logging;
 
 import org.glassfish.jersey.server.ContainerRequest;
 import org.glassfish.jersey.server.ContainerResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import ch.qos.logback.core.Appender;
 import ch.qos.logback.core.filter.Filter;
 import ch.qos.logback.core.spi.AppenderAttachableImpl;
 import ch.qos.logback.core.spi.FilterAttachableImpl;
 import ch.qos.logback.core.spi.FilterReply;
+import io.dropwizard.lifecycle.Managed;
 
-public class WebsocketRequestLog {
+import javax.ws.rs.core.MultivaluedMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Logs websocket requests without making the websocket's I/O threads wait for filters or appenders. Callers copy a
+ * handful of fields into a bounded ring buffer; a background writer turns them into {@link WebsocketEvent}s and runs
+ * them through the filter chain and appenders.
+ * <p>
+ * Once the buffer is more than {@code overloadThresholdPercent} full, only one in {@code overloadSampleRate} requests
+ * is logged, and requests are dropped entirely if the buffer is full. Both are counted rather than blocking the caller.
+ * <p>
+ * Nothing is written until the log is {@link #start() started}; requests logged before then wait in the buffer.
+ */
+public class WebsocketRequestLog implements Managed {
+
+  private static final Logger logger = LoggerFactory.getLogger(WebsocketRequestLog.class);
+
+  public static final int DEFAULT_BUFFER_SIZE                = 8192;
+  public static final int DEFAULT_OVERLOAD_THRESHOLD_PERCENT = 75;
+  public static final int DEFAULT_OVERLOAD_SAMPLE_RATE       = 1;
+
+  private static final long IDLE_PARK_NANOS     = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long STOP_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
 
   private final AppenderAttachableImpl<WebsocketEvent> aai = new AppenderAttachableImpl<>();
   private final FilterAttachableImpl<WebsocketEvent>   fai = new FilterAttachableImpl<>();
 
+  private final WebsocketEventRingBuffer buffer;
+  private final int                      overloadThreshold;
+  private final int                      overloadSampleRate;
+
+  private final LongAdder droppedEvents    = new LongAdder();
+  private final LongAdder sampledOutEvents = new LongAdder();
+
+  private final    Thread  writerThread;
+  private volatile boolean running = true;
+
   public WebsocketRequestLog() {
+    this(DEFAULT_BUFFER_SIZE, DEFAULT_OVERLOAD_THRESHOLD_PERCENT, DEFAULT_OVERLOAD_SAMPLE_RATE);
   }
 
-  public void log(String remoteAddress, ContainerRequest jerseyRequest, ContainerResponse jettyResponse) {
-    WebsocketEvent event = new WebsocketEvent(remoteAddress, jerseyRequest, jettyResponse);
+  /**
+   * @param bufferSize the number of requests that may be waiting for the writer; rounded up to a power of two
+   * @param overloadThresholdPercent how full the buffer may get before requests are sampled
+   * @param overloadSampleRate log one in this many requests while the buffer is over the threshold; 1 keeps logging
+   *                           everything until the buffer is full
+   */
+  public WebsocketRequestLog(int bufferSize, int overloadThresholdPercent, int overloadSampleRate) {
+    this.buffer             = new WebsocketEventRingBuffer(bufferSize);
+    this.overloadThreshold  = (int) ((long) buffer.capacity() * overloadThresholdPercent / 100);
+    this.overloadSampleRate = overloadSampleRate;
 
-    if (getFilterChainDecision(event) == FilterReply.DENY) {
-      return;
-    }
+    this.writerThread = new Thread(this::writeEvents, "websocket-request-log");
+    this.writerThread.setDaemon(true);
+  }
 
-    aai.appendLoopOnAppenders(event);
+  public void log(String remoteAddress, ContainerRequest jerseyRequest, ContainerResponse jettyResponse) {
+    if (admit()) {
+      enqueue(remoteAddress, jerseyRequest.getMethod(), jerseyRequest.getBaseUri().getPath(),
+              jerseyRequest.getPath(false), jettyResponse.getStatus(), jettyResponse.getLength(),
+              jerseyRequest::getRequestHeaders);
+    }
   }
 
+  public void log(String remoteAddress, String method, String path, int statusCode, long contentLength,
+                  Supplier<MultivaluedMap<String, String>> requestHeaders)
+  {
+    if (admit()) {
+      enqueue(remoteAddress, method, "", path, statusCode, contentLength, requestHeaders);
+    }
+  }
 
   public void addAppender(Appender<WebsocketEvent> newAppender) {
     aai.addAppender(newAppender);
@@ -43,4 +104,88 @@ public class WebsocketRequestLog {
   public FilterReply getFilterChainDecision(WebsocketEvent event) {
     return fai.getFilterChainDecision(event);
   }
+
+  /**
+   * @return the number of requests that weren't logged because the buffer was full
+   */
+  public long getDroppedEventCount() {
+    return droppedEvents.sum();
+  }
+
+  /**
+   * @return the number of requests that weren't logged because they were sampled out while the buffer was overloaded
+   */
+  public long getSampledOutEventCount() {
+    return sampledOutEvents.sum();
+  }
+
+  /**
+   * Starts the background writer.
+   */
+  @Override
+  public void start() {
+    writerThread.start();
+  }
+
+  /**
+   * Stops the background writer once everything that's already been logged has been written, or gives up waiting if
+   * that takes too long (for example, because an appender is stuck).
+   */
+  @Override
+  public void stop() throws InterruptedException {
+    running = false;
+    LockSupport.unpark(writerThread);
+    writerThread.join(STOP_TIMEOUT_MILLIS);
+
+    if (writerThread.isAlive()) {
+      logger.warn("Websocket request log writer did not finish within {} ms; {} requests may not have been written",
+                  STOP_TIMEOUT_MILLIS, buffer.size());
+    }
+  }
+
+  private boolean admit() {
+    if (overloadSampleRate > 1
+        && buffer.size() >= overloadThreshold
+        && ThreadLocalRandom.current().nextInt(overloadSampleRate) != 0)
+    {
+      sampledOutEvents.increment();
+      return false;
+    }
+
+    return true;
+  }
+
+  private void enqueue(String remoteAddress, String method, String pathPrefix, String path, int statusCode,
+                       long contentLength, Supplier<MultivaluedMap<String, String>> requestHeaders)
+  {
+    if (!buffer.offer(System.currentTimeMillis(), remoteAddress, method, pathPrefix, path, statusCode, contentLength,
+                      requestHeaders))
+    {
+      droppedEvents.increment();
+    }
+  }
+
+  private void writeEvents() {
+    final Consumer<WebsocketEvent> writer = this::write;
+
+    while (running) {
+      if (buffer.drain(writer) == 0) {
+        LockSupport.parkNanos(IDLE_PARK_NANOS);
+      }
+    }
+
+    buffer.drain(writer);
+  }
+
+  private void write(WebsocketEvent event) {
+    try {
+      if (getFilterChainDecision(event) == FilterReply.DENY) {
+        return;
+      }
+
+      aai.appendLoopOnAppenders(event);
+    } catch (RuntimeException e) {
+      logger.warn("Failed to write websocket request log event", e);
+    }
+  }
 }
@@ -4,11 +4,14 @@
  */
 package org.whispersystems.websocket.logging;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.websocket.logging.layout.WebsocketEventLayoutFactory;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.util.Collections;
 import java.util.List;
@@ -29,12 +32,26 @@ public class WebsocketRequestLoggerFactory {
   @NotNull
   public List<AppenderFactory<WebsocketEvent>> appenders = Collections.singletonList(new ConsoleAppenderFactory<>());
 
+  @Min(2)
+  @JsonProperty
+  private int bufferSize = WebsocketRequestLog.DEFAULT_BUFFER_SIZE;
+
+  @Min(0)
+  @Max(100)
+  @JsonProperty
+  private int overloadThresholdPercent = WebsocketRequestLog.DEFAULT_OVERLOAD_THRESHOLD_PERCENT;
+
+  @Min(1)
+  @JsonProperty
+  private int overloadSampleRate = WebsocketRequestLog.DEFAULT_OVERLOAD_SAMPLE_RATE;
+
   public WebsocketRequestLog build(String name) {
     final Logger logger = (Logger) LoggerFactory.getLogger("websocket.request");
     logger.setAdditive(false);
 
     final LoggerContext                        context              = logger.getLoggerContext();
-    final WebsocketRequestLog                  requestLog           = new WebsocketRequestLog();
+    final WebsocketRequestLog                  requestLog           =
+        new WebsocketRequestLog(bufferSize, overloadThresholdPercent, overloadSampleRate);
     final LevelFilterFactory<WebsocketEvent>   levelFilterFactory   = new NullLevelFilterFactory<>();
     final AsyncAppenderFactory<WebsocketEvent> asyncAppenderFactory = new AsyncWebsocketEventAppenderFactory();
     final LayoutFactory<WebsocketEvent>        layoutFactory        = new WebsocketEventLayoutFactory();
@@ -10,6 +10,7 @@ import io.dropwizard.setup.Environment;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.whispersystems.websocket.auth.WebSocketAuthenticator;
 import org.whispersystems.websocket.configuration.WebSocketConfiguration;
+import org.whispersystems.websocket.fastpath.FastPathRouter;
 import org.whispersystems.websocket.logging.WebsocketRequestLog;
 import org.whispersystems.websocket.messages.WebSocketMessageFactory;
 import org.whispersystems.websocket.messages.protobuf.ProtobufWebSocketMessageFactory;
@@ -20,6 +21,7 @@ import java.security.Principal;
 public class WebSocketEnvironment<T extends Principal> {
 
   private final ResourceConfig        jerseyConfig;
+  private final FastPathRouter<T>     fastPathRouter;
   private final ObjectMapper          objectMapper;
   private final Validator             validator;
   private final WebsocketRequestLog   requestLog;
@@ -39,6 +41,7 @@ public class WebSocketEnvironment<T extends Principal> {
 
   public WebSocketEnvironment(Environment environment, WebsocketRequestLog requestLog, long idleTimeoutMillis) {
     this.jerseyConfig             = new DropwizardResourceConfig(environment.metrics());
+    this.fastPathRouter           = new FastPathRouter<>();
     this.objectMapper             = environment.getObjectMapper();
     this.validator                = environment.getValidator();
     this.requestLog               = requestLog;
@@ -50,6 +53,10 @@ public class WebSocketEnvironment<T extends Principal> {
     return jerseyConfig;
   }
 
+  public FastPathRouter<T> fastPath() {
+    return fastPathRouter;
+  }
+
   public WebSocketAuthenticator<T> getAuthenticator() {
     return authenticator;
   }
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.whispersystems.websocket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+import org.whispersystems.websocket.messages.WebSocketResponseMessage;
+
+class PendingRequestTableTest {
+
+  @Test
+  void testPutAndRemoveMatchesMap() {
+    final PendingRequestTable table = new PendingRequestTable(60_000);
+    final Map<Long, CompletableFuture<WebSocketResponseMessage>> expected = new HashMap<>();
+    final List<Long> pendingIds = new ArrayList<>();
+    final Random random = new Random(17);
+
+    long nextId = Long.MAX_VALUE - 1_000;
+
+    for (int i = 0; i < 100_000; i++) {
+      if (pendingIds.isEmpty() || random.nextInt(3) > 0) {
+        // Wrap around the top of the ID space like a real connection eventually would
+        final long id = nextId++ & Long.MAX_VALUE;
+        final CompletableFuture<WebSocketResponseMessage> future = new CompletableFuture<>();
+
+        table.put(id, future);
+        expected.put(id, future);
+        pendingIds.add(id);
+      } else {
+        final long id = pendingIds.remove(random.nextInt(pendingIds.size()));
+        assertThat(table.remove(id)).isSameAs(expected.remove(id));
+      }
+
+      assertThat(table.size()).isEqualTo(expected.size());
+    }
+
+    assertThat(table.remove(-7)).isNull();
+
+    for (final Map.Entry<Long, CompletableFuture<WebSocketResponseMessage>> entry : expected.entrySet()) {
+      assertThat(table.remove(entry.getKey())).isSameAs(entry.getValue());
+    }
+
+    assertThat(table.size()).isZero();
+  }
+
+  @Test
+  void testExpire() {
+    final PendingRequestTable table = new PendingRequestTable(1_000);
+
+    final List<CompletableFuture<WebSocketResponseMessage>> futures = new ArrayList<>();
+
+    for (int i = 0; i < 100; i++) {
+      final CompletableFuture<WebSocketResponseMessage> future = new CompletableFuture<>();
+      futures.add(future);
+      table.put(i, future);
+    }
+
+    table.expire(System.nanoTime());
+    assertThat(table.size()).isEqualTo(100);
+    assertThat(futures).noneMatch(CompletableFuture::isDone);
+
+    table.expire(System.nanoTime() + TimeUnit.SECONDS.toNanos(2));
+    assertThat(table.size()).isZero();
+
+    for (final CompletableFuture<WebSocketResponseMessage> future : futures) {
+      assertThat(future).isCompletedExceptionally();
+      assertThat(future.handle((ignored, cause) -> cause).join()).isInstanceOf(TimeoutException.class);
+    }
+
+    // An empty table leaves the shared timer's sweep on the next tick
+    assertThat(table.isActive()).isTrue();
+    table.expire(System.nanoTime());
+    assertThat(table.isActive()).isFalse();
+  }
+
+  @Test
+  void testSharedTimer() {
+    final PendingRequestTable table = new PendingRequestTable(10);
+    final CompletableFuture<WebSocketResponseMessage> future = new CompletableFuture<>();
+
+    table.put(1, future);
+
+    // The table's own timeout carries a message; the one from orTimeout here (which would mean the timer never fired)
+    // doesn't
+    final Throwable cause = future.orTimeout(PendingRequestTable.TICK_MILLIS * 5, TimeUnit.MILLISECONDS)
+        .handle((ignored, throwable) -> throwable)
+        .join();
+
+    assertThat(cause).isInstanceOf(TimeoutException.class).hasMessage("No response received");
+    assertThat(table.size()).isZero();
+  }
+
+  @Test
+  void testRemoveAll() {
+    final PendingRequestTable table = new PendingRequestTable(60_000);
+
+    for (int i = 0; i < 50; i++) {
+      table.put(i, new CompletableFuture<>());
+    }
+
+    assertThat(table.removeAll()).hasSize(50);
+    assertThat(table.size()).isZero();
+    assertThat(table.isActive()).isFalse();
+    assertThat(table.remove(1)).isNull();
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.whispersystems.websocket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.nio.ByteBuffer;
+import java.security.Principal;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.UpgradeRequest;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.whispersystems.websocket.logging.WebsocketRequestLog;
+import org.whispersystems.websocket.messages.WebSocketResponseMessage;
+import org.whispersystems.websocket.messages.protobuf.ProtobufWebSocketMessageFactory;
+import org.whispersystems.websocket.messages.protobuf.SubProtocol;
+import org.whispersystems.websocket.session.WebSocketSessionContext;
+import org.whispersystems.websocket.setup.WebSocketConnectListener;
+
+class WebSocketClientTest {
+
+  private WebSocketResourceProvider<Principal> provider;
+  private WebSocketClient client;
+
+  // The ID of the most recent request the client sent
+  private final AtomicLong lastRequestId = new AtomicLong(-1);
+
+  @BeforeEach
+  void setUp() {
+    final Session session = mock(Session.class, withSettings().stubOnly());
+    final RemoteEndpoint remoteEndpoint = mock(RemoteEndpoint.class, withSettings().stubOnly());
+    final UpgradeRequest upgradeRequest = mock(UpgradeRequest.class, withSettings().stubOnly());
+
+    when(session.getUpgradeRequest()).thenReturn(upgradeRequest);
+    when(session.getRemote()).thenReturn(remoteEndpoint);
+
+    doAnswer(invocation -> {
+      final ByteBuffer buffer = invocation.getArgument(0);
+      lastRequestId.set(SubProtocol.WebSocketMessage.parseFrom(buffer).getRequest().getId());
+
+      return null;
+    }).when(remoteEndpoint).sendBytes(any(ByteBuffer.class), any(WriteCallback.class));
+
+    final WebSocketSessionContext[] context = new WebSocketSessionContext[1];
+    final WebSocketConnectListener connectListener = connected -> context[0] = connected;
+
+    provider = new WebSocketResourceProvider<>("127.0.0.1", mock(ApplicationHandler.class),
+        mock(WebsocketRequestLog.class), null, new ProtobufWebSocketMessageFactory(), Optional.of(connectListener),
+        30000);
+
+    provider.onWebSocketConnect(session);
+    client = context[0].getClient();
+  }
+
+  @Test
+  void testRequestIds() {
+    final Set<Long> requestIds = new HashSet<>();
+
+    client.sendRequest("PUT", "/api/v1/message", List.of(), Optional.empty());
+    long previousRequestId = lastRequestId.get();
+
+    requestIds.add(previousRequestId);
+
+    for (int i = 0; i < 1_000; i++) {
+      client.sendRequest("PUT", "/api/v1/message", List.of(), Optional.empty());
+
+      // IDs count up from a random starting point and wrap around to zero rather than going negative
+      assertThat(lastRequestId.get()).isNotNegative();
+      assertThat(lastRequestId.get()).isEqualTo((previousRequestId + 1) & Long.MAX_VALUE);
+      assertThat(requestIds.add(lastRequestId.get())).isTrue();
+
+      previousRequestId = lastRequestId.get();
+    }
+  }
+
+  @Test
+  void testResponseCorrelation() throws Exception {
+    final CompletableFuture<WebSocketResponseMessage> first =
+        client.sendRequest("PUT", "/api/v1/message", List.of(), Optional.empty());
+    final long firstRequestId = lastRequestId.get();
+
+    final CompletableFuture<WebSocketResponseMessage> second =
+        client.sendRequest("PUT", "/api/v1/message", List.of(), Optional.empty());
+    final long secondRequestId = lastRequestId.get();
+
+    respond(secondRequestId, 404);
+    respond(firstRequestId, 200);
+
+    // A duplicate response for a request that's already been answered is ignored
+    respond(firstRequestId, 500);
+
+    assertThat(first.get().getStatus()).isEqualTo(200);
+    assertThat(second.get().getStatus()).isEqualTo(404);
+  }
+
+  @Test
+  void testCloseFailsPendingRequests() {
+    final CompletableFuture<WebSocketResponseMessage> pending =
+        client.sendRequest("PUT", "/api/v1/message", List.of(), Optional.empty());
+
+    provider.onWebSocketClose(1000, "bye");
+
+    assertThat(pending).isCompletedExceptionally();
+    assertThat(pending).failsWithin(java.time.Duration.ZERO).withThrowableOfType(ExecutionException.class);
+  }
+
+  private void respond(final long requestId, final int status) {
+    final byte[] response = SubProtocol.WebSocketMessage.newBuilder()
+        .setType(SubProtocol.WebSocketMessage.Type.RESPONSE)
+        .setResponse(SubProtocol.WebSocketResponseMessage.newBuilder()
+            .setId(requestId)
+            .setStatus(status)
+            .setMessage("OK"))
+        .build()
+        .toByteArray();
+
+    provider.onWebSocketBinary(response, 0, response.length);
+  }
+}
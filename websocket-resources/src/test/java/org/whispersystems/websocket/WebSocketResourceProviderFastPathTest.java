@@ -0,0 +1,230 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.whispersystems.websocket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.auth.Auth;
+import io.dropwizard.jersey.DropwizardResourceConfig;
+import io.dropwizard.jersey.jackson.JacksonMessageBodyProvider;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.Response;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.UpgradeRequest;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.whispersystems.websocket.auth.WebsocketAuthValueFactoryProvider;
+import org.whispersystems.websocket.fastpath.FastPathListener;
+import org.whispersystems.websocket.fastpath.FastPathResponse;
+import org.whispersystems.websocket.fastpath.FastPathRouter;
+import org.whispersystems.websocket.logging.WebsocketRequestLog;
+import org.whispersystems.websocket.messages.protobuf.ProtobufWebSocketMessageFactory;
+import org.whispersystems.websocket.messages.protobuf.SubProtocol;
+import org.whispersystems.websocket.session.WebSocketSessionContextValueFactoryProvider;
+
+class WebSocketResourceProviderFastPathTest {
+
+  private static final ProtobufWebSocketMessageFactory MESSAGE_FACTORY = new ProtobufWebSocketMessageFactory();
+
+  @Test
+  void testFastPathRequest() throws Exception {
+    final ApplicationHandler applicationHandler = mock(ApplicationHandler.class);
+    final WebsocketRequestLog requestLog = mock(WebsocketRequestLog.class);
+    final FastPathListener listener = mock(FastPathListener.class);
+    final FastPathRouter<TestPrincipal> router = new FastPathRouter<>();
+    final AtomicReference<Optional<TestPrincipal>> handledPrincipal = new AtomicReference<>();
+
+    router.addListener(listener);
+    router.register("GET", "/v1/keepalive", false, (context, authenticated, request) -> {
+      handledPrincipal.set(authenticated);
+      return CompletableFuture.completedFuture(FastPathResponse.ok());
+    });
+
+    final TestConnection connection = connect(new WebSocketResourceProvider<>("127.0.0.1", applicationHandler,
+        requestLog, new TestPrincipal("foo"), MESSAGE_FACTORY, Optional.empty(), 30000, router), null);
+
+    final SubProtocol.WebSocketResponseMessage response = connection.sendRequest("GET", "/v1/keepalive",
+        List.of("User-Agent:Signal-Android/5.0.0"), Optional.empty());
+
+    assertThat(response.getId()).isEqualTo(1L);
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(response.getMessage()).isEqualTo("OK");
+    assertThat(response.hasBody()).isFalse();
+
+    assertThat(handledPrincipal.get()).hasValueSatisfying(principal -> assertThat(principal.getName()).isEqualTo("foo"));
+
+    verify(applicationHandler, never()).apply(any(ContainerRequest.class), any(OutputStream.class));
+    verify(listener).onRequestComplete("/v1/keepalive", 200, "Signal-Android/5.0.0");
+    verify(requestLog).log(eq("127.0.0.1"), eq("GET"), eq("/v1/keepalive"), eq(200), anyLong(), any());
+  }
+
+  @Test
+  void testFastPathAuthenticationRequired() throws Exception {
+    final FastPathRouter<TestPrincipal> router = new FastPathRouter<>();
+    final FastPathListener listener = mock(FastPathListener.class);
+
+    router.addListener(listener);
+    router.register("GET", "/v1/keepalive", true, (context, authenticated, request) -> {
+      throw new AssertionError("Unauthenticated requests should not reach the handler");
+    });
+
+    final TestConnection connection = connect(new WebSocketResourceProvider<>("127.0.0.1",
+        mock(ApplicationHandler.class), mock(WebsocketRequestLog.class), null, MESSAGE_FACTORY, Optional.empty(),
+        30000, router), "Signal-iOS/5.0.0");
+
+    final SubProtocol.WebSocketResponseMessage response = connection.sendRequest("GET", "/v1/keepalive",
+        List.of(), Optional.empty());
+
+    assertThat(response.getStatus()).isEqualTo(401);
+
+    // The User-Agent falls back to the upgrade request's header
+    verify(listener).onRequestComplete("/v1/keepalive", 401, "Signal-iOS/5.0.0");
+  }
+
+  @Test
+  void testFastPathHandlerException() throws Exception {
+    final FastPathRouter<TestPrincipal> router = new FastPathRouter<>();
+
+    router.register("PUT", "/v1/throws", false, (context, authenticated, request) -> {
+      throw new IllegalStateException("Expected");
+    });
+
+    final TestConnection connection = connect(new WebSocketResourceProvider<>("127.0.0.1",
+        mock(ApplicationHandler.class), mock(WebsocketRequestLog.class), new TestPrincipal("foo"), MESSAGE_FACTORY,
+        Optional.empty(), 30000, router), null);
+
+    assertThat(connection.sendRequest("PUT", "/v1/throws", List.of(), Optional.empty()).getStatus()).isEqualTo(500);
+  }
+
+  @Test
+  void testFastPathHandlerFailedFuture() throws Exception {
+    final FastPathRouter<TestPrincipal> router = new FastPathRouter<>();
+
+    router.register("PUT", "/v1/fails", false, (context, authenticated, request) ->
+        CompletableFuture.failedFuture(new IllegalStateException("Expected")));
+
+    final TestConnection connection = connect(new WebSocketResourceProvider<>("127.0.0.1",
+        mock(ApplicationHandler.class), mock(WebsocketRequestLog.class), new TestPrincipal("foo"), MESSAGE_FACTORY,
+        Optional.empty(), 30000, router), null);
+
+    assertThat(connection.sendRequest("PUT", "/v1/fails", List.of(), Optional.empty()).getStatus()).isEqualTo(500);
+  }
+
+  @Test
+  void testUnmatchedRequestsGoToJersey() throws Exception {
+    final FastPathRouter<TestPrincipal> router = new FastPathRouter<>();
+
+    router.register("GET", "/v1/keepalive", false, (context, authenticated, request) -> {
+      throw new AssertionError("Request should have gone to Jersey");
+    });
+
+    final TestConnection connection = connect(new WebSocketResourceProvider<>("127.0.0.1",
+        new ApplicationHandler(buildResourceConfig()), mock(WebsocketRequestLog.class), new TestPrincipal("foo"),
+        MESSAGE_FACTORY, Optional.empty(), 30000, router), null);
+
+    // Different verb, and a query string
+    assertThat(connection.sendRequest("PUT", "/v1/keepalive", List.of(), Optional.empty()).getStatus()).isEqualTo(405);
+    assertThat(connection.sendRequest("GET", "/v1/keepalive?foo=bar", List.of(), Optional.empty()).getStatus()).isEqualTo(200);
+  }
+
+  @Test
+  void testRegisterDuplicateRoute() {
+    final FastPathRouter<TestPrincipal> router = new FastPathRouter<>();
+
+    router.register("GET", "/v1/keepalive", false, (context, authenticated, request) -> null);
+    router.register("PUT", "/v1/keepalive", false, (context, authenticated, request) -> null);
+
+    assertThrows(IllegalArgumentException.class,
+        () -> router.register("GET", "/v1/keepalive", true, (context, authenticated, request) -> null));
+  }
+
+  private static ResourceConfig buildResourceConfig() {
+    final ResourceConfig resourceConfig = new DropwizardResourceConfig();
+    resourceConfig.register(new KeepAliveResource());
+    resourceConfig.register(new WebSocketSessionContextValueFactoryProvider.Binder());
+    resourceConfig.register(new WebsocketAuthValueFactoryProvider.Binder<>(TestPrincipal.class));
+    resourceConfig.register(new JacksonMessageBodyProvider(new ObjectMapper()));
+
+    return resourceConfig;
+  }
+
+  private static TestConnection connect(final WebSocketResourceProvider<TestPrincipal> provider, final String upgradeUserAgent) {
+    final Session session = mock(Session.class);
+    final RemoteEndpoint remoteEndpoint = mock(RemoteEndpoint.class);
+    final UpgradeRequest upgradeRequest = mock(UpgradeRequest.class);
+
+    when(session.getUpgradeRequest()).thenReturn(upgradeRequest);
+    when(session.getRemote()).thenReturn(remoteEndpoint);
+    when(upgradeRequest.getHeader("User-Agent")).thenReturn(upgradeUserAgent);
+    when(upgradeRequest.getHeaders()).thenReturn(Map.of());
+
+    provider.onWebSocketConnect(session);
+
+    return new TestConnection(provider, remoteEndpoint);
+  }
+
+  private record TestConnection(WebSocketResourceProvider<TestPrincipal> provider, RemoteEndpoint remoteEndpoint) {
+
+    SubProtocol.WebSocketResponseMessage sendRequest(final String verb, final String path, final List<String> headers,
+        final Optional<byte[]> body) throws Exception {
+
+      final byte[] message = MESSAGE_FACTORY.createRequest(Optional.of(1L), verb, path, headers, body).toByteArray();
+
+      provider.onWebSocketBinary(message, 0, message.length);
+
+      final ArgumentCaptor<ByteBuffer> responseCaptor = ArgumentCaptor.forClass(ByteBuffer.class);
+      verify(remoteEndpoint, atLeastOnce()).sendBytesByFuture(responseCaptor.capture());
+
+      return SubProtocol.WebSocketMessage.parseFrom(responseCaptor.getValue().array()).getResponse();
+    }
+  }
+
+  public static class TestPrincipal implements Principal {
+
+    private final String name;
+
+    private TestPrincipal(final String name) {
+      this.name = name;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+  }
+
+  @Path("/v1")
+  public static class KeepAliveResource {
+
+    @GET
+    @Path("/keepalive")
+    public Response getKeepAlive(@Auth Optional<TestPrincipal> principal) {
+      return Response.ok().build();
+    }
+  }
+}
@@ -8,6 +8,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
 
 import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.AppenderBase;
 import ch.qos.logback.core.OutputStreamAppender;
 import ch.qos.logback.core.spi.DeferredProcessingAware;
 import io.dropwizard.logging.AbstractOutputStreamAppenderFactory;
@@ -17,6 +18,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.Response;
 import org.glassfish.jersey.internal.MapPropertiesDelegate;
 import org.glassfish.jersey.server.ContainerRequest;
@@ -51,6 +55,7 @@ public class WebSocketRequestLogTest {
     requestLoggerFactory.appenders = List.of(new ListAppenderFactory<>(listAppender));
 
     WebsocketRequestLog requestLog = requestLoggerFactory.build("test-logger");
+    requestLog.start();
     ContainerRequest request = new ContainerRequest(null, URI.create("/v1/test"), "GET",
         new WebSocketSecurityContext(new ContextPrincipal(sessionContext)), new MapPropertiesDelegate(new HashMap<>()),
         null);
@@ -75,6 +80,7 @@ public class WebSocketRequestLogTest {
     requestLoggerFactory.appenders = List.of(new ListAppenderFactory<>(listAppender));
 
     WebsocketRequestLog requestLog = requestLoggerFactory.build("test-logger");
+    requestLog.start();
     ContainerRequest request = new ContainerRequest(null, URI.create("/v1/test"), "GET",
         new WebSocketSecurityContext(new ContextPrincipal(sessionContext)), new MapPropertiesDelegate(new HashMap<>()),
         null);
@@ -95,6 +101,103 @@ public class WebSocketRequestLogTest {
     System.out.println(new String(listAppender.outputStream.toByteArray()));
   }
 
+  @Test
+  void testDropWhenFull() throws InterruptedException {
+    BlockingAppender appender = new BlockingAppender();
+    WebsocketRequestLog requestLog = new WebsocketRequestLog(4, 100, 1);
+    requestLog.addAppender(appender);
+    requestLog.start();
+
+    // Wait for the writer to pick up the first event and get stuck on it so the buffer can fill up
+    logFastPathRequest(requestLog);
+    appender.entered.await();
+
+    for (int i = 0; i < 14; i++) {
+      logFastPathRequest(requestLog);
+    }
+
+    assertThat(requestLog.getDroppedEventCount()).isEqualTo(10);
+    assertThat(requestLog.getSampledOutEventCount()).isZero();
+
+    appender.release.countDown();
+    requestLog.stop();
+
+    assertThat(appender.appended.get()).isEqualTo(5);
+  }
+
+  @Test
+  void testSampleWhenOverloaded() throws InterruptedException {
+    BlockingAppender appender = new BlockingAppender();
+    WebsocketRequestLog requestLog = new WebsocketRequestLog(16, 50, Integer.MAX_VALUE);
+    requestLog.addAppender(appender);
+    requestLog.start();
+
+    logFastPathRequest(requestLog);
+    appender.entered.await();
+
+    // Eight more fill the buffer to its threshold, and nearly everything after that is sampled out
+    for (int i = 0; i < 108; i++) {
+      logFastPathRequest(requestLog);
+    }
+
+    assertThat(requestLog.getSampledOutEventCount()).isEqualTo(100);
+    assertThat(requestLog.getDroppedEventCount()).isZero();
+
+    appender.release.countDown();
+    requestLog.stop();
+
+    assertThat(appender.appended.get()).isEqualTo(9);
+  }
+
+  @Test
+  void testWriteAfterStart() throws InterruptedException {
+    BlockingAppender appender = new BlockingAppender();
+    appender.release.countDown();
+
+    WebsocketRequestLog requestLog = new WebsocketRequestLog(16, 100, 1);
+    requestLog.addAppender(appender);
+
+    // Requests logged before the writer starts wait in the buffer
+    for (int i = 0; i < 3; i++) {
+      logFastPathRequest(requestLog);
+    }
+
+    assertThat(appender.entered.getCount()).isEqualTo(1);
+
+    requestLog.start();
+    requestLog.stop();
+
+    assertThat(appender.appended.get()).isEqualTo(3);
+  }
+
+  private static void logFastPathRequest(WebsocketRequestLog requestLog) {
+    requestLog.log("127.0.0.1", "GET", "/v1/keepalive", 200, 0, MultivaluedHashMap::new);
+  }
+
+  private static class BlockingAppender extends AppenderBase<WebsocketEvent> {
+
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger  appended = new AtomicInteger();
+
+    private BlockingAppender() {
+      start();
+    }
+
+    @Override
+    protected void append(WebsocketEvent event) {
+      entered.countDown();
+
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+
+      appended.incrementAndGet();
+    }
+  }
+
   private static class ListAppenderFactory<T extends DeferredProcessingAware> extends
       AbstractOutputStreamAppenderFactory<T> {
 
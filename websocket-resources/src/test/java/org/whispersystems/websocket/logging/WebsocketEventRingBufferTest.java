@@ -0,0 +1,112 @@
+/*
+ * Copyright 2021 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+package org.whispersystems.websocket.logging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.ws.rs.core.MultivaluedHashMap;
+import org.junit.jupiter.api.Test;
+
+class WebsocketEventRingBufferTest {
+
+  @Test
+  void testOfferAndDrain() {
+    final WebsocketEventRingBuffer buffer = new WebsocketEventRingBuffer(4);
+    assertThat(buffer.capacity()).isEqualTo(4);
+
+    for (int i = 0; i < 4; i++) {
+      assertThat(offer(buffer, "/v1/" + i)).isTrue();
+    }
+
+    assertThat(offer(buffer, "/v1/full")).isFalse();
+    assertThat(buffer.size()).isEqualTo(4);
+
+    final List<WebsocketEvent> events = new ArrayList<>();
+    assertThat(buffer.drain(events::add)).isEqualTo(4);
+    assertThat(buffer.size()).isZero();
+
+    assertThat(events).extracting(WebsocketEvent::getPath).containsExactly("/base/v1/0", "/base/v1/1", "/base/v1/2", "/base/v1/3");
+    assertThat(events.get(0).getTimestamp()).isEqualTo(1234);
+    assertThat(events.get(0).getStatusCode()).isEqualTo(200);
+    assertThat(events.get(0).getRequestHeader("User-Agent")).isEqualTo("Test");
+
+    // Records are reused on the next lap
+    for (int lap = 0; lap < 3; lap++) {
+      assertThat(offer(buffer, "/v1/lap" + lap)).isTrue();
+      assertThat(buffer.drain(events::add)).isEqualTo(1);
+    }
+
+    assertThat(events).extracting(WebsocketEvent::getPath).endsWith("/base/v1/lap2");
+  }
+
+  @Test
+  void testCapacityRoundsUp() {
+    assertThat(new WebsocketEventRingBuffer(5).capacity()).isEqualTo(8);
+    assertThat(new WebsocketEventRingBuffer(8192).capacity()).isEqualTo(8192);
+  }
+
+  @Test
+  void testConcurrentProducers() throws Exception {
+    final int producers = 8;
+    final int eventsPerProducer = 10_000;
+
+    final WebsocketEventRingBuffer buffer = new WebsocketEventRingBuffer(1024);
+    final ExecutorService executor = Executors.newFixedThreadPool(producers);
+    final CountDownLatch startLatch = new CountDownLatch(1);
+
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+
+      for (int producer = 0; producer < producers; producer++) {
+        final String path = "/" + producer;
+
+        futures.add(executor.submit(() -> {
+          startLatch.await();
+
+          for (int i = 0; i < eventsPerProducer; i++) {
+            while (!offer(buffer, path)) {
+              Thread.onSpinWait();
+            }
+          }
+
+          return null;
+        }));
+      }
+
+      startLatch.countDown();
+
+      final int[] eventsByProducer = new int[producers];
+      int drained = 0;
+
+      while (drained < producers * eventsPerProducer) {
+        drained += buffer.drain(event -> eventsByProducer[Integer.parseInt(event.getPath().substring("/base/".length()))]++);
+      }
+
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+
+      assertThat(buffer.drain(event -> {})).isZero();
+      assertThat(eventsByProducer).containsOnly(eventsPerProducer);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static boolean offer(final WebsocketEventRingBuffer buffer, final String path) {
+    return buffer.offer(1234, "127.0.0.1", "GET", "/base", path, 200, 0, () -> {
+      final MultivaluedHashMap<String, String> headers = new MultivaluedHashMap<>();
+      headers.add("User-Agent", "Test");
+
+      return headers;
+    });
+  }
+}